@@ -0,0 +1,93 @@
+/*
+ * Copyright 2020, Verizon Media.
+ * Licensed under the terms of the Apache 2.0 license.
+ * Please see LICENSE file in the project root for terms.
+ */
+
+package com.yahoo.oak;
+
+import com.yahoo.oak.common.OakCommonBuildersFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The latency of a get of a random key, by the chunk index of the map. Integer keys and values keep the map
+ * compact: about 28 bytes off-heap per key, and the direct entry arrays keep the chunks of 1B keys off the heap.
+ */
+public class ChunkIndexBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class BenchmarkState {
+
+        private OakMap<Integer, Integer> oakMap;
+
+        @Param({"10000000", "100000000", "1000000000"})
+        private int numRows;
+
+        @Param({"skiplist", "sortedArray"})
+        private String chunkIndex;
+
+        @Setup()
+        public void setup() {
+            oakMap = OakCommonBuildersFactory.getDefaultIntBuilder()
+                    .setMemoryCapacity(numRows * 32L + (1L << 30))
+                    .setDirectEntryArrays(true)
+                    .setSortedArrayChunkIndex(chunkIndex.equals("sortedArray"))
+                    .buildOrderedMap();
+            // in order, as in a bulk load
+            for (int i = 0; i < numRows; ++i) {
+                oakMap.zc().put(i, i);
+            }
+        }
+
+        @TearDown
+        public void tearDown() {
+            oakMap.close();
+            BlocksPool.clear();
+        }
+    }
+
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 5)
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @Fork(value = 1)
+    @Threads(8)
+    @Benchmark
+    public void get(Blackhole blackhole, BenchmarkState state) {
+        Integer key = ThreadLocalRandom.current().nextInt(state.numRows);
+        blackhole.consume(state.oakMap.get(key));
+    }
+
+    //java -jar -Xmx16g -XX:MaxDirectMemorySize=48g ./benchmarks/target/benchmarks.jar ChunkIndexBenchmark
+    //    -p numRows=100000000
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(ChunkIndexBenchmark.class.getSimpleName())
+                .forks(0)
+                .threads(8)
+                .build();
+
+        new Runner(opt).run();
+    }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2020, Verizon Media.
+ * Licensed under the terms of the Apache 2.0 license.
+ * Please see LICENSE file in the project root for terms.
+ */
+
+package com.yahoo.oak;
+
+import com.yahoo.oak.common.OakCommonBuildersFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of a mixed workload (80% gets, 10% puts, 10% removes) as the number of threads grows
+ * past 64, which used to be the maximal number of thread indices (release lists and taps) of the memory managers.
+ * The thread counts are set by the main method (or by -t in the command line), the throughput per thread should
+ * not drop sharply past 64 threads.
+ */
+public class ThreadScalingBenchmark {
+
+    private static final int[] THREAD_COUNTS = {16, 32, 64, 128, 256};
+
+    @State(Scope.Benchmark)
+    public static class BenchmarkState {
+
+        @Param({"1000000"})
+        private int numRows;
+
+        @Param({"SYNC_RECYCLE", "EPOCH_RECLAMATION"})
+        private MemoryManagerType valuesMemoryManager;
+
+        private OakMap<Integer, Integer> oak;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            oak = OakCommonBuildersFactory.getDefaultIntBuilder()
+                    .setValuesMemoryManager(valuesMemoryManager)
+                    .buildOrderedMap();
+            for (int i = 0; i < numRows; ++i) {
+                oak.zc().put(i, i);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void closeOak() {
+            oak.close();
+        }
+    }
+
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 5)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Fork(value = 1)
+    @Benchmark
+    public void mixed(Blackhole blackhole, BenchmarkState state) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Integer key = random.nextInt(state.numRows);
+        int op = random.nextInt(10);
+        if (op == 0) {
+            state.oak.zc().put(key, key);
+        } else if (op == 1) {
+            state.oak.zc().remove(key);
+        } else {
+            blackhole.consume(state.oak.get(key));
+        }
+    }
+
+    //java -jar -Xmx8g -XX:MaxDirectMemorySize=8g ./benchmarks/target/benchmarks.jar ThreadScaling -t 128
+    public static void main(String[] args) throws RunnerException {
+        for (int threads : THREAD_COUNTS) {
+            Options opt = new OptionsBuilder()
+                    .include(ThreadScalingBenchmark.class.getSimpleName())
+                    .forks(1)
+                    .threads(threads)
+                    .build();
+
+            new Runner(opt).run();
+        }
+    }
+
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2020, Verizon Media.
+ * Licensed under the terms of the Apache 2.0 license.
+ * Please see LICENSE file in the project root for terms.
+ */
+
+package com.yahoo.oak;
+
+import com.yahoo.oak.common.OakCommonBuildersFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the memory managers of the values on a read-mostly workload (95% gets, 5% puts of existing keys).
+ * With few (hot) keys many threads read the same values, so the read lock of SyncRecycleMemoryManager makes the
+ * headers' cache lines bounce between the cores, while the reads of EpochMemoryManager do not write to the headers.
+ */
+public class ValuesMemoryManagerBenchmark {
+
+    private static final long CAPACITY = 1L << 30;
+    private static final int PUT_PERCENTAGE = 5;
+
+    @State(Scope.Benchmark)
+    public static class BenchmarkState {
+
+        @Param({"100", "1000000"})
+        private int numRows;
+
+        @Param({"syncRecycle", "epoch", "nova"})
+        private String valuesMemoryManager;
+
+        private OakMap<Integer, Integer> oak;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            OakMapBuilder<Integer, Integer> builder = OakCommonBuildersFactory.getDefaultIntBuilder();
+            NativeMemoryAllocator allocator = new NativeMemoryAllocator(CAPACITY);
+            MemoryManager valuesMM;
+            switch (valuesMemoryManager) {
+                case "epoch":
+                    valuesMM = new EpochMemoryManager(allocator);
+                    break;
+                case "nova":
+                    valuesMM = new NovaMemoryManager(allocator);
+                    break;
+                default:
+                    valuesMM = new SyncRecycleMemoryManager(allocator);
+            }
+            OakSharedConfig<Integer, Integer> config =
+                    builder.buildSharedConfig(allocator, new NovaMemoryManager(allocator), valuesMM);
+            oak = new OakMap<>(config, Integer.MIN_VALUE, OrderedChunk.ORDERED_CHUNK_MAX_ITEMS_DEFAULT, false);
+
+            for (int i = 0; i < numRows; ++i) {
+                oak.zc().put(i, i);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void closeOak() {
+            oak.close();
+        }
+    }
+
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 10)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Fork(value = 1)
+    @Threads(8)
+    @Benchmark
+    public void readMostly(Blackhole blackhole, BenchmarkState state) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Integer key = random.nextInt(state.numRows);
+        if (random.nextInt(100) < PUT_PERCENTAGE) {
+            state.oak.zc().put(key, key);
+        } else {
+            blackhole.consume(state.oak.get(key));
+        }
+    }
+
+    //java -jar -Xmx8g -XX:MaxDirectMemorySize=8g ./benchmarks/target/benchmarks.jar ValuesMemoryManager
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(ValuesMemoryManagerBenchmark.class.getSimpleName())
+                .forks(1)
+                .threads(8)
+                .build();
+
+        new Runner(opt).run();
+    }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2020, Verizon Media.
+ * Licensed under the terms of the Apache 2.0 license.
+ * Please see LICENSE file in the project root for terms.
+ */
+
+package com.yahoo.oak;
+
+import com.yahoo.oak.common.OakCommonBuildersFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the on-heap allocations of single zero-copy operations.
+ * Run with the GC profiler (-prof gc) and look at gc.alloc.rate.norm, which is the number of bytes
+ * allocated per operation. The put of an existing key should allocate nothing (the context and the write buffer
+ * handed to the serializer are recycled per thread), except for the entry that the default chunk index of the
+ * ordered map (a ConcurrentSkipListMap) allocates for every floor search, which the sorted-array chunk index
+ * does not. The get should allocate only the returned OakUnscopedBuffer (with its key and value slices), which
+ * the caller may keep beyond the next operation of the thread.
+ */
+public class ZeroCopyAllocationBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class BenchmarkState {
+
+        @Param({"100000"})
+        private int numRows;
+
+        @Param({"map", "sortedArrayMap", "hash"})
+        private String mapType;
+
+        private ConcurrentZCMap<Integer, Integer> oak;
+        private Integer[] keys;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            OakMapBuilder<Integer, Integer> builder = OakCommonBuildersFactory.getDefaultIntBuilder();
+            oak = mapType.equals("hash") ? builder.buildHashMap()
+                    : builder.setSortedArrayChunkIndex(mapType.equals("sortedArrayMap")).buildOrderedMap();
+
+            keys = new Integer[numRows];
+            for (int i = 0; i < numRows; ++i) {
+                keys[i] = i;
+                oak.zc().put(keys[i], keys[i]);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void closeOak() {
+            oak.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        private ZeroCopyMap<Integer, Integer> zc;
+        private int i = 0;
+
+        @Setup
+        public void setup(BenchmarkState state) {
+            zc = state.oak.zc();
+        }
+
+        Integer nextKey(BenchmarkState state) {
+            return state.keys[i++ % state.numRows];
+        }
+    }
+
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 10)
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @Fork(value = 1)
+    @Threads(1)
+    @Benchmark
+    public void zcPut(BenchmarkState state, ThreadState threadState) {
+        Integer key = threadState.nextKey(state);
+        threadState.zc.put(key, key);
+    }
+
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 10)
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @Fork(value = 1)
+    @Threads(1)
+    @Benchmark
+    public void zcGet(Blackhole blackhole, BenchmarkState state, ThreadState threadState) {
+        OakUnscopedBuffer value = threadState.zc.get(threadState.nextKey(state));
+        blackhole.consume(value.getInt(0));
+    }
+
+    //java -jar -Xmx8g -XX:MaxDirectMemorySize=8g ./benchmarks/target/benchmarks.jar ZeroCopyAllocation -prof gc
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(ZeroCopyAllocationBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .forks(1)
+                .threads(1)
+                .build();
+
+        new Runner(opt).run();
+    }
+
+}
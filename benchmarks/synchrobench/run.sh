@@ -32,6 +32,7 @@ scenarios=(
   "50Pu50Delete_ZC"
   "25Put25Delete90Get_ZC"
   "05Put05Delete90Get_ZC"
+  "put-split-latency"
 )
 
 declare -A data=(
@@ -176,7 +177,7 @@ ARGS=$(${get_opt}\
         --long verify,consume-keys,consume-values,latency\
         --long output-path:,java-path:,duration:,iterations:,warmup:,heap-limit:,direct-limit:\
         --long range-ratio:,size:,threads:,scenario:,benchmark:\
-        --long gc:,java-mode:,key:,value:,key-size:,value-size:,fill-threads:,scan-length:\
+        --long gc:,java-mode:,key:,value:,key-size:,value-size:,fill-threads:,scan-length:,mmap-dir:\
         -s sh -n 'run' -- "$@"
 )
 if [ $? != 0 ]; then
@@ -212,6 +213,7 @@ while true; do
   --consume-keys ) flag_arguments="$flag_arguments --consume-keys"; shift ;;
   --consume-values ) flag_arguments="$flag_arguments --consume-values"; shift ;;
   --latency ) flag_arguments="$flag_arguments --latency"; shift ;;
+  --mmap-dir ) flag_arguments="$flag_arguments --mmap-dir $2"; shift 2 ;;
   -- ) shift; break ;;
   * ) break ;;
   esac
@@ -14,6 +14,8 @@ import com.yahoo.oak.synchrobench.contention.benchmark.Parameters;
 import com.yahoo.oak.synchrobench.maps.BenchOakMap;
 import org.openjdk.jmh.infra.Blackhole;
 
+import java.nio.file.Paths;
+
 
 public class OakBenchHash extends BenchOakMap {
     private OakHashMap<BenchKey, BenchValue> oakHash;
@@ -35,7 +37,9 @@ public class OakBenchHash extends BenchOakMap {
             // 2^28 * 24 = 6442450944 bytes ~= 6442451 KB ~= 6442 MB ~= 6.5 GB
             .setPreallocHashChunksNum(Parameters.confSmallFootprint ? FirstLevelHashArray.HASH_CHUNK_NUM_DEFAULT
                 : FirstLevelHashArray.HASH_CHUNK_NUM_DEFAULT * 16)
-            .setMemoryCapacity(OAK_MAX_OFF_MEMORY);
+            .setMemoryCapacity(OAK_MAX_OFF_MEMORY)
+            .setMemoryMappedBlocks(Parameters.confMmapDirectory.isEmpty() ? null
+                : Paths.get(Parameters.confMmapDirectory));
         // capable to keep 2^28 keys
         oakHash = builder.buildHashMap();
     }
@@ -10,9 +10,12 @@ import com.yahoo.oak.synchrobench.contention.abstractions.BenchKey;
 import com.yahoo.oak.synchrobench.contention.abstractions.BenchValue;
 import com.yahoo.oak.synchrobench.contention.abstractions.KeyGenerator;
 import com.yahoo.oak.synchrobench.contention.abstractions.ValueGenerator;
+import com.yahoo.oak.synchrobench.contention.benchmark.Parameters;
 import com.yahoo.oak.synchrobench.maps.BenchOakMap;
 import org.openjdk.jmh.infra.Blackhole;
 
+import java.nio.file.Paths;
+
 public class OakBenchMap extends BenchOakMap {
     private OakMap<BenchKey, BenchValue> oak;
 
@@ -25,7 +28,9 @@ public class OakBenchMap extends BenchOakMap {
     public void init() {
         OakMapBuilder<BenchKey, BenchValue> builder = new OakMapBuilder<>(keyGen, keyGen, valueGen, minKey)
             .setChunkMaxItems(OrderedChunk.ORDERED_CHUNK_MAX_ITEMS_DEFAULT)
-            .setMemoryCapacity(OAK_MAX_OFF_MEMORY);
+            .setMemoryCapacity(OAK_MAX_OFF_MEMORY)
+            .setMemoryMappedBlocks(Parameters.confMmapDirectory.isEmpty() ? null
+                : Paths.get(Parameters.confMmapDirectory));
         oak = builder.buildOrderedMap();
     }
 
@@ -24,6 +24,7 @@ public class Parameters {
     }
 
     public static boolean confSmallFootprint;
+    public static String confMmapDirectory;
 
     public static int confNumThreads;
     public static int confNumFillThreads;
@@ -77,7 +78,9 @@ public class Parameters {
         {"05Put05Delete90Get", "-a", "05", "-u", "10"},
         {"50Pu50Delete_ZC", "-a", "50", "-u", "100", "--buffer"},
         {"25Put25Delete90Get_ZC", "-a", "25", "-u", "50", "--buffer"},
-        {"05Put05Delete90Get_ZC", "-a", "05", "-u", "10", "--buffer"}
+        {"05Put05Delete90Get_ZC", "-a", "05", "-u", "10", "--buffer"},
+        // puts of (mostly) new keys, so the chunks are split all the time, with the put latency percentiles
+        {"put-split-latency", "-a", "0", "-u", "100", "--latency"}
     }).collect(
         Collectors.toMap(data -> data[0], data -> Arrays.copyOfRange(data, 1, data.length))
     );
@@ -91,6 +94,7 @@ public class Parameters {
      */
     public static void resetToDefault() {
         confSmallFootprint = false;
+        confMmapDirectory = "";
 
         confNumThreads = 1;
         confNumFillThreads = 1;
@@ -206,6 +210,8 @@ public class Parameters {
 
         printConf("--small-footprint", "Small footprint", "configure the map for a small footprint",
             confSmallFootprint, isHelp);
+        printConf("--mmap-dir directory", "Memory-mapped directory",
+            "back Oak's off-heap memory by files in this directory", confMmapDirectory, isHelp);
 
         printConf("--scenario", "Scenario", "use one of the pre defined scenarios",
             confScenario, isHelp);
@@ -264,6 +270,9 @@ public class Parameters {
                     case "--small-footprint":
                         confSmallFootprint = true;
                         break;
+                    case "--mmap-dir":
+                        confMmapDirectory = args[argNumber++];
+                        break;
                     case "--change":
                     case "-c":
                         confChange = true;
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2020, Verizon Media.
+ * Licensed under the terms of the Apache 2.0 license.
+ * Please see LICENSE file in the project root for terms.
+ */
+
+package com.yahoo.oak;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Spin, then yield, then park:
+ * - the first attempts spin-wait for exponentially growing numbers of iterations (1, 2, 4, ...), as the lock is
+ *   usually held for a short write of a small value;
+ * - the next attempts yield the processor, to let the lock holder run if it was descheduled;
+ * - the rest park the thread for exponentially growing times, bounded by maxParkNanos, so a hot key does not burn
+ *   whole cores.
+ */
+final class AdaptiveContentionStrategy implements ContentionStrategy {
+    static final int DEFAULT_SPIN_ATTEMPTS = 10;
+    static final int DEFAULT_YIELD_ATTEMPTS = 10;
+    static final long MIN_PARK_NANOS = 1_000;
+    static final long DEFAULT_MAX_PARK_NANOS = 1_000_000;
+    private static final int MAX_PARK_SHIFT = 20;
+
+    static final AdaptiveContentionStrategy DEFAULT = new AdaptiveContentionStrategy(
+            DEFAULT_SPIN_ATTEMPTS, DEFAULT_YIELD_ATTEMPTS, DEFAULT_MAX_PARK_NANOS);
+
+    // Thread.onSpinWait() exists from Java 9, a spin-wait iteration is an empty iteration without it
+    private static final MethodHandle ON_SPIN_WAIT = findOnSpinWait();
+
+    private final int spinAttempts;
+    private final int yieldAttempts;
+    private final long maxParkNanos;
+
+    AdaptiveContentionStrategy(int spinAttempts, int yieldAttempts, long maxParkNanos) {
+        if (spinAttempts < 0 || yieldAttempts < 0 || maxParkNanos < MIN_PARK_NANOS) {
+            throw new IllegalArgumentException("Invalid contention strategy parameters");
+        }
+        this.spinAttempts = spinAttempts;
+        this.yieldAttempts = yieldAttempts;
+        this.maxParkNanos = maxParkNanos;
+    }
+
+    private static MethodHandle findOnSpinWait() {
+        try {
+            return MethodHandles.lookup().findStatic(Thread.class, "onSpinWait", MethodType.methodType(void.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    private static void onSpinWait() {
+        if (ON_SPIN_WAIT != null) {
+            try {
+                ON_SPIN_WAIT.invokeExact();
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    @Override
+    public void await(int attempt) {
+        if (attempt < spinAttempts) {
+            for (int i = 0; i < (1 << attempt); i++) {
+                onSpinWait();
+            }
+        } else if (attempt < spinAttempts + yieldAttempts) {
+            Thread.yield();
+        } else {
+            int shift = Math.min(attempt - spinAttempts - yieldAttempts, MAX_PARK_SHIFT);
+            LockSupport.parkNanos(Math.min(MIN_PARK_NANOS << shift, maxParkNanos));
+        }
+    }
+}
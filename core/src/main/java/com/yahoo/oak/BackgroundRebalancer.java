@@ -0,0 +1,155 @@
+/*
+ * Copyright 2020, Verizon Media.
+ * Licensed under the terms of the Apache 2.0 license.
+ * Please see LICENSE file in the project root for terms.
+ */
+
+package com.yahoo.oak;
+
+import java.io.Closeable;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rebalances the chunks of an ordered map off the write path. A writer that finds that its chunk should be
+ * rebalanced (see {@code OrderedChunk.shouldRebalanceInBackground()}) only flags the chunk, and the background
+ * threads compact or split the flagged chunks, so the writer does not pay for the freeze, copy and relink of the
+ * rebalance. A chunk is split before it is full, so the puts seldom find a full chunk.
+ *
+ * A chunk is queued at most once until a background thread takes it, and it is rebalanced only if it still needs
+ * it: another thread may have rebalanced it inline in the meantime. The inline rebalance is still run when a chunk
+ * has no free entry for a put, or when an operation meets a chunk that is already being rebalanced, so a writer
+ * never waits for the background threads. A chunk whose background rebalance failed is not queued again: its writers
+ * rebalance it inline, as without the background rebalance.
+ */
+class BackgroundRebalancer<K, V> implements Closeable {
+
+    private static final long CLOSE_TIMEOUT_SECONDS = 10;
+
+    private final InternalOakMap<K, V> map;
+    // the delay of a background thread after each of its rebalances, zero for no delay
+    private final long pacingMicros;
+    private final BlockingQueue<OrderedChunk<K, V>> queue = new LinkedBlockingQueue<>();
+    private final ExecutorService executor;
+    private volatile boolean closed = false;
+
+    private final AtomicLong flagged = new AtomicLong(0);
+    private final AtomicLong rebalances = new AtomicLong(0);
+    private final AtomicLong failures = new AtomicLong(0);
+
+    /**
+     * @param map          the map to rebalance
+     * @param threads      the number of the background threads
+     * @param pacingMicros the delay of a background thread after each of its rebalances, zero for no delay
+     */
+    BackgroundRebalancer(InternalOakMap<K, V> map, int threads, long pacingMicros) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("The background rebalance requires at least one thread");
+        }
+        this.map = map;
+        this.pacingMicros = pacingMicros;
+        AtomicInteger threadId = new AtomicInteger(0);
+        executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "oak-rebalancer-" + threadId.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+        for (int i = 0; i < threads; i++) {
+            executor.execute(this::work);
+        }
+    }
+
+    /**
+     * Queues the chunk for the background rebalance, unless it is already queued.
+     */
+    void flag(OrderedChunk<K, V> c) {
+        if (c.rebalanceFlagged.compareAndSet(false, true)) {
+            queue.add(c);
+            flagged.incrementAndGet();
+        }
+    }
+
+    /**
+     * Drops the queued chunks, which are no longer in the map after its reset. NOT THREAD SAFE !!!
+     */
+    void clear() {
+        queue.clear();
+    }
+
+    private void work() {
+        while (!closed) {
+            OrderedChunk<K, V> c;
+            try {
+                c = queue.take();
+            } catch (InterruptedException e) {
+                return; // the rebalancer is being closed
+            }
+            // once taken, the chunk may be flagged again by a writer
+            c.rebalanceFlagged.set(false);
+            if (c.state() != BasicChunk.State.NORMAL || !c.shouldRebalanceInBackground()) {
+                continue; // already rebalanced (or being rebalanced) by another thread
+            }
+            // the off-heap keys read by the rebalance are not returned to the blocks provider meanwhile
+            map.config.memoryAllocator.enterRead();
+            try {
+                map.rebalanceBasic(c);
+            } catch (RuntimeException e) {
+                // a failure while the map is being closed is expected, otherwise it is counted and reported via the
+                // uncaught exception handler of the thread, and the chunk (possibly left frozen) is rebalanced by
+                // its writers
+                if (!closed) {
+                    c.backgroundRebalanceFailed = true;
+                    failures.incrementAndGet();
+                    Thread t = Thread.currentThread();
+                    t.getUncaughtExceptionHandler().uncaughtException(t, e);
+                }
+                continue;
+            } finally {
+                map.config.memoryAllocator.exitRead();
+            }
+            rebalances.incrementAndGet();
+            if (pacingMicros > 0) {
+                try {
+                    TimeUnit.MICROSECONDS.sleep(pacingMicros);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    // the number of chunks queued for the background rebalance
+    long getFlagged() {
+        return flagged.get();
+    }
+
+    // the number of rebalances run by the background threads
+    long getRebalances() {
+        return rebalances.get();
+    }
+
+    // the number of rebalances of the background threads that failed
+    long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * Stops the background threads, waiting for the running rebalances to end.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        queue.clear();
+    }
+}
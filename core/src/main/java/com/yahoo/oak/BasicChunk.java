@@ -7,6 +7,7 @@
 package com.yahoo.oak;
 
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 abstract class BasicChunk<K, V> {
@@ -19,6 +20,8 @@ abstract class BasicChunk<K, V> {
         RELEASED
     }
 
+    private static final long NOT_FROZEN = -1;
+
 
     /*-------------- Members --------------*/
     protected final OakSharedConfig<K, V> config;
@@ -29,6 +32,8 @@ abstract class BasicChunk<K, V> {
     protected final AtomicReference<State> state;
     private final AtomicReference<Rebalancer<K, V>> rebalancer;
     private final AtomicInteger pendingOps;
+    // the coalescings of the memory allocator when the chunk was frozen, see hasStaleValues()
+    private final AtomicLong frozenCoalescings;
     protected final int maxItems;
     protected final Statistics statistics;
 
@@ -46,6 +51,7 @@ abstract class BasicChunk<K, V> {
         this.creator = new AtomicReference<>(null);
         this.state = new AtomicReference<>(State.NORMAL);
         this.pendingOps = new AtomicInteger();
+        this.frozenCoalescings = new AtomicLong(NOT_FROZEN);
         this.rebalancer = new AtomicReference<>(null); // to be updated on rebalance
         this.statistics = new Statistics();
     }
@@ -155,6 +161,21 @@ abstract class BasicChunk<K, V> {
         while (pendingOps.get() != 0) {
             assert Boolean.TRUE;
         }
+        // set once, before the chunks that replace this chunk may release its values
+        frozenCoalescings.compareAndSet(NOT_FROZEN, config.memoryAllocator.coalescings());
+    }
+
+    /**
+     * The values of a frozen chunk are updated via the chunks that replace it, so its value references may be stale.
+     * Such a reference is still detected via the header of the value, unless the released value was coalesced
+     * with its free neighbours since the chunk was frozen (see {@code BlockMemoryAllocator.coalescings()}).
+     * Must be called between enterRead() and exitRead() of the memory allocator, for the following reads.
+     *
+     * @return true if the value references of this chunk cannot be read anymore
+     */
+    boolean hasStaleValues() {
+        long coalescings = frozenCoalescings.get();
+        return coalescings != NOT_FROZEN && coalescings != config.memoryAllocator.coalescings();
     }
 
     /**
@@ -226,7 +247,26 @@ abstract class BasicChunk<K, V> {
         // given old entry index (inside ctx) and new value, while old value is locked,
         // allocate new value, new value is going to be locked as well, write the new value
         allocateValue(ctx, newVal, true);
+        return linkMovedValue(ctx);
+    }
+
+    /**
+     * Copies the old value (inside ctx) as is to a newly allocated off-heap cut, and links it to the old entry.
+     * Used by the off-heap compaction, see {@code ValueUtils.relocate()}.
+     * The old value must be locked for write, the new value is going to be locked as well.
+     *
+     * @return true if the entry now points to the new value
+     */
+    boolean relocateExistingValue(ThreadContext ctx) {
+        int length = ctx.value.getLength();
+        ctx.newValue.getSlice().allocate(length, true);
+        ctx.isNewValueForMove = true;
+        DirectUtils.copyMemory(ctx.value.getAddress(), ctx.newValue.getAddress(), length);
+        return linkMovedValue(ctx);
+    }
 
+    // links the new value (inside ctx), which is allocated for move, to the old entry
+    private boolean linkMovedValue(ThreadContext ctx) {
         // in order to connect/overwrite the old entry to point to new value
         // we need to publish as in the normal write process
         if (!publish()) {
@@ -10,21 +10,39 @@ import java.util.concurrent.atomic.AtomicLong;
 
 class Block {
 
+    // the value of liveBytes once the block is retired by its allocator, see retire()
+    private static final long RETIRED = Long.MIN_VALUE;
+
     private final long blockMemAddress ;
 
     private final int capacity;
     private final AtomicLong allocated = new AtomicLong(0);
     private int id; // placeholder might need to be set in the future
+    // true if the entire unallocated part of the block is known to be zeroed.
+    // Otherwise, the memory is zeroed lazily, only when it is allocated.
+    // Changed only while the block is not used by any allocator.
+    private boolean zeroed;
+    // the number of bytes of this block in use by its allocator: taken from the block or from the free list,
+    // and not yet returned to the free list. RETIRED once the allocator gives the block back to its provider.
+    private final AtomicLong liveBytes = new AtomicLong(0);
+    // set while the off-heap compaction relocates the values out of this block, see Compactor
+    private volatile boolean evacuating;
 
     Block(long capacity) {
+        // The memory is not zeroed here, as zeroing the entire block has an overhead in clearing
+        // and touching every page. Instead, every allocated range is zeroed upon its allocation.
+        this(capacity, DirectUtils.allocateMemory(capacity), false);
+    }
+
+    // Used by subclasses that provide the block's memory by other means (e.g., a memory-mapped file),
+    // zeroed is true if the given memory is known to be zeroed
+    Block(long capacity, long blockMemAddress, boolean zeroed) {
         assert capacity > 0;
         assert capacity <= Integer.MAX_VALUE; // This is exactly 2GiB
         this.capacity = (int) capacity;
         this.id = NativeMemoryAllocator.INVALID_BLOCK_ID;
-        // Pay attention in allocateDirect the data is *zero'd out*
-        // which has an overhead in clearing and you end up touching every page
-        this.blockMemAddress  = DirectUtils.allocateMemory(capacity);
-        DirectUtils.setMemory(this.blockMemAddress, capacity, (byte) 0); // zero block's memory
+        this.blockMemAddress  = blockMemAddress;
+        this.zeroed = zeroed;
     }
 
     void setID(int id) {
@@ -34,6 +52,19 @@ class Block {
     // Block manages its linear allocation. Thread safe.
     // The returned buffer doesn't have all zero bytes.
     boolean allocate(BlockAllocationSlice s, final int size) {
+        return allocate(s, size, size);
+    }
+
+    // Same as above, but takes slotSize >= size bytes of the block, while the slice is associated with size bytes
+    boolean allocate(BlockAllocationSlice s, final int size, final int slotSize) {
+        int offset = allocateRegion(slotSize);
+        s.associateBlockAllocation(id, offset, size, blockMemAddress );
+        return true;
+    }
+
+    // Reserves the next size bytes of this block and returns their offset within the block. Thread safe.
+    // Used directly by the allocator to carve thread-local allocation buffers out of the block.
+    int allocateRegion(final int size) {
         assert size > 0;
         long offset = allocated.get();
         if (offset + size <= this.capacity) { // check is only an optimization
@@ -42,15 +73,75 @@ class Block {
         if (offset + size > this.capacity) {
             throw new OakOutOfMemoryException(String.format("Block %d is out of memory", id));
         }
-        s.associateBlockAllocation(id, (int) offset, size, blockMemAddress );
-        return true;
+        if (!acquireLiveBytes(size)) {
+            // the block was retired concurrently, the reserved range is never used
+            throw new OakOutOfMemoryException(String.format("Block %d was retired", id));
+        }
+        if (!zeroed) {
+            DirectUtils.setMemory(blockMemAddress + offset, size, (byte) 0); // lazily zero the allocated range
+        }
+        return (int) offset;
     }
 
     // use when this Block is no longer in any use, not thread safe
-    // It sets the limit to the capacity and the position to zero, and zeroes the memory
+    // It sets the position to zero, the memory is left dirty (to be zeroed lazily or by zero())
     void reset() {
-        DirectUtils.setMemory(this.blockMemAddress, capacity, (byte) 0); // zero block's memory
         allocated.set(0);
+        liveBytes.set(0);
+        evacuating = false;
+        zeroed = false;
+    }
+
+    // zeroes the entire block's memory, so later allocations do not need to zero it
+    // use when this Block is no longer in any use, not thread safe
+    void zero() {
+        DirectUtils.setMemory(this.blockMemAddress, capacity, (byte) 0); // zero block's memory
+        zeroed = true;
+    }
+
+    // Accounts for size more bytes of this block in use. Thread safe.
+    // Returns false if the block was already retired, then its memory must not be used.
+    boolean acquireLiveBytes(long size) {
+        while (true) {
+            long live = liveBytes.get();
+            if (live == RETIRED) {
+                return false;
+            }
+            if (liveBytes.compareAndSet(live, live + size)) {
+                return true;
+            }
+        }
+    }
+
+    // Accounts for size bytes of this block which are not in use anymore. Thread safe.
+    // Returns the number of bytes still in use.
+    long releaseLiveBytes(long size) {
+        long live = liveBytes.addAndGet(-size);
+        assert live >= 0;
+        return live;
+    }
+
+    // Marks the block as retired if none of its bytes are in use, so no further allocation is done in it.
+    // Returns true if the block was retired by this call. Thread safe.
+    boolean retire() {
+        return liveBytes.compareAndSet(0, RETIRED);
+    }
+
+    // the number of bytes of this block in use, or a negative number if the block was retired
+    long getLiveBytes() {
+        return liveBytes.get();
+    }
+
+    void setEvacuating(boolean evacuating) {
+        this.evacuating = evacuating;
+    }
+
+    boolean isEvacuating() {
+        return evacuating;
+    }
+
+    boolean isZeroed() {
+        return zeroed;
     }
 
     // return upperbound of bytes actually allocated for this block only, thread safe
@@ -65,6 +156,10 @@ class Block {
         DirectUtils.freeMemory(blockMemAddress);
     }
 
+    int getID() {
+        return id;
+    }
+
     long getStartMemAddress() {
         return blockMemAddress ;
     }
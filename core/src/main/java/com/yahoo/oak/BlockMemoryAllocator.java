@@ -28,8 +28,46 @@ interface BlockMemoryAllocator {
     // Returns the memory allocation of this OakMap (this Allocator)
     long allocated();
 
-    // Attaches the slice with its base address
-    void readMemoryAddress(Slice s);
+    // Attaches the slice with its base address.
+    // Returns false if the memory of the slice is not held by the allocator anymore, as it was released.
+    // Must be called between enterRead() and exitRead(), and the address is valid only until exitRead().
+    boolean readMemoryAddress(Slice s);
+
+    // Marks the calling thread as accessing the memory of this allocator, until the paired exitRead().
+    // A block of the allocator is not returned to its provider while a thread that may still access it
+    // did not exit. The calls may be nested, and must be paired. Thread safe.
+    void enterRead();
+
+    // Ends the access of the calling thread that started with the paired enterRead()
+    void exitRead();
+
+    // Returns the number of times the memory of a released allocation was coalesced into a bigger free range, so
+    // the header at its beginning may later be in the middle of another allocation, plus the number of blocks
+    // retired, whose IDs may later be given to other blocks. Such memory (and IDs) is not reused before
+    // the threads that entered until then exit. A reference that is kept after its exitRead() is trusted again only
+    // if this number did not change since the reference was validated, otherwise it needs to be looked up again.
+    // Thread safe.
+    long coalescings();
+
+    // Returns the size of the blocks of this allocator, which bounds the offset and length of an allocation
+    int blockSize();
+
+    // Returns the maximal number of bytes of the blocks of this allocator
+    long capacity();
+
+    // Sets the maximal number of bytes of the blocks of this allocator, thread safe.
+    // A capacity below the blocks currently held does not release them, but no new block is taken until enough
+    // of them are emptied, see isOverCapacity(). Throws IllegalArgumentException if the IDs of the blocks needed for
+    // the given capacity cannot be encoded in a reference.
+    void setCapacity(long capacity);
+
+    // Returns true if the blocks currently held by this allocator exceed its capacity
+    boolean isOverCapacity();
+
+    // Limits the IDs of the blocks of this allocator to the given maximum, as a memory manager using the allocator
+    // cannot encode bigger IDs in its references. Throws IllegalArgumentException if the maximum is too small for
+    // the capacity of the allocator.
+    void limitMaxBlockID(int maxBlockID);
 
     // Check if this Allocator was already closed
     boolean isClosed();
@@ -38,4 +76,9 @@ interface BlockMemoryAllocator {
     // To be used when the user structure needs to be cleared, without memory reallocation
     // NOT THREAD SAFE!!!
     void clear();
+
+    // Same as clear(), but keeps the blocks of the allocator for its next allocations,
+    // instead of returning them and taking new ones
+    // NOT THREAD SAFE!!!
+    void rewind();
 }
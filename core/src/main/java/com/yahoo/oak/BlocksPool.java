@@ -6,42 +6,78 @@
 
 package com.yahoo.oak;
 
+import com.google.common.annotations.Beta;
+
 import java.io.Closeable;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * The singleton Pool to pre-allocate and reuse blocks of off-heap memory. The singleton has lazy
- * initialization so the big memory is allocated only on demand when first Oak is used.
+ * A Pool to pre-allocate and reuse blocks of off-heap memory. By default, all the Oak instances share a singleton
+ * pool. The singleton has lazy initialization so the big memory is allocated only on demand when first Oak is used.
  * However it makes creation of the first Oak slower. This initialization is thread safe, thus
  * multiple concurrent Oak creations will result only in the one Pool.
+ *
+ * Oak instances with different needs (e.g., block sizes) may use their own pools, which are configured via
+ * {@link Builder} and given to {@code OakMapBuilder.setBlocksPool()}. Such a pool may be shared by several
+ * Oak instances, and should be closed by its creator once all of them are closed.
+ *
+ * Blocks are not zeroed synchronously: a new block is zeroed lazily (upon allocation from it), and a returned block
+ * is zeroed by a background thread, so creating and closing an Oak does not stall on zeroing entire blocks.
+ * The same background thread also refills the pool with new (pre-touched) blocks when the number of remaining
+ * blocks drops below a low watermark, so a writer rarely needs to allocate a block synchronously.
  */
-final class BlocksPool implements BlocksProvider, Closeable {
+@Beta
+public final class BlocksPool implements BlocksProvider, Closeable {
 
     private static BlocksPool instance = null;
     private final ConcurrentLinkedQueue<Block> blocks = new ConcurrentLinkedQueue<>();
+    // returned blocks, waiting to be zeroed by the zeroing thread (they still can be given to a new allocator)
+    private final ConcurrentLinkedQueue<Block> dirtyBlocks = new ConcurrentLinkedQueue<>();
+    // runs the background tasks: zeroing the returned blocks and refilling the pool
+    private final ExecutorService backgroundExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "oak-blocks-pool");
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile boolean closed = false;
 
-    // TODO change the following constants to be configurable
+    private volatile boolean asyncRefill = true;
+    private final AtomicBoolean refillScheduled = new AtomicBoolean(false);
+    // set while a zeroing task is queued or running, so the blocks returned meanwhile are zeroed by the same task
+    private final AtomicBoolean zeroingScheduled = new AtomicBoolean(false);
+    // the number of times a writer found the pool empty, and allocated new blocks synchronously
+    private final AtomicLong syncAllocations = new AtomicLong(0);
+    // the number of blocks allocated by the background refill
+    private final AtomicLong asyncAllocatedBlocks = new AtomicLong(0);
 
     static final long MB = 1L << 20;
     static final long GB = 1L << 30;
 
-    // The memory size to pre-allocate on initialization.
-    private static final long PRE_ALLOC_SIZE_BYTES = 0;
+    // The default memory size to pre-allocate on initialization.
+    static final long DEFAULT_PRE_ALLOC_SIZE_BYTES = 0;
 
-    // The minimal memory size to be allocated at once when not enough memory is available.
+    // The default minimal memory size to be allocated at once when not enough memory is available.
     // If the used block size is larger than this number, exactly one block will be allocated.
     // Otherwise, more than one block might be allocated at once.
-    private static final long NEW_ALLOC_MIN_SIZE_BYTES = 8L * MB;
+    static final long DEFAULT_NEW_ALLOC_MIN_SIZE_BYTES = 8L * MB;
+
+    // When the unused memory in the pool drops below this size (by default), the pool is refilled in the
+    // background (by at least the new allocation minimal size).
+    static final long DEFAULT_REFILL_WATERMARK_SIZE_BYTES = 8L * MB;
 
-    // Upper/lower thresholds to the quantity of the unused memory to reserve in the pool for future use.
-    // When the unused memory quantity reaches HIGH_RESERVED_SIZE_BYTES, some memory is freed
-    // such that the remaining unused memory will be LOW_RESERVED_SIZE_BYTES.
-    private static final long LOW_RESERVED_SIZE_BYTES = 2L * GB;
-    private static final long HIGH_RESERVED_SIZE_BYTES = 4L * GB;
+    // Default upper/lower thresholds to the quantity of the unused memory to reserve in the pool for future use.
+    // When the unused memory quantity reaches the high threshold, some memory is freed
+    // such that the remaining unused memory will be the low threshold.
+    static final long DEFAULT_LOW_RESERVED_SIZE_BYTES = 2L * GB;
+    static final long DEFAULT_HIGH_RESERVED_SIZE_BYTES = 4L * GB;
 
     // The default size of a single memory block to be allocated at once.
-    // This block size (currently) imposes off-heap memory limit of 128GB
-    // for all Oak instances working via NativeAllocator with this pool
+    // With this block size, the references of an Oak instance address up to 4TB by default, and more for a bigger
+    // capacity (see ReferenceCodecSyncRecycle and SeqExpandMemoryManager)
     static final int DEFAULT_BLOCK_SIZE_BYTES = 128 * (int) MB;
 
     /**
@@ -51,9 +87,79 @@ final class BlocksPool implements BlocksProvider, Closeable {
     private final int blockSizeBytes;
 
     private final int newAllocBlocks;
+    private final int refillWatermarkBlocks;
     private final int lowReservedBlocks;
     private final int highReservedBlocks;
 
+    /**
+     * Configures and creates a new (non singleton) BlocksPool.
+     */
+    public static final class Builder {
+        private int blockSizeBytes = DEFAULT_BLOCK_SIZE_BYTES;
+        private long preAllocSizeBytes = DEFAULT_PRE_ALLOC_SIZE_BYTES;
+        private long newAllocMinSizeBytes = DEFAULT_NEW_ALLOC_MIN_SIZE_BYTES;
+        private long refillWatermarkSizeBytes = DEFAULT_REFILL_WATERMARK_SIZE_BYTES;
+        private long lowReservedSizeBytes = DEFAULT_LOW_RESERVED_SIZE_BYTES;
+        private long highReservedSizeBytes = DEFAULT_HIGH_RESERVED_SIZE_BYTES;
+
+        /**
+         * @param blockSizeBytes the size of the blocks of the pool (up to 2GB)
+         */
+        public Builder setBlockSize(int blockSizeBytes) {
+            this.blockSizeBytes = blockSizeBytes;
+            return this;
+        }
+
+        /**
+         * @param preAllocSizeBytes the memory size to allocate when the pool is created
+         */
+        public Builder setPreAllocSize(long preAllocSizeBytes) {
+            this.preAllocSizeBytes = preAllocSizeBytes;
+            return this;
+        }
+
+        /**
+         * @param newAllocMinSizeBytes the minimal memory size to allocate at once when the pool runs out of blocks
+         */
+        public Builder setNewAllocMinSize(long newAllocMinSizeBytes) {
+            this.newAllocMinSizeBytes = newAllocMinSizeBytes;
+            return this;
+        }
+
+        /**
+         * @param refillWatermarkSizeBytes the pool is refilled in the background when its unused memory drops
+         *                                 below this size
+         */
+        public Builder setRefillWatermarkSize(long refillWatermarkSizeBytes) {
+            this.refillWatermarkSizeBytes = refillWatermarkSizeBytes;
+            return this;
+        }
+
+        /**
+         * Sets the thresholds of the unused memory to keep in the pool. When the unused memory reaches the high
+         * threshold, some memory is freed such that the remaining unused memory will be the low threshold.
+         * @param lowReservedSizeBytes  the low threshold
+         * @param highReservedSizeBytes the high threshold
+         */
+        public Builder setReservedSize(long lowReservedSizeBytes, long highReservedSizeBytes) {
+            this.lowReservedSizeBytes = lowReservedSizeBytes;
+            this.highReservedSizeBytes = highReservedSizeBytes;
+            return this;
+        }
+
+        public BlocksPool build() {
+            if (blockSizeBytes <= 0) {
+                throw new IllegalArgumentException("The block size must be positive");
+            }
+            if (lowReservedSizeBytes < 0 || highReservedSizeBytes < lowReservedSizeBytes) {
+                throw new IllegalArgumentException(
+                        "The reserved sizes must satisfy 0 <= lowReservedSize <= highReservedSize");
+            }
+            return new BlocksPool(blockSizeBytes, preAllocSizeBytes, newAllocMinSizeBytes,
+                    refillWatermarkSizeBytes, lowReservedSizeBytes, highReservedSizeBytes);
+        }
+    }
+
     // not thread safe, private constructor; should be called only once
     private BlocksPool() {
         this(DEFAULT_BLOCK_SIZE_BYTES);
@@ -61,11 +167,18 @@ final class BlocksPool implements BlocksProvider, Closeable {
 
     // Used internally and for tests.
     private BlocksPool(int blockSizeBytes) {
+        this(blockSizeBytes, DEFAULT_PRE_ALLOC_SIZE_BYTES, DEFAULT_NEW_ALLOC_MIN_SIZE_BYTES,
+                DEFAULT_REFILL_WATERMARK_SIZE_BYTES, DEFAULT_LOW_RESERVED_SIZE_BYTES, DEFAULT_HIGH_RESERVED_SIZE_BYTES);
+    }
+
+    private BlocksPool(int blockSizeBytes, long preAllocSizeBytes, long newAllocMinSizeBytes,
+                       long refillWatermarkSizeBytes, long lowReservedSizeBytes, long highReservedSizeBytes) {
         this.blockSizeBytes = blockSizeBytes;
-        this.newAllocBlocks = convertSizeToBlocks(NEW_ALLOC_MIN_SIZE_BYTES, 1);
-        this.lowReservedBlocks = convertSizeToBlocks(LOW_RESERVED_SIZE_BYTES, 0);
-        this.highReservedBlocks = convertSizeToBlocks(HIGH_RESERVED_SIZE_BYTES, this.lowReservedBlocks + 1);
-        alloc(convertSizeToBlocks(PRE_ALLOC_SIZE_BYTES, 0));
+        this.newAllocBlocks = convertSizeToBlocks(newAllocMinSizeBytes, 1);
+        this.refillWatermarkBlocks = convertSizeToBlocks(refillWatermarkSizeBytes, 1);
+        this.lowReservedBlocks = convertSizeToBlocks(lowReservedSizeBytes, 0);
+        this.highReservedBlocks = convertSizeToBlocks(highReservedSizeBytes, this.lowReservedBlocks + 1);
+        alloc(convertSizeToBlocks(preAllocSizeBytes, 0));
     }
 
     private int convertSizeToBlocks(long sizeBytes, int minBlocks) {
@@ -103,9 +216,7 @@ final class BlocksPool implements BlocksProvider, Closeable {
                 return;
             }
 
-            while (instance.blocks.size() > 0) {
-                instance.blocks.poll().clean();
-            }
+            instance.cleanBlocks();
         }
     }
 
@@ -143,18 +254,80 @@ final class BlocksPool implements BlocksProvider, Closeable {
             if (!noMoreBlocks) {
                 b = blocks.poll();
             }
+            if (b == null) {
+                // a block that was not zeroed yet is preferred over allocating a new one, it is zeroed lazily
+                b = dirtyBlocks.poll();
+                noMoreBlocks = (b == null);
+            }
 
             if (noMoreBlocks || b == null) {
-                synchronized (BlocksPool.class) { // can be easily changed to lock-free
+                synchronized (this) { // can be easily changed to lock-free
                     if (blocks.isEmpty()) {
                         alloc(newAllocBlocks);
+                        syncAllocations.incrementAndGet();
                     }
                 }
             }
         }
+        scheduleRefillIfNeeded();
         return b;
     }
 
+    // Schedules a background refill if the number of remaining blocks is below the low watermark
+    private void scheduleRefillIfNeeded() {
+        if (!asyncRefill || numOfRemainingBlocks() >= refillWatermarkBlocks) {
+            return;
+        }
+        // only one refill task at a time
+        if (!refillScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        synchronized (this) {
+            if (closed) {
+                refillScheduled.set(false);
+                return;
+            }
+            backgroundExecutor.execute(this::refill);
+        }
+    }
+
+    // Runs in the background thread: allocates new blocks until the low watermark is reached
+    private void refill() {
+        try {
+            while (asyncRefill && !closed && numOfRemainingBlocks() < refillWatermarkBlocks) {
+                for (int i = 0; i < newAllocBlocks; i++) {
+                    Block b = new Block(blockSizeBytes);
+                    b.zero(); // pre-touch all the pages, so the writers do not take the page faults
+                    synchronized (this) {
+                        if (closed) {
+                            b.clean();
+                            return;
+                        }
+                        blocks.add(b);
+                    }
+                    asyncAllocatedBlocks.incrementAndGet();
+                }
+            }
+        } finally {
+            refillScheduled.set(false);
+        }
+    }
+
+    // Enables/disables the background refill of the pool (enabled by default)
+    void setAsyncRefill(boolean asyncRefill) {
+        this.asyncRefill = asyncRefill;
+    }
+
+    // The number of times a writer allocated blocks synchronously, since the pool was empty
+    long getSyncAllocations() {
+        return syncAllocations.get();
+    }
+
+    // The number of blocks allocated by the background refill
+    long getAsyncAllocatedBlocks() {
+        return asyncAllocatedBlocks.get();
+    }
+
     /**
      * Returns a single Block to the Pool, decreases the Pool if needed
      * Assumes block is not used by any concurrent thread, otherwise thread-safe
@@ -162,14 +335,52 @@ final class BlocksPool implements BlocksProvider, Closeable {
     @Override
     public void returnBlock(Block b) {
         b.reset();
-        blocks.add(b);
-        if (blocks.size() > highReservedBlocks) { // too many unused blocks
-            synchronized (BlocksPool.class) { // can be easily changed to lock-free
-                while (blocks.size() > lowReservedBlocks) {
-                    this.blocks.poll().clean();
+        dirtyBlocks.add(b);
+        if (numOfRemainingBlocks() > highReservedBlocks) { // too many unused blocks
+            synchronized (this) { // can be easily changed to lock-free
+                while (numOfRemainingBlocks() > lowReservedBlocks) {
+                    // prefer freeing the blocks that were not zeroed yet
+                    Block toFree = dirtyBlocks.poll();
+                    if (toFree == null) {
+                        toFree = blocks.poll();
+                    }
+                    if (toFree == null) {
+                        break;
+                    }
+                    toFree.clean();
                 }
             }
         }
+        synchronized (this) {
+            if (closed) {
+                // the pool was closed (also possibly before this call), so no one else frees the returned block
+                cleanBlocks();
+            } else if (zeroingScheduled.compareAndSet(false, true)) { // only one zeroing task at a time
+                backgroundExecutor.execute(this::zeroDirtyBlocks);
+            }
+        }
+    }
+
+    // Runs in the background thread: zeroes the returned blocks and moves them to the ready blocks queue
+    private void zeroDirtyBlocks() {
+        do {
+            try {
+                Block b;
+                while ((b = dirtyBlocks.poll()) != null) {
+                    b.zero();
+                    synchronized (this) {
+                        if (closed) {
+                            b.clean();
+                        } else {
+                            blocks.add(b);
+                        }
+                    }
+                }
+            } finally {
+                zeroingScheduled.set(false);
+            }
+            // a block returned after the last poll, but before the flag was reset, did not schedule a task
+        } while (!dirtyBlocks.isEmpty() && zeroingScheduled.compareAndSet(false, true));
     }
 
     /**
@@ -180,8 +391,26 @@ final class BlocksPool implements BlocksProvider, Closeable {
      */
     @Override
     public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        backgroundExecutor.shutdown();
+        cleanBlocks();
+    }
+
+    // Releases the memory of all the blocks in the pool
+    private void cleanBlocks() {
+        while (!dirtyBlocks.isEmpty()) {
+            Block b = dirtyBlocks.poll();
+            if (b != null) {
+                b.clean();
+            }
+        }
         while (!blocks.isEmpty()) {
-            blocks.poll().clean();
+            Block b = blocks.poll();
+            if (b != null) {
+                b.clean();
+            }
         }
     }
 
@@ -194,8 +423,8 @@ final class BlocksPool implements BlocksProvider, Closeable {
         }
     }
 
-    // used only for testing
+    // does not include a block that is being zeroed at the moment
     int numOfRemainingBlocks() {
-        return blocks.size();
+        return blocks.size() + dirtyBlocks.size();
     }
 }
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2020, Verizon Media.
+ * Licensed under the terms of the Apache 2.0 license.
+ * Please see LICENSE file in the project root for terms.
+ */
+
+package com.yahoo.oak;
+
+/**
+ * The index of the ordered chunks of an {@link InternalOakMap}, by their minimal keys, for a fast navigation to
+ * the chunk of a key. The index is not updated atomically with the chunks list upon a rebalance: a chunk that was
+ * found through the index might already be replaced (and its successors should be checked via the chunks list),
+ * and a new chunk might not be indexed yet. Every single operation is atomic.
+ */
+interface ChunkIndex<K, V> {
+
+    /**
+     * @return the chunk with the greatest minimal key which is lower than or equal to the given key,
+     * or null if there is no such chunk
+     */
+    OrderedChunk<K, V> floor(K key);
+
+    /**
+     * @return the chunk with the greatest minimal key which is strictly lower than the given key,
+     * or null if there is no such chunk
+     */
+    OrderedChunk<K, V> lower(K key);
+
+    /**
+     * @return the chunk with the greatest minimal key which is strictly lower than the minimal key of the given chunk,
+     * or null if there is no such chunk
+     */
+    OrderedChunk<K, V> lower(OrderedChunk<K, V> chunk);
+
+    /**
+     * @return the chunk with the lowest minimal key
+     */
+    OrderedChunk<K, V> first();
+
+    /**
+     * @return the chunk with the greatest minimal key
+     */
+    OrderedChunk<K, V> last();
+
+    /**
+     * Indexes the given chunk, unless a chunk with the same minimal key is already indexed.
+     */
+    void putIfAbsent(OrderedChunk<K, V> chunk);
+
+    /**
+     * Replaces the given old chunk with a new chunk which has the same minimal key, only if the old chunk is indexed.
+     */
+    void replace(OrderedChunk<K, V> oldChunk, OrderedChunk<K, V> newChunk);
+
+    /**
+     * Removes the given chunk, only if it is indexed.
+     */
+    void remove(OrderedChunk<K, V> chunk);
+
+    /**
+     * Removes all the chunks, and indexes the given first chunk.
+     * NOT THREAD SAFE !!!
+     */
+    void reset(OrderedChunk<K, V> first);
+
+    /**
+     * @return the number of indexed chunks
+     */
+    int size();
+}
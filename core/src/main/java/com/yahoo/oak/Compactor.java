@@ -0,0 +1,200 @@
+/*
+ * Copyright 2020, Verizon Media.
+ * Licensed under the terms of the Apache 2.0 license.
+ * Please see LICENSE file in the project root for terms.
+ */
+
+package com.yahoo.oak;
+
+import java.io.Closeable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Online off-heap compaction. A long-lived map tends to end up with many blocks that hold only a small portion
+ * of live data, and such blocks cannot be returned to the blocks pool.
+ * A compaction pass selects the sparsest blocks and marks them as evacuating (their free ranges are not reused),
+ * relocates their live values to other blocks (see {@code ValueUtils.relocate()}), and frees the relocated
+ * off-heap cuts. The emptied blocks are then returned to the pool by the allocator.
+ *
+ * Only values are relocated: a block that also holds keys is emptied only after its keys are released. Hence, a map
+ * built with the compaction set allocates its keys from other blocks, see {@code OakMapBuilder.setCompaction()}.
+ * The passes run periodically on a background daemon thread (or on demand via {@code compact()}),
+ * and the relocation rate is limited, to bound the impact on the foreground operations.
+ */
+class Compactor implements Closeable {
+
+    static final double DEFAULT_MAX_LIVE_RATIO = 0.25;
+    static final long DEFAULT_MAX_BYTES_PER_SECOND = 64L * 1024 * 1024;
+    // the maximal number of blocks evacuated by a single pass
+    static final int MAX_BLOCKS_PER_PASS = 16;
+    private static final long CLOSE_TIMEOUT_SECONDS = 10;
+
+    private final InternalOakBasics<?, ?> map;
+    private final NativeMemoryAllocator allocator;
+    // the allocator of the keys, if they are allocated from other blocks than the values, or null
+    private final NativeMemoryAllocator keysAllocator;
+    private final SyncRecycleMemoryManager valuesMemoryManager;
+    // a block is evacuated if at most this portion of its capacity is in use
+    private final double maxLiveRatio;
+    // the relocation rate limit, zero for no limit
+    private final long maxBytesPerSecond;
+    // runs the periodic passes, null if the passes are only run on demand
+    private final ScheduledExecutorService executor;
+
+    private final AtomicLong passes = new AtomicLong(0);
+    private final AtomicLong relocatedValues = new AtomicLong(0);
+    private final AtomicLong relocatedBytes = new AtomicLong(0);
+    private final AtomicLong failedPasses = new AtomicLong(0);
+    // the bytes returned by the allocators before the compaction started
+    private final long initialReturnedBytes;
+
+    // the state of the running pass, used for limiting its rate
+    private long passStartNanos;
+    private long passRelocatedBytes;
+
+    /**
+     * @param map               the map to compact, its values must be managed by SyncRecycleMemoryManager
+     *                          on top of NativeMemoryAllocator
+     * @param intervalMillis    the delay between two background passes, zero to run the passes only on demand
+     * @param maxLiveRatio      a block is evacuated if at most this portion of its capacity is in use
+     * @param maxBytesPerSecond the relocation rate limit, zero for no limit
+     */
+    Compactor(InternalOakBasics<?, ?> map, long intervalMillis, double maxLiveRatio, long maxBytesPerSecond) {
+        MemoryManager mm = map.getValuesMemoryManager();
+        if (!(mm instanceof SyncRecycleMemoryManager)
+                || !(mm.getBlockMemoryAllocator() instanceof NativeMemoryAllocator)) {
+            throw new IllegalArgumentException("Off-heap compaction requires values managed by "
+                    + "SyncRecycleMemoryManager on top of NativeMemoryAllocator");
+        }
+        this.map = map;
+        this.valuesMemoryManager = (SyncRecycleMemoryManager) mm;
+        this.allocator = (NativeMemoryAllocator) mm.getBlockMemoryAllocator();
+        this.maxLiveRatio = maxLiveRatio;
+        this.maxBytesPerSecond = maxBytesPerSecond;
+        BlockMemoryAllocator keys = map.getKeysMemoryManager().getBlockMemoryAllocator();
+        this.keysAllocator = (keys != allocator && keys instanceof NativeMemoryAllocator)
+                ? (NativeMemoryAllocator) keys : null;
+        this.initialReturnedBytes = returnedBytes();
+
+        if (intervalMillis > 0) {
+            executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "oak-compactor");
+                t.setDaemon(true);
+                return t;
+            });
+            executor.scheduleWithFixedDelay(this::backgroundPass, intervalMillis, intervalMillis,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            executor = null;
+        }
+    }
+
+    /**
+     * Runs a single compaction pass. Passes are serialized.
+     *
+     * @return the number of bytes of the values relocated by the pass
+     */
+    synchronized long compact() {
+        if (allocator.isClosed()) {
+            return 0;
+        }
+        int[] evacuated = allocator.startEvacuation(maxLiveRatio, MAX_BLOCKS_PER_PASS);
+        if (evacuated.length == 0) {
+            return 0;
+        }
+        passStartNanos = System.nanoTime();
+        passRelocatedBytes = 0;
+        long relocated;
+        try {
+            relocated = map.relocateValues(allocator::isEvacuating, this::onRelocation);
+            // free the relocated off-heap cuts now, so the evacuated blocks can be returned
+            valuesMemoryManager.flushReleaseList();
+        } finally {
+            allocator.endEvacuation(evacuated);
+        }
+        passes.incrementAndGet();
+        relocatedBytes.addAndGet(relocated);
+        return relocated;
+    }
+
+    private void backgroundPass() {
+        try {
+            compact();
+        } catch (RuntimeException e) {
+            // a failure while the map is being closed is expected, otherwise it is counted and reported via the
+            // uncaught exception handler of the thread, which is not terminated, so the next pass tries again
+            if (!allocator.isClosed()) {
+                failedPasses.incrementAndGet();
+                Thread t = Thread.currentThread();
+                t.getUncaughtExceptionHandler().uncaughtException(t, e);
+            }
+        }
+    }
+
+    // Invoked for every relocated value, sleeps if the pass relocates faster than the rate limit
+    private void onRelocation(int length) {
+        relocatedValues.incrementAndGet();
+        if (maxBytesPerSecond <= 0) {
+            return;
+        }
+        passRelocatedBytes += length;
+        long dueNanos = passStartNanos
+                + (long) ((double) passRelocatedBytes / maxBytesPerSecond * TimeUnit.SECONDS.toNanos(1));
+        long sleepNanos = dueNanos - System.nanoTime();
+        if (sleepNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(sleepNanos);
+            } catch (InterruptedException e) {
+                // the compaction is being closed, relocateValues() stops on the interrupt
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // the number of passes that evacuated at least one block
+    long getPasses() {
+        return passes.get();
+    }
+
+    long getRelocatedValues() {
+        return relocatedValues.get();
+    }
+
+    long getRelocatedBytes() {
+        return relocatedBytes.get();
+    }
+
+    // the number of background passes that failed
+    long getFailedPasses() {
+        return failedPasses.get();
+    }
+
+    // The number of bytes of the blocks returned to the pool since the compaction started.
+    // This includes blocks emptied by removals, not only by the relocation.
+    long getReclaimedBytes() {
+        return returnedBytes() - initialReturnedBytes;
+    }
+
+    private long returnedBytes() {
+        return allocator.returnedBytes() + ((keysAllocator == null) ? 0 : keysAllocator.returnedBytes());
+    }
+
+    /**
+     * Stops the background passes, waiting for a running pass to end.
+     */
+    @Override
+    public void close() {
+        if (executor == null) {
+            return;
+        }
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
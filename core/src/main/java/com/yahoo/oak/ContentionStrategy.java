@@ -0,0 +1,36 @@
+/*
+ * Copyright 2020, Verizon Media.
+ * Licensed under the terms of the Apache 2.0 license.
+ * Please see LICENSE file in the project root for terms.
+ */
+
+package com.yahoo.oak;
+
+import com.google.common.annotations.Beta;
+
+/**
+ * How a thread waits for a contended off-heap lock of a value, e.g., while another thread writes the value,
+ * before its next attempt to acquire the lock. Set via {@link OakMapBuilder#setContentionStrategy}.
+ */
+@Beta
+public interface ContentionStrategy {
+
+    /**
+     * Retries immediately, burning a core while the lock is contended.
+     */
+    ContentionStrategy BUSY_SPIN = attempt -> { };
+
+    /**
+     * Waits before the next attempt to acquire the lock.
+     * @param attempt the number of failed attempts of the current acquisition, starting at zero
+     */
+    void await(int attempt);
+
+    /**
+     * @return a strategy that spins with an exponential backoff first, then yields the processor,
+     * and then parks the thread for an exponentially growing, bounded, time (the default)
+     */
+    static ContentionStrategy adaptive() {
+        return AdaptiveContentionStrategy.DEFAULT;
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2020, Verizon Media.
+ * Licensed under the terms of the Apache 2.0 license.
+ * Please see LICENSE file in the project root for terms.
+ */
+
+package com.yahoo.oak;
+
+import java.io.Closeable;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Allocates the off-heap entry arrays of a map (see {@code OakMapBuilder.setDirectEntryArrays()}), so the GC does
+ * not have to scan and copy them. The arrays are allocated from a dedicated allocator on the blocks provider of the
+ * map, so they are not affected by clearing (or rewinding) the allocator of the keys and values.
+ *
+ * An array is freed only after its chunk is released by a rebalance (or is dropped without being published), see
+ * {@code retire()}. Every operation reads the chunks between enterRead() and exitRead() of the allocator of the map,
+ * so the array is retired with an epoch of that allocator, and is not freed before the threads that entered until
+ * then exit.
+ * An iterator may still hold a released chunk between two of its steps, and read the array in a later step (to find
+ * where to continue, see {@code InternalOakMap.OrderedIter.initAfterRebalance()}). As the iterator keeps the chunk
+ * reachable while it uses it, a retired array is freed only once the GC found it unreachable as well.
+ * The arrays of the chunks that are never retired (e.g., of a hash map) are freed when the map is closed.
+ */
+class DirectEntryArrays implements Closeable {
+
+    private static final long NOT_RETIRED = -1;
+
+    private final NativeMemoryAllocator allocator;
+    // the allocator whose readers may access the arrays, and whose epochs the arrays are retired with
+    private final NativeMemoryAllocator epochs;
+    // the arrays need no header, as they are accessed only by their chunks
+    private final SeqExpandMemoryManager memoryManager;
+    private final ReferenceQueue<EntryArrayDirect> queue = new ReferenceQueue<>();
+    // the references of the allocated arrays, by their addresses (keeps the references reachable)
+    private final Map<Long, ArrayReference> references = new ConcurrentHashMap<>();
+    // the arrays which are both retired and unreachable, to be freed once their epoch is safe
+    private final Queue<ArrayReference> pending = new ConcurrentLinkedQueue<>();
+
+    // the off-heap memory of an entry array, to be freed once it is retired and unreachable
+    private static final class ArrayReference extends PhantomReference<EntryArrayDirect> {
+        private final Slice slice;
+        private final long address;
+        private long retireEpoch = NOT_RETIRED;
+        private boolean unreachable = false;
+
+        ArrayReference(EntryArrayDirect array, Slice slice, ReferenceQueue<EntryArrayDirect> queue) {
+            super(array, queue);
+            this.slice = slice;
+            this.address = slice.getAddress();
+        }
+
+        // Both return true if the array became pending by this call, i.e., the other condition was already met
+        synchronized boolean markRetired(long epoch) {
+            if (retireEpoch != NOT_RETIRED) {
+                return false;
+            }
+            retireEpoch = epoch;
+            return unreachable;
+        }
+
+        synchronized boolean markUnreachable() {
+            unreachable = true;
+            return retireEpoch != NOT_RETIRED;
+        }
+
+        synchronized long retireEpoch() {
+            return retireEpoch;
+        }
+    }
+
+    /**
+     * The arrays are retired with the epochs of their own allocator, used only for testing.
+     * @param capacity       the maximal number of bytes of the entry arrays
+     * @param blocksProvider the blocks provider of the map
+     */
+    DirectEntryArrays(long capacity, BlocksProvider blocksProvider) {
+        // no thread-local allocation buffers, as the arrays are allocated rarely (upon chunk creation)
+        this.allocator = new NativeMemoryAllocator(capacity, blocksProvider, 0);
+        this.epochs = allocator;
+        this.memoryManager = new SeqExpandMemoryManager(allocator);
+    }
+
+    /**
+     * The entry arrays count against the capacity of the map: the blocks of both allocators together do not
+     * exceed it. The arrays are retired with the epochs of the allocator of the map.
+     * @param mapAllocator   the allocator of the keys and values of the map
+     * @param blocksProvider the blocks provider of the map
+     */
+    DirectEntryArrays(NativeMemoryAllocator mapAllocator, BlocksProvider blocksProvider) {
+        // no thread-local allocation buffers, as the arrays are allocated rarely (upon chunk creation)
+        this.allocator = new NativeMemoryAllocator(mapAllocator.capacity(), blocksProvider, 0);
+        this.epochs = mapAllocator;
+        this.memoryManager = new SeqExpandMemoryManager(allocator);
+        allocator.shareCapacity(mapAllocator);
+    }
+
+    /**
+     * Allocates a zeroed entry array. Thread safe.
+     *
+     * @param entryCount how many entries should the array keep at maximum
+     * @param fieldCount the number of fields (64bit) in each entry
+     * @throws IllegalArgumentException if the array is larger than a block
+     */
+    EntryArrayDirect allocate(int entryCount, int fieldCount) {
+        freeRetired();
+        Slice s = memoryManager.getEmptySlice();
+        s.allocate(entryCount * fieldCount * Long.BYTES, false);
+        EntryArrayDirect array = new EntryArrayDirect(s.getAddress(), entryCount, fieldCount);
+        // a reused off-heap cut is not zeroed by the allocator
+        array.clear();
+        ArrayReference ar = new ArrayReference(array, s, queue);
+        references.put(ar.address, ar);
+        return array;
+    }
+
+    /**
+     * Frees the given array once no thread may access it anymore: the threads that entered the allocator of the map
+     * until now exited, and the array is unreachable. Must be called once no new operation can reach the array.
+     * Thread safe, and idempotent.
+     */
+    void retire(EntryArrayDirect array) {
+        ArrayReference ar = references.get(array.address());
+        if (ar != null && ar.markRetired(epochs.retireEpoch())) {
+            pending.add(ar);
+        }
+        freeRetired();
+    }
+
+    /**
+     * Frees the retired arrays which no thread may access anymore. Thread safe.
+     */
+    void freeRetired() {
+        Reference<? extends EntryArrayDirect> r;
+        while ((r = queue.poll()) != null) {
+            ArrayReference ar = (ArrayReference) r;
+            if (ar.markUnreachable()) {
+                pending.add(ar);
+            }
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+        for (ArrayReference ar : pending) {
+            // removing it from the queue succeeds in a single thread
+            if (epochs.isSafe(ar.retireEpoch()) && pending.remove(ar)) {
+                references.remove(ar.address);
+                if (!allocator.isClosed()) {
+                    ar.slice.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of off-heap bytes of the entry arrays, including the retired ones which were not freed yet
+     */
+    long allocated() {
+        return allocator.allocated();
+    }
+
+    /**
+     * Sets the maximal number of bytes of the entry arrays, see {@code BlockMemoryAllocator.setCapacity()}.
+     */
+    void setCapacity(long capacity) {
+        allocator.setCapacity(capacity);
+    }
+
+    /**
+     * @return true if the blocks of the entry arrays (and of the allocator whose capacity they share) exceed
+     * their capacity
+     */
+    boolean isOverCapacity() {
+        return allocator.isOverCapacity();
+    }
+
+    // used only for testing
+    int numOfArrays() {
+        return references.size();
+    }
+
+    @Override
+    public void close() {
+        allocator.close();
+        references.clear();
+        pending.clear();
+    }
+}
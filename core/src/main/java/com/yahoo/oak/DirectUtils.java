@@ -10,8 +10,10 @@ import sun.misc.Unsafe;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 
 /**
  * Support read/write API to direct memory address.
@@ -232,6 +234,16 @@ public final class DirectUtils {
         return sizeBytes;
     }
 
+    /**
+     * Copies memory from one direct memory address to another.
+     * @param srcAddress the source memory address
+     * @param dstAddress the target memory address
+     * @param bytes the number of bytes to copy
+     */
+    public static void copyMemory(long srcAddress, long dstAddress, long bytes) {
+        UNSAFE.copyMemory(srcAddress, dstAddress, bytes);
+    }
+
     /**
      * Wraps a memory address as a direct byte buffer.
      * @param address the source memory address to wrap
@@ -251,6 +263,46 @@ public final class DirectUtils {
         return bb;
     }
 
+    /**
+     * Returns the memory address of a direct byte buffer.
+     * @param buffer a direct byte buffer
+     * @return the address of the first byte of the buffer's memory
+     */
+    public static long getAddress(ByteBuffer buffer) {
+        assert buffer.isDirect();
+        try {
+            return ADDRESS.getLong(buffer);
+        } catch (IllegalAccessException e) {
+            // This should never happen because the field is set as accessible.
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Unmaps a memory-mapped buffer immediately, instead of waiting for the buffer to be garbage collected.
+     * The buffer (and any address within it) must not be accessed afterwards.
+     * @param buffer the memory-mapped buffer to unmap
+     */
+    public static void unmap(MappedByteBuffer buffer) {
+        try {
+            Method invokeCleaner;
+            try {
+                // Java 9 and later
+                invokeCleaner = Unsafe.class.getMethod("invokeCleaner", ByteBuffer.class);
+            } catch (NoSuchMethodException e) {
+                // Java 8: the buffer is a sun.nio.ch.DirectBuffer which exposes its cleaner
+                Method getCleaner = buffer.getClass().getMethod("cleaner");
+                getCleaner.setAccessible(true);
+                Object cleaner = getCleaner.invoke(buffer);
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+                return;
+            }
+            invokeCleaner.invoke(UNSAFE, buffer);
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     /**
      * Combines two integers into one long where the first argument is placed in the lower four bytes.
      * Each integer is written in its native endianness.
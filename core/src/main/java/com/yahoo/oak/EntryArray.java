@@ -55,10 +55,23 @@ public class EntryArray<K, V> {
     EntryArray(OakSharedConfig<K, V> config, int additionalFieldCount, int entriesCapacity) {
         this.config = config;
         // +2 for key and value references that always exist
-        this.array = new EntryArrayHeap(entriesCapacity, additionalFieldCount + 2);
+        this.array = (config.directEntryArrays != null)
+                ? config.directEntryArrays.allocate(entriesCapacity, additionalFieldCount + 2)
+                : new EntryArrayHeap(entriesCapacity, additionalFieldCount + 2);
         this.numOfEntries = new AtomicInteger(0);
     }
 
+    /**
+     * Frees an off-heap entry array once no thread may access it anymore, see {@code DirectEntryArrays.retire()}.
+     * Must be called once the array is not reachable by new operations, i.e., its chunk was released or was never
+     * published.
+     */
+    void retireArray() {
+        if (config.directEntryArrays != null) {
+            config.directEntryArrays.retire((EntryArrayDirect) array);
+        }
+    }
+
     /**
      * Brings the array to its initial state with all zeroes, and reset the number of entries
      * Used when we want to empty the structure without reallocating all the objects/memory
@@ -182,9 +195,9 @@ public class EntryArray<K, V> {
         int nextIndex = currentIndex;
         while (!isNotZero && isIndexInBound(++nextIndex)) {
 
-            isNotZero = getEntryFieldLong(nextIndex, KEY_REF_OFFSET) != 0 ||
-                        getEntryFieldLong(nextIndex, VALUE_REF_OFFSET) != 0 ||
-                        getEntryFieldLong(nextIndex, OPT_FIELD_OFFSET) != 0;
+            isNotZero = array.getEntryFieldLong(nextIndex, KEY_REF_OFFSET) != 0 ||
+                        array.getEntryFieldLong(nextIndex, VALUE_REF_OFFSET) != 0 ||
+                        array.getEntryFieldLong(nextIndex, OPT_FIELD_OFFSET) != 0;
         }
         if (isIndexInBound(nextIndex)) {
             return nextIndex;
@@ -355,10 +368,26 @@ public class EntryArray<K, V> {
      * @param keyBuffer the off-heap KeyBuffer to update with the new allocation
      */
     void writeKey(K key, KeyBuffer keyBuffer) {
+        allocateKey(key, keyBuffer);
+        ScopedWriteBuffer.serialize(keyBuffer.getSlice(), key, config.keySerializer);
+    }
+
+    /**
+     * Allocate and serialize (writes) the key of an operation to the KeyBuffer of its context,
+     * via the recycled write buffer of the context.
+     *
+     * @param ctx the context of the operation
+     * @param key the key to write
+     */
+    void writeKey(ThreadContext ctx, K key) {
+        allocateKey(key, ctx.key);
+        ScopedWriteBuffer.serialize(ctx.keyWriteBuffer, ctx.key.getSlice(), key, config.keySerializer);
+    }
+
+    private void allocateKey(K key, KeyBuffer keyBuffer) {
         int keySize = config.keySerializer.calculateSize(key);
         keyBuffer.getSlice().allocate(keySize, false);
         assert keyBuffer.isAssociated();
-        ScopedWriteBuffer.serialize(keyBuffer.getSlice(), key, config.keySerializer);
     }
 
     /**
@@ -381,7 +410,7 @@ public class EntryArray<K, V> {
         ctx.newValue.getSlice().allocate(valueDataSize, writeForMove);
         ctx.isNewValueForMove = writeForMove;
 
-        ScopedWriteBuffer.serialize(ctx.newValue.getSlice(), value, config.valueSerializer);
+        ScopedWriteBuffer.serialize(ctx.valueWriteBuffer, ctx.newValue.getSlice(), value, config.valueSerializer);
     }
 
     /**
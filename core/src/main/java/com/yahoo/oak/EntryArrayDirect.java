@@ -6,20 +6,14 @@
 
 package com.yahoo.oak;
 
-import sun.nio.ch.DirectBuffer;
-
-import java.nio.ByteBuffer;
-
 /**
- * Stores the entry array as a direct buffer (off-heap).
+ * Stores the entry array off-heap, in memory allocated by {@code DirectEntryArrays}.
  */
 public class EntryArrayDirect implements EntryArrayInternal {
 
-    // We store the buffer object here to avoid the buffer collection by the GC
-    // The buffer is initialized to 0 - this is important!
-    private final ByteBuffer buffer;
-
     // The direct address to the entries
+    // The memory is initialized to 0 - this is important!
+    // It is freed only once its chunk is released, and no thread may access it anymore, see DirectEntryArrays.
     private final long entriesAddress;
 
     // Number of primitive fields in each entry
@@ -29,14 +23,19 @@ public class EntryArrayDirect implements EntryArrayInternal {
     private final int entryCount;
 
     /**
+     * @param entriesAddress the direct address of (entryCount * fieldCount) longs
      * @param entryCount how many entries should this instance keep at maximum
      * @param fieldCount the number of fields (64bit) in each entry
      */
-    EntryArrayDirect(int entryCount, int fieldCount) {
+    EntryArrayDirect(long entriesAddress, int entryCount, int fieldCount) {
         this.fieldCount = fieldCount;
         this.entryCount = entryCount;
-        this.buffer = ByteBuffer.allocateDirect(entryCount * fieldCount * Long.BYTES);
-        this.entriesAddress = ((DirectBuffer) this.buffer).address();
+        this.entriesAddress = entriesAddress;
+    }
+
+    // the direct address of the entries, which identifies the array in DirectEntryArrays
+    long address() {
+        return entriesAddress;
     }
 
     /**
@@ -70,7 +69,7 @@ public class EntryArrayDirect implements EntryArrayInternal {
     /** {@inheritDoc} */
     @Override
     public void clear() {
-        DirectUtils.UNSAFE.setMemory(null, entriesAddress, buffer.capacity(), (byte) 0);
+        DirectUtils.UNSAFE.setMemory(null, entriesAddress, (long) entryCount * fieldCount * Long.BYTES, (byte) 0);
     }
 
     /** {@inheritDoc} */
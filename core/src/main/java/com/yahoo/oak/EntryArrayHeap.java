@@ -54,7 +54,7 @@ public class EntryArrayHeap implements EntryArrayInternal {
     /** {@inheritDoc} */
     @Override
     public int fieldCount() {
-        return entryCount;
+        return fieldCount;
     }
 
     /** {@inheritDoc} */
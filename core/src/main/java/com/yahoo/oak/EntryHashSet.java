@@ -318,14 +318,16 @@ class EntryHashSet<K, V> extends EntryArray<K, V> {
         // start from given hash index
         // and check the next `collisionChainLength` indexes if previous index is occupied
         int collisionChainLengthLocal = collisionChainLength.get();
+        // the context may be reused by a retry of the operation, forget the previously found entry
+        ctx.invalidate();
 
         // as far as we didn't check more than `collisionChainLength` indexes
         for (int i = 0; i < collisionChainLengthLocal; i++) {
-            // thread context comes invalidated
             ctx.entryIndex = (idx + i) % array.entryCount(); // check the entry candidate, cyclic increase
             ctx.keyHashAndUpdateCnt = getKeyHashAndUpdateCounter(ctx.entryIndex);
             long keyReference = getKeyReference(ctx.entryIndex);
             if (keyReference == config.keysMemoryManager.getInvalidReference()) {
+                ctx.invalidate();
                 return false; // there is no such a key and there is no need to look forward
             }
 
@@ -347,11 +349,13 @@ class EntryHashSet<K, V> extends EntryArray<K, V> {
                     // either INSERT_NOT_FINALIZED or DELETED_NOT_FINALIZED or DELETED
                     // However from lookUp point of view the value (and the entry) is invalid in each of
                     // the cases
+                    ctx.invalidate();
                     return false;
                 }
                 // if we came till here, the entry (key of which we read in at the beginning) wasn't
                 // deleted. Check if it wasn't deleted later
                 if (ctx.keyHashAndUpdateCnt != getKeyHashAndUpdateCounter(ctx.entryIndex)) {
+                    ctx.invalidate();
                     return false;
                 }
                 ctx.entryState = EntryState.VALID;
@@ -514,7 +518,7 @@ class EntryHashSet<K, V> extends EntryArray<K, V> {
 
         // Write given key object "key" (to off-heap) as a serialized key, referenced by entry
         // that was set in this context ({@code ctx}).
-        writeKey(key, ctx.key);
+        writeKey(ctx, key);
 
         synchronized (mapOfCleanEntries) {
             // set the appropriate position in the bit map, indicating the entry is not zero
@@ -28,6 +28,9 @@ import java.util.concurrent.atomic.AtomicInteger;
  *     |                  The encoding of key and value can be different                  |
  * ---------------------------------------------------------------------------------------|
  *   2 | Next: entry index of the entry following this entry                              |
+ * ---------------------------------------------------------------------------------------|
+ *   3 | Key Prefix: optional, an order-preserving prefix of the key, exists only if the   |
+ *     |             key prefixes are enabled (see OakMapBuilder.setKeyPrefixes())        |
  * ----------------------------------------------------------------------------------------
  *
  * Internal class, package visibility
@@ -38,14 +41,21 @@ class EntryOrderedSet<K, V> extends EntryArray<K, V> {
 
     /***
      * NEXT - the next index of this entry (one integer). Must be with offset 0, otherwise, copying an entire
-     * entry should be fixed (In function {@code copyPartOfEntries}, search for "LABEL").
+     * entry should be fixed (In function {@code copyEntry}).
      */
     private static final int NEXT_FIELD_OFFSET = 2;
 
+    /***
+     * KEY_PREFIX - the prefix of the key of this entry, written before the entry is linked to the list,
+     * so a search can compare it instead of the off-heap key
+     */
+    private static final int KEY_PREFIX_FIELD_OFFSET = 3;
+
     // the size of the head in longs
     // how much it takes to keep the index of the first item in the list, after the head
     // (not necessarily first in the array!)
     private static final int ADDITIONAL_FIELDS = 1;  // # of primitive fields in each item of entries array
+    private static final int ADDITIONAL_FIELDS_WITH_KEY_PREFIX = 2;
 
     // location of the first (head) node
     private final AtomicInteger headEntryIndex = new AtomicInteger(INVALID_ENTRY_INDEX);
@@ -53,6 +63,9 @@ class EntryOrderedSet<K, V> extends EntryArray<K, V> {
     // points to next free index of entry array, counted in "entries" and not in integers
     private final AtomicInteger nextFreeIndex;
 
+    // whether the entries keep the prefixes of their keys
+    private final boolean keyPrefixes;
+
     /*----------------- Constructor -------------------*/
 
     /**
@@ -61,8 +74,9 @@ class EntryOrderedSet<K, V> extends EntryArray<K, V> {
      * @param entriesCapacity how many entries should this EntryOrderedSet keep at maximum
      */
     EntryOrderedSet(OakSharedConfig<K, V> config, int entriesCapacity) {
-        super(config, ADDITIONAL_FIELDS, entriesCapacity);
+        super(config, config.keyPrefixes ? ADDITIONAL_FIELDS_WITH_KEY_PREFIX : ADDITIONAL_FIELDS, entriesCapacity);
         this.nextFreeIndex = new AtomicInteger( 0);
+        this.keyPrefixes = config.keyPrefixes;
     }
 
     int getLastEntryIndex() {
@@ -93,6 +107,21 @@ class EntryOrderedSet<K, V> extends EntryArray<K, V> {
         array.setEntryFieldLong(ei, NEXT_FIELD_OFFSET, next);
     }
 
+    /**
+     * @return whether the entries keep the prefixes of their keys, see {@code OakComparator.keyPrefix()}
+     */
+    boolean hasKeyPrefixes() {
+        return keyPrefixes;
+    }
+
+    /**
+     * getKeyPrefix returns the key prefix of the entry given by entry index "ei".
+     * Should be called only if hasKeyPrefixes() is true.
+     */
+    long getKeyPrefix(int ei) {
+        return array.getEntryFieldLong(ei, KEY_PREFIX_FIELD_OFFSET);
+    }
+
     /**
      * Set the index of the first entry in the linked list,
      * when there is no concurrency (i.e. rebalance)
@@ -158,7 +187,10 @@ class EntryOrderedSet<K, V> extends EntryArray<K, V> {
         ctx.entryIndex = ei;
         // Write given key object "key" (to off-heap) as a serialized key, referenced by entry
         // that was set in this context ({@code ctx}).
-        writeKey(key, ctx.key);
+        writeKey(ctx, key);
+        if (keyPrefixes) {
+            array.setEntryFieldLong(ctx.entryIndex, KEY_PREFIX_FIELD_OFFSET, config.comparator.keyPrefix(key));
+        }
         // The entry key reference is set. The value reference is already set to zero, because
         // the entries array is initialized that way (see specs).
         setKeyReference(ctx.entryIndex, ctx.key.getSlice().getReference());
@@ -222,55 +254,43 @@ class EntryOrderedSet<K, V> extends EntryArray<K, V> {
      * next entry index via set or CAS, but does it only as a result of the user request.
      * */
 
+    /**
+     * setCopiedEntries sets this (empty) EntryOrderedSet to hold the given number of entries, linked in the order
+     * of their entry indexes, before the entries are written via {@code copyEntry()}.
+     * <p>
+     * Note: NOT THREAD SAFE
+     */
+    void setCopiedEntries(int numOfCopiedEntries) {
+        nextFreeIndex.set(numOfCopiedEntries);
+        numOfEntries.set(numOfCopiedEntries);
+        headEntryIndex.set(numOfCopiedEntries == 0 ? INVALID_ENTRY_INDEX : 0);
+    }
+
     /**
      * copyEntry copies one entry from source EntryOrderedSet (at source entry index "srcEntryIdx")
-     * to this EntryOrderedSet.
-     * The destination entry index is chosen according to this nextFreeIndex which is increased with
-     * each copy. Deleted entry (marked on-heap or off-heap) is not copied (disregarded).
+     * to the entry index "destEntryIdx" of this EntryOrderedSet, and links it to the following entry index
+     * (see {@code setCopiedEntries()}). The source entry is copied even if it is deleted.
      * <p>
-     * The next pointers of the entries are requested to be set by the user if needed.
+     * Different entries can be copied concurrently, by different threads.
      *
-     * @param tempValue   a reusable buffer object for internal temporary usage
      * @param srcEntryOrderedSet another EntryOrderedSet to copy from
      * @param srcEntryIdx the entry index to copy from {@code srcEntryOrderedSet}
-     * @return false when this EntryOrderedSet is full
-     * <p>
-     * Note: NOT THREAD SAFE
+     * @param destEntryIdx the entry index to copy to, lower than the number of copied entries
      */
-    boolean copyEntry(ValueBuffer tempValue, EntryOrderedSet<K, V> srcEntryOrderedSet, int srcEntryIdx) {
-        if (srcEntryIdx == INVALID_ENTRY_INDEX) {
-            return false;
-        }
-
+    void copyEntry(EntryOrderedSet<K, V> srcEntryOrderedSet, int srcEntryIdx, int destEntryIdx) {
         assert srcEntryOrderedSet.isIndexInBound(srcEntryIdx);
+        assert destEntryIdx < nextFreeIndex.get();
 
-        // don't increase the nextFreeIndex yet, as the source entry might not be copies
-        int destEntryIndex = nextFreeIndex.get();
-
-        if (!isIndexInBound(destEntryIndex)) {
-            return false;
+        // ARRAY COPY: both the key and the value references, which are the first two fields of an entry
+        array.copyEntryFrom(srcEntryOrderedSet.array, srcEntryIdx, destEntryIdx, 2);
+        if (keyPrefixes) {
+            array.setEntryFieldLong(destEntryIdx, KEY_PREFIX_FIELD_OFFSET,
+                    srcEntryOrderedSet.getKeyPrefix(srcEntryIdx));
         }
+        int next = (destEntryIdx + 1 < nextFreeIndex.get()) ? destEntryIdx + 1 : INVALID_ENTRY_INDEX;
+        array.setEntryFieldLong(destEntryIdx, NEXT_FIELD_OFFSET, next);
 
-        if (srcEntryOrderedSet.isValueDeleted(tempValue, srcEntryIdx)) {
-            return true;
-        }
-
-        assert config.valuesMemoryManager.isReferenceConsistent(tempValue.getSlice().getReference());
-
-        // ARRAY COPY: using next as the base of the entry
-        // copy both the key and the value references and integer for future use => 5 integers via array copy
-        // the first field in an entry is next, and it is not copied since it should be assigned elsewhere
-        // therefore, to copy the rest of the entry we use the offset of next (which we assume is 0) and
-        // add 1 to start the copying from the subsequent field of the entry.
-        array.copyEntryFrom(srcEntryOrderedSet.array, srcEntryIdx, destEntryIndex, 2);
-
-        assert config.valuesMemoryManager.isReferenceConsistent(getValueReference(destEntryIndex));
-        assert config.keysMemoryManager.isReferenceConsistent(getKeyReference(destEntryIndex));
-
-        // now it is the time to increase nextFreeIndex
-        nextFreeIndex.getAndIncrement();
-        numOfEntries.getAndIncrement();
-        return true;
+        assert config.keysMemoryManager.isReferenceConsistent(getKeyReference(destEntryIdx));
     }
 
     boolean isEntrySetValidAfterRebalance() {
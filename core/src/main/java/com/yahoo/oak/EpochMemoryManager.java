@@ -0,0 +1,340 @@
+/*
+ * Copyright 2020, Verizon Media.
+ * Licensed under the terms of the Apache 2.0 license.
+ * Please see LICENSE file in the project root for terms.
+ */
+
+package com.yahoo.oak;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A memory manager based on epoch-based reclamation, for read-mostly data.
+ * It keeps the off-heap header and the reference encoding of SyncRecycleMemoryManager, but readers do not take the
+ * read lock (a CAS on the header, whose cache line then bounces between the reading cores). Instead, a reader
+ * announces the epoch it entered and the header it reads in its own (padded) announcement slots, and validates the
+ * header after the announcement.
+ *
+ * - A writer takes the write lock of the header as before, and then waits until no other thread announces a read
+ *   of that header. A reader that announces after the write lock was taken sees the lock and waits for the writer.
+ * - Deleting or moving a value does not change its data, so it does not wait for the readers. Instead, a released
+ *   off-heap cut is retired with the current epoch, and it is freed only once all the threads have left the older
+ *   epochs, i.e., no reader may still be reading it.
+ *
+ * A thread may announce up to MAX_ANNOUNCED_READS reads at once, further nested reads fall back to the read lock.
+ * A write scans the announcements of all the thread indices, so its cost grows with the number of threads that
+ * access the map, which suits read-mostly data.
+ * The retired cuts are freed only by the retiring threads, so the background reclamation of the release lists
+ * (see SyncRecycleMemoryManager.startBackgroundReclamation()) is not used, which is checked by OakMapBuilder.
+ */
+class EpochMemoryManager extends SyncRecycleMemoryManager {
+    static final int MAX_ANNOUNCED_READS = 4;
+
+    private static final long QUIESCENT = 0; // the epoch of a thread which reads nothing
+    private static final long NO_ADDRESS = 0;
+    private static final int NO_SLOT = -1;
+    // the announcements of a thread: its epoch followed by the headers it reads
+    private static final int EPOCH_SLOT = 0;
+    private static final int FIRST_ADDRESS_SLOT = 1;
+
+    private final ThreadSlotArray announcements;
+    private final AtomicLong globalEpoch = new AtomicLong(1);
+    private final List<RetireList> retireLists;
+
+    // the off-heap cuts retired by a thread, which are not freed yet
+    private static final class RetireList {
+        private final List<SliceEpoch> retired = new ArrayList<>(RELEASE_LIST_LIMIT);
+        // the list size upon which the next reclamation is done. The cuts that cannot be freed yet are left in the
+        // list, so the reclamation (which also increases the global version) is not repeated on every retirement.
+        private int reclaimSize = RELEASE_LIST_LIMIT;
+
+        // Returns true if the list reached the size of the next reclamation
+        boolean add(SliceEpoch s) {
+            retired.add(s);
+            return retired.size() >= reclaimSize;
+        }
+
+        boolean isEmpty() {
+            return retired.isEmpty();
+        }
+
+        void clear() {
+            retired.clear();
+            reclaimSize = RELEASE_LIST_LIMIT;
+        }
+    }
+
+    EpochMemoryManager(BlockMemoryAllocator allocator) {
+        this(allocator, VARIABLE_DATA_LENGTH);
+    }
+
+    EpochMemoryManager(BlockMemoryAllocator allocator, int fixedDataLength) {
+        this(allocator, fixedDataLength, ContentionStrategy.adaptive());
+    }
+
+    EpochMemoryManager(BlockMemoryAllocator allocator, int fixedDataLength, ContentionStrategy contentionStrategy) {
+        super(allocator, fixedDataLength, contentionStrategy);
+        // the announcements and the retire lists grow with the thread indices
+        this.announcements = new ThreadSlotArray(FIRST_ADDRESS_SLOT + MAX_ANNOUNCED_READS);
+        this.retireLists = new CopyOnWriteArrayList<>();
+    }
+
+    private RetireList getMyRetireList() {
+        return threadIndexCalculator.getThreadElement(retireLists, RetireList::new);
+    }
+
+    @Override
+    public SliceEpoch getEmptySlice() {
+        return new SliceEpoch();
+    }
+
+    @Override
+    public void clear(boolean clearAllocator) {
+        super.clear(clearAllocator);
+        for (RetireList retireList : retireLists) {
+            retireList.clear();
+        }
+    }
+
+    @Override
+    void flushReleaseList() {
+        RetireList myRetireList = getMyRetireList();
+        if (!myRetireList.isEmpty()) {
+            reclaim(myRetireList);
+        }
+    }
+
+    // used only for testing
+    @VisibleForTesting
+    long getCurrentEpoch() {
+        return globalEpoch.get();
+    }
+
+    /*-------------- Announcements --------------*/
+
+    // Announces a read of the given header by the calling thread, entering the current epoch if the thread
+    // has no other announced read. Returns the announcement slot (its position in the thread's segment),
+    // or NO_SLOT if all the slots are taken.
+    private int announce(long headerAddress) {
+        int threadIndex = threadIndexCalculator.getIndex();
+        AtomicLongArray slots = announcements.segment(threadIndex);
+        int base = announcements.base(threadIndex);
+        int freeSlot = NO_SLOT;
+        boolean quiescent = true;
+        // only the owner thread writes its slots
+        for (int i = base + FIRST_ADDRESS_SLOT; i < base + FIRST_ADDRESS_SLOT + MAX_ANNOUNCED_READS; i++) {
+            if (slots.get(i) != NO_ADDRESS) {
+                quiescent = false;
+            } else if (freeSlot == NO_SLOT) {
+                freeSlot = i;
+            }
+        }
+        if (freeSlot == NO_SLOT) {
+            return NO_SLOT;
+        }
+        slots.set(freeSlot, headerAddress);
+        if (quiescent) {
+            slots.set(base + EPOCH_SLOT, globalEpoch.get());
+        }
+        // both stores above are volatile, so the header is read (after this method) only once they are visible
+        return freeSlot;
+    }
+
+    // Withdraws the announcement of a finished read, the thread becomes quiescent if it has no other one
+    private void withdraw(int slot) {
+        int threadIndex = threadIndexCalculator.getIndex();
+        AtomicLongArray slots = announcements.segment(threadIndex);
+        int base = announcements.base(threadIndex);
+        slots.lazySet(slot, NO_ADDRESS);
+        for (int i = base + FIRST_ADDRESS_SLOT; i < base + FIRST_ADDRESS_SLOT + MAX_ANNOUNCED_READS; i++) {
+            if (slots.get(i) != NO_ADDRESS) {
+                return;
+            }
+        }
+        slots.lazySet(base + EPOCH_SLOT, QUIESCENT);
+    }
+
+    private boolean isReadAnnounced(int threadIndex, long headerAddress) {
+        AtomicLongArray slots = announcements.segment(threadIndex);
+        int base = announcements.base(threadIndex);
+        if (slots.get(base + EPOCH_SLOT) == QUIESCENT) {
+            return false;
+        }
+        for (int i = base + FIRST_ADDRESS_SLOT; i < base + FIRST_ADDRESS_SLOT + MAX_ANNOUNCED_READS; i++) {
+            if (slots.get(i) == headerAddress) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Waits until no other thread announces a read of the given header.
+    // Invoked by a writer after taking the write lock, so no new read of the header can be announced successfully.
+    // The slots of all the thread indices are scanned (at least ThreadSlotArray.THREADS_PER_SEGMENT padded slots,
+    // a cache line each), though only the epoch of a thread without announced reads is read. This cost of every
+    // write is the price of the lock-free reads, see the class documentation.
+    private void awaitAnnouncedReads(long headerAddress) {
+        int myIndex = threadIndexCalculator.getIndex();
+        for (int i = 0; i < announcements.capacity(); i++) {
+            if (i == myIndex) {
+                continue;
+            }
+            for (int attempt = 0; isReadAnnounced(i, headerAddress); attempt++) {
+                header.awaitContended(attempt);
+            }
+        }
+    }
+
+    /*-------------- Reclamation --------------*/
+
+    // Frees the retired off-heap cuts of the given list that cannot be read anymore: the ones retired before the
+    // oldest epoch that any thread is still in. The rest are left in the list, for a later reclamation.
+    private void reclaim(RetireList retireList) {
+        // the freed memory is allocated later with a new version, so stale references to it are detected
+        increaseGlobalVersion();
+        long oldestEpoch = globalEpoch.incrementAndGet();
+        for (int i = 0; i < announcements.capacity(); i++) {
+            long epoch = announcements.get(i, EPOCH_SLOT);
+            if (epoch != QUIESCENT && epoch < oldestEpoch) {
+                oldestEpoch = epoch;
+            }
+        }
+        final long safeEpoch = oldestEpoch;
+        retireList.retired.removeIf(retired -> {
+            if (retired.retireEpoch >= safeEpoch) {
+                return false;
+            }
+            allocator.free(retired);
+            return true;
+        });
+        retireList.reclaimSize = retireList.retired.size() + RELEASE_LIST_LIMIT;
+    }
+
+    /*=====================================================================*/
+    /*           SliceEpoch                 */
+    /* Inner Class for easier access to EpochMemoryManager abilities */
+    /*=====================================================================*/
+
+    /**
+     * SliceEpoch is a SliceSyncRecycle whose reads are announced instead of taking the read lock,
+     * and whose off-heap cut is retired upon release, see EpochMemoryManager.
+     */
+    class SliceEpoch extends SliceSyncRecycle {
+
+        // the announcement slot of the current read, or NO_SLOT if the read lock was taken instead
+        private int readSlot = NO_SLOT;
+        // the epoch in which the off-heap cut was retired (set only for retired slices)
+        private long retireEpoch;
+
+        /**
+         * Retires the associated off-heap cut, which is disconnected from the data structure, but can be still
+         * accessed via threads previously having the access. It is freed once these threads leave their epochs.
+         * IMPORTANT: As many slices can be associated with the same off-heap cut, the release()
+         * must be invoked only ONCE after each allocation of the specific off-heap cut.
+         */
+        @Override
+        public void release() {
+            prefetchDataLength(); // this will set the length from off-heap header, if needed
+            RetireList myRetireList = getMyRetireList();
+            SliceEpoch retired = duplicate();
+            // a reader that validated the header before it was marked deleted or moved entered an older epoch
+            retired.retireEpoch = globalEpoch.get();
+            if (myRetireList.add(retired)) {
+                reclaim(myRetireList);
+            }
+        }
+
+        @Override
+        public SliceEpoch duplicate() {
+            SliceEpoch newSlice = new SliceEpoch();
+            newSlice.copyFrom(this);
+            return newSlice;
+        }
+
+        /*-------------- Off-heap header operations: locking and logical delete --------------*/
+
+        /**
+         * Announces a read, without writing to the header
+         *
+         * @return {@code TRUE} if the read was announced successfully
+         * {@code FALSE} if the header/off-heap-cut is marked as deleted
+         * {@code RETRY} if the header/off-heap-cut was moved, or the version of the off-heap header
+         * does not match {@code version}.
+         */
+        @Override
+        public ValueUtils.ValueResult preRead() {
+            assert version != ReferenceCodecSyncRecycle.INVALID_VERSION;
+            long headerAddress = getMetadataAddress();
+            for (int attempt = 0; ; attempt++) {
+                readSlot = announce(headerAddress);
+                if (readSlot == NO_SLOT) {
+                    // too many nested reads by this thread
+                    return header.lockRead(version, headerAddress);
+                }
+                int state = header.getAnnouncedReadState(version, headerAddress);
+                if (state == SyncRecycleMMHeader.LockStates.FREE.value) {
+                    return ValueUtils.ValueResult.TRUE;
+                }
+                withdraw(readSlot);
+                readSlot = NO_SLOT;
+                if (state == SyncRecycleMMHeader.LockStates.DELETED.value) {
+                    return ValueUtils.ValueResult.FALSE;
+                }
+                if (state != SyncRecycleMMHeader.LockStates.LOCKED.value) {
+                    return ValueUtils.ValueResult.RETRY; // moved, or the version does not match
+                }
+                // a writer holds the lock, wait for it to finish
+                header.awaitContended(attempt);
+            }
+        }
+
+        /**
+         * Withdraws the announcement of the read
+         *
+         * @return {@code TRUE}
+         */
+        @Override
+        public ValueUtils.ValueResult postRead() {
+            assert version != ReferenceCodecSyncRecycle.INVALID_VERSION;
+            if (readSlot == NO_SLOT) {
+                return header.unlockRead(version, getMetadataAddress());
+            }
+            withdraw(readSlot);
+            readSlot = NO_SLOT;
+            return ValueUtils.ValueResult.TRUE;
+        }
+
+        // The announced reads are not optimistic, as the writers wait for them instead
+        @Override
+        public ValueUtils.ValueResult preOptimisticRead() {
+            return preRead();
+        }
+
+        @Override
+        public boolean postOptimisticRead() {
+            return postRead() == ValueUtils.ValueResult.TRUE;
+        }
+
+        /**
+         * Acquires a write lock, and waits for the announced reads of the off-heap cut to finish
+         *
+         * @return {@code TRUE} if the write lock was acquires successfully
+         * {@code FALSE} if the value is marked as deleted
+         * {@code RETRY} if the value was moved, or the version of the off-heap value does not match {@code version}.
+         */
+        @Override
+        public ValueUtils.ValueResult preWrite() {
+            assert version != ReferenceCodecSyncRecycle.INVALID_VERSION;
+            long headerAddress = getMetadataAddress();
+            ValueUtils.ValueResult result = header.lockWrite(version, headerAddress);
+            if (result == ValueUtils.ValueResult.TRUE) {
+                awaitAnnouncedReads(headerAddress);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2020, Verizon Media.
+ * Licensed under the terms of the Apache 2.0 license.
+ * Please see LICENSE file in the project root for terms.
+ */
+
+package com.yahoo.oak;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Tracks the threads that access the off-heap memory of an allocator, so a part of the memory (e.g., a block) is
+ * freed only once no thread may access it anymore. This is epoch-based reclamation, as in EpochMemoryManager, but
+ * for the memory that the readers reach via a resolved address, rather than for a single off-heap cut.
+ *
+ * A thread enters before it resolves an address, and exits once it does not access the memory at that address
+ * anymore. The calls may be nested, only the outermost pair enters and leaves the current epoch.
+ * Once a part of the memory cannot be reached by new accesses (e.g., its block is removed from the allocator),
+ * it is retired with the current epoch (see retireEpoch()), and it may be freed once isSafe() returns true for
+ * that epoch, i.e., all the threads left the older epochs.
+ */
+final class EpochTracker {
+    static final long QUIESCENT = 0; // the epoch of a thread which accesses nothing
+    // the slots of a thread: its epoch, and the nesting depth of its enter() calls (written only by the thread)
+    private static final int EPOCH_SLOT = 0;
+    private static final int DEPTH_SLOT = 1;
+
+    private final ThreadIndexCalculator threadIndexCalculator = ThreadIndexCalculator.newInstance();
+    private final ThreadSlotArray slots = new ThreadSlotArray(DEPTH_SLOT + 1);
+    private final AtomicLong globalEpoch = new AtomicLong(QUIESCENT + 1);
+    // the epochs below this one were found safe by a previous isSafe(), so they are not checked again
+    private volatile long safeEpoch = QUIESCENT + 1;
+
+    void enter() {
+        int threadIndex = threadIndexCalculator.getIndex();
+        AtomicLongArray segment = slots.segment(threadIndex);
+        int base = slots.base(threadIndex);
+        long depth = segment.get(base + DEPTH_SLOT);
+        segment.lazySet(base + DEPTH_SLOT, depth + 1);
+        if (depth == 0) {
+            // a volatile store, so any address is resolved only once the epoch is visible to isSafe()
+            segment.set(base + EPOCH_SLOT, globalEpoch.get());
+        }
+    }
+
+    // Returns the epoch the thread left, if this call is paired with the outermost enter(), or else QUIESCENT
+    long exit() {
+        int threadIndex = threadIndexCalculator.getIndex();
+        AtomicLongArray segment = slots.segment(threadIndex);
+        int base = slots.base(threadIndex);
+        long depth = segment.get(base + DEPTH_SLOT) - 1;
+        assert depth >= 0 : "exit() without enter()";
+        segment.lazySet(base + DEPTH_SLOT, depth);
+        if (depth > 0) {
+            return QUIESCENT;
+        }
+        long epoch = segment.get(base + EPOCH_SLOT);
+        segment.lazySet(base + EPOCH_SLOT, QUIESCENT);
+        return epoch;
+    }
+
+    // The epoch to retire a part of the memory with, once no new access can reach it
+    long retireEpoch() {
+        return globalEpoch.get();
+    }
+
+    // Returns true if no thread may still access the memory retired with the given epoch.
+    // Scans the epochs of all the threads, unless the epoch was already found safe.
+    boolean isSafe(long retireEpoch) {
+        return retireEpoch < safeEpoch || retireEpoch < scanSafeEpoch();
+    }
+
+    // Returns the bound found by the last scan: the memory retired with an older epoch is safe, see isSafe()
+    long lastSafeEpoch() {
+        return safeEpoch;
+    }
+
+    // Scans the epochs of all the threads, and returns the oldest epoch a thread may still access the memory in,
+    // so the memory retired with an older epoch is safe. A caller checking many epochs scans once for all of them.
+    long scanSafeEpoch() {
+        // a thread entering from now on gets a newer epoch than the retired memory
+        long oldestEpoch = globalEpoch.incrementAndGet();
+        for (int i = 0; i < slots.capacity(); i++) {
+            long epoch = slots.get(i, EPOCH_SLOT);
+            if (epoch != QUIESCENT && epoch < oldestEpoch) {
+                oldestEpoch = epoch;
+            }
+        }
+        // a racing scan may find an older epoch, which is only a more conservative bound
+        if (oldestEpoch > safeEpoch) {
+            safeEpoch = oldestEpoch;
+        }
+        return oldestEpoch;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2020, Verizon Media.
+ * Licensed under the terms of the Apache 2.0 license.
+ * Please see LICENSE file in the project root for terms.
+ */
+
+package com.yahoo.oak;
+
+/**
+ * The free list of NativeMemoryAllocator: keeps the released off-heap cuts until they are reused by
+ * later allocations. All the methods, except {@code size()} and {@code clear()}, are thread safe.
+ */
+interface FreeList {
+
+    /**
+     * @param size the number of bytes requested from the allocator
+     * @return the number of bytes that need to be taken from a block for an allocation of the given size,
+     * so that the off-heap cut could be later reused via this free list
+     */
+    int slotSize(int size);
+
+    /**
+     * Associates the given slice with a free off-heap cut that can hold {@code size} bytes, and removes
+     * that cut from the free list. The bytes taken from the free list are acquired via
+     * {@code NativeMemoryAllocator.acquireBlockRange()}, and cuts of a retired block are dropped.
+     *
+     * @return false if there is no suitable free off-heap cut, then the slice is left untouched
+     */
+    boolean reuse(BlockAllocationSlice s, int size);
+
+    /**
+     * Adds a released off-heap cut, allocated via {@code slotSize(s.getAllocatedLength())}, to the free list.
+     * The slice may be changed by this method, it is not used by the caller anymore.
+     */
+    void add(BlockAllocationSlice s);
+
+    /**
+     * Adds an unused range of a block, which was never allocated, to the free list.
+     */
+    void addRange(int blockID, int offset, int length, long blockMemAddress);
+
+    /**
+     * Removes all the free off-heap cuts of the given block, which is retired by the allocator.
+     * Cuts of that block that are concurrently taken by {@code reuse()} are dropped by it.
+     */
+    void removeBlock(int blockID);
+
+    /**
+     * Stops reusing the free off-heap cuts of the given block, which is being evacuated by the compaction,
+     * so an allocation does not have to skip them. Called once the block is marked as evacuating.
+     */
+    void detachBlock(int blockID);
+
+    /**
+     * Reuses again the free off-heap cuts of the given block, whose evacuation ended without emptying it.
+     * Called once the block is not marked as evacuating anymore.
+     */
+    void restoreBlock(int blockID);
+
+    // used only for testing, not thread safe
+    int size();
+
+    // the total number of bytes in the free list, used for statistics
+    long freeBytes();
+
+    // the number of bytes of the largest free off-heap cut in the free list, used for statistics
+    long largestFreeRange();
+
+    // the number of times a released off-heap cut was appended to an adjacent free range, so its header may later
+    // be in the middle of an allocation, see BlockMemoryAllocator.coalescings()
+    long coalescings();
+
+    // not thread safe
+    void clear();
+}
@@ -8,9 +8,14 @@ package com.yahoo.oak;
 
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.WeakHashMap;
 import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
 
 
 abstract class InternalOakBasics<K, V> {
@@ -20,9 +25,34 @@ abstract class InternalOakBasics<K, V> {
 
     protected final OakSharedConfig<K, V> config;
 
+    // the data length of all the values, or SyncRecycleMemoryManager.VARIABLE_DATA_LENGTH
+    private final int fixedValueLength;
+
+    // see OakMapBuilder.setArena()
+    private final boolean arena;
+
+    // Each thread keeps one context per map and reuses it across operations, see getThreadContext()
+    private final ThreadLocal<ContextHolder> threadContext;
+    // A thread keeps its ThreadLocal values until it dies, so the holders of the contexts are also kept here
+    // (weakly, a holder is gone with its thread), and the contexts are dropped from them upon close()
+    private final Set<ContextHolder> contextHolders =
+            Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+    // the background off-heap compaction, if it was started
+    private volatile Compactor compactor;
+
     /*-------------- Constructors --------------*/
     InternalOakBasics(OakSharedConfig<K, V> config) {
         this.config = config;
+        this.threadContext = ThreadLocal.withInitial(() -> {
+            ContextHolder holder = new ContextHolder(new ThreadContext(config));
+            contextHolders.add(holder);
+            return holder;
+        });
+        this.fixedValueLength = (config.valuesMemoryManager instanceof SyncRecycleMemoryManager)
+                ? ((SyncRecycleMemoryManager) config.valuesMemoryManager).getFixedDataLength()
+                : SyncRecycleMemoryManager.VARIABLE_DATA_LENGTH;
+        this.arena = config.arena;
     }
 
     /*-------------- Closable --------------*/
@@ -30,6 +60,16 @@ abstract class InternalOakBasics<K, V> {
      * cleans only off heap memory
      */
     void close() {
+        Compactor c = compactor;
+        if (c != null) {
+            c.close();
+        }
+        // the contexts refer to the memory managers of the map, do not keep them in the threads
+        threadContext.remove();
+        synchronized (contextHolders) {
+            contextHolders.forEach(holder -> holder.ctx = null);
+            contextHolders.clear();
+        }
         try {
             // closing the same memory manager (or memory allocator) twice,
             // has the same effect as closing once
@@ -38,6 +78,9 @@ abstract class InternalOakBasics<K, V> {
         } catch (IOException e) {
             e.printStackTrace();
         }
+        if (config.directEntryArrays != null) {
+            config.directEntryArrays.close();
+        }
     }
 
     /*-------------- size --------------*/
@@ -50,10 +93,16 @@ abstract class InternalOakBasics<K, V> {
             // may still have the same allocator and allocator defines how many bytes are allocated
             if (config.valuesMemoryManager.getBlockMemoryAllocator()
                 != config.keysMemoryManager.getBlockMemoryAllocator()) {
-                return config.valuesMemoryManager.allocated() + config.keysMemoryManager.allocated();
+                return config.valuesMemoryManager.allocated() + config.keysMemoryManager.allocated()
+                        + entryArraysMemorySize();
             }
         }
-        return config.valuesMemoryManager.allocated();
+        return config.valuesMemoryManager.allocated() + entryArraysMemorySize();
+    }
+
+    // the off-heap entry arrays of the chunks, see OakMapBuilder.setDirectEntryArrays()
+    private long entryArraysMemorySize() {
+        return (config.directEntryArrays != null) ? config.directEntryArrays.allocated() : 0;
     }
 
     int entries() {
@@ -84,11 +133,49 @@ abstract class InternalOakBasics<K, V> {
     /*-------------- Context --------------*/
     /**
      * Should only be called from API methods at the beginning of the method and be reused in internal calls.
+     * Every call must be paired with {@code releaseThreadContext(ctx)} once the operation no longer needs
+     * the context (typically in a finally block).
+     *
+     * The context is recycled: each thread reuses its own instance, so no objects are allocated per operation.
+     * The instance is never shared between threads, so a result kept in the context remains valid until
+     * the same thread starts its next operation. This holds for virtual threads as well, as the context
+     * is bound to the (virtual) thread and not to the carrier thread that runs it.
+     * If the thread's instance is already held (nested operation of the same thread), a new context is returned.
+     *
+     * Until the context is released, the off-heap memory that the operation reads is not returned to the blocks
+     * provider, see {@code BlockMemoryAllocator.enterRead()}.
      *
      * @return a context instance.
      */
     ThreadContext getThreadContext() {
-        return new ThreadContext(config);
+        config.memoryAllocator.enterRead();
+        ThreadContext ctx = threadContext.get().ctx;
+        if (ctx == null || ctx.inUse) { // null once the map is closed
+            ctx = new ThreadContext(config);
+        } else {
+            ctx.reset();
+        }
+        ctx.inUse = true;
+        return ctx;
+    }
+
+    /**
+     * Returns the context acquired by {@code getThreadContext()}, so it can be reused by the next operation.
+     *
+     * @param ctx the context to release
+     */
+    void releaseThreadContext(ThreadContext ctx) {
+        ctx.inUse = false;
+        config.memoryAllocator.exitRead();
+    }
+
+    // The recycled context of a thread, see getThreadContext()
+    private static final class ContextHolder {
+        ThreadContext ctx;
+
+        ContextHolder(ThreadContext ctx) {
+            this.ctx = ctx;
+        }
     }
 
     /*-------------- REBALANCE --------------*/
@@ -123,6 +210,174 @@ abstract class InternalOakBasics<K, V> {
         return false;
     }
 
+    /*-------------- Memory capacity --------------*/
+    /**
+     * Sets the off-heap memory capacity of this map, see {@code BlockMemoryAllocator.setCapacity()}. The capacity
+     * bounds the direct entry arrays too, see {@code DirectEntryArrays}.
+     * If the blocks held by the map exceed the new capacity, the map is notified via {@code onCapacityExceeded()}.
+     * @return true if the blocks held by the map are within the new capacity
+     */
+    boolean setMemoryCapacity(long capacity) {
+        BlockMemoryAllocator valuesAllocator = config.valuesMemoryManager.getBlockMemoryAllocator();
+        BlockMemoryAllocator keysAllocator = config.keysMemoryManager.getBlockMemoryAllocator();
+        valuesAllocator.setCapacity(capacity);
+        if (keysAllocator != valuesAllocator) {
+            keysAllocator.setCapacity(capacity);
+        }
+        if (config.directEntryArrays != null) {
+            config.directEntryArrays.setCapacity(capacity);
+        }
+        if (isWithinCapacity(valuesAllocator, keysAllocator)) {
+            return true;
+        }
+        onCapacityExceeded(valuesAllocator);
+        return isWithinCapacity(valuesAllocator, keysAllocator);
+    }
+
+    private boolean isWithinCapacity(BlockMemoryAllocator valuesAllocator, BlockMemoryAllocator keysAllocator) {
+        return !valuesAllocator.isOverCapacity() && !keysAllocator.isOverCapacity()
+                && (config.directEntryArrays == null || !config.directEntryArrays.isOverCapacity());
+    }
+
+    /**
+     * Invoked when the capacity was shrunk below the blocks held by the map. New blocks cannot be taken until
+     * enough blocks are emptied, so compaction passes are run (if the compaction was started) while they empty
+     * some blocks.
+     */
+    private void onCapacityExceeded(BlockMemoryAllocator allocator) {
+        Compactor c = compactor;
+        if (c == null) {
+            return;
+        }
+        // each pass relocates the values of the sparsest blocks, so the emptied blocks are returned
+        long relocated;
+        do {
+            relocated = c.compact();
+        } while (relocated > 0 && allocator.isOverCapacity());
+    }
+
+    /*-------------- Off-heap compaction --------------*/
+    /**
+     * Starts the off-heap compaction of this map, see {@code Compactor} for the parameters.
+     */
+    void startCompaction(long intervalMillis, double maxLiveRatio, long maxBytesPerSecond) {
+        compactor = new Compactor(this, intervalMillis, maxLiveRatio, maxBytesPerSecond);
+    }
+
+    /**
+     * @return the compaction of this map, or null if it was not started
+     */
+    Compactor getCompactor() {
+        return compactor;
+    }
+
+    /**
+     * Runs a single compaction pass, if the compaction was started.
+     * @return the number of relocated bytes
+     */
+    long compact() {
+        Compactor c = compactor;
+        return (c == null) ? 0 : c.compact();
+    }
+
+    /**
+     * @return the number of off-heap bytes returned to the blocks pool since the compaction was started
+     */
+    long reclaimedMemorySize() {
+        Compactor c = compactor;
+        return (c == null) ? 0 : c.getReclaimedBytes();
+    }
+
+    /**
+     * @return the number of background compaction passes that failed
+     */
+    long failedCompactions() {
+        Compactor c = compactor;
+        return (c == null) ? 0 : c.getFailedPasses();
+    }
+
+    /*-------------- Release of values --------------*/
+
+    /**
+     * @return the number of off-heap bytes of released values, which are not freed yet
+     */
+    long pendingReleaseMemorySize() {
+        MemoryManager mm = config.valuesMemoryManager;
+        return (mm instanceof SyncRecycleMemoryManager) ? ((SyncRecycleMemoryManager) mm).getPendingReleaseBytes() : 0;
+    }
+
+    /**
+     * @return the maximal time, in nanoseconds, from the release of a value until its off-heap memory was freed
+     */
+    long maxReclaimLatencyNanos() {
+        MemoryManager mm = config.valuesMemoryManager;
+        return (mm instanceof SyncRecycleMemoryManager) ? ((SyncRecycleMemoryManager) mm).getMaxReclaimLatencyNanos()
+                : 0;
+    }
+
+    /**
+     * @return the number of background reclamations of released values that failed
+     */
+    long failedReclamations() {
+        MemoryManager mm = config.valuesMemoryManager;
+        return (mm instanceof SyncRecycleMemoryManager) ? ((SyncRecycleMemoryManager) mm).getFailedReclamations() : 0;
+    }
+
+    /**
+     * @return the number of acquisitions of the value locks that waited for other threads, so far
+     */
+    long contendedValueLockAcquisitions() {
+        MemoryManager mm = config.valuesMemoryManager;
+        return (mm instanceof SyncRecycleMemoryManager)
+                ? ((SyncRecycleMemoryManager) mm).getContendedLockAcquisitions() : 0;
+    }
+
+    /**
+     * Relocates all the values that reside in the given blocks to other blocks.
+     *
+     * @param isEvacuated  tests whether a block ID is of a block being evacuated
+     * @param onRelocation invoked with the length of every relocated value, e.g., to limit the relocation rate
+     * @return the number of relocated bytes
+     */
+    long relocateValues(IntPredicate isEvacuated, IntConsumer onRelocation) {
+        BasicIter<?> iter = relocationIterator();
+        ThreadContext ctx = iter.ctx;
+        long relocated = 0;
+        while (iter.hasNext() && !Thread.currentThread().isInterrupted()) {
+            int length;
+            // the off-heap memory read by a step is not returned to the blocks provider meanwhile, see next()
+            config.memoryAllocator.enterRead();
+            try {
+                try {
+                    iter.advance(true);
+                } catch (NoSuchElementException e) {
+                    break; // the remaining entries were deleted concurrently
+                }
+                BlockAllocationSlice value = (BlockAllocationSlice) ctx.value.getSlice();
+                if (!isEvacuated.test(value.getAllocatedBlockID())) {
+                    continue;
+                }
+                // the entry that was just read is kept in the previous state of the iterator
+                BasicChunk<K, V> chunk = iter.getPrevIterState().getChunk();
+                length = ctx.value.getLength();
+                // a value that is concurrently updated or deleted is skipped, it is relocated by the next pass
+                if (config.valueOperator.relocate(chunk, ctx) != ValueUtils.ValueResult.TRUE) {
+                    continue;
+                }
+            } finally {
+                config.memoryAllocator.exitRead();
+            }
+            relocated += length;
+            onRelocation.accept(length);
+        }
+        return relocated;
+    }
+
+    /**
+     * @return an iterator over all the entries of the map, used by {@code relocateValues()}
+     */
+    protected abstract BasicIter<?> relocationIterator();
+
     /*-------------- API methods --------------*/
     abstract V put(K key, V value, OakTransformer<V> transformer);
 
@@ -153,6 +408,33 @@ abstract class InternalOakBasics<K, V> {
     abstract OakUnscopedBuffer get(K key);
 
     /*-------------- Common actions --------------*/
+
+    // an arena map allocates its memory from an arena, which is rewound by reset() instead of being freed
+    boolean isArena() {
+        return arena;
+    }
+
+    // the memory of an arena map is never freed, but only rewound all at once, see reset()
+    protected void checkRemoveSupported() {
+        if (arena) {
+            throw new UnsupportedOperationException("An arena map does not support removals");
+        }
+    }
+
+    /**
+     * With a fixed value length, checks that the given value fits in it. A value is checked before the operation
+     * starts, as the operation cannot fail while it holds the locks of the old value or the chunk.
+     * @param value the value to write
+     * @throws IllegalArgumentException if the value exceeds the fixed value length
+     */
+    protected void checkValueSize(V value) {
+        if (fixedValueLength != SyncRecycleMemoryManager.VARIABLE_DATA_LENGTH
+                && config.valueSerializer.calculateSize(value) > fixedValueLength) {
+            throw new IllegalArgumentException(String.format(
+                    "The value size exceeds the fixed value length (%d bytes)", fixedValueLength));
+        }
+    }
+
     /**
      * The method returns reference to the chunk the given key belongs to
      * @param key the key to look for in the chunks
@@ -162,50 +444,58 @@ abstract class InternalOakBasics<K, V> {
     protected abstract BasicChunk<K, V> findChunk(K key, ThreadContext ctx);
 
     V replace(K key, V value, OakTransformer<V> valueDeserializeTransformer) {
+        checkValueSize(value);
         ThreadContext ctx = getThreadContext();
+        try {
+            for (int i = 0; i < MAX_RETRIES; i++) {
+                BasicChunk<K, V> chunk = findChunk(key, ctx); // find orderedChunk matching key
+                chunk.lookUp(ctx, key);
+                if (!ctx.isValueValid()) {
+                    return null;
+                }
 
-        for (int i = 0; i < MAX_RETRIES; i++) {
-            BasicChunk<K, V> chunk = findChunk(key, ctx); // find orderedChunk matching key
-            chunk.lookUp(ctx, key);
-            if (!ctx.isValueValid()) {
-                return null;
+                // will return null if the value is deleted
+                Result result = config.valueOperator.exchange(chunk, ctx, value,
+                        valueDeserializeTransformer, getValueSerializer());
+                if (result.operationResult != ValueUtils.ValueResult.RETRY) {
+                    return (V) result.value;
+                }
+                // it might be that this chunk is proceeding with rebalance -> help
+                helpRebalanceIfInProgress(chunk);
             }
 
-            // will return null if the value is deleted
-            Result result = config.valueOperator.exchange(chunk, ctx, value,
-                    valueDeserializeTransformer, getValueSerializer());
-            if (result.operationResult != ValueUtils.ValueResult.RETRY) {
-                return (V) result.value;
-            }
-            // it might be that this chunk is proceeding with rebalance -> help
-            helpRebalanceIfInProgress(chunk);
+            throw new RuntimeException("replace failed: reached retry limit (1024).");
+        } finally {
+            releaseThreadContext(ctx);
         }
-
-        throw new RuntimeException("replace failed: reached retry limit (1024).");
     }
 
     boolean replace(K key, V oldValue, V newValue, OakTransformer<V> valueDeserializeTransformer) {
+        checkValueSize(newValue);
         ThreadContext ctx = getThreadContext();
+        try {
+            for (int i = 0; i < MAX_RETRIES; i++) {
+                // find chunk matching key, puts this key hash into ctx.operationKeyHash
+                BasicChunk<K, V> c = findChunk(key, ctx); // find orderedChunk matching key
+                c.lookUp(ctx, key);
+                if (!ctx.isValueValid()) {
+                    return false;
+                }
 
-        for (int i = 0; i < MAX_RETRIES; i++) {
-            // find chunk matching key, puts this key hash into ctx.operationKeyHash
-            BasicChunk<K, V> c = findChunk(key, ctx); // find orderedChunk matching key
-            c.lookUp(ctx, key);
-            if (!ctx.isValueValid()) {
-                return false;
+                ValueUtils.ValueResult res = getValueOperator().compareExchange(c, ctx, oldValue, newValue,
+                        valueDeserializeTransformer, getValueSerializer());
+                if (res == ValueUtils.ValueResult.RETRY) {
+                    // it might be that this chunk is proceeding with rebalance -> help
+                    helpRebalanceIfInProgress(c);
+                    continue;
+                }
+                return res == ValueUtils.ValueResult.TRUE;
             }
 
-            ValueUtils.ValueResult res = getValueOperator().compareExchange(c, ctx, oldValue, newValue,
-                    valueDeserializeTransformer, getValueSerializer());
-            if (res == ValueUtils.ValueResult.RETRY) {
-                // it might be that this chunk is proceeding with rebalance -> help
-                helpRebalanceIfInProgress(c);
-                continue;
-            }
-            return res == ValueUtils.ValueResult.TRUE;
+            throw new RuntimeException("replace failed: reached retry limit (1024).");
+        } finally {
+            releaseThreadContext(ctx);
         }
-
-        throw new RuntimeException("replace failed: reached retry limit (1024).");
     }
 
     abstract boolean putIfAbsentComputeIfPresent(K key, V value, Consumer<OakScopedWriteBuffer> computer);
@@ -244,15 +534,19 @@ abstract class InternalOakBasics<K, V> {
      */
     boolean refreshValuePosition(KeyBuffer key, ValueBuffer value) {
         ThreadContext ctx = getThreadContext();
-        ctx.key.copyFrom(key);
-        boolean isSuccessful = refreshValuePosition(ctx);
+        try {
+            ctx.key.copyFrom(key);
+            boolean isSuccessful = refreshValuePosition(ctx);
 
-        if (!isSuccessful) {
-            return false;
-        }
+            if (!isSuccessful) {
+                return false;
+            }
 
-        value.copyFrom(ctx.value);
-        return true;
+            value.copyFrom(ctx.value);
+            return true;
+        } finally {
+            releaseThreadContext(ctx);
+        }
     }
 
     /**
@@ -281,7 +575,9 @@ abstract class InternalOakBasics<K, V> {
     }
 
     protected UnscopedValueBufferSynced getValueUnscopedBuffer(ThreadContext ctx) {
-        return new UnscopedValueBufferSynced(ctx.key, ctx.value, this);
+        UnscopedValueBufferSynced value = new UnscopedValueBufferSynced(ctx.key, ctx.value, this);
+        value.validate();
+        return value;
     }
 
     // Iterator State base class
@@ -357,8 +653,34 @@ abstract class InternalOakBasics<K, V> {
 
         protected abstract void initAfterRebalance();
 
+        // The off-heap memory read by a step of the iterator is not returned to the blocks provider meanwhile,
+        // see BlockMemoryAllocator.enterRead()
+        @Override
+        public T next() {
+            config.memoryAllocator.enterRead();
+            try {
+                return nextElement();
+            } finally {
+                config.memoryAllocator.exitRead();
+            }
+        }
+
         // the actual next()
-        public abstract T next();
+        protected abstract T nextElement();
+
+        // Returns true if the entries of the given chunk cannot be read anymore, and the iterator needs to move to the
+        // chunks that replaced it, see initAfterRebalance()
+        protected boolean isReplaced(BasicChunk<K, V> chunk) {
+            if (chunk.state() == BasicChunk.State.RELEASED) {
+                return true;
+            }
+            if (chunk.hasStaleValues()) {
+                // the replacing chunks may not be in the index yet
+                helpRebalanceIfInProgress(chunk);
+                return true;
+            }
+            return false;
+        }
 
         /**
          * The function removes the element returned by the last call to next() function
@@ -375,9 +697,16 @@ abstract class InternalOakBasics<K, V> {
             }
             BasicChunk<K, V> prevChunk = getPrevIterState().getChunk();
             int preIdx = getPrevIterState().getIndex();
-            boolean validState = prevChunk.readKeyFromEntryIndex(ctx.key, preIdx);
-            if (validState) {
-                K prevKey = getKeySerializer().deserialize(ctx.key);
+            K prevKey = null;
+            config.memoryAllocator.enterRead();
+            try {
+                if (prevChunk.readKeyFromEntryIndex(ctx.key, preIdx)) {
+                    prevKey = getKeySerializer().deserialize(ctx.key);
+                }
+            } finally {
+                config.memoryAllocator.exitRead();
+            }
+            if (prevKey != null) {
                 InternalOakBasics.this.remove(prevKey, null, null);
             }
 
@@ -399,7 +728,7 @@ abstract class InternalOakBasics<K, V> {
                 }
 
                 final BasicChunk<K, V> chunk = state.getChunk();
-                if (chunk.state() == BasicChunk.State.RELEASED) {
+                if (isReplaced(chunk)) {
 
                     // @TODO not to access the keys on the RELEASED chunk once the key might be released
                     initAfterRebalance();
@@ -42,6 +42,11 @@ class InternalOakHash<K, V> extends InternalOakBasics<K, V> {
     void clear() {
         hashArray.clear();
         config.size.set(0);
+        if (isArena()) {
+            // keeps the blocks of the allocator for the next entries, the keys and values share it
+            config.memoryAllocator.rewind();
+            return;
+        }
         if (getValuesMemoryManager() != getKeysMemoryManager()) {
             // Two memory managers are not the same instance, but they
             // may still have the same allocator
@@ -96,43 +101,47 @@ class InternalOakHash<K, V> extends InternalOakBasics<K, V> {
         if (key == null || value == null) {
             throw new NullPointerException();
         }
+        checkValueSize(value);
 
         ThreadContext ctx = getThreadContext();
-
-        for (int i = 0; i < MAX_RETRIES; i++) {
-
-            // find chunk matching key, puts this key hash into ctx.operationKeyHash
-            HashChunk<K, V> c = findChunk(key, ctx);
-            c.lookUp(ctx, key);
-            // If there is a matching value reference for the given key, and it is not marked as deleted,
-            // then this put changes the slice pointed by this value reference.
-            if (ctx.isValueValid()) {
-                // there is a value and it is not deleted
-
-                Result res = config.valueOperator.exchange(c, ctx, value, transformer, getValueSerializer());
-                if (res.operationResult == ValueUtils.ValueResult.TRUE) {
-                    return (V) res.value;
+        try {
+            for (int i = 0; i < MAX_RETRIES; i++) {
+
+                // find chunk matching key, puts this key hash into ctx.operationKeyHash
+                HashChunk<K, V> c = findChunk(key, ctx);
+                c.lookUp(ctx, key);
+                // If there is a matching value reference for the given key, and it is not marked as deleted,
+                // then this put changes the slice pointed by this value reference.
+                if (ctx.isValueValid()) {
+                    // there is a value and it is not deleted
+
+                    Result res = config.valueOperator.exchange(c, ctx, value, transformer, getValueSerializer());
+                    if (res.operationResult == ValueUtils.ValueResult.TRUE) {
+                        return (V) res.value;
+                    }
+                    helpRebalanceIfInProgress(c);
+                    // Exchange failed because the value was deleted/moved between lookup and exchange. Continue with
+                    // insertion.
+                    continue;
                 }
-                helpRebalanceIfInProgress(c);
-                // Exchange failed because the value was deleted/moved between lookup and exchange. Continue with
-                // insertion.
-                continue;
-            }
 
-            if (!publishAndWriteKey(c, ctx, key, value)) {
-                continue;
-            }
+                if (!publishAndWriteKey(c, ctx, key, value)) {
+                    continue;
+                }
 
-            if (c.linkValue(ctx) != ValueUtils.ValueResult.TRUE) {
-                c.releaseNewValue(ctx);
-                c.unpublish();
-            } else {
-                c.unpublish();
-                checkRebalance(c);
-                return null; // null can be returned only in zero-copy case
+                if (c.linkValue(ctx) != ValueUtils.ValueResult.TRUE) {
+                    c.releaseNewValue(ctx);
+                    c.unpublish();
+                } else {
+                    c.unpublish();
+                    checkRebalance(c);
+                    return null; // null can be returned only in zero-copy case
+                }
             }
+            throw new RuntimeException("put failed: reached retry limit (1024).");
+        } finally {
+            releaseThreadContext(ctx);
         }
-        throw new RuntimeException("put failed: reached retry limit (1024).");
     }
 
     // returns false if restart and new search for the chunk is required
@@ -193,19 +202,16 @@ class InternalOakHash<K, V> extends InternalOakBasics<K, V> {
     }
 
 
-    private ThreadContext keyLookUp(K key) {
+    // returns true if a valid value was found for the key, the context is updated with the found key and value
+    private boolean keyLookUp(K key, ThreadContext ctx) {
 
         if (key == null) {
             throw new NullPointerException();
         }
-        ThreadContext ctx = getThreadContext();
         // find chunk matching key, puts this key hash into ctx.operationKeyHash
         HashChunk<K, V> c = findChunk(key, ctx);
         c.lookUpForGetOnly(ctx, key);
-        if (!ctx.isValueValid()) {
-            return null;
-        }
-        return ctx;
+        return ctx.isValueValid();
     }
 
     // the zero-copy version of get
@@ -215,19 +221,27 @@ class InternalOakHash<K, V> extends InternalOakBasics<K, V> {
             throw new NullPointerException();
         }
 
-        ThreadContext ctx = keyLookUp(key);
-        if (ctx == null) {
-            return null;
+        ThreadContext ctx = getThreadContext();
+        try {
+            if (!keyLookUp(key, ctx)) {
+                return null;
+            }
+            return getValueUnscopedBuffer(ctx);
+        } finally {
+            releaseThreadContext(ctx);
         }
-        return getValueUnscopedBuffer(ctx);
     }
 
     <T> T getKeyTransformation(K key, OakTransformer<T> transformer) {
-        ThreadContext ctx = keyLookUp(key);
-        if (ctx == null) {
-            return null;
+        ThreadContext ctx = getThreadContext();
+        try {
+            if (!keyLookUp(key, ctx)) {
+                return null;
+            }
+            return transformer.apply(ctx.key);
+        } finally {
+            releaseThreadContext(ctx);
         }
-        return transformer.apply(ctx.key);
     }
 
     // the non-ZC variation of the get
@@ -238,24 +252,27 @@ class InternalOakHash<K, V> extends InternalOakBasics<K, V> {
         }
 
         ThreadContext ctx = getThreadContext();
-
-        for (int i = 0; i < MAX_RETRIES; i++) {
-            // find chunk matching key, puts this key hash into ctx.operationKeyHash
-            HashChunk<K, V> c = findChunk(key, ctx);
-            c.lookUpForGetOnly(ctx, key);
-            if (!ctx.isValueValid()) {
-                return null;
-            }
+        try {
+            for (int i = 0; i < MAX_RETRIES; i++) {
+                // find chunk matching key, puts this key hash into ctx.operationKeyHash
+                HashChunk<K, V> c = findChunk(key, ctx);
+                c.lookUpForGetOnly(ctx, key);
+                if (!ctx.isValueValid()) {
+                    return null;
+                }
 
 
-            Result res = config.valueOperator.transform(ctx.result, ctx.value, transformer);
-            if (res.operationResult == ValueUtils.ValueResult.RETRY) {
-                continue;
+                Result res = config.valueOperator.transform(ctx.result, ctx.value, ctx.valueCopy, transformer);
+                if (res.operationResult == ValueUtils.ValueResult.RETRY) {
+                    continue;
+                }
+                return (T) res.value;
             }
-            return (T) res.value;
-        }
 
-        throw new RuntimeException("getValueTransformation failed: reached retry limit (1024).");
+            throw new RuntimeException("getValueTransformation failed: reached retry limit (1024).");
+        } finally {
+            releaseThreadContext(ctx);
+        }
     }
 
     @Override
@@ -265,26 +282,29 @@ class InternalOakHash<K, V> extends InternalOakBasics<K, V> {
 
     boolean replace(K key, V oldValue, V newValue, OakTransformer<V> valueDeserializeTransformer) {
         ThreadContext ctx = getThreadContext();
+        try {
+            for (int i = 0; i < MAX_RETRIES; i++) {
+                // find chunk matching key, puts this key hash into ctx.operationKeyHash
+                BasicChunk<K, V> c = findChunk(key, ctx);
+                c.lookUp(ctx, key);
+                if (!ctx.isValueValid()) {
+                    return false;
+                }
 
-        for (int i = 0; i < MAX_RETRIES; i++) {
-            // find chunk matching key, puts this key hash into ctx.operationKeyHash
-            BasicChunk<K, V> c = findChunk(key, ctx);
-            c.lookUp(ctx, key);
-            if (!ctx.isValueValid()) {
-                return false;
+                ValueUtils.ValueResult res = config.valueOperator.compareExchange(c, ctx, oldValue, newValue,
+                    valueDeserializeTransformer, getValueSerializer());
+                if (res == ValueUtils.ValueResult.RETRY) {
+                    // it might be that this chunk is proceeding with rebalance -> help
+                    helpRebalanceIfInProgress(c);
+                    continue;
+                }
+                return res == ValueUtils.ValueResult.TRUE;
             }
 
-            ValueUtils.ValueResult res = config.valueOperator.compareExchange(c, ctx, oldValue, newValue,
-                valueDeserializeTransformer, getValueSerializer());
-            if (res == ValueUtils.ValueResult.RETRY) {
-                // it might be that this chunk is proceeding with rebalance -> help
-                helpRebalanceIfInProgress(c);
-                continue;
-            }
-            return res == ValueUtils.ValueResult.TRUE;
+            throw new RuntimeException("replace failed: reached retry limit (1024).");
+        } finally {
+            releaseThreadContext(ctx);
         }
-
-        throw new RuntimeException("replace failed: reached retry limit (1024).");
     }
 
     // put the value associated with the key, only if key didn't exist
@@ -294,48 +314,52 @@ class InternalOakHash<K, V> extends InternalOakBasics<K, V> {
         if (key == null || value == null) {
             throw new NullPointerException();
         }
+        checkValueSize(value);
 
         ThreadContext ctx = getThreadContext();
+        try {
+            for (int i = 0; i < MAX_RETRIES; i++) {
+                // find chunk matching key, puts this key hash into ctx.operationKeyHash
+                HashChunk<K, V> c = findChunk(key, ctx);
+                c.lookUp(ctx, key);
+
+                // If exists a matching value reference for the given key, and it isn't marked deleted,
+                // organize the return value: false for ZC, and old value deserialization for non-ZC
+                if (ctx.isValueValid()) {
+                    if (transformer == null) {
+                        return ctx.result.withFlag(ValueUtils.ValueResult.FALSE);
+                    }
 
-        for (int i = 0; i < MAX_RETRIES; i++) {
-            // find chunk matching key, puts this key hash into ctx.operationKeyHash
-            HashChunk<K, V> c = findChunk(key, ctx);
-            c.lookUp(ctx, key);
-
-            // If exists a matching value reference for the given key, and it isn't marked deleted,
-            // organize the return value: false for ZC, and old value deserialization for non-ZC
-            if (ctx.isValueValid()) {
-                if (transformer == null) {
-                    return ctx.result.withFlag(ValueUtils.ValueResult.FALSE);
+                    Result res = config.valueOperator.transform(ctx.result, ctx.value, ctx.valueCopy, transformer);
+                    if (res.operationResult == ValueUtils.ValueResult.TRUE) {
+                        return res;
+                    }
+                    continue;
                 }
 
-                Result res = config.valueOperator.transform(ctx.result, ctx.value, transformer);
-                if (res.operationResult == ValueUtils.ValueResult.TRUE) {
-                    return res;
-                }
-                continue;
-            }
+                // TODO: For current version of OakHash we make an assumption that same keys aren't
+                // TODO: updated simultaneously also not via putIfAbsent API. Therefore, if key wasn't
+                // TODO: found till here, it is OK to proceed with normal put. But this needs to be
+                // TODO: changed once this assignment is refined.
 
-            // TODO: For current version of OakHash we make an assumption that same keys aren't
-            // TODO: updated simultaneously also not via putIfAbsent API. Therefore, if key wasn't
-            // TODO: found till here, it is OK to proceed with normal put. But this needs to be
-            // TODO: changed once this assignment is refined.
+                if (!publishAndWriteKey(c, ctx, key, value)) {
+                    continue;
+                }
 
-            if (!publishAndWriteKey(c, ctx, key, value)) {
-                continue;
+                if (c.linkValue(ctx) != ValueUtils.ValueResult.TRUE) {
+                    c.releaseNewValue(ctx);
+                    c.unpublish();
+                } else {
+                    c.unpublish();
+                    checkRebalance(c);
+                    return ctx.result.withFlag(ValueUtils.ValueResult.TRUE);
+                }
             }
 
-            if (c.linkValue(ctx) != ValueUtils.ValueResult.TRUE) {
-                c.releaseNewValue(ctx);
-                c.unpublish();
-            } else {
-                c.unpublish();
-                checkRebalance(c);
-                return ctx.result.withFlag(ValueUtils.ValueResult.TRUE);
-            }
+            throw new RuntimeException("putIfAbsent failed: reached retry limit (1024).");
+        } finally {
+            releaseThreadContext(ctx);
         }
-
-        throw new RuntimeException("putIfAbsent failed: reached retry limit (1024).");
     }
 
 
@@ -347,53 +371,58 @@ class InternalOakHash<K, V> extends InternalOakBasics<K, V> {
         if (key == null || value == null || computer == null) {
             throw new NullPointerException();
         }
+        checkValueSize(value);
 
         ThreadContext ctx = getThreadContext();
+        try {
+            for (int i = 0; i < MAX_RETRIES; i++) {
 
-        for (int i = 0; i < MAX_RETRIES; i++) {
-
-            if (i > MAX_RETRIES - 3) {
-                System.err.println("Infinite loop..."); //TODO: remove this print
-            }
+                if (i > MAX_RETRIES - 3) {
+                    System.err.println("Infinite loop..."); //TODO: remove this print
+                }
 
-            // find chunk matching key, puts this key hash into ctx.operationKeyHash
-            HashChunk<K, V> c = findChunk(key, ctx);
-            c.lookUp(ctx, key);
+                // find chunk matching key, puts this key hash into ctx.operationKeyHash
+                HashChunk<K, V> c = findChunk(key, ctx);
+                c.lookUp(ctx, key);
+
+                // If there is a matching value reference for the given key, and it is not marked as deleted,
+                // then apply compute on the existing value
+                if (ctx.isValueValid()) {
+
+                    ValueUtils.ValueResult res =
+                            config.valueOperator.compute(ctx.value, ctx.valueWriteBuffer, computer);
+                    if (res == ValueUtils.ValueResult.TRUE) {
+                        // compute was successful and the value wasn't found deleted; in case
+                        // this value was already found as deleted, continue to allocate a new value slice
+                        return false;
+                    } else if (res == ValueUtils.ValueResult.RETRY) {
+                        continue;
+                    }
+                }
 
-            // If there is a matching value reference for the given key, and it is not marked as deleted,
-            // then apply compute on the existing value
-            if (ctx.isValueValid()) {
+                // TODO: For current version of OakHash we make an assumption that same keys aren't
+                // TODO: updated simultaneously also not via putIfAbsentComputeIfPresent API.
+                // TODO: Therefore, if key wasn't found till here, it is OK to proceed with normal put.
+                // TODO: But this needs to be changed once this assignment is refined.
 
-                ValueUtils.ValueResult res = config.valueOperator.compute(ctx.value, computer);
-                if (res == ValueUtils.ValueResult.TRUE) {
-                    // compute was successful and the value wasn't found deleted; in case
-                    // this value was already found as deleted, continue to allocate a new value slice
-                    return false;
-                } else if (res == ValueUtils.ValueResult.RETRY) {
+                if (!publishAndWriteKey(c, ctx, key, value)) {
                     continue;
                 }
-            }
-
-            // TODO: For current version of OakHash we make an assumption that same keys aren't
-            // TODO: updated simultaneously also not via putIfAbsentComputeIfPresent API.
-            // TODO: Therefore, if key wasn't found till here, it is OK to proceed with normal put.
-            // TODO: But this needs to be changed once this assignment is refined.
 
-            if (!publishAndWriteKey(c, ctx, key, value)) {
-                continue;
+                if (c.linkValue(ctx) != ValueUtils.ValueResult.TRUE) {
+                    c.releaseNewValue(ctx);
+                    c.unpublish();
+                } else {
+                    c.unpublish();
+                    checkRebalance(c);
+                    return true;
+                }
             }
 
-            if (c.linkValue(ctx) != ValueUtils.ValueResult.TRUE) {
-                c.releaseNewValue(ctx);
-                c.unpublish();
-            } else {
-                c.unpublish();
-                checkRebalance(c);
-                return true;
-            }
+            throw new RuntimeException("putIfAbsentComputeIfPresent failed: reached retry limit (1024).");
+        } finally {
+            releaseThreadContext(ctx);
         }
-
-        throw new RuntimeException("putIfAbsentComputeIfPresent failed: reached retry limit (1024).");
     }
     
     @Override
@@ -403,26 +432,30 @@ class InternalOakHash<K, V> extends InternalOakBasics<K, V> {
         }
 
         ThreadContext ctx = getThreadContext();
-
-        for (int i = 0; i < MAX_RETRIES; i++) {
-            // find chunk matching key, puts this key hash into ctx.operationKeyHash
-            BasicChunk<K, V> c = findChunk(key, ctx);
-            c.lookUp(ctx, key);
-
-            if (ctx.isValueValid()) {
-                ValueUtils.ValueResult res = config.valueOperator.compute(ctx.value, computer);
-                if (res == ValueUtils.ValueResult.TRUE) {
-                    // compute was successful and the value wasn't found deleted; in case
-                    // this value was already marked as deleted, continue to construct another slice
-                    return true;
-                } else if (res == ValueUtils.ValueResult.RETRY) {
-                    continue;
+        try {
+            for (int i = 0; i < MAX_RETRIES; i++) {
+                // find chunk matching key, puts this key hash into ctx.operationKeyHash
+                BasicChunk<K, V> c = findChunk(key, ctx);
+                c.lookUp(ctx, key);
+
+                if (ctx.isValueValid()) {
+                    ValueUtils.ValueResult res =
+                            config.valueOperator.compute(ctx.value, ctx.valueWriteBuffer, computer);
+                    if (res == ValueUtils.ValueResult.TRUE) {
+                        // compute was successful and the value wasn't found deleted; in case
+                        // this value was already marked as deleted, continue to construct another slice
+                        return true;
+                    } else if (res == ValueUtils.ValueResult.RETRY) {
+                        continue;
+                    }
                 }
+                return false;
             }
-            return false;
-        }
 
-        throw new RuntimeException("computeIfPresent failed: reached retry limit (1024).");
+            throw new RuntimeException("computeIfPresent failed: reached retry limit (1024).");
+        } finally {
+            releaseThreadContext(ctx);
+        }
     }
 
     @Override
@@ -430,6 +463,7 @@ class InternalOakHash<K, V> extends InternalOakBasics<K, V> {
         if (key == null) {
             throw new NullPointerException();
         }
+        checkRemoveSupported();
 
         // when logicallyDeleted is true, it means we have marked the value as deleted.
         // Note that the entry will remain linked until rebalance happens.
@@ -437,67 +471,71 @@ class InternalOakHash<K, V> extends InternalOakBasics<K, V> {
         V v = null;
 
         ThreadContext ctx = getThreadContext();
-
-        for (int i = 0; i < MAX_RETRIES; i++) {
-            // find chunk matching key, puts this key hash into ctx.operationKeyHash
-            BasicChunk<K, V> c = findChunk(key, ctx);
-            c.lookUp(ctx, key);
-
-            if (!ctx.isKeyValid()) {
-                // There is no such key. If we did logical deletion and someone else did the physical deletion,
-                // then the old value is saved in v. Otherwise v is (correctly) null
-                return transformer == null ? ctx.result.withFlag(logicallyDeleted) : ctx.result.withValue(v);
-            } else if (!ctx.isValueValid()) {
-                // There is such a key, but the value is invalid,
-                // either deleted (maybe only off-heap) or not yet allocated
-                if (!finalizeDeletion(c, ctx)) {
-                    // finalize deletion returns false, meaning no rebalance was requested
-                    // and there was an attempt to finalize deletion
+        try {
+            for (int i = 0; i < MAX_RETRIES; i++) {
+                // find chunk matching key, puts this key hash into ctx.operationKeyHash
+                BasicChunk<K, V> c = findChunk(key, ctx);
+                c.lookUp(ctx, key);
+
+                if (!ctx.isKeyValid()) {
+                    // There is no such key. If we did logical deletion and someone else did the physical deletion,
+                    // then the old value is saved in v. Otherwise v is (correctly) null
                     return transformer == null ? ctx.result.withFlag(logicallyDeleted) : ctx.result.withValue(v);
+                } else if (!ctx.isValueValid()) {
+                    // There is such a key, but the value is invalid,
+                    // either deleted (maybe only off-heap) or not yet allocated
+                    if (!finalizeDeletion(c, ctx)) {
+                        // finalize deletion returns false, meaning no rebalance was requested
+                        // and there was an attempt to finalize deletion
+                        return transformer == null ? ctx.result.withFlag(logicallyDeleted) : ctx.result.withValue(v);
+                    }
+                    continue;
                 }
-                continue;
-            }
 
-            // AT THIS POINT Key was found (key and value not valid) and context is updated
-            if (logicallyDeleted) {
-                // This is the case where we logically deleted this entry (marked the value off-heap as deleted),
-                // but someone helped and (marked the value reference as deleted) and reused the entry
-                // before we marked the value reference as deleted. We have the previous value saved in v.
-                return transformer == null ? ctx.result.withFlag(ValueUtils.ValueResult.TRUE) : ctx.result.withValue(v);
-            } else {
-                Result removeResult = config.valueOperator.remove(ctx, oldValue, transformer);
-                if (removeResult.operationResult == ValueUtils.ValueResult.FALSE) {
-                    // we didn't succeed to remove the value: it didn't contain oldValue, or was already marked
-                    // as deleted by someone else)
-                    return ctx.result.withFlag(ValueUtils.ValueResult.FALSE);
-                } else if (removeResult.operationResult == ValueUtils.ValueResult.RETRY) {
-                    continue;
+                // AT THIS POINT Key was found (key and value not valid) and context is updated
+                if (logicallyDeleted) {
+                    // This is the case where we logically deleted this entry (marked the value off-heap as deleted),
+                    // but someone helped and (marked the value reference as deleted) and reused the entry
+                    // before we marked the value reference as deleted. We have the previous value saved in v.
+                    return transformer == null ? ctx.result.withFlag(ValueUtils.ValueResult.TRUE)
+                            : ctx.result.withValue(v);
+                } else {
+                    Result removeResult = config.valueOperator.remove(ctx, oldValue, transformer);
+                    if (removeResult.operationResult == ValueUtils.ValueResult.FALSE) {
+                        // we didn't succeed to remove the value: it didn't contain oldValue, or was already marked
+                        // as deleted by someone else)
+                        return ctx.result.withFlag(ValueUtils.ValueResult.FALSE);
+                    } else if (removeResult.operationResult == ValueUtils.ValueResult.RETRY) {
+                        continue;
+                    }
+                    // we have marked this value as deleted (successful remove)
+                    logicallyDeleted = true;
+                    v = (V) removeResult.value;
                 }
-                // we have marked this value as deleted (successful remove)
-                logicallyDeleted = true;
-                v = (V) removeResult.value;
-            }
 
-            // AT THIS POINT value was marked deleted off-heap by this thread,
-            // continue to set the entry's value reference as deleted
-            assert ctx.entryIndex != EntryArray.INVALID_ENTRY_INDEX;
-            assert ctx.isValueValid();
-            ctx.entryState = EntryArray.EntryState.DELETED_NOT_FINALIZED;
+                // AT THIS POINT value was marked deleted off-heap by this thread,
+                // continue to set the entry's value reference as deleted
+                assert ctx.entryIndex != EntryArray.INVALID_ENTRY_INDEX;
+                assert ctx.isValueValid();
+                ctx.entryState = EntryArray.EntryState.DELETED_NOT_FINALIZED;
 
-            if (inTheMiddleOfRebalance(c)) {
-                continue;
+                if (inTheMiddleOfRebalance(c)) {
+                    continue;
+                }
+
+                // If finalize deletion returns true, meaning rebalance was done and there was NO
+                // attempt to finalize deletion. There is going the help anyway, by next rebalance
+                // or updater. Thus it is OK not to restart, the linearization point of logical deletion
+                // is owned by this thread anyway and old value is kept in v.
+                finalizeDeletion(c, ctx); // includes publish/unpublish
+                return transformer == null ?
+                        ctx.result.withFlag(ValueUtils.ValueResult.TRUE) : ctx.result.withValue(v);
             }
 
-            // If finalize deletion returns true, meaning rebalance was done and there was NO
-            // attempt to finalize deletion. There is going the help anyway, by next rebalance
-            // or updater. Thus it is OK not to restart, the linearization point of logical deletion
-            // is owned by this thread anyway and old value is kept in v.
-            finalizeDeletion(c, ctx); // includes publish/unpublish
-            return transformer == null ?
-                    ctx.result.withFlag(ValueUtils.ValueResult.TRUE) : ctx.result.withValue(v);
+            throw new RuntimeException("remove failed: reached retry limit (1024).");
+        } finally {
+            releaseThreadContext(ctx);
         }
-
-        throw new RuntimeException("remove failed: reached retry limit (1024).");
     }
 
     
@@ -557,7 +595,13 @@ class InternalOakHash<K, V> extends InternalOakBasics<K, V> {
     abstract class HashIter<T> extends BasicIter<T> {
 
         HashIter() {
-            initState();
+            // the initial position is found in the off-heap keys, see next()
+            config.memoryAllocator.enterRead();
+            try {
+                initState();
+            } finally {
+                config.memoryAllocator.exitRead();
+            }
         }
         @Override
         protected void initAfterRebalance() {
@@ -702,7 +746,7 @@ class InternalOakHash<K, V> extends InternalOakBasics<K, V> {
     class ValueIterator extends HashIter<OakUnscopedBuffer> {
 
         @Override
-        public OakUnscopedBuffer next() {
+        protected OakUnscopedBuffer nextElement() {
             advance(true);
             return getValueUnscopedBuffer(ctx);
         }
@@ -714,7 +758,7 @@ class InternalOakHash<K, V> extends InternalOakBasics<K, V> {
                 new UnscopedBuffer<>(new ValueBuffer(getValuesMemoryManager().getEmptySlice()));
 
         @Override
-        public OakUnscopedBuffer next() {
+        protected OakUnscopedBuffer nextElement() {
             advanceStream(null, value);
             return value;
         }
@@ -728,10 +772,10 @@ class InternalOakHash<K, V> extends InternalOakBasics<K, V> {
             this.transformer = transformer;
         }
 
-        public T next() {
+        protected T nextElement() {
             advance(true);
 
-            Result res = config.valueOperator.transform(ctx.result, ctx.value, transformer);
+            Result res = config.valueOperator.transform(ctx.result, ctx.value, ctx.valueCopy, transformer);
             // If this value is deleted, try the next one
             if (res.operationResult == ValueUtils.ValueResult.FALSE) {
                 return next();
@@ -750,7 +794,7 @@ class InternalOakHash<K, V> extends InternalOakBasics<K, V> {
 
     class EntryIterator extends HashIter<Map.Entry<OakUnscopedBuffer, OakUnscopedBuffer>> {
 
-        public Map.Entry<OakUnscopedBuffer, OakUnscopedBuffer> next() {
+        protected Map.Entry<OakUnscopedBuffer, OakUnscopedBuffer> nextElement() {
             advance(true);
             return new AbstractMap.SimpleImmutableEntry<>(getKeyUnscopedBuffer(ctx), getValueUnscopedBuffer(ctx));
         }
@@ -768,7 +812,7 @@ class InternalOakHash<K, V> extends InternalOakBasics<K, V> {
             super();
         }
 
-        public Map.Entry<OakUnscopedBuffer, OakUnscopedBuffer> next() {
+        protected Map.Entry<OakUnscopedBuffer, OakUnscopedBuffer> nextElement() {
             advanceStream(key, value);
             return this;
         }
@@ -798,27 +842,31 @@ class InternalOakHash<K, V> extends InternalOakBasics<K, V> {
             this.transformer = transformer;
         }
 
-        public T next() {
+        protected T nextElement() {
             advance(true);
-            ValueUtils.ValueResult res = ctx.value.s.preRead();
-            if (res == ValueUtils.ValueResult.FALSE) {
-                return next();
-            } else if (res == ValueUtils.ValueResult.RETRY) {
-                do {
-                    boolean isSuccessful = refreshValuePosition(ctx);
-                    if (!isSuccessful) {
-                        return next();
-                    }
-                    res = ctx.value.s.preRead();
-                } while (res != ValueUtils.ValueResult.TRUE);
-            }
+            while (true) {
+                ValueUtils.ValueResult res = ctx.value.s.preRead();
+                if (res == ValueUtils.ValueResult.FALSE) {
+                    return next();
+                } else if (res == ValueUtils.ValueResult.RETRY) {
+                    do {
+                        boolean isSuccessful = refreshValuePosition(ctx);
+                        if (!isSuccessful) {
+                            return next();
+                        }
+                        res = ctx.value.s.preRead();
+                    } while (res != ValueUtils.ValueResult.TRUE);
+                }
 
-            Map.Entry<OakScopedReadBuffer, OakScopedReadBuffer> entry =
-                    new AbstractMap.SimpleEntry<>(ctx.key, ctx.value);
+                Map.Entry<OakScopedReadBuffer, OakScopedReadBuffer> entry =
+                        new AbstractMap.SimpleEntry<>(ctx.key, ctx.value);
 
-            T transformation = transformer.apply(entry);
-            ctx.value.s.postRead();
-            return transformation;
+                T transformation = transformer.apply(entry);
+                // a read that does not lock the value (see NovaMemoryManager) is validated when it ends
+                if (ctx.value.s.postRead() == ValueUtils.ValueResult.TRUE) {
+                    return transformation;
+                }
+            }
         }
     }
 
@@ -826,7 +874,7 @@ class InternalOakHash<K, V> extends InternalOakBasics<K, V> {
     class KeyIterator extends HashIter<OakUnscopedBuffer> {
 
         @Override
-        public OakUnscopedBuffer next() {
+        protected OakUnscopedBuffer nextElement() {
             advance(false);
             return getKeyUnscopedBuffer(ctx);
 
@@ -839,7 +887,7 @@ class InternalOakHash<K, V> extends InternalOakBasics<K, V> {
                 = new UnscopedBuffer<>(new KeyBuffer(getKeysMemoryManager().getEmptySlice()));
 
         @Override
-        public OakUnscopedBuffer next() {
+        protected OakUnscopedBuffer nextElement() {
             advanceStream(key, null);
             return key;
         }
@@ -853,7 +901,7 @@ class InternalOakHash<K, V> extends InternalOakBasics<K, V> {
             this.transformer = transformer;
         }
 
-        public T next() {
+        protected T nextElement() {
             advance(false);
             return transformer.apply(ctx.key);
         }
@@ -861,6 +909,11 @@ class InternalOakHash<K, V> extends InternalOakBasics<K, V> {
 
     // Factory methods for iterators
 
+    @Override
+    protected BasicIter<?> relocationIterator() {
+        return new ValueIterator();
+    }
+
     Iterator<OakUnscopedBuffer> valuesBufferViewIterator() {
         return new ValueIterator();
     }
@@ -7,13 +7,11 @@
 package com.yahoo.oak;
 
 import java.util.AbstractMap;
-import java.util.Comparator;
 import java.util.ConcurrentModificationException;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
-import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
@@ -23,14 +21,20 @@ class InternalOakMap<K, V>  extends InternalOakBasics<K, V> {
 
     /*-------------- Members --------------*/
 
-    final ConcurrentSkipListMap<Object, OrderedChunk<K, V>> skiplist;    // skiplist of chunks for fast navigation
+    final ChunkIndex<K, V> chunkIndex;    // index of chunks for fast navigation
     private final AtomicReference<OrderedChunk<K, V>> head;
+    // kept to recreate the first chunk upon reset()
+    private final K minKey;
+    private final int chunkMaxItems;
 
     // The reference count is used to count the upper objects wrapping this internal map:
     // OakMaps (including subMaps and Views) when all of the above are closed,
     // his map can be closed and memory released.
     private final AtomicInteger referenceCount = new AtomicInteger(1);
 
+    // rebalances the chunks flagged by the writers, null if the chunks are rebalanced inline
+    private volatile BackgroundRebalancer<K, V> backgroundRebalancer;
+
     /*-------------- Constructors --------------*/
 
     /**
@@ -39,34 +43,52 @@ class InternalOakMap<K, V>  extends InternalOakBasics<K, V> {
 
 
     InternalOakMap(OakSharedConfig<K, V> config, K minKey, int chunkMaxItems) {
-        super(config);
+        this(config, minKey, chunkMaxItems, false);
+    }
 
-        // This is a trick for letting us search through the skiplist using both serialized and unserialized keys.
-        // Might be nicer to replace it with a proper visitor
-        final OakComparator<K> comparator = config.comparator;
-        Comparator<Object> mixedKeyComparator = (o1, o2) -> {
-            if (o1 instanceof OakScopedReadBuffer) {
-                if (o2 instanceof OakScopedReadBuffer) {
-                    return comparator.compareSerializedKeys((OakScopedReadBuffer) o1, (OakScopedReadBuffer) o2);
-                } else {
-                    // Note the inversion of arguments, hence sign flip
-                    return (-1) * comparator.compareKeyAndSerializedKey((K) o2, (OakScopedReadBuffer) o1);
-                }
-            } else {
-                if (o2 instanceof OakScopedReadBuffer) {
-                    return comparator.compareKeyAndSerializedKey((K) o1, (OakScopedReadBuffer) o2);
-                } else {
-                    return comparator.compareKeys((K) o1, (K) o2);
-                }
-            }
-        };
-        this.skiplist = new ConcurrentSkipListMap<>(mixedKeyComparator);
+    InternalOakMap(OakSharedConfig<K, V> config, K minKey, int chunkMaxItems, boolean sortedArrayChunkIndex) {
+        super(config);
+        this.minKey = minKey;
+        this.chunkMaxItems = chunkMaxItems;
+        this.chunkIndex = sortedArrayChunkIndex
+                ? new SortedArrayChunkIndex<>(config.comparator, config.keySerializer)
+                : new SkipListChunkIndex<>(config.comparator);
 
         OrderedChunk<K, V> head = new OrderedChunk<>(config, minKey, chunkMaxItems);
-        this.skiplist.put(head.minKey, head);    // add first orderedChunk (head) into skiplist
+        this.chunkIndex.reset(head);    // add first orderedChunk (head) into the index
         this.head = new AtomicReference<>(head);
     }
 
+    /**
+     * Brings an arena map to its initial state without entries, in a constant time: the memory allocator is rewound,
+     * keeping its blocks for the next entries, and a new first chunk replaces the chunks and their index as a whole.
+     * Only if the entry arrays are direct (see {@code OakMapBuilder.setDirectEntryArrays()}), the dropped chunks are
+     * walked to retire their off-heap arrays, so the time is linear in the number of chunks (not of the entries).
+     * Only an arena map can be reset, as its off-heap memory is never freed.
+     * NOT THREAD SAFE !!!
+     */
+    void reset() {
+        if (!isArena()) {
+            throw new UnsupportedOperationException("Only an arena map can be reset");
+        }
+        config.memoryAllocator.rewind();
+        config.size.set(0);
+        BackgroundRebalancer<K, V> r = backgroundRebalancer;
+        if (r != null) {
+            r.clear();
+        }
+        OrderedChunk<K, V> first = new OrderedChunk<>(config, minKey, chunkMaxItems);
+        chunkIndex.reset(first);
+        OrderedChunk<K, V> dropped = head.getAndSet(first);
+        // the on-heap entry arrays of the dropped chunks are left to the GC, and the direct ones are freed once the
+        // threads that may still read them exit
+        if (config.directEntryArrays != null) {
+            for (; dropped != null; dropped = dropped.next.getReference()) {
+                dropped.retireArray();
+            }
+        }
+    }
+
     /*-------------- Closable --------------*/
 
     /**
@@ -79,6 +101,10 @@ class InternalOakMap<K, V>  extends InternalOakBasics<K, V> {
         // once reference count is zeroed, the map meant to be deleted and should not be used.
         // reference count will never grow again
         if (res == 0) {
+            BackgroundRebalancer<K, V> r = backgroundRebalancer;
+            if (r != null) {
+                r.close();
+            }
             super.close();
         }
     }
@@ -112,7 +138,7 @@ class InternalOakMap<K, V>  extends InternalOakBasics<K, V> {
         OrderedChunk<K, V> curr = inputOrderedChunk;
         OrderedChunk<K, V> next = curr.next.getReference();
 
-        // since skiplist isn't updated atomically in split/compaction, our key might belong in the next orderedChunk
+        // since the index isn't updated atomically in split/compaction, our key might belong in the next orderedChunk
         // we need to iterate the chunks until we find the correct one
         while ((next != null) && (config.comparator.compareKeyAndSerializedKey(key, next.minKey) >= 0)) {
             curr = next;
@@ -127,6 +153,38 @@ class InternalOakMap<K, V>  extends InternalOakBasics<K, V> {
         rebalance((OrderedChunk<K, V>) basicChunk); // exception will be triggered on wrong type
     }
 
+    @Override
+    protected void checkRebalance(BasicChunk<K, V> c) {
+        BackgroundRebalancer<K, V> r = backgroundRebalancer;
+        if (r == null || ((OrderedChunk<K, V>) c).backgroundRebalanceFailed) {
+            super.checkRebalance(c);
+        } else if (((OrderedChunk<K, V>) c).shouldRebalanceInBackground()) {
+            r.flag((OrderedChunk<K, V>) c); // the writer does not wait for the rebalance
+        }
+    }
+
+    /**
+     * Starts the background rebalance of this map, see {@code BackgroundRebalancer} for the parameters.
+     */
+    void startBackgroundRebalance(int threads, long pacingMicros) {
+        backgroundRebalancer = new BackgroundRebalancer<>(this, threads, pacingMicros);
+    }
+
+    /**
+     * @return the background rebalance of this map, or null if it was not started
+     */
+    BackgroundRebalancer<K, V> getBackgroundRebalancer() {
+        return backgroundRebalancer;
+    }
+
+    /**
+     * @return the number of background rebalances that failed, zero if the background rebalance was not started
+     */
+    long failedBackgroundRebalances() {
+        BackgroundRebalancer<K, V> r = backgroundRebalancer;
+        return (r == null) ? 0 : r.getFailures();
+    }
+
     /**
      * @param c - OrderedChunk to rebalance
      */
@@ -145,7 +203,11 @@ class InternalOakMap<K, V>  extends InternalOakBasics<K, V> {
         rebalancer.freeze();
 
         ThreadContext ctx = getThreadContext();
-        rebalancer.createNewChunks(ctx); // split or compact
+        try {
+            rebalancer.createNewChunks(ctx); // split or compact
+        } finally {
+            releaseThreadContext(ctx);
+        }
         // if returned true then this thread was responsible for the creation of the new chunks
         // and it inserted the put
 
@@ -174,15 +236,13 @@ class InternalOakMap<K, V>  extends InternalOakBasics<K, V> {
             assert (countIterations < 10000); // this loop is not supposed to be infinite
 
             // start with first orderedChunk (i.e., head)
-            Map.Entry<Object, OrderedChunk<K, V>> lowerEntry = skiplist.lowerEntry(firstEngaged.minKey);
-
-            OrderedChunk<K, V> prev = lowerEntry != null ? lowerEntry.getValue() : null;
+            OrderedChunk<K, V> prev = chunkIndex.lower(firstEngaged);
             OrderedChunk<K, V> curr = (prev != null) ? prev.next.getReference() : null;
 
-            // if didn't succeed to find prev through the skiplist - start from the head
+            // if didn't succeed to find prev through the index - start from the head
             if (prev == null || curr != firstEngaged) {
                 prev = null;
-                curr = skiplist.firstEntry().getValue();    // TODO we can store&update head for a little efficiency
+                curr = chunkIndex.first();    // TODO we can store&update head for a little efficiency
                 // iterate until found orderedChunk or reached end of list
                 while ((curr != firstEngaged) && (curr != null)) {
                     prev = curr;
@@ -237,28 +297,28 @@ class InternalOakMap<K, V>  extends InternalOakBasics<K, V> {
         OrderedChunk<K, V> firstChild = iterChildren.next();
 
         // need to make the new chunks available, before removing old chunks
-        skiplist.replace(firstEngaged.minKey, firstEngaged, firstChild);
+        chunkIndex.replace(firstEngaged, firstChild);
 
         // remove all old chunks from index.
         while (iterEngaged.hasNext()) {
             OrderedChunk<K, V> engagedToRemove = iterEngaged.next();
-            skiplist.remove(engagedToRemove.minKey, engagedToRemove); // conditional remove is used
+            chunkIndex.remove(engagedToRemove); // conditional remove is used
         }
 
         // for simplicity -  naive lock implementation
-        // can be implemented without locks using versions on next pointer in skiplist
+        // can be implemented without locks using versions on next pointer in the index
         while (iterChildren.hasNext()) {
             OrderedChunk<K, V> childToAdd = iterChildren.next();
             synchronized (childToAdd) {
                 if (childToAdd.state() == BasicChunk.State.INFANT) { // make sure it wasn't add before
-                    skiplist.putIfAbsent(childToAdd.minKey, childToAdd);
+                    chunkIndex.putIfAbsent(childToAdd);
                     childToAdd.normalize();
                 }
                 // has a built in fence, so no need to add one here
             }
         }
 
-        // now after removing old chunks and updating the skiplist, we can start normalizing
+        // now after removing old chunks and updating the index, we can start normalizing
         firstChild.normalize();
     }
 
@@ -314,62 +374,67 @@ class InternalOakMap<K, V>  extends InternalOakBasics<K, V> {
         if (key == null || value == null) {
             throw new NullPointerException();
         }
+        checkValueSize(value);
 
         ThreadContext ctx = getThreadContext();
-        for (int i = 0; i < MAX_RETRIES; i++) {
-            try {
-                OrderedChunk<K, V> c = findChunk(key, ctx); // find orderedChunk matching key
-                c.lookUp(ctx, key);
-                // If there is a matching value reference for the given key, and it is not marked as deleted,
-                // then this put changes the slice pointed by this value reference.
-                if (ctx.isValueValid()) {
-                    // there is a value and it is not deleted
+        try {
+            for (int i = 0; i < MAX_RETRIES; i++) {
+                try {
+                    OrderedChunk<K, V> c = findChunk(key, ctx); // find orderedChunk matching key
+                    c.lookUp(ctx, key);
+                    // If there is a matching value reference for the given key, and it is not marked as deleted,
+                    // then this put changes the slice pointed by this value reference.
+                    if (ctx.isValueValid()) {
+                        // there is a value and it is not deleted
     
-                    Result res = config.valueOperator.exchange(c, ctx, value, transformer, getValueSerializer());
-                    if (res.operationResult == ValueUtils.ValueResult.TRUE) {
-                        return (V) res.value;
+                        Result res = config.valueOperator.exchange(c, ctx, value, transformer, getValueSerializer());
+                        if (res.operationResult == ValueUtils.ValueResult.TRUE) {
+                            return (V) res.value;
+                        }
+                        // it might be that this chunk is proceeding with rebalance -> help
+                        helpRebalanceIfInProgress(c);
+                        // Exchange failed because the value was deleted/moved between lookup and exchange.
+                        // Continue with insertion.
+                        continue;
                     }
-                    // it might be that this chunk is proceeding with rebalance -> help
-                    helpRebalanceIfInProgress(c);
-                    // Exchange failed because the value was deleted/moved between lookup and exchange. Continue with
-                    // insertion.
-                    continue;
-                }
     
-                if (isAfterRebalanceOrValueUpdate(c, ctx)) {
-                    continue;
-                }
+                    if (isAfterRebalanceOrValueUpdate(c, ctx)) {
+                        continue;
+                    }
     
-                // AT THIS POINT EITHER (in all cases context is updated):
-                // (1) Key wasn't found (key and value not valid)
-                // (2) Key was found and it's value is deleted/invalid (key valid value invalid)
-                if (!ctx.isKeyValid()) {
-                    if (!allocateAndLinkEntry( c, ctx, key, false)) {
-                        continue; // allocation wasn't successful and resulted in rebalance - retry
+                    // AT THIS POINT EITHER (in all cases context is updated):
+                    // (1) Key wasn't found (key and value not valid)
+                    // (2) Key was found and it's value is deleted/invalid (key valid value invalid)
+                    if (!ctx.isKeyValid()) {
+                        if (!allocateAndLinkEntry( c, ctx, key, false)) {
+                            continue; // allocation wasn't successful and resulted in rebalance - retry
+                        }
                     }
-                }
     
-                c.allocateValue(ctx, value, false); // write value in place
+                    c.allocateValue(ctx, value, false); // write value in place
     
-                if (!c.publish()) {
-                    c.releaseNewValue(ctx);
-                    rebalance( c);
-                    continue;
-                }
+                    if (!c.publish()) {
+                        c.releaseNewValue(ctx);
+                        rebalance( c);
+                        continue;
+                    }
     
-                if (c.linkValue(ctx) != ValueUtils.ValueResult.TRUE) {
-                    c.releaseNewValue(ctx);
-                    c.unpublish();
-                } else {
-                    c.unpublish();
-                    checkRebalance(c);
-                    return null; // null can be returned only in zero-copy case
+                    if (c.linkValue(ctx) != ValueUtils.ValueResult.TRUE) {
+                        c.releaseNewValue(ctx);
+                        c.unpublish();
+                    } else {
+                        c.unpublish();
+                        checkRebalance(c);
+                        return null; // null can be returned only in zero-copy case
+                    }
+                } catch (DeletedMemoryAccessException e) {
+                    continue;
                 }
-            } catch (DeletedMemoryAccessException e) {
-                continue;
             }
+            throw new RuntimeException("put failed: reached retry limit (1024).");
+        } finally {
+            releaseThreadContext(ctx);
         }
-        throw new RuntimeException("put failed: reached retry limit (1024).");
     }
 
     // put the value associated with the key, only if key didn't exist
@@ -379,64 +444,68 @@ class InternalOakMap<K, V>  extends InternalOakBasics<K, V> {
         if (key == null || value == null) {
             throw new NullPointerException();
         }
+        checkValueSize(value);
 
         ThreadContext ctx = getThreadContext();
-
-        for (int i = 0; i < MAX_RETRIES; i++) {
-            try {
-                OrderedChunk<K, V> c = findChunk(key, ctx); // find orderedChunk matching key
-                c.lookUp(ctx, key);
-                // If exists a matching value reference for the given key, and it isn't marked deleted,
-                // organize the return value: false for ZC, and old value deserialization for non-ZC
-                if (ctx.isValueValid()) {
-                    if (transformer == null) {
-                        return ctx.result.withFlag(ValueUtils.ValueResult.FALSE);
+        try {
+            for (int i = 0; i < MAX_RETRIES; i++) {
+                try {
+                    OrderedChunk<K, V> c = findChunk(key, ctx); // find orderedChunk matching key
+                    c.lookUp(ctx, key);
+                    // If exists a matching value reference for the given key, and it isn't marked deleted,
+                    // organize the return value: false for ZC, and old value deserialization for non-ZC
+                    if (ctx.isValueValid()) {
+                        if (transformer == null) {
+                            return ctx.result.withFlag(ValueUtils.ValueResult.FALSE);
+                        }
+    
+                        Result res = config.valueOperator.transform(ctx.result, ctx.value, ctx.valueCopy, transformer);
+                        if (res.operationResult == ValueUtils.ValueResult.TRUE) {
+                            return res;
+                        }
+                        continue;
                     }
     
-                    Result res = config.valueOperator.transform(ctx.result, ctx.value, transformer);
-                    if (res.operationResult == ValueUtils.ValueResult.TRUE) {
-                        return res;
+                    if (isAfterRebalanceOrValueUpdate(c, ctx)) {
+                        continue;
                     }
-                    continue;
-                }
     
-                if (isAfterRebalanceOrValueUpdate(c, ctx)) {
-                    continue;
-                }
+                    // AT THIS POINT EITHER (in all cases context is updated):
+                    // (1) Key wasn't found (key and value not valid)
+                    // (2) Key was found and it's value is deleted/invalid (key valid value invalid)
+                    if (!ctx.isKeyValid()) {
+                        if (!allocateAndLinkEntry( c, ctx, key, true)) {
+                            // allocation wasn't successful and resulted in rebalance,
+                            // or retry is needed for other reason - retry
+                            continue;
+                        }
+                    }
     
-                // AT THIS POINT EITHER (in all cases context is updated):
-                // (1) Key wasn't found (key and value not valid)
-                // (2) Key was found and it's value is deleted/invalid (key valid value invalid)
-                if (!ctx.isKeyValid()) {
-                    if (!allocateAndLinkEntry( c, ctx, key, true)) {
-                        // allocation wasn't successful and resulted in rebalance,
-                        // or retry is needed for other reason - retry
+                    c.allocateValue(ctx, value, false); // write value in place
+    
+                    if (!c.publish()) {
+                        c.releaseNewValue(ctx); // @TODO clean key from off-heap as well
+                        rebalance( c);
                         continue;
                     }
-                }
     
-                c.allocateValue(ctx, value, false); // write value in place
-    
-                if (!c.publish()) {
-                    c.releaseNewValue(ctx); // @TODO clean key from off-heap as well
-                    rebalance( c);
+                    if (c.linkValue(ctx) != ValueUtils.ValueResult.TRUE) {
+                        c.releaseNewValue(ctx);
+                        c.unpublish();
+                    } else {
+                        c.unpublish();
+                        checkRebalance(c);
+                        return ctx.result.withFlag(ValueUtils.ValueResult.TRUE);
+                    }
+                } catch (DeletedMemoryAccessException e) {
                     continue;
                 }
-    
-                if (c.linkValue(ctx) != ValueUtils.ValueResult.TRUE) {
-                    c.releaseNewValue(ctx);
-                    c.unpublish();
-                } else {
-                    c.unpublish();
-                    checkRebalance(c);
-                    return ctx.result.withFlag(ValueUtils.ValueResult.TRUE);
-                }
-            } catch (DeletedMemoryAccessException e) {
-                continue;
             }
-        }
 
-        throw new RuntimeException("putIfAbsent failed: reached retry limit (1024).");
+            throw new RuntimeException("putIfAbsent failed: reached retry limit (1024).");
+        } finally {
+            releaseThreadContext(ctx);
+        }
     }
 
     // if key didn't exist, put the value to be associated with the key
@@ -447,62 +516,67 @@ class InternalOakMap<K, V>  extends InternalOakBasics<K, V> {
         if (key == null || value == null || computer == null) {
             throw new NullPointerException();
         }
+        checkValueSize(value);
 
         ThreadContext ctx = getThreadContext();
-
-        for (int i = 0; i < MAX_RETRIES; i++) {
-            try {
-                OrderedChunk<K, V> c = findChunk(key, ctx); // find orderedChunk matching key
-                c.lookUp(ctx, key);
-                // If there is a matching value reference for the given key, and it is not marked as deleted,
-                // then apply compute on the existing value
-                if (ctx.isValueValid()) {
+        try {
+            for (int i = 0; i < MAX_RETRIES; i++) {
+                try {
+                    OrderedChunk<K, V> c = findChunk(key, ctx); // find orderedChunk matching key
+                    c.lookUp(ctx, key);
+                    // If there is a matching value reference for the given key, and it is not marked as deleted,
+                    // then apply compute on the existing value
+                    if (ctx.isValueValid()) {
     
-                    ValueUtils.ValueResult res = config.valueOperator.compute(ctx.value, computer);
-                    if (res == ValueUtils.ValueResult.TRUE) {
-                        // compute was successful and the value wasn't found deleted; in case
-                        // this value was already found as deleted, continue to allocate a new value slice
-                        return false;
-                    } else if (res == ValueUtils.ValueResult.RETRY) {
+                        ValueUtils.ValueResult res =
+                                config.valueOperator.compute(ctx.value, ctx.valueWriteBuffer, computer);
+                        if (res == ValueUtils.ValueResult.TRUE) {
+                            // compute was successful and the value wasn't found deleted; in case
+                            // this value was already found as deleted, continue to allocate a new value slice
+                            return false;
+                        } else if (res == ValueUtils.ValueResult.RETRY) {
+                            continue;
+                        }
+                    }
+    
+                    if (isAfterRebalanceOrValueUpdate(c, ctx)) {
                         continue;
                     }
-                }
     
-                if (isAfterRebalanceOrValueUpdate(c, ctx)) {
-                    continue;
-                }
+                    // AT THIS POINT EITHER (in all cases context is updated):
+                    // (1) Key wasn't found (key and value not valid)
+                    // (2) Key was found and it's value is deleted/invalid (key valid value invalid)
+                    if (!ctx.isKeyValid()) {
+                        if (!allocateAndLinkEntry( c, ctx, key, false)) {
+                            continue;
+                        }
+                    }
     
-                // AT THIS POINT EITHER (in all cases context is updated):
-                // (1) Key wasn't found (key and value not valid)
-                // (2) Key was found and it's value is deleted/invalid (key valid value invalid)
-                if (!ctx.isKeyValid()) {
-                    if (!allocateAndLinkEntry( c, ctx, key, false)) {
+                    c.allocateValue(ctx, value, false); // write value in place
+    
+                    if (!c.publish()) {
+                        c.releaseNewValue(ctx);
+                        rebalance( c);
                         continue;
                     }
-                }
     
-                c.allocateValue(ctx, value, false); // write value in place
-    
-                if (!c.publish()) {
-                    c.releaseNewValue(ctx);
-                    rebalance( c);
+                    if (c.linkValue(ctx) != ValueUtils.ValueResult.TRUE) {
+                        c.releaseNewValue(ctx);
+                        c.unpublish();
+                    } else {
+                        c.unpublish();
+                        checkRebalance(c);
+                        return true;
+                    }
+                } catch (DeletedMemoryAccessException e) {
                     continue;
                 }
-    
-                if (c.linkValue(ctx) != ValueUtils.ValueResult.TRUE) {
-                    c.releaseNewValue(ctx);
-                    c.unpublish();
-                } else {
-                    c.unpublish();
-                    checkRebalance(c);
-                    return true;
-                }
-            } catch (DeletedMemoryAccessException e) {
-                continue;
             }
-        }
 
-        throw new RuntimeException("putIfAbsentComputeIfPresent failed: reached retry limit (1024).");
+            throw new RuntimeException("putIfAbsentComputeIfPresent failed: reached retry limit (1024).");
+        } finally {
+            releaseThreadContext(ctx);
+        }
     }
     
     @Override
@@ -512,29 +586,33 @@ class InternalOakMap<K, V>  extends InternalOakBasics<K, V> {
         }
 
         ThreadContext ctx = getThreadContext();
-
-        for (int i = 0; i < MAX_RETRIES; i++) {
-            try {
-                // find chunk matching key, puts this key hash into ctx.operationKeyHash
-                BasicChunk<K, V> c = findChunk(key, ctx);
-                c.lookUp(ctx, key);    
-                if (ctx.isValueValid()) {
-                    ValueUtils.ValueResult res = config.valueOperator.compute(ctx.value, computer);
-                    if (res == ValueUtils.ValueResult.TRUE) {
-                        // compute was successful and the value wasn't found deleted; in case
-                        // this value was already marked as deleted, continue to construct another slice
-                        return true;
-                    } else if (res == ValueUtils.ValueResult.RETRY) {
-                        continue;
+        try {
+            for (int i = 0; i < MAX_RETRIES; i++) {
+                try {
+                    // find chunk matching key, puts this key hash into ctx.operationKeyHash
+                    BasicChunk<K, V> c = findChunk(key, ctx);
+                    c.lookUp(ctx, key);    
+                    if (ctx.isValueValid()) {
+                        ValueUtils.ValueResult res =
+                                config.valueOperator.compute(ctx.value, ctx.valueWriteBuffer, computer);
+                        if (res == ValueUtils.ValueResult.TRUE) {
+                            // compute was successful and the value wasn't found deleted; in case
+                            // this value was already marked as deleted, continue to construct another slice
+                            return true;
+                        } else if (res == ValueUtils.ValueResult.RETRY) {
+                            continue;
+                        }
                     }
+                    return false;
+                } catch (DeletedMemoryAccessException e) {
+                    continue;
                 }
-                return false;
-            } catch (DeletedMemoryAccessException e) {
-                continue;
             }
-        }
 
-        throw new RuntimeException("computeIfPresent failed: reached retry limit (1024).");
+            throw new RuntimeException("computeIfPresent failed: reached retry limit (1024).");
+        } finally {
+            releaseThreadContext(ctx);
+        }
     }
 
     @Override
@@ -542,6 +620,7 @@ class InternalOakMap<K, V>  extends InternalOakBasics<K, V> {
         if (key == null) {
             throw new NullPointerException();
         }
+        checkRemoveSupported();
 
         // when logicallyDeleted is true, it means we have marked the value as deleted.
         // Note that the entry will remain linked until rebalance happens.
@@ -549,72 +628,77 @@ class InternalOakMap<K, V>  extends InternalOakBasics<K, V> {
         V v = null;
 
         ThreadContext ctx = getThreadContext();
-
-        for (int i = 0; i < MAX_RETRIES; i++) {
-            try {
-                // find chunk matching key, puts this key hash into ctx.operationKeyHash
-                BasicChunk<K, V> c = findChunk(key, ctx);
-                c.lookUp(ctx, key);
+        try {
+            for (int i = 0; i < MAX_RETRIES; i++) {
+                try {
+                    // find chunk matching key, puts this key hash into ctx.operationKeyHash
+                    BasicChunk<K, V> c = findChunk(key, ctx);
+                    c.lookUp(ctx, key);
     
-                if (!ctx.isKeyValid()) {
-                    // There is no such key. If we did logical deletion and someone else did the physical deletion,
-                    // then the old value is saved in v. Otherwise v is (correctly) null
-                    return transformer == null ? ctx.result.withFlag(logicallyDeleted) : ctx.result.withValue(v);
-                } else if (!ctx.isValueValid()) {
-                    // There is such a key, but the value is invalid,
-                    // either deleted (maybe only off-heap) or not yet allocated
-                    if (!finalizeDeletion(c, ctx)) {
-                        // finalize deletion returns false, meaning no rebalance was requested
-                        // and there was an attempt to finalize deletion
+                    if (!ctx.isKeyValid()) {
+                        // There is no such key. If we did logical deletion and someone else did the physical deletion,
+                        // then the old value is saved in v. Otherwise v is (correctly) null
                         return transformer == null ? ctx.result.withFlag(logicallyDeleted) : ctx.result.withValue(v);
+                    } else if (!ctx.isValueValid()) {
+                        // There is such a key, but the value is invalid,
+                        // either deleted (maybe only off-heap) or not yet allocated
+                        if (!finalizeDeletion(c, ctx)) {
+                            // finalize deletion returns false, meaning no rebalance was requested
+                            // and there was an attempt to finalize deletion
+                            return transformer == null ? ctx.result.withFlag(logicallyDeleted)
+                                    : ctx.result.withValue(v);
+                        }
+                        continue;
                     }
-                    continue;
-                }
     
-                // AT THIS POINT Key was found (key and value not valid) and context is updated
-                if (logicallyDeleted) {
-                    // This is the case where we logically deleted this entry (marked the value off-heap as deleted),
-                    // but someone helped and (marked the value reference as deleted) and reused the entry
-                    // before we marked the value reference as deleted. We have the previous value saved in v.
-                    return transformer == null ? ctx.result.withFlag(ValueUtils.ValueResult.TRUE) 
-                            : ctx.result.withValue(v);
-                } else {
-                    Result removeResult = config.valueOperator.remove(ctx, oldValue, transformer);
-                    if (removeResult.operationResult == ValueUtils.ValueResult.FALSE) {
-                        // we didn't succeed to remove the value: it didn't contain oldValue, or was already marked
-                        // as deleted by someone else)
-                        return ctx.result.withFlag(ValueUtils.ValueResult.FALSE);
-                    } else if (removeResult.operationResult == ValueUtils.ValueResult.RETRY) {
-                        continue;
+                    // AT THIS POINT Key was found (key and value not valid) and context is updated
+                    if (logicallyDeleted) {
+                        // This is the case where we logically deleted this entry (marked the value off-heap as
+                        // deleted), but someone helped and (marked the value reference as deleted) and reused the
+                        // entry before we marked the value reference as deleted. We have the previous value saved
+                        // in v.
+                        return transformer == null ? ctx.result.withFlag(ValueUtils.ValueResult.TRUE) 
+                                : ctx.result.withValue(v);
+                    } else {
+                        Result removeResult = config.valueOperator.remove(ctx, oldValue, transformer);
+                        if (removeResult.operationResult == ValueUtils.ValueResult.FALSE) {
+                            // we didn't succeed to remove the value: it didn't contain oldValue, or was already marked
+                            // as deleted by someone else)
+                            return ctx.result.withFlag(ValueUtils.ValueResult.FALSE);
+                        } else if (removeResult.operationResult == ValueUtils.ValueResult.RETRY) {
+                            continue;
+                        }
+                        // we have marked this value as deleted (successful remove)
+                        logicallyDeleted = true;
+                        v = (V) removeResult.value;
                     }
-                    // we have marked this value as deleted (successful remove)
-                    logicallyDeleted = true;
-                    v = (V) removeResult.value;
-                }
     
-                // AT THIS POINT value was marked deleted off-heap by this thread,
-                // continue to set the entry's value reference as deleted
-                assert ctx.entryIndex != EntryArray.INVALID_ENTRY_INDEX;
-                assert ctx.isValueValid();
-                ctx.entryState = EntryArray.EntryState.DELETED_NOT_FINALIZED;
+                    // AT THIS POINT value was marked deleted off-heap by this thread,
+                    // continue to set the entry's value reference as deleted
+                    assert ctx.entryIndex != EntryArray.INVALID_ENTRY_INDEX;
+                    assert ctx.isValueValid();
+                    ctx.entryState = EntryArray.EntryState.DELETED_NOT_FINALIZED;
     
-                if (inTheMiddleOfRebalance(c)) {
+                    if (inTheMiddleOfRebalance(c)) {
+                        continue;
+                    }
+    
+                    // If finalize deletion returns true, meaning rebalance was done and there was NO
+                    // attempt to finalize deletion. There is going the help anyway, by next rebalance
+                    // or updater. Thus it is OK not to restart, the linearization point of logical deletion
+                    // is owned by this thread anyway and old value is kept in v.
+                    finalizeDeletion(c, ctx); // includes publish/unpublish
+                    return transformer == null ?
+                            ctx.result.withFlag(ValueUtils.ValueResult.TRUE) : ctx.result.withValue(v);
+                } catch (DeletedMemoryAccessException e) {
                     continue;
                 }
-    
-                // If finalize deletion returns true, meaning rebalance was done and there was NO
-                // attempt to finalize deletion. There is going the help anyway, by next rebalance
-                // or updater. Thus it is OK not to restart, the linearization point of logical deletion
-                // is owned by this thread anyway and old value is kept in v.
-                finalizeDeletion(c, ctx); // includes publish/unpublish
-                return transformer == null ?
-                        ctx.result.withFlag(ValueUtils.ValueResult.TRUE) : ctx.result.withValue(v);
-            } catch (DeletedMemoryAccessException e) {
-                continue;
             }
-        }
 
-        throw new RuntimeException("remove failed: reached retry limit (1024).");
+            throw new RuntimeException("remove failed: reached retry limit (1024).");
+        } finally {
+            releaseThreadContext(ctx);
+        }
     }
 
     // the zero-copy version of get
@@ -624,22 +708,25 @@ class InternalOakMap<K, V>  extends InternalOakBasics<K, V> {
             throw new NullPointerException();
         }
         OrderedChunk<K, V> c = null;
-        for (int i = 0; i < MAX_RETRIES; i++) {
-            try {
-                ThreadContext ctx = getThreadContext();
-                c = findChunk(key, ctx); // find orderedChunk matching key
-                c.lookUp(ctx, key);
-                if (!ctx.isValueValid()) {
-                    return null;
+        ThreadContext ctx = getThreadContext();
+        try {
+            for (int i = 0; i < MAX_RETRIES; i++) {
+                try {
+                    c = findChunk(key, ctx); // find orderedChunk matching key
+                    c.lookUp(ctx, key);
+                    if (!ctx.isValueValid()) {
+                        return null;
+                    }
+                    return getValueUnscopedBuffer(ctx);
+                } catch (DeletedMemoryAccessException e) {
+                    continue;
                 }
-                return getValueUnscopedBuffer(ctx);
-            } catch (DeletedMemoryAccessException e) {
-                continue;
             }
-        }
         
-        throw new RuntimeException("get failed: reached retry limit (1024).");
-
+            throw new RuntimeException("get failed: reached retry limit (1024).");
+        } finally {
+            releaseThreadContext(ctx);
+        }
     }
 
     /**
@@ -679,26 +766,29 @@ class InternalOakMap<K, V>  extends InternalOakBasics<K, V> {
         }
 
         ThreadContext ctx = getThreadContext();
-
-        for (int i = 0; i < MAX_RETRIES; i++) {
-            try {
-                OrderedChunk<K, V> c = findChunk(key, ctx); // find orderedChunk matching key
-                c.lookUp(ctx, key);
-                if (!ctx.isValueValid()) {
-                    return null;
-                }
+        try {
+            for (int i = 0; i < MAX_RETRIES; i++) {
+                try {
+                    OrderedChunk<K, V> c = findChunk(key, ctx); // find orderedChunk matching key
+                    c.lookUp(ctx, key);
+                    if (!ctx.isValueValid()) {
+                        return null;
+                    }
     
-                Result res = config.valueOperator.transform(ctx.result, ctx.value, transformer);
-                if (res.operationResult == ValueUtils.ValueResult.RETRY) {
+                    Result res = config.valueOperator.transform(ctx.result, ctx.value, ctx.valueCopy, transformer);
+                    if (res.operationResult == ValueUtils.ValueResult.RETRY) {
+                        continue;
+                    }
+                    return (T) res.value;
+                } catch (DeletedMemoryAccessException e) {
                     continue;
                 }
-                return (T) res.value;
-            } catch (DeletedMemoryAccessException e) {
-                continue;
             }
-        }
 
-        throw new RuntimeException("getValueTransformation failed: reached retry limit (1024).");
+            throw new RuntimeException("getValueTransformation failed: reached retry limit (1024).");
+        } finally {
+            releaseThreadContext(ctx);
+        }
     }
 
     <T> T getKeyTransformation(K key, OakTransformer<T> transformer) {
@@ -706,30 +796,37 @@ class InternalOakMap<K, V>  extends InternalOakBasics<K, V> {
             throw new NullPointerException();
         }
         OrderedChunk<K, V> c = null;
-        for (int i = 0; i < MAX_RETRIES; i++) {
-            try {
-                ThreadContext ctx = getThreadContext();
-                c = findChunk(key, ctx);
-                c.lookUp(ctx, key);
-                if (!ctx.isValueValid()) {
-                    return null;
+        ThreadContext ctx = getThreadContext();
+        try {
+            for (int i = 0; i < MAX_RETRIES; i++) {
+                try {
+                    c = findChunk(key, ctx);
+                    c.lookUp(ctx, key);
+                    if (!ctx.isValueValid()) {
+                        return null;
+                    }
+                    return transformer.apply(ctx.key);
+                } catch (DeletedMemoryAccessException e) {
+                    inTheMiddleOfRebalance(c);
+                    continue;
                 }
-                return transformer.apply(ctx.key);
-            } catch (DeletedMemoryAccessException e) {
-                inTheMiddleOfRebalance(c);
-                continue;
             }
-        }
         
-        throw new RuntimeException("getKeyTransformation failed: reached retry limit (1024).");
-
+            throw new RuntimeException("getKeyTransformation failed: reached retry limit (1024).");
+        } finally {
+            releaseThreadContext(ctx);
+        }
     }
 
     OakUnscopedBuffer getMinKey() {
-        OrderedChunk<K, V> c = skiplist.firstEntry().getValue();
+        OrderedChunk<K, V> c = chunkIndex.first();
         ThreadContext ctx = getThreadContext();
-        boolean isAllocated = c.readMinKey(ctx.key);
-        return isAllocated ? getKeyUnscopedBuffer(ctx) : null;
+        try {
+            boolean isAllocated = c.readMinKey(ctx.key);
+            return isAllocated ? getKeyUnscopedBuffer(ctx) : null;
+        } finally {
+            releaseThreadContext(ctx);
+        }
     }
 
     <T> T getMinKeyTransformation(OakTransformer<T> transformer) {
@@ -737,16 +834,20 @@ class InternalOakMap<K, V>  extends InternalOakBasics<K, V> {
             throw new NullPointerException();
         }
 
-        OrderedChunk<K, V> c = skiplist.firstEntry().getValue();
+        OrderedChunk<K, V> c = chunkIndex.first();
         ThreadContext ctx = getThreadContext();
-        boolean isAllocated = c.readMinKey(ctx.tempKey);
-        return isAllocated ? transformer.apply(ctx.tempKey) : null;
+        try {
+            boolean isAllocated = c.readMinKey(ctx.tempKey);
+            return isAllocated ? transformer.apply(ctx.tempKey) : null;
+        } finally {
+            releaseThreadContext(ctx);
+        }
     }
 
     OakUnscopedBuffer getMaxKey() {
-        OrderedChunk<K, V> c = skiplist.lastEntry().getValue();
+        OrderedChunk<K, V> c = chunkIndex.last();
         OrderedChunk<K, V> next = c.next.getReference();
-        // since skiplist isn't updated atomically in split/compaction, the max key might belong in
+        // since the index isn't updated atomically in split/compaction, the max key might belong in
         // the next orderedChunk we need to iterate the chunks until we find the last one
         while (next != null) {
             c = next;
@@ -754,8 +855,12 @@ class InternalOakMap<K, V>  extends InternalOakBasics<K, V> {
         }
 
         ThreadContext ctx = getThreadContext();
-        boolean isAllocated = c.readMaxKey(ctx.key);
-        return isAllocated ? getKeyUnscopedBuffer(ctx) : null;
+        try {
+            boolean isAllocated = c.readMaxKey(ctx.key);
+            return isAllocated ? getKeyUnscopedBuffer(ctx) : null;
+        } finally {
+            releaseThreadContext(ctx);
+        }
     }
 
     <T> T getMaxKeyTransformation(OakTransformer<T> transformer) {
@@ -763,23 +868,27 @@ class InternalOakMap<K, V>  extends InternalOakBasics<K, V> {
             throw new NullPointerException();
         }
 
-        OrderedChunk<K, V> c = skiplist.lastEntry().getValue();
+        OrderedChunk<K, V> c = chunkIndex.last();
         OrderedChunk<K, V> next = c.next.getReference();
-        // since skiplist isn't updated atomically in split/compaction, the max key might belong in
+        // since the index isn't updated atomically in split/compaction, the max key might belong in
         // the next orderedChunk we need to iterate the chunks until we find the last one
         while (next != null) {
             c = next;
             next = c.next.getReference();
         }
         ThreadContext ctx = getThreadContext();
-        boolean isAllocated = c.readMaxKey(ctx.tempKey);
-        return isAllocated ? transformer.apply(ctx.tempKey) : null;
+        try {
+            boolean isAllocated = c.readMaxKey(ctx.tempKey);
+            return isAllocated ? transformer.apply(ctx.tempKey) : null;
+        } finally {
+            releaseThreadContext(ctx);
+        }
     }
 
-    // encapsulates finding of the orderedChunk in the skip list and later orderedChunk list traversal
+    // encapsulates finding of the orderedChunk in the index and later orderedChunk list traversal
     @Override
     protected OrderedChunk<K, V> findChunk(K key, ThreadContext ctx) {
-        OrderedChunk<K, V> c = skiplist.floorEntry(key).getValue();
+        OrderedChunk<K, V> c = chunkIndex.floor(key);
         c = iterateChunks(c, key);
         return c;
     }
@@ -789,74 +898,80 @@ class InternalOakMap<K, V>  extends InternalOakBasics<K, V> {
 
     boolean replace(K key, V oldValue, V newValue, OakTransformer<V> valueDeserializeTransformer) {
         ThreadContext ctx = getThreadContext();
-        OrderedChunk<K, V> c = null;
-        for (int i = 0; i < MAX_RETRIES; i++) {
-            try {
-                c = findChunk(key, ctx); // find orderedChunk matching key
-                c.lookUp(ctx, key);
-                if (!ctx.isValueValid()) {
-                    return false;
-                }
+        try {
+            OrderedChunk<K, V> c = null;
+            for (int i = 0; i < MAX_RETRIES; i++) {
+                try {
+                    c = findChunk(key, ctx); // find orderedChunk matching key
+                    c.lookUp(ctx, key);
+                    if (!ctx.isValueValid()) {
+                        return false;
+                    }
     
-                ValueUtils.ValueResult res = config.valueOperator.compareExchange(c, ctx, oldValue, newValue,
-                        valueDeserializeTransformer, getValueSerializer());
-                if (res == ValueUtils.ValueResult.RETRY) {
-                    // it might be that this chunk is proceeding with rebalance -> help
-                    helpRebalanceIfInProgress(c);
+                    ValueUtils.ValueResult res = config.valueOperator.compareExchange(c, ctx, oldValue, newValue,
+                            valueDeserializeTransformer, getValueSerializer());
+                    if (res == ValueUtils.ValueResult.RETRY) {
+                        // it might be that this chunk is proceeding with rebalance -> help
+                        helpRebalanceIfInProgress(c);
+                        continue;
+                    }
+                    return res == ValueUtils.ValueResult.TRUE;
+                } catch (DeletedMemoryAccessException e) {
+                    inTheMiddleOfRebalance(c);
                     continue;
                 }
-                return res == ValueUtils.ValueResult.TRUE;
-            } catch (DeletedMemoryAccessException e) {
-                inTheMiddleOfRebalance(c);
-                continue;
             }
-        }
 
-        throw new RuntimeException("replace failed: reached retry limit (1024).");
+            throw new RuntimeException("replace failed: reached retry limit (1024).");
+        } finally {
+            releaseThreadContext(ctx);
+        }
     }
 
     Map.Entry<K, V> lowerEntry(K key) {
-        Map.Entry<Object, OrderedChunk<K, V>> lowerChunkEntry = skiplist.lowerEntry(key);
-        if (lowerChunkEntry == null) {
+        OrderedChunk<K, V> c = chunkIndex.lower(key);
+        if (c == null) {
             /* we were looking for the minimal key */
             return new AbstractMap.SimpleImmutableEntry<>(null, null);
         }
 
         ThreadContext ctx = getThreadContext();
-
-        OrderedChunk<K, V> c = lowerChunkEntry.getValue();
-        /* Iterate orderedChunk to find prev(key), no upper limit */
-        OrderedChunk<K, V>.AscendingIter chunkIter = c.ascendingIter(ctx, null, false, null);
-        int prevIndex = chunkIter.next(ctx);
-
-        while (chunkIter.hasNext()) {
-            int nextIndex = chunkIter.next(ctx);
-            if (c.compareKeyAndEntryIndex(ctx.tempKey, key, nextIndex) <= 0) {
-                break;
+        try {
+            /* Iterate orderedChunk to find prev(key), no upper limit */
+            OrderedChunk<K, V>.AscendingIter chunkIter = c.ascendingIter(ctx, null, false, null);
+            int prevIndex = chunkIter.next(ctx);
+
+            while (chunkIter.hasNext()) {
+                int nextIndex = chunkIter.next(ctx);
+                if (c.compareKeyAndEntryIndex(ctx.tempKey, key, nextIndex) <= 0) {
+                    break;
+                }
+                prevIndex = nextIndex;
             }
-            prevIndex = nextIndex;
-        }
 
-        /* Edge case: we're looking for the lowest key in the map and it's still greater than minkey
-            (in which  case prevKey == key) */
-        if (c.compareKeyAndEntryIndex(ctx.tempKey, key, prevIndex) == 0) {
-            return new AbstractMap.SimpleImmutableEntry<>(null, null);
-        }
-        // ctx.tempKey was updated with prevIndex key as a side effect of compareKeyAndEntryIndex()
-        K keyDeserialized = getKeySerializer().deserialize(ctx.tempKey);
+            /* Edge case: we're looking for the lowest key in the map and it's still greater than minkey
+                (in which  case prevKey == key) */
+            if (c.compareKeyAndEntryIndex(ctx.tempKey, key, prevIndex) == 0) {
+                return new AbstractMap.SimpleImmutableEntry<>(null, null);
+            }
+            // ctx.tempKey was updated with prevIndex key as a side effect of compareKeyAndEntryIndex()
+            K keyDeserialized = getKeySerializer().deserialize(ctx.tempKey);
 
-        // get value associated with this (prev) key
-        boolean isAllocated = c.readValueFromEntryIndex(ctx.value, prevIndex);
-        if (!isAllocated) { // value reference was invalid, try again
-            return lowerEntry(key);
-        }
+            // get value associated with this (prev) key
+            boolean isAllocated = c.readValueFromEntryIndex(ctx.value, prevIndex);
+            if (!isAllocated) { // value reference was invalid, try again
+                return lowerEntry(key);
+            }
 
-        Result valueDeserialized = config.valueOperator.transform(ctx.result, ctx.value,
-                getValueSerializer()::deserialize);
-        if (valueDeserialized.operationResult != ValueUtils.ValueResult.TRUE) {
-            return lowerEntry(key);
+            Result valueDeserialized = config.valueOperator.transform(ctx.result, ctx.value, ctx.valueCopy,
+                    getValueSerializer()::deserialize);
+            if (valueDeserialized.operationResult != ValueUtils.ValueResult.TRUE) {
+                return lowerEntry(key);
+            }
+            return new AbstractMap.SimpleImmutableEntry<>(keyDeserialized, (V) valueDeserialized.value);
+        } finally {
+            releaseThreadContext(ctx);
         }
-        return new AbstractMap.SimpleImmutableEntry<>(keyDeserialized, (V) valueDeserialized.value);
     }
 
     /*-------------- Iterators --------------*/
@@ -910,7 +1025,13 @@ class InternalOakMap<K, V>  extends InternalOakBasics<K, V> {
             this.hi = hi;
             this.hiInclusive = hiInclusive;
             this.isDescending = isDescending;
-            initState(isDescending, lo, loInclusive, hi, hiInclusive);
+            // the initial position is found in the off-heap keys, see next()
+            config.memoryAllocator.enterRead();
+            try {
+                initState(isDescending, lo, loInclusive, hi, hiInclusive);
+            } finally {
+                config.memoryAllocator.exitRead();
+            }
         }
 
         private boolean tooLow(OakScopedReadBuffer key) {
@@ -988,7 +1109,7 @@ class InternalOakMap<K, V>  extends InternalOakBasics<K, V> {
                 }
 
                 final BasicChunk<K, V> c = getState().getChunk();
-                if (c.state() == BasicChunk.State.RELEASED) {
+                if (isReplaced(c)) {
                     initAfterRebalance();
                     continue;
                 }
@@ -1035,7 +1156,7 @@ class InternalOakMap<K, V>  extends InternalOakBasics<K, V> {
                 }
 
                 final BasicChunk<K, V> c = getState().getChunk();
-                if (c.state() == BasicChunk.State.RELEASED) {
+                if (isReplaced(c)) {
                     initAfterRebalance();
                     continue;
                 }
@@ -1070,9 +1191,9 @@ class InternalOakMap<K, V>  extends InternalOakBasics<K, V> {
 
             if (!isDescending) {
                 if (lowerBound != null) {
-                    nextOrderedChunk = skiplist.floorEntry(lowerBound).getValue();
+                    nextOrderedChunk = chunkIndex.floor(lowerBound);
                 } else {
-                    nextOrderedChunk = skiplist.firstEntry().getValue();
+                    nextOrderedChunk = chunkIndex.first();
                     // need to iterate from the beginning of the orderedChunk till the end
                 }
                 if (nextOrderedChunk != null) {
@@ -1087,8 +1208,8 @@ class InternalOakMap<K, V>  extends InternalOakBasics<K, V> {
                     return;
                 }
             } else {
-                nextOrderedChunk = upperBound != null ? skiplist.floorEntry(upperBound).getValue()
-                        : skiplist.lastEntry().getValue();
+                nextOrderedChunk = upperBound != null ? chunkIndex.floor(upperBound)
+                        : chunkIndex.last();
                 if (nextOrderedChunk != null) {
                     nextChunkIter = upperBound != null ?
                             nextOrderedChunk
@@ -1112,12 +1233,7 @@ class InternalOakMap<K, V>  extends InternalOakBasics<K, V> {
             if (!isDescending) {
                 return  currentHashChunk.next.getReference();
             } else {
-                Map.Entry<Object, OrderedChunk<K, V>> entry = skiplist.lowerEntry(currentHashChunk.minKey);
-                if (entry == null) {
-                    return null;
-                } else {
-                    return entry.getValue();
-                }
+                return chunkIndex.lower(currentHashChunk);
             }
         }
 
@@ -1187,7 +1303,7 @@ class InternalOakMap<K, V>  extends InternalOakBasics<K, V> {
         }
 
         @Override
-        public OakUnscopedBuffer next() {
+        protected OakUnscopedBuffer nextElement() {
             advance(true);
             return getValueUnscopedBuffer(ctx);
         }
@@ -1203,7 +1319,7 @@ class InternalOakMap<K, V>  extends InternalOakBasics<K, V> {
         }
 
         @Override
-        public OakUnscopedBuffer next() {
+        protected OakUnscopedBuffer nextElement() {
             advanceStream(null, value);
             return value;
         }
@@ -1219,10 +1335,10 @@ class InternalOakMap<K, V>  extends InternalOakBasics<K, V> {
             this.transformer = transformer;
         }
 
-        public T next() {
+        protected T nextElement() {
             advance(true);
 
-            Result res = config.valueOperator.transform(ctx.result, ctx.value, transformer);
+            Result res = config.valueOperator.transform(ctx.result, ctx.value, ctx.valueCopy, transformer);
             // If this value is deleted, try the next one
             if (res.operationResult == ValueUtils.ValueResult.FALSE) {
                 return next();
@@ -1246,7 +1362,7 @@ class InternalOakMap<K, V>  extends InternalOakBasics<K, V> {
             super(lo, loInclusive, hi, hiInclusive, isDescending);
         }
 
-        public Map.Entry<OakUnscopedBuffer, OakUnscopedBuffer> next() {
+        protected Map.Entry<OakUnscopedBuffer, OakUnscopedBuffer> nextElement() {
             advance(true);
             return new AbstractMap.SimpleImmutableEntry<>(getKeyUnscopedBuffer(ctx), getValueUnscopedBuffer(ctx));
         }
@@ -1264,7 +1380,7 @@ class InternalOakMap<K, V>  extends InternalOakBasics<K, V> {
             super(lo, loInclusive, hi, hiInclusive, isDescending);
         }
 
-        public Map.Entry<OakUnscopedBuffer, OakUnscopedBuffer> next() {
+        protected Map.Entry<OakUnscopedBuffer, OakUnscopedBuffer> nextElement() {
             advanceStream(key, value);
             return this;
         }
@@ -1296,27 +1412,31 @@ class InternalOakMap<K, V>  extends InternalOakBasics<K, V> {
             this.transformer = transformer;
         }
 
-        public T next() {
+        protected T nextElement() {
             advance(true);
-            ValueUtils.ValueResult res = ctx.value.s.preRead();
-            if (res == ValueUtils.ValueResult.FALSE) {
-                return next();
-            } else if (res == ValueUtils.ValueResult.RETRY) {
-                do {
-                    boolean isSuccessful = refreshValuePosition(ctx);
-                    if (!isSuccessful) {
-                        return next();
-                    }
-                    res = ctx.value.s.preRead();
-                } while (res != ValueUtils.ValueResult.TRUE);
-            }
+            while (true) {
+                ValueUtils.ValueResult res = ctx.value.s.preRead();
+                if (res == ValueUtils.ValueResult.FALSE) {
+                    return next();
+                } else if (res == ValueUtils.ValueResult.RETRY) {
+                    do {
+                        boolean isSuccessful = refreshValuePosition(ctx);
+                        if (!isSuccessful) {
+                            return next();
+                        }
+                        res = ctx.value.s.preRead();
+                    } while (res != ValueUtils.ValueResult.TRUE);
+                }
 
-            Map.Entry<OakScopedReadBuffer, OakScopedReadBuffer> entry =
-                    new AbstractMap.SimpleEntry<>(ctx.key, ctx.value);
+                Map.Entry<OakScopedReadBuffer, OakScopedReadBuffer> entry =
+                        new AbstractMap.SimpleEntry<>(ctx.key, ctx.value);
 
-            T transformation = transformer.apply(entry);
-            ctx.value.s.postRead();
-            return transformation;
+                T transformation = transformer.apply(entry);
+                // a read that does not lock the value (see NovaMemoryManager) is validated when it ends
+                if (ctx.value.s.postRead() == ValueUtils.ValueResult.TRUE) {
+                    return transformation;
+                }
+            }
         }
     }
 
@@ -1328,7 +1448,7 @@ class InternalOakMap<K, V>  extends InternalOakBasics<K, V> {
         }
 
         @Override
-        public OakUnscopedBuffer next() {
+        protected OakUnscopedBuffer nextElement() {
             advance(false);
             return getKeyUnscopedBuffer(ctx);
 
@@ -1345,7 +1465,7 @@ class InternalOakMap<K, V>  extends InternalOakBasics<K, V> {
         }
 
         @Override
-        public OakUnscopedBuffer next() {
+        protected OakUnscopedBuffer nextElement() {
             advanceStream(key, null);
             return key;
         }
@@ -1361,7 +1481,7 @@ class InternalOakMap<K, V>  extends InternalOakBasics<K, V> {
             this.transformer = transformer;
         }
 
-        public T next() {
+        protected T nextElement() {
             advance(false);
             return transformer.apply(ctx.key);
         }
@@ -1369,6 +1489,11 @@ class InternalOakMap<K, V>  extends InternalOakBasics<K, V> {
 
     // Factory methods for iterators
 
+    @Override
+    protected BasicIter<?> relocationIterator() {
+        return new ValueIterator(null, false, null, false, false, this);
+    }
+
     Iterator<OakUnscopedBuffer> valuesBufferViewIterator(K lo, boolean loInclusive, K hi, boolean hiInclusive,
                                                          boolean isDescending) {
         return new ValueIterator(lo, loInclusive, hi, hiInclusive, isDescending, this);
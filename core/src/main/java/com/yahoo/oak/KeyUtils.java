@@ -28,7 +28,10 @@ class KeyUtils {
         try {
             return cmp.compareKeyAndSerializedKey(key, serializedKey);
         } finally {
-            serializedKey.s.postRead();
+            // a read that does not lock the key (see NovaMemoryManager) fails if the key was released meanwhile
+            if (serializedKey.s.postRead() != ValueResult.TRUE) {
+                throw new DeletedMemoryAccessException();
+            }
         }
     }
     
@@ -48,7 +51,10 @@ class KeyUtils {
         try {
             return deSerial.deserialize(serializedKey);
         } finally {
-            serializedKey.s.postRead();
+            // a read that does not lock the key (see NovaMemoryManager) fails if the key was released meanwhile
+            if (serializedKey.s.postRead() != ValueResult.TRUE) {
+                throw new DeletedMemoryAccessException();
+            }
         }
     }
     
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2020, Verizon Media.
+ * Licensed under the terms of the Apache 2.0 license.
+ * Please see LICENSE file in the project root for terms.
+ */
+
+package com.yahoo.oak;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A blocks provider whose blocks are backed by memory-mapped files, one sparse file per block, created in a given
+ * directory. The OS may page the cold parts of such blocks out to their files, so an Oak may hold more data than
+ * the physical memory.
+ *
+ * Unlike {@code BlocksPool}, the blocks are not pooled: a new file is created and mapped for every requested block,
+ * and a returned block is unmapped and its file is deleted. A new sparse file reads as zeros, so the blocks need
+ * no zeroing. The file is deleted right after it is mapped if the OS allows it (the mapping stays valid), so no
+ * files are left behind if the process terminates abruptly.
+ */
+class MappedBlocksProvider implements BlocksProvider {
+
+    private final Path directory;
+    private final int blockSizeBytes;
+    // the number of blocks that were given and not returned yet
+    private final AtomicInteger mappedBlocks = new AtomicInteger(0);
+
+    private static final class MappedBlock extends Block {
+        private final MappedByteBuffer buffer;
+        private final Path file;
+        private boolean fileDeleted;
+
+        MappedBlock(MappedByteBuffer buffer, Path file, boolean fileDeleted) {
+            super(buffer.capacity(), DirectUtils.getAddress(buffer), true);
+            this.buffer = buffer;
+            this.file = file;
+            this.fileDeleted = fileDeleted;
+        }
+
+        // unmaps the block's memory and deletes its file, not thread safe
+        @Override
+        void clean() {
+            DirectUtils.unmap(buffer);
+            if (!fileDeleted) {
+                fileDeleted = deleteFile(file);
+            }
+        }
+    }
+
+    /**
+     * @param directory      the directory in which the block files are created, it must exist
+     * @param blockSizeBytes the size of each block (and file) in bytes
+     */
+    MappedBlocksProvider(Path directory, int blockSizeBytes) {
+        if (!Files.isDirectory(directory)) {
+            throw new IllegalArgumentException(String.format("%s is not a directory", directory));
+        }
+        this.directory = directory;
+        this.blockSizeBytes = blockSizeBytes;
+    }
+
+    @Override
+    public int blockSize() {
+        return blockSizeBytes;
+    }
+
+    /**
+     * Creates and maps a new block file. Thread safe.
+     *
+     * @throws OakOutOfMemoryException if the file cannot be created or mapped
+     */
+    @Override
+    public Block getBlock() {
+        Path file = null;
+        try {
+            file = Files.createTempFile(directory, "oak-block-", ".mmap");
+            MappedByteBuffer buffer;
+            try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+                raf.setLength(blockSizeBytes); // a sparse file, the disk space is taken only once it is written
+                buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, blockSizeBytes);
+            }
+            // the mapping outlives its channel (and on most systems, also its file)
+            Block b = new MappedBlock(buffer, file, deleteFile(file));
+            mappedBlocks.incrementAndGet();
+            return b;
+        } catch (IOException e) {
+            if (file != null) {
+                deleteFile(file);
+            }
+            OakOutOfMemoryException oom = new OakOutOfMemoryException(
+                    String.format("Failed to map a block file in %s: %s", directory, e.getMessage()));
+            oom.initCause(e);
+            throw oom;
+        }
+    }
+
+    /**
+     * Unmaps a returned block, and deletes its file.
+     * Assumes the block is not used by any concurrent thread, otherwise thread safe.
+     */
+    @Override
+    public void returnBlock(Block block) {
+        block.clean();
+        mappedBlocks.decrementAndGet();
+    }
+
+    // the number of blocks that are currently mapped
+    int numOfMappedBlocks() {
+        return mappedBlocks.get();
+    }
+
+    Path getDirectory() {
+        return directory;
+    }
+
+    private static boolean deleteFile(Path file) {
+        try {
+            Files.deleteIfExists(file);
+            return true;
+        } catch (IOException e) {
+            // e.g., a mapped file cannot be deleted on Windows, it is deleted once it is unmapped
+            return false;
+        }
+    }
+}
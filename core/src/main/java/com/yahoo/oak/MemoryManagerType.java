@@ -0,0 +1,39 @@
+/*
+ * Copyright 2020, Verizon Media.
+ * Licensed under the terms of the Apache 2.0 license.
+ * Please see LICENSE file in the project root for terms.
+ */
+
+package com.yahoo.oak;
+
+import com.google.common.annotations.Beta;
+
+/**
+ * The memory managers that can be chosen for the off-heap keys and values of an Oak map, via {@link OakMapBuilder}.
+ */
+@Beta
+public enum MemoryManagerType {
+    /**
+     * Readers and writers lock the off-heap header of the data, and the released memory is reused once
+     * the (global) version is increased. The default.
+     */
+    SYNC_RECYCLE,
+    /**
+     * Readers announce their reads instead of locking the off-heap header, and the released memory is reused only
+     * once no reader may still read it. Suits read-mostly workloads, where many threads read the same data.
+     */
+    EPOCH_RECLAMATION,
+    /**
+     * Readers do not write to the off-heap header, but validate after the read that no writer changed it, and
+     * writers exclude each other via a bit of the header, and announce the data they write, so it is not reused
+     * meanwhile. Suits read-mostly workloads, where many threads read the same data, as the readers do not contend
+     * on the header. The default for the keys of the ordered map.
+     */
+    NOVA,
+    /**
+     * No off-heap header and no synchronization, the released memory is reused immediately. Suits only data that is
+     * neither updated nor freed while the map is alive: the keys of an ordered map, whose removed keys are then
+     * never reused (insert-only data).
+     */
+    SEQ_EXPAND
+}
@@ -6,39 +6,115 @@
 
 package com.yahoo.oak;
 
-import java.util.concurrent.ConcurrentSkipListSet;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntPredicate;
 
 class NativeMemoryAllocator implements BlockMemoryAllocator {
 
-    // When allocating n bytes and there are buffers in the free list, only free buffers of size <= n *
-    // REUSE_MAX_MULTIPLIER will be recycled
-    // This parameter may be tuned for performance vs off-heap memory utilization
-    private static final int REUSE_MAX_MULTIPLIER = 2;
     public static final int INVALID_BLOCK_ID = 0;
 
-    // mapping IDs to blocks allocated solely to this Allocator
-    private Block[] blocksArray;
+    // Small allocations are served from a thread-local allocation buffer (TLAB): a region of the current block,
+    // reserved by a single thread and bump-pointer allocated by it without any synchronization.
+    // This is the default size of such region, it is reduced if the blocks are too small to host many of them.
+    static final int DEFAULT_THREAD_BUFFER_SIZE = 256 * 1024;
+    // Only allocations of up to (buffer size / THREAD_BUFFER_MAX_ALLOCATION_RATIO) bytes are served from the TLAB,
+    // so the unused tail of a TLAB, which is returned to the free list upon refill, is relatively small.
+    private static final int THREAD_BUFFER_MAX_ALLOCATION_RATIO = 8;
+    // A block should be big enough to host at least this number of TLABs
+    private static final int MIN_THREAD_BUFFERS_PER_BLOCK = 16;
+
+    // mapping IDs to blocks allocated solely to this Allocator.
+    // A block without live bytes is returned to the provider while the allocator is open, and its entry is set to
+    // RETURNED_BLOCK. An entry is set before any reference to its block is created, so it is null only for an ID
+    // that was not used yet. The ID of a returned block is given to a new block only once no thread may access the
+    // returned block (see freeBlockIDs), and a stale reference kept beyond that is detected via coalescings().
+    // The array grows with the IDs, up to the maximal block ID that can be encoded in a reference. The array is
+    // grown by a copy, and never in place, so a concurrent reader holding the previous array still finds there
+    // every block it may hold a reference to.
+    // The array and its entries are written while holding the lock of the allocator, and read without it.
+    private volatile AtomicReferenceArray<Block> blocksArray;
+    // the entry of a block that was returned to the provider (or is retired, to be returned)
+    private static final Block RETURNED_BLOCK = new Block(1, 0, false);
     private final AtomicInteger idGenerator = new AtomicInteger(1);
-
-    // free list of Slices which can be reused.
-    // They are sorted by the slice length, then by the block id, then by their offset.
-    // See {@code Slice.compareTo(Slice)} for more information.
-    private final ConcurrentSkipListSet<BlockAllocationSlice> freeList = new ConcurrentSkipListSet<>();
+    // the IDs of the returned blocks, to be given to new blocks before fresh IDs are. Guarded by this.
+    private final ArrayDeque<Integer> freeBlockIDs = new ArrayDeque<>();
+    // the number of blocks that were retired, so a stale reference to a retired block, which may later resolve
+    // to another block with the same ID, is looked up again, see coalescings(). Shared with the sibling allocator.
+    private final AtomicLong retiredBlockIDs;
+    // the maximal block ID that can be encoded in the references of the memory managers using this allocator
+    private int maxBlockID;
+    // the number of blocks currently held by this allocator
+    private final AtomicInteger numOfBlocks = new AtomicInteger(0);
+    // the number of bytes of the blocks returned to the provider before the allocator is closed
+    private final LongAdder returnedBytes = new LongAdder();
+    // the threads that may access the blocks, so a block is returned only once none of them may access it.
+    // Shared with the sibling allocator.
+    private final EpochTracker epochs;
+    // the allocator of another part of the same map, sharing the readers of this one, or null
+    private volatile NativeMemoryAllocator sibling;
+    // the blocks removed from the blocks array, to be returned once no thread may access them. Guarded by this.
+    private final List<RetiredBlock> retiredBlocks = new ArrayList<>();
+    private volatile boolean hasRetiredBlocks;
+    // the oldest and the newest epochs the retired blocks were retired with, so a thread leaving its epoch checks
+    // the retired blocks only if some of them may be returned, see exitRead(). Written under the lock of this.
+    private volatile long oldestRetireEpoch = Long.MAX_VALUE;
+    private volatile long newestRetireEpoch = EpochTracker.QUIESCENT;
+    // set while a thread leaving its epoch returns the retired blocks, so the other leaving threads do not wait
+    private final AtomicBoolean returningRetiredBlocks = new AtomicBoolean(false);
+    // set by a leaving thread that found the blocks being returned by another one, which then checks them again
+    private volatile boolean returnRetiredBlocksAgain;
+
+    // free list of off-heap cuts which can be reused, either SortedFreeList (default) or SizeClassFreeList
+    private final FreeList freeList;
 
     private final BlocksProvider blocksProvider;
-    private Block currentBlock;
+    // volatile, so a thread allocating from the current block also finds the block in the blocks array
+    private volatile Block currentBlock;
+    // after rewind(), the ID of the next held block to become the current block (the blocks are reused in the
+    // order of their IDs), or INVALID_BLOCK_ID once all of them are used again
+    private int spareBlockID = INVALID_BLOCK_ID;
+
+    // The TLABs of all the threads, so the tail of a TLAB can be returned by another thread than its owner:
+    // when the owner died, when the block of the TLAB is evacuated, or when the allocator is closed.
+    // Otherwise, the tail of a TLAB is returned only when its owner refills it.
+    private final Set<ThreadBuffer> allThreadBuffers = ConcurrentHashMap.newKeySet();
+    // the thread-local allocation buffers of the threads allocating with this allocator
+    private final ThreadLocal<ThreadBuffer> threadBuffers = ThreadLocal.withInitial(() -> {
+        ThreadBuffer tb = new ThreadBuffer(Thread.currentThread());
+        allThreadBuffers.add(tb);
+        return tb;
+    });
+    private final int threadBufferSize;
+    private final int threadBufferMaxAllocation;
+    // incremented upon clear() and rewind(), so TLABs reserved before are not used anymore
+    private volatile int threadBuffersGeneration = 0;
 
     // the memory allocation limit for this Allocator
     // current capacity is set as number of blocks (!) allocated for this OakMap
     // can be changed to check only according to real allocation (allocated field)
-    private final long capacity;
+    // may be changed at runtime, see setCapacity()
+    private volatile long capacity;
+    // the allocators whose blocks count against the capacity of this allocator (including this one),
+    // see shareCapacity()
+    private volatile List<NativeMemoryAllocator> capacityGroup = Collections.singletonList(this);
 
     // number of bytes allocated for this Oak among different Blocks
     // can be calculated, but kept for easy access
-    private final AtomicLong allocated = new AtomicLong(0);
+    // striped counter, as it is updated by every allocation and release
+    private final LongAdder allocated = new LongAdder();
 
     // flag allowing not to close the same allocator twice
     private final AtomicBoolean closed = new AtomicBoolean(false);
@@ -51,9 +127,49 @@ class NativeMemoryAllocator implements BlockMemoryAllocator {
 
     // A testable constructor
     NativeMemoryAllocator(long capacity, BlocksProvider blocksProvider) {
+        this(capacity, blocksProvider, DEFAULT_THREAD_BUFFER_SIZE);
+    }
+
+    // A testable constructor, allowing to set the TLAB size (zero disables TLABs)
+    NativeMemoryAllocator(long capacity, BlocksProvider blocksProvider, int threadBufferSize) {
+        this(capacity, blocksProvider, threadBufferSize, false);
+    }
+
+    // input param sizeClasses: whether to use the slab-style size-class free lists (see SizeClassFreeList)
+    NativeMemoryAllocator(long capacity, BlocksProvider blocksProvider, int threadBufferSize, boolean sizeClasses) {
+        this(capacity, blocksProvider, threadBufferSize, sizeClasses, new EpochTracker(), new AtomicLong());
+    }
+
+    // An allocator of another part of the same map (e.g., its keys), configured as the given one. It takes its own
+    // blocks from the same provider, so the off-heap cuts of the two allocators never share a block.
+    // The two allocators share their readers (see enterRead()) and the count of their retired blocks (see
+    // coalescings()), so a reader entering either of them is protected in both, and their blocks count against
+    // a shared capacity.
+    NativeMemoryAllocator(NativeMemoryAllocator sibling) {
+        this(sibling.capacity, sibling.blocksProvider, sibling.threadBufferSize,
+                sibling.freeList instanceof SizeClassFreeList, sibling.epochs, sibling.retiredBlockIDs);
+        shareCapacity(sibling);
+        this.sibling = sibling;
+        sibling.sibling = this;
+    }
+
+    private NativeMemoryAllocator(long capacity, BlocksProvider blocksProvider, int threadBufferSize,
+            boolean sizeClasses, EpochTracker epochs, AtomicLong retiredBlockIDs) {
         this.blocksProvider = blocksProvider;
         this.capacity = capacity;
-        this.blocksArray = new Block[calcBlockArraySize()];
+        this.threadBufferSize = Math.min(threadBufferSize, blocksProvider.blockSize() / MIN_THREAD_BUFFERS_PER_BLOCK);
+        this.threadBufferMaxAllocation = this.threadBufferSize / THREAD_BUFFER_MAX_ALLOCATION_RATIO;
+        this.blocksArray = new AtomicReferenceArray<>(calcBlockArraySize());
+        this.maxBlockID = ReferenceCodecSyncRecycle.maxBlockID(blocksProvider.blockSize(), capacity);
+        if (sizeClasses) {
+            // the heads of the size-class free lists cannot encode bigger IDs, also after the capacity is grown
+            this.maxBlockID = Math.min(this.maxBlockID, SizeClassFreeList.maxBlockID(blocksProvider.blockSize()));
+        }
+        this.epochs = epochs;
+        this.retiredBlockIDs = retiredBlockIDs;
+        this.freeList = sizeClasses
+                ? new SizeClassFreeList(this, blocksProvider.blockSize(), blocksArray.length() - 1)
+                : new SortedFreeList(this, epochs);
         // initially allocate one single block from pool
         // this may lazy initialize the pool and take time if this is the first call for the pool
         allocateNewCurrentBlock();
@@ -61,54 +177,53 @@ class NativeMemoryAllocator implements BlockMemoryAllocator {
     }
 
     private int calcBlockArraySize() {
+        return calcBlockArraySize(capacity);
+    }
+
+    private int calcBlockArraySize(long capacity) {
         final int size = (int) Math.ceil((double) capacity / (double) blocksProvider.blockSize());
         // We add "1" since the first entry of blocksArray is always empty
         return size + 1;
     }
 
-    // Allocates an off-heap cut of the given size, either from freeList or (if it is still possible)
-    // within current block bounds.
+    // Allocates an off-heap cut of the given size, either from the TLAB of the thread, from freeList or (if it is
+    // still possible) within current block bounds.
     // Otherwise, new block is allocated within Oak memory bounds. Thread safe.
     // Given size already includes the size for metadata header if needed.
     // For our internal implementation what all Slices we work with extend the BlockAllocationSlice!
     @Override
     public boolean allocate(Slice sl, int size) {
         BlockAllocationSlice s = (BlockAllocationSlice) sl;
-        // While the free list is not empty there can be a suitable free slice to reuse.
-        // To search a free slice, we use the input slice as a dummy and change its length to the desired length.
-        // Then, we use freeList.higher(s) which returns a free slice with greater or equal length to the length of the
-        // dummy with time complexity of O(log N), where N is the number of free slices.
-        while (!freeList.isEmpty()) {
-            s.initializeLookupDummy(size);
-            BlockAllocationSlice bestFit = freeList.higher(s);
-            if (bestFit == null) {
-                break;
-            }
-            // If the best fit is more than REUSE_MAX_MULTIPLIER times as big than the desired length, than a new
-            // buffer is allocated instead of reusing.
-            // This means that currently buffers are not split, so there is some internal fragmentation.
-            if (bestFit.getAllocatedLength() > (REUSE_MAX_MULTIPLIER * size)) {
-                break;     // all remaining buffers are too big
-            }
-            // If multiple threads got the same bestFit only one can use it (the one which succeeds in removing it
-            // from the free list).
-            // The rest restart the while loop.
-            if (freeList.remove(bestFit)) {
-                if (stats != null) {
-                    stats.reclaim(size);
-                }
-                s.copyAllocationInfoFrom(bestFit);
-                allocated.addAndGet(size);
-                return true;
+        // The free list may need the new off-heap cut to be bigger than requested, to be able to reuse it later
+        int slotSize = freeList.slotSize(size);
+        boolean fitsThreadBuffer = slotSize <= threadBufferMaxAllocation;
+
+        // Small allocations are bumped in the TLAB without any synchronization. The shared free list is searched
+        // only once the TLAB is exhausted, so the released memory is reused before the TLAB is refilled.
+        if (fitsThreadBuffer && allocateFromThreadBuffer(s, size, slotSize)) {
+            allocated.add(size);
+            return true;
+        }
+
+        if (freeList.reuse(s, size)) {
+            if (stats != null) {
+                stats.reclaim(size);
             }
+            allocated.add(size);
+            return true;
+        }
+
+        // freeList is empty or there is no suitable slice, a new TLAB is reserved for small allocations
+        if (fitsThreadBuffer && refillThreadBuffer(s, size, slotSize)) {
+            allocated.add(size);
+            return true;
         }
 
         boolean isAllocated = false;
-        // freeList is empty or there is no suitable slice
         while (!isAllocated) {
             try {
                 // The ByteBuffer inside this slice is the thread's ByteBuffer
-                isAllocated = currentBlock.allocate(s, size);
+                isAllocated = currentBlock.allocate(s, size, slotSize);
             } catch (OakOutOfMemoryException e) {
                 // there is no space in current block
                 // may be a buffer bigger than any block is requested?
@@ -117,8 +232,9 @@ class NativeMemoryAllocator implements BlockMemoryAllocator {
                             String.format("Cannot allocate larger items than the block size (block size: %s).",
                                     blocksProvider.blockSize()));
                 }
-                // does allocation of new block brings us out of capacity?
-                if ((numberOfBlocks() + 1) * blocksProvider.blockSize() > capacity) {
+                // does allocation of new block brings us out of capacity? (a held block after rewind() does not)
+                if (spareBlockID == INVALID_BLOCK_ID
+                        && groupHeldBytes() + blocksProvider.blockSize() > capacity) {
                     throw new OakOutOfMemoryException(
                             String.format("This allocator capacity was exceeded (capacity: %s).", capacity));
                 } else {
@@ -126,17 +242,300 @@ class NativeMemoryAllocator implements BlockMemoryAllocator {
                     // need to be thread-safe, so not many blocks are allocated
                     // locking is actually the most reasonable way of synchronization here
                     synchronized (this) {
-                        if (currentBlock.allocatedWithPossibleDelta() + size > currentBlock.getCapacity()) {
+                        if (currentBlock.allocatedWithPossibleDelta() + slotSize > currentBlock.getCapacity()) {
                             allocateNewCurrentBlock();
                         }
                     }
                 }
             }
         }
-        allocated.addAndGet(size);
+        allocated.add(size);
         return true;
     }
 
+    // Allocates from the thread-local allocation buffer.
+    // Returns false if the TLAB has no room, or was reserved before the allocator was cleared (or rewound).
+    private boolean allocateFromThreadBuffer(BlockAllocationSlice s, int size, int slotSize) {
+        ThreadBuffer tb = threadBuffers.get();
+        if (tb.generation != threadBuffersGeneration) {
+            return false;
+        }
+        int offset = tb.bump(slotSize);
+        if (offset < 0) {
+            return false;
+        }
+        s.associateBlockAllocation(tb.blockID, offset, size, tb.blockMemAddress);
+        return true;
+    }
+
+    // Reserves a new thread-local allocation buffer from the current block, and allocates from it.
+    // Returns false if the current block has no room for a new TLAB, then the caller should allocate directly
+    // from the block (which also takes care of moving to the next block).
+    private boolean refillThreadBuffer(BlockAllocationSlice s, int size, int slotSize) {
+        ThreadBuffer tb = threadBuffers.get();
+        int generation = threadBuffersGeneration;
+        Block b = currentBlock;
+        // check is only an optimization, to avoid exceptions while the current block is getting full
+        if (b.allocatedWithPossibleDelta() + threadBufferSize > b.getCapacity()) {
+            return false;
+        }
+        int offset;
+        try {
+            offset = b.allocateRegion(threadBufferSize);
+        } catch (OakOutOfMemoryException e) {
+            return false;
+        }
+        synchronized (tb) {
+            if (tb.generation == generation) {
+                returnThreadBufferTail(tb);
+            } else {
+                // the allocator was cleared since this TLAB was reserved, its block is not ours anymore,
+                // and the TLAB is registered again
+                allThreadBuffers.add(tb);
+            }
+            tb.set(generation, b, offset + slotSize, offset + threadBufferSize);
+        }
+        s.associateBlockAllocation(b.getID(), offset, size, b.getStartMemAddress());
+        // a refill is rare enough to also look for the TLABs of the threads that died
+        retireThreadBuffers(blockID -> false);
+        return true;
+    }
+
+    // The unused tail of a TLAB is put in the free list, and the TLAB is left empty.
+    // The whole TLAB is counted as live bytes of its block upon reservation, so the tail is released here.
+    // Must be called while holding the lock of the TLAB, see ThreadBuffer.
+    private void returnThreadBufferTail(ThreadBuffer tb) {
+        int next = tb.retire();
+        int tail = tb.limit - next;
+        if (tail <= 0) {
+            return;
+        }
+        freeList.addRange(tb.blockID, next, tail, tb.blockMemAddress);
+        releaseLiveBytes(tb.block, tail);
+    }
+
+    // Returns the tails of the TLABs of the dead threads, and of the TLABs on the blocks matching retireBlock,
+    // so their blocks can be returned once all their other off-heap cuts are released. Thread safe.
+    private void retireThreadBuffers(IntPredicate retireBlock) {
+        int generation = threadBuffersGeneration;
+        for (ThreadBuffer tb : allThreadBuffers) {
+            Thread owner = tb.owner.get();
+            boolean dead = owner == null || !owner.isAlive();
+            synchronized (tb) {
+                if (tb.generation == generation && (dead || retireBlock.test(tb.blockID))) {
+                    returnThreadBufferTail(tb);
+                }
+            }
+            if (dead) {
+                allThreadBuffers.remove(tb);
+            }
+        }
+    }
+
+    // Called by the free list when it hands out a free range of the given block, to account for its live bytes.
+    // Returns false if the block was retired (or is already returned), then the range must be dropped.
+    boolean acquireBlockRange(int blockID, int size) {
+        Block b = blocksArray.get(blockID);
+        return isHeld(b) && b.acquireLiveBytes(size);
+    }
+
+    // Returns true if the given entry of the blocks array is a block held by the allocator
+    private static boolean isHeld(Block b) {
+        return b != null && b != RETURNED_BLOCK;
+    }
+
+    private void releaseLiveBytes(Block b, int size) {
+        if (b.releaseLiveBytes(size) == 0) {
+            returnBlockIfUnused(b);
+        }
+    }
+
+    // Returns a block without live bytes to the provider, unless it is the current block.
+    // From now on, stale references to the block are resolved as deleted by readMemoryAddress(), as all the
+    // off-heap cuts of the block were released. But a thread may still access an address it resolved before,
+    // so the block is retired, and it is given back to the provider (and its ID is recycled) only once no such
+    // thread remains. Thread safe.
+    private void returnBlockIfUnused(Block b) {
+        if (b == currentBlock) {
+            return;
+        }
+        synchronized (this) {
+            AtomicReferenceArray<Block> blocks = blocksArray;
+            if (b == currentBlock || blocks == null || blocks.get(b.getID()) != b || !b.retire()) {
+                return;
+            }
+            // No range of the block can be taken from the free list anymore, we remove them to release memory
+            freeList.removeBlock(b.getID());
+            blocks.set(b.getID(), RETURNED_BLOCK);
+            numOfBlocks.decrementAndGet();
+            // counted before the retire epoch is taken, so a thread that finds the count unchanged entered before,
+            // and the ID is not recycled until it exits
+            retiredBlockIDs.incrementAndGet();
+            // a thread that resolves an address from now on finds the block returned
+            retiredBlocks.add(new RetiredBlock(b, epochs.retireEpoch()));
+            updateRetireEpochs();
+        }
+        returnRetiredBlocks();
+    }
+
+    // Returns the retired blocks which no thread may access anymore to the provider, and recycles their IDs.
+    // Thread safe.
+    private void returnRetiredBlocks() {
+        List<Block> safe = new ArrayList<>();
+        synchronized (this) {
+            retiredBlocks.removeIf(r -> {
+                if (!epochs.isSafe(r.epoch)) {
+                    return false;
+                }
+                safe.add(r.block);
+                freeBlockIDs.add(r.block.getID());
+                return true;
+            });
+            updateRetireEpochs();
+        }
+        for (Block b : safe) {
+            returnedBytes.add(b.getCapacity());
+            if (stats != null) {
+                stats.returnBlock();
+            }
+            blocksProvider.returnBlock(b);
+        }
+    }
+
+    // The blocks are retired in the order of their epochs, and the order is kept when some of them are returned.
+    // Called under the lock of this.
+    private void updateRetireEpochs() {
+        hasRetiredBlocks = !retiredBlocks.isEmpty();
+        oldestRetireEpoch = hasRetiredBlocks ? retiredBlocks.get(0).epoch : Long.MAX_VALUE;
+        newestRetireEpoch = hasRetiredBlocks ? retiredBlocks.get(retiredBlocks.size() - 1).epoch
+                : EpochTracker.QUIESCENT;
+    }
+
+    // Returns the retired blocks once a thread left the given epoch, unless none of them can be returned now:
+    // a block may be returned only if the thread could access it (it was retired in or after that epoch), or if
+    // a scan of another thread already found it safe. While a block stays unsafe (e.g., a long scan keeps an old
+    // epoch), the other threads leave without taking any lock. Only one leaving thread returns the blocks at a
+    // time, and the others leave without waiting, so it checks the blocks again on their behalf.
+    private void tryReturnRetiredBlocks(long leftEpoch) {
+        if (leftEpoch > newestRetireEpoch && oldestRetireEpoch >= epochs.lastSafeEpoch()) {
+            return;
+        }
+        returnRetiredBlocksAgain = true;
+        while (returnRetiredBlocksAgain && returningRetiredBlocks.compareAndSet(false, true)) {
+            try {
+                returnRetiredBlocksAgain = false;
+                returnRetiredBlocks();
+            } finally {
+                returningRetiredBlocks.set(false);
+            }
+        }
+    }
+
+    @Override
+    public void enterRead() {
+        epochs.enter();
+    }
+
+    @Override
+    public void exitRead() {
+        // the blocks retired while the thread could access them are returned once it leaves
+        long leftEpoch = epochs.exit();
+        if (leftEpoch == EpochTracker.QUIESCENT) {
+            return;
+        }
+        tryReturnRetiredBlocks(leftEpoch);
+        NativeMemoryAllocator s = sibling;
+        if (s != null) {
+            s.tryReturnRetiredBlocks(leftEpoch);
+        }
+    }
+
+    // The epoch to retire memory that is not allocated by this allocator with, such as an off-heap entry array,
+    // so it is freed only once no thread that entered by enterRead() may access it, see isSafe()
+    long retireEpoch() {
+        return epochs.retireEpoch();
+    }
+
+    // Returns true if no thread that entered by enterRead() may still access the memory retired with the epoch
+    boolean isSafe(long retireEpoch) {
+        return epochs.isSafe(retireEpoch);
+    }
+
+    // A recycled block ID is counted as well, as a stale reference to the returned block resolves to the new one
+    @Override
+    public long coalescings() {
+        return freeList.coalescings() + retiredBlockIDs.get();
+    }
+
+    /*-------------- Off-heap compaction --------------*/
+
+    // Selects up to maxBlocks blocks, other than the current block, having at most maxLiveRatio of their capacity
+    // in use, and marks them as evacuating, so their free ranges are not reused while their values are relocated
+    // (the free list does not even search them, see FreeList.detachBlock()).
+    // The sparsest blocks are selected first. Returns the IDs of the selected blocks. Thread safe.
+    int[] startEvacuation(double maxLiveRatio, int maxBlocks) {
+        AtomicReferenceArray<Block> blocks;
+        long[] sparse = new long[0];
+        int numOfSparse = 0;
+        synchronized (this) {
+            blocks = blocksArray;
+            if (blocks == null) {
+                return new int[0];
+            }
+            for (int i = 0; i < blocks.length(); i++) {
+                Block b = blocks.get(i);
+                long live = (!isHeld(b) || b == currentBlock) ? -1 : b.getLiveBytes();
+                if (live >= 0 && live <= maxLiveRatio * b.getCapacity()) {
+                    if (numOfSparse == sparse.length) {
+                        sparse = Arrays.copyOf(sparse, Math.max(16, sparse.length * 2));
+                    }
+                    // a snapshot of the live bytes in the high bits, so the blocks are sorted by it
+                    sparse[numOfSparse++] = (live << Integer.SIZE) | b.getID();
+                }
+            }
+        }
+        Arrays.sort(sparse, 0, numOfSparse);
+        int[] blockIDs = new int[Math.min(maxBlocks, numOfSparse)];
+        for (int i = 0; i < blockIDs.length; i++) {
+            blockIDs[i] = (int) (sparse[i] & DirectUtils.LONG_INT_MASK);
+            Block b = blocks.get(blockIDs[i]);
+            if (isHeld(b)) { // the block may have been returned meanwhile
+                b.setEvacuating(true);
+                freeList.detachBlock(blockIDs[i]);
+            }
+        }
+        // a TLAB would keep live bytes in an evacuated block, even once all its values are relocated
+        if (blockIDs.length > 0) {
+            retireThreadBuffers(blockID -> blocks.get(blockID) != null && blocks.get(blockID).isEvacuating());
+        }
+        return blockIDs;
+    }
+
+    // Ends the evacuation of the given blocks, the ones which were not emptied are used again. Thread safe.
+    void endEvacuation(int[] blockIDs) {
+        AtomicReferenceArray<Block> blocks = blocksArray;
+        if (blocks == null) {
+            return;
+        }
+        for (int blockID : blockIDs) {
+            Block b = blocks.get(blockID);
+            if (isHeld(b)) {
+                b.setEvacuating(false);
+                freeList.restoreBlock(blockID);
+            }
+        }
+    }
+
+    boolean isEvacuating(int blockID) {
+        Block b = blocksArray.get(blockID);
+        return b != null && b.isEvacuating();
+    }
+
+    // Returns the number of bytes of the blocks that were returned to the provider while the allocator is open
+    long returnedBytes() {
+        return returnedBytes.sum();
+    }
+
     // Releases memory (makes it available for reuse) without other GC consideration.
     // Meaning this request should come while it is ensured none is using this memory.
     // Thread safe.
@@ -146,12 +545,19 @@ class NativeMemoryAllocator implements BlockMemoryAllocator {
     public void free(Slice sl) {
         BlockAllocationSlice s = (BlockAllocationSlice) sl;
         int size = s.getAllocatedLength();
-        allocated.addAndGet(-size);
+        allocated.add(-size);
         if (stats != null) {
             stats.release(size);
         }
+        AtomicReferenceArray<Block> blocks = blocksArray;
+        Block b = (blocks == null) ? null : blocks.get(s.getAllocatedBlockID());
+        int slotSize = freeList.slotSize(size);
         s.zeroMetadata();
-        freeList.add(s.duplicate());
+        // the off-heap cut must be in the free list before the block may be found unused
+        freeList.add(s);
+        if (isHeld(b)) {
+            releaseLiveBytes(b, slotSize);
+        }
     }
 
     // Releases all memory allocated for this Oak (should be used as part of the Oak destruction)
@@ -164,9 +570,20 @@ class NativeMemoryAllocator implements BlockMemoryAllocator {
             return;
         }
 
+        // The TLABs reserved before are not used anymore, and their blocks are not held by them
+        threadBuffersGeneration++;
+        allThreadBuffers.clear();
+        threadBuffers.remove();
+
         // Release the hold of the block array and return it the provider.
-        Block[] b = blocksArray;
+        AtomicReferenceArray<Block> b = blocksArray;
         blocksArray = null;
+        List<RetiredBlock> retired;
+        synchronized (this) {
+            retired = new ArrayList<>(retiredBlocks);
+            retiredBlocks.clear();
+            updateRetireEpochs();
+        }
 
         // Generally, there is no need to do anything with the free list,
         // as all free list members were residing on one of the (already released) blocks.
@@ -176,15 +593,21 @@ class NativeMemoryAllocator implements BlockMemoryAllocator {
         // Reset "closed" to apply a memory barrier before actually returning the block.
         closed.set(true);
 
-        for (int i = 1; i <= numberOfBlocks(); i++) {
-            blocksProvider.returnBlock(b[i]);
+        for (int i = 1; i < b.length(); i++) {
+            if (isHeld(b.get(i))) {
+                blocksProvider.returnBlock(b.get(i));
+            }
+        }
+        // no thread accesses the memory of a closed allocator
+        for (RetiredBlock r : retired) {
+            blocksProvider.returnBlock(r.block);
         }
     }
 
     // Returns the off-heap allocation of this OakMap
     @Override
     public long allocated() {
-        return allocated.get();
+        return allocated.sum();
     }
 
     public int getFreeListLength() {
@@ -192,6 +615,79 @@ class NativeMemoryAllocator implements BlockMemoryAllocator {
     }
 
 
+    @Override
+    public int blockSize() {
+        return blocksProvider.blockSize();
+    }
+
+    @Override
+    public long capacity() {
+        return capacity;
+    }
+
+    // The capacity is grown by a single volatile write: the blocks array is grown lazily as new blocks are taken,
+    // as it was before. Shrinking the capacity does not release any block, a block is returned to the provider only
+    // once it is emptied (e.g., by the compaction), and no new block is taken while the capacity is exceeded.
+    @Override
+    public synchronized void setCapacity(long capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException(String.format("Illegal capacity: %,d bytes", capacity));
+        }
+        if (calcBlockArraySize(capacity) - 1 > maxBlockID) {
+            throw new IllegalArgumentException(String.format(
+                    "The capacity %,d bytes needs more blocks than can be encoded in a reference", capacity));
+        }
+        this.capacity = capacity;
+    }
+
+    @Override
+    public boolean isOverCapacity() {
+        return groupHeldBytes() > capacity;
+    }
+
+    // Makes the blocks of each of the two allocators (and of the allocators they already share with) count
+    // against the capacity of the others, so the allocators of a map (see DirectEntryArrays) do not hold more
+    // blocks together than the capacity of the map. The capacities are still set separately, see
+    // InternalOakBasics.setMemoryCapacity(). Called while the map is built.
+    synchronized void shareCapacity(NativeMemoryAllocator other) {
+        List<NativeMemoryAllocator> group = new ArrayList<>(capacityGroup);
+        for (NativeMemoryAllocator a : other.capacityGroup) {
+            if (!group.contains(a)) {
+                group.add(a);
+            }
+        }
+        List<NativeMemoryAllocator> shared = Collections.unmodifiableList(group);
+        for (NativeMemoryAllocator a : group) {
+            a.capacityGroup = shared;
+        }
+    }
+
+    private long heldBytes() {
+        return (long) numOfBlocks.get() * blocksProvider.blockSize();
+    }
+
+    private long groupHeldBytes() {
+        long bytes = 0;
+        for (NativeMemoryAllocator a : capacityGroup) {
+            bytes += a.heldBytes();
+        }
+        return bytes;
+    }
+
+    @Override
+    public synchronized void limitMaxBlockID(int maxBlockID) {
+        if (maxBlockID < calcBlockArraySize() - 1) {
+            throw new IllegalArgumentException(String.format(
+                    "The capacity %,d bytes needs block IDs bigger than %,d", capacity, maxBlockID));
+        }
+        this.maxBlockID = Math.min(this.maxBlockID, maxBlockID);
+    }
+
+    // used only for testing
+    synchronized int getMaxBlockID() {
+        return maxBlockID;
+    }
+
     @Override
     public boolean isClosed() {
         return closed.get();
@@ -208,9 +704,17 @@ class NativeMemoryAllocator implements BlockMemoryAllocator {
         close();
 
         freeList.clear();
-        allocated.set(0);
+        allocated.reset();
         idGenerator.set(1);
-        blocksArray = new Block[calcBlockArraySize()];
+        synchronized (this) {
+            freeBlockIDs.clear();
+        }
+        spareBlockID = INVALID_BLOCK_ID;
+        numOfBlocks.set(0);
+        returnedBytes.reset();
+        threadBuffersGeneration++;
+        blocksArray = new AtomicReferenceArray<>(calcBlockArraySize());
+        currentBlock = null;
 
         // initially allocate one single block from pool
         allocateNewCurrentBlock();
@@ -219,18 +723,69 @@ class NativeMemoryAllocator implements BlockMemoryAllocator {
         closed.set(false);
     }
 
+    // Rewinds the allocator to its initial state, as clear() does, but keeps its blocks: they are reused (in the
+    // order of their IDs) as the current block, before any new block is taken from the provider.
+    // Hence, the blocks keep their IDs, and the cost depends neither on the number of allocations nor on the number
+    // of blocks: no off-heap cut is freed, a block is reset only when it is reused (see takeSpareBlock()), and the
+    // memory is zeroed lazily, only when it is allocated again.
+    // NOT THREAD SAFE!!!
+    @Override
+    public void rewind() {
+        freeList.clear();
+        allocated.reset();
+        threadBuffersGeneration++;
+        spareBlockID = 1;
+        currentBlock = null;
+        allocateNewCurrentBlock();
+    }
+
+    // Returns the next held block to reuse after rewind(), reset, or null if there is none.
+    // This method MUST be called within a thread safe context !!!
+    private Block takeSpareBlock() {
+        Block spare = null;
+        // skips the blocks that were returned to the provider
+        while (spare == null && spareBlockID != INVALID_BLOCK_ID && spareBlockID < idGenerator.get()) {
+            Block b = blocksArray.get(spareBlockID++);
+            spare = isHeld(b) ? b : null;
+        }
+        if (spareBlockID >= idGenerator.get()) {
+            spareBlockID = INVALID_BLOCK_ID; // the next block is taken from the provider, within the capacity
+        }
+        if (spare != null) {
+            spare.reset(); // before it is published as the current block
+        }
+        return spare;
+    }
+
     // When some buffer need to be read from a random block
     // The Slices we work with must extend BlockAllocationSlice
+    // Returns false if the block was already returned to the provider (all its off-heap cuts were released)
     @Override
-    public void readMemoryAddress(Slice sl) {
+    public boolean readMemoryAddress(Slice sl) {
         BlockAllocationSlice s = (BlockAllocationSlice) sl;
         int blockID = s.getAllocatedBlockID();
         // Validates that the input block id is valid.
         // This check should be automatically eliminated by the compiler in production.
         assert blockID > NativeMemoryAllocator.INVALID_BLOCK_ID :
                 String.format("Invalid block-id: %s", s);
-        Block b = blocksArray[blockID];
+        Block b = blocksArray.get(blockID);
+        // a block is published before any reference to it is created, so it is either held or returned
+        assert b != null : String.format("Unpublished block-id: %s", s);
+        if (b == RETURNED_BLOCK) {
+            return false;
+        }
         s.setAddress(b.getStartMemAddress());
+        return true;
+    }
+
+    // Returns the address of the block with the given ID, or 0 if the block was retired (or returned)
+    long heldBlockMemAddress(int blockID) {
+        Block b = blocksArray.get(blockID);
+        return isHeld(b) ? b.getStartMemAddress() : 0;
+    }
+
+    long getBlockMemAddress(int blockID) {
+        return blocksArray.get(blockID).getStartMemAddress();
     }
 
 
@@ -241,23 +796,67 @@ class NativeMemoryAllocator implements BlockMemoryAllocator {
 
     // used only for testing
     int numOfAllocatedBlocks() {
-        return (int) numberOfBlocks();
+        return numOfBlocks.get();
     }
 
     // This method MUST be called within a thread safe context !!!
     private void allocateNewCurrentBlock() {
+        Block spare = takeSpareBlock();
+        if (spare != null) {
+            Block previous = this.currentBlock;
+            this.currentBlock = spare;
+            if (previous != null) {
+                returnBlockIfUnused(previous);
+            }
+            return;
+        }
+        int blockID = takeBlockID();
         Block b = blocksProvider.getBlock();
-        // Does not require atomicity because previous update was atomic, and we are in a thread safe context.
-        int blockID = idGenerator.get();
         b.setID(blockID);
-        this.blocksArray[blockID] = b;
-        // Increment atomically to ensure current reads and to force a flash before assigning the current block.
-        idGenerator.incrementAndGet();
+        AtomicReferenceArray<Block> blocks = blocksArray;
+        if (blockID >= blocks.length()) {
+            AtomicReferenceArray<Block> grown =
+                    new AtomicReferenceArray<>(Math.min(blocks.length() * 2, maxBlockID + 1));
+            for (int i = 0; i < blocks.length(); i++) {
+                grown.lazySet(i, blocks.get(i));
+            }
+            // the entries are published with the array
+            blocksArray = grown;
+            blocks = grown;
+        }
+        blocks.set(blockID, b);
+        numOfBlocks.incrementAndGet();
+        if (blockID == idGenerator.get()) {
+            // Increment atomically to ensure current reads and to force a flash before assigning the current block.
+            idGenerator.incrementAndGet();
+        }
+        Block previous = this.currentBlock;
         this.currentBlock = b;
+        // the previous block may have been left without live bytes while it was the current block
+        if (previous != null) {
+            returnBlockIfUnused(previous);
+        }
     }
 
-    private long numberOfBlocks() {
-        return idGenerator.get() - 1;
+    // Returns the ID for a new block: a recycled ID of a returned block, or else a fresh one.
+    // Throws OakOutOfMemoryException if all the IDs that can be encoded in a reference are used, as the blocks
+    // retired with the remaining IDs may still be accessed.
+    // This method MUST be called within a thread safe context !!!
+    private int takeBlockID() {
+        if (freeBlockIDs.isEmpty() && idGenerator.get() > maxBlockID && hasRetiredBlocks) {
+            returnRetiredBlocks();
+        }
+        Integer recycled = freeBlockIDs.poll();
+        if (recycled != null) {
+            return recycled;
+        }
+        // Does not require atomicity because previous update was atomic, and we are in a thread safe context.
+        int blockID = idGenerator.get();
+        if (blockID > maxBlockID) {
+            throw new OakOutOfMemoryException(String.format(
+                    "All the %,d block IDs that can be encoded in a reference are in use.", maxBlockID));
+        }
+        return blockID;
     }
 
     private Stats stats = null;
@@ -267,14 +866,80 @@ class NativeMemoryAllocator implements BlockMemoryAllocator {
     }
 
     public Stats getStats() {
+        if (stats != null) {
+            stats.updateFreeList(freeList.freeBytes(), freeList.largestFreeRange());
+        }
         return stats;
     }
 
+    // A block removed from the blocks array, and the epoch it was removed in
+    private static final class RetiredBlock {
+        final Block block;
+        final long epoch;
+
+        RetiredBlock(Block block, long epoch) {
+            this.block = block;
+            this.epoch = epoch;
+        }
+    }
+
+    // A region of one of the allocator's blocks, reserved for allocations of a single thread.
+    // Only the owner allocates from the TLAB and refills it, but another thread may retire it (return its tail).
+    // Hence, an allocation claims its range by a CAS of next, and a refill and a retire hold the lock of the TLAB.
+    private static class ThreadBuffer {
+        private static final AtomicIntegerFieldUpdater<ThreadBuffer> NEXT =
+                AtomicIntegerFieldUpdater.newUpdater(ThreadBuffer.class, "next");
+
+        final WeakReference<Thread> owner;
+        int generation = -1;
+        Block block;
+        int blockID = INVALID_BLOCK_ID;
+        long blockMemAddress;
+        volatile int next; // offset of the next allocation within the block
+        int limit; // offset of the end of the region within the block
+
+        ThreadBuffer(Thread owner) {
+            this.owner = new WeakReference<>(owner);
+        }
+
+        void set(int generation, Block b, int next, int limit) {
+            this.generation = generation;
+            this.block = b;
+            this.blockID = (b == null) ? INVALID_BLOCK_ID : b.getID();
+            this.blockMemAddress = (b == null) ? 0 : b.getStartMemAddress();
+            this.limit = limit;
+            this.next = next;
+        }
+
+        // Claims the next size bytes, returns their offset within the block, or -1 if the TLAB has no room
+        int bump(int size) {
+            while (true) {
+                int n = next;
+                if (limit - n < size) {
+                    return -1;
+                }
+                if (NEXT.compareAndSet(this, n, n + size)) {
+                    return n;
+                }
+            }
+        }
+
+        // Leaves the TLAB empty, returns the offset of its unused tail
+        int retire() {
+            return NEXT.getAndSet(this, limit);
+        }
+    }
+
     static class Stats {
         int reclaimedBuffers;
         int releasedBuffers;
         long releasedBytes;
         long reclaimedBytes;
+        // a snapshot of the free list, taken by getStats()
+        long freeBytes;
+        long largestFreeBytes;
+        // the number of blocks returned to the provider while the allocator is open
+        int returnedBlocks;
 
         public void release(int size) {
             synchronized (this) {
@@ -289,6 +954,28 @@ class NativeMemoryAllocator implements BlockMemoryAllocator {
                 reclaimedBytes += size;
             }
         }
+
+        void returnBlock() {
+            synchronized (this) {
+                returnedBlocks++;
+            }
+        }
+
+        void updateFreeList(long freeBytes, long largestFreeBytes) {
+            synchronized (this) {
+                this.freeBytes = freeBytes;
+                this.largestFreeBytes = largestFreeBytes;
+            }
+        }
+
+        // The external fragmentation of the free memory: the part of it that cannot be used for an allocation
+        // of the largest possible size. It is 0 if all the free memory is contiguous, and approaches 1 if the free
+        // memory is scattered in many small pieces.
+        public double externalFragmentation() {
+            synchronized (this) {
+                return (freeBytes == 0) ? 0 : 1.0 - ((double) largestFreeBytes / freeBytes);
+            }
+        }
     }
 
 }
@@ -8,119 +8,190 @@ package com.yahoo.oak;
 
 import com.yahoo.oak.ValueUtils.ValueResult;
 
-import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
 
 
 class NovaMMHeader {
 
     /*
     * Long NovaMMHeader: int version + long length
-    * 0...  ...21 | 32...                  ...63
-    *  version    |  length
+    * 0...  ...21 | 22...  ...52 |   53  |   54   | 55...          ...63
+    *  version    |  length      | moved | locked |  write sequence
     *
-    * The length (Mostly in integer size) of the data is also held just following the header (since the block and
-    * offset are 42 bits at most the length can be 42 bits which we allow here!)
-    * The length is set once upon header allocation and later can only be read. */
+    * The first bit of the version is the deleted bit.
+    * The length (Mostly in integer size) of the data is also held just following the header (the block and
+    * offset are 42 bits at most, but the data length is an int, so its spare bits hold the write state).
+    * The length is set once upon header allocation and later can only be read.
+    *
+    * The readers do not write to the header: they wait while a writer holds the locked bit, and validate after the
+    * read that the header did not change (as in a seqlock). A writer sets the locked bit with a CAS, so the writers
+    * exclude each other, and increases the write sequence when it releases the bit, which invalidates the reads that
+    * overlapped the write. A read is wrongly validated only if exactly a multiple of 2^9 writes overlapped it.
+    * The waiting time of contended writes is defined by a ContentionStrategy. */
 
     private static final ReferenceCodecNovaHeader RC = new ReferenceCodecNovaHeader();
-    
+
+    private static final int LENGTH_BITS = Integer.SIZE - 1;
+    private static final int MOVED_SHIFT = ReferenceCodecNovaHeader.VERSION_SIZE + LENGTH_BITS;
+    private static final long MOVED = 1L << MOVED_SHIFT;
+    private static final long LOCKED = MOVED << 1;
+    private static final long WRITE_SEQUENCE_UNIT = LOCKED << 1;
+    // the bits above the length
+    private static final long WRITE_STATE_MASK = -1L << MOVED_SHIFT;
+
+    static final long INVALID_STAMP = -1;
+
+    private final ContentionStrategy contentionStrategy;
+    private final LongAdder contendedAcquisitions = new LongAdder();
+
+    NovaMMHeader(ContentionStrategy contentionStrategy) {
+        this.contentionStrategy = contentionStrategy;
+    }
+
     long getOffHeapHeader(long headerAddress) {
-        return DirectUtils.UNSAFE.getLong(headerAddress);
+        return DirectUtils.UNSAFE.getLongVolatile(null, headerAddress);
     }
 
     public int getDataLength(long headerAddress) {
         long offHeapHeader = getOffHeapHeader(headerAddress);
-        return RC.getSecond(offHeapHeader); //assuming length is int
+        return RC.getSecond(offHeapHeader & ~WRITE_STATE_MASK); //assuming length is int
     }
 
     public void initHeader(long headerAddress, int dataLength, int version) {
-        //TODO add assert for length < 2^32?
         long header = RC.encode(version, dataLength);
         DirectUtils.UNSAFE.putLong(headerAddress, header);
     }
 
+    // initializes the header with the locked bit set, for an off-heap cut that an existing value moves to
+    void initLockedHeader(long headerAddress, int dataLength, int version) {
+        long header = RC.encode(version, dataLength) | LOCKED;
+        DirectUtils.UNSAFE.putLong(headerAddress, header);
+    }
 
-    
-    private static boolean atomicallySetDeleted(long headerAddress, long offHeapMeta) {
-        // this CAS replaces the old offheap version with new one that has 1 as the first bit to indicate deletion
-        return DirectUtils.UNSAFE.compareAndSwapLong(null, headerAddress, offHeapMeta, offHeapMeta | 1);
+    private static boolean cas(long headerAddress, long expected, long value) {
+        return DirectUtils.UNSAFE.compareAndSwapLong(null, headerAddress, expected, value);
     }
-    
-    
-    ValueUtils.ValueResult preRead(final int onHeapVersion, long headerAddress) {
-        long offHeapHeader = getOffHeapHeader(headerAddress);
-        if (RC.isReferenceDeleted(offHeapHeader)) {
-            throw new DeletedMemoryAccessException();
-        }
-        return ValueUtils.ValueResult.TRUE;
+
+    private static boolean isVersionMatching(final int onHeapVersion, long offHeapHeader) {
+        // the deleted bit is ignored, a deleted value is still the same value
+        return (RC.getFirst(offHeapHeader) & ~ReferenceCodecNovaHeader.DELETED_REFERENCE) == onHeapVersion;
     }
 
-    ValueUtils.ValueResult postRead(final int onHeapVersion, long headerAddress) {
-        DirectUtils.UNSAFE.loadFence();
-        long offHeapHeader = getOffHeapHeader(headerAddress);
-        int offHeapVersion = RC.getFirst(offHeapHeader);
-        if (onHeapVersion != offHeapVersion) {
-            throw new DeletedMemoryAccessException();
+    static boolean isDeleted(long stamp) {
+        return RC.isReferenceDeleted(stamp);
+    }
+
+    static boolean isMoved(long stamp) {
+        return (stamp & MOVED) != 0;
+    }
+
+    void awaitContended(int attempt) {
+        if (attempt == 0) {
+            contendedAcquisitions.increment();
         }
-        return ValueUtils.ValueResult.TRUE;
+        contentionStrategy.await(attempt);
     }
 
-    ValueUtils.ValueResult preWrite(final int onHeapVersion, final long tapEntry,
-               long headerAddress, AtomicLongArray tap) {
-        long offHeapHeader = getOffHeapHeader(headerAddress);
-        if (RC.isReferenceDeleted(offHeapHeader)) {
-            return ValueUtils.ValueResult.RETRY;
+    // the number of write acquisitions that had to wait for other threads, so far
+    long getContendedAcquisitions() {
+        return contendedAcquisitions.sum();
+    }
+
+    // Starts a read, which does not write to the header. Waits while a writer holds the locked bit.
+    // Returns the stamp to validate the read with (the whole header), which may be deleted or moved.
+    // Returns INVALID_STAMP if the version does not match.
+    long startRead(final int onHeapVersion, long headerAddress) {
+        assert onHeapVersion > ReferenceCodecSyncRecycle.INVALID_VERSION;
+        for (int attempt = 0; ; attempt++) {
+            long offHeapHeader = getOffHeapHeader(headerAddress);
+            if (!isVersionMatching(onHeapVersion, offHeapHeader)) {
+                return INVALID_STAMP;
+            }
+            if ((offHeapHeader & LOCKED) == 0) {
+                return offHeapHeader;
+            }
+            // the readers do not count as contended acquisitions, only the writers do
+            contentionStrategy.await(attempt);
         }
-        NovaMemoryManager.setTap(tap, tapEntry,
-                (int) Thread.currentThread().getId() % ThreadIndexCalculator.MAX_THREADS);
-        DirectUtils.UNSAFE.fullFence();
-        int offHeapVersion = RC.getFirst(offHeapHeader);
-        if (onHeapVersion != offHeapVersion) {
-            NovaMemoryManager.resetTap(tap, 
-                    (int) Thread.currentThread().getId() % ThreadIndexCalculator.MAX_THREADS);
-            return ValueResult.FALSE;
+    }
+
+    // Validates a read of the data, started with the given stamp.
+    // Returns true if the header did not change since then, i.e., no write, delete or move overlapped the read.
+    boolean validateRead(long headerAddress, long stamp) {
+        // the data reads must not be reordered after the header read
+        DirectUtils.UNSAFE.loadFence();
+        return getOffHeapHeader(headerAddress) == stamp;
+    }
+
+    ValueResult lockWrite(final int onHeapVersion, long headerAddress) {
+        assert onHeapVersion > ReferenceCodecSyncRecycle.INVALID_VERSION;
+        for (int attempt = 0; ; attempt++) {
+            long offHeapHeader = getOffHeapHeader(headerAddress);
+            if (!isVersionMatching(onHeapVersion, offHeapHeader) || isMoved(offHeapHeader)) {
+                return ValueResult.RETRY;
+            }
+            if (isDeleted(offHeapHeader)) {
+                return ValueResult.FALSE;
+            }
+            if ((offHeapHeader & LOCKED) == 0 && cas(headerAddress, offHeapHeader, offHeapHeader | LOCKED)) {
+                return ValueResult.TRUE;
+            }
+            awaitContended(attempt);
         }
-        
-        return ValueUtils.ValueResult.TRUE;
     }
 
-    ValueUtils.ValueResult postWrite(final int onHeapVersion, long headerAddress, AtomicLongArray tap) {
-        DirectUtils.UNSAFE.storeFence();
-        NovaMemoryManager.resetTap(tap, 
-                (int) Thread.currentThread().getId() % ThreadIndexCalculator.MAX_THREADS);
-        return ValueUtils.ValueResult.TRUE;
-        //can be replaced with always true without unsetting the tap
+    ValueResult unlockWrite(final int onHeapVersion, long headerAddress) {
+        long offHeapHeader = getOffHeapHeader(headerAddress);
+        assert (offHeapHeader & LOCKED) != 0 && isVersionMatching(onHeapVersion, offHeapHeader);
+        // the next write sequence (wrapping around) invalidates the reads that overlapped the write,
+        // only the writer holding the locked bit changes the header, so a volatile write is enough
+        long unlocked = ((offHeapHeader & ~LOCKED) + WRITE_SEQUENCE_UNIT);
+        DirectUtils.UNSAFE.putLongVolatile(null, headerAddress, unlocked);
+        return ValueResult.TRUE;
     }
 
-    ValueUtils.ValueResult logicalDelete(final int onHeapVersion , long headerAddress) {
+    ValueResult logicalDelete(final int onHeapVersion, long headerAddress) {
         assert onHeapVersion > ReferenceCodecSyncRecycle.INVALID_VERSION;
-        long offHeapHeader = -1;
-        do {
-            offHeapHeader = getOffHeapHeader(headerAddress);
-            int oldVersion = RC.getFirst(offHeapHeader);
-            if (oldVersion  != onHeapVersion ) {
-                return ValueUtils.ValueResult.RETRY; //TODO retry?
+        for (int attempt = 0; ; attempt++) {
+            long offHeapHeader = getOffHeapHeader(headerAddress);
+            if (!isVersionMatching(onHeapVersion, offHeapHeader) || isMoved(offHeapHeader)) {
+                return ValueResult.RETRY;
+            }
+            if (isDeleted(offHeapHeader)) {
+                return ValueResult.FALSE;
             }
-            if (RC.isReferenceDeleted(offHeapHeader)) {
-                return ValueUtils.ValueResult.FALSE;
+            // the deleted bit is not set under a writer, so its write is not torn
+            if ((offHeapHeader & LOCKED) == 0
+                    && cas(headerAddress, offHeapHeader, offHeapHeader | ReferenceCodecNovaHeader.DELETED_REFERENCE)) {
+                return ValueResult.TRUE;
             }
-        } while (!atomicallySetDeleted(headerAddress,  offHeapHeader));
-        return ValueUtils.ValueResult.TRUE;
+            awaitContended(attempt);
+        }
     }
 
-    ValueUtils.ValueResult isLogicallyDeleted(final int onHeapVersion, long headerAddress) {
+    ValueResult isLogicallyDeleted(final int onHeapVersion, long headerAddress) {
         long offHeapHeader = getOffHeapHeader(headerAddress);
-        int oldVersion = RC.getFirst(offHeapHeader);
-        if (RC.isReferenceDeleted(offHeapHeader)) {
-            return ValueUtils.ValueResult.TRUE;
+        if (!isVersionMatching(onHeapVersion, offHeapHeader) || isMoved(offHeapHeader)) {
+            return ValueResult.RETRY;
         }
-        if (oldVersion != onHeapVersion) {
-            return ValueUtils.ValueResult.RETRY;
+        if (isDeleted(offHeapHeader)) {
+            return ValueResult.TRUE;
         }
-        return ValueUtils.ValueResult.FALSE;
+        return ValueResult.FALSE;
     }
 
+    // Releases the locked bit of the writer, marking the header as moved. Just a write (without CAS).
     void markAsMoved(long headerAddress) {
-        throw new IllegalAccessError("not in use for Nova");
+        long offHeapHeader = getOffHeapHeader(headerAddress);
+        assert (offHeapHeader & LOCKED) != 0;
+        DirectUtils.UNSAFE.putLongVolatile(null, headerAddress, (offHeapHeader & ~LOCKED) | MOVED);
+    }
+
+    // Releases the locked bit of the writer, marking the header as deleted. Just a write (without CAS).
+    void markAsDeleted(long headerAddress) {
+        long offHeapHeader = getOffHeapHeader(headerAddress);
+        assert (offHeapHeader & LOCKED) != 0;
+        DirectUtils.UNSAFE.putLongVolatile(null, headerAddress,
+                (offHeapHeader & ~LOCKED) | ReferenceCodecNovaHeader.DELETED_REFERENCE);
     }
 }
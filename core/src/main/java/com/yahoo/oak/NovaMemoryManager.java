@@ -9,33 +9,35 @@ package com.yahoo.oak;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.atomic.AtomicLongArray;
 
 
 class NovaMemoryManager extends SyncRecycleMemoryManager {
-    static final int CACHE_PADDING = 8;
     static final int INVALID_ENTRY = 0;
     static final int REFENTRY = 1;
     
-    private static final NovaMMHeader HEADER =
-        new NovaMMHeader(); // for off-heap header operations
     private static final int OFF_HEAP_HEADER_SIZE = 8; /* Bytes */
     private static final long DELETED_BIT_INDEX = 1;
     
+    private final NovaMMHeader novaHeader; // for off-heap header operations
     private final List<List<SliceNova>> releaseLists;   
-    private final AtomicLongArray tap;
+    private final ThreadSlotArray tap;
 
     NovaMemoryManager(BlockMemoryAllocator allocator) {
+        this(allocator, ContentionStrategy.adaptive());
+    }
+
+    /**
+     * @param allocator          the allocator of the off-heap cuts
+     * @param contentionStrategy how the writers wait for each other on the same off-heap cut
+     */
+    NovaMemoryManager(BlockMemoryAllocator allocator, ContentionStrategy contentionStrategy) {
         super(allocator);
-        this.tap = new AtomicLongArray(ThreadIndexCalculator.MAX_THREADS * CACHE_PADDING * 2);
+        this.novaHeader = new NovaMMHeader(contentionStrategy);
+        // the taps are initialized to INVALID_ENTRY (zero), they and the release lists grow with the thread indices
+        this.tap = new ThreadSlotArray(REFENTRY + 1);
         this.releaseLists = new CopyOnWriteArrayList<>();
-        for (int i = 0; i < ThreadIndexCalculator.MAX_THREADS; i++) {
-            this.releaseLists.add(new ArrayList<>(RELEASE_LIST_LIMIT));
-        }
-        for (int i = CACHE_PADDING; i < ThreadIndexCalculator.MAX_THREADS * CACHE_PADDING * 2; i += CACHE_PADDING) {
-            this.tap.set(i + REFENTRY, INVALID_ENTRY); 
-        }  
-        rc = new ReferenceCodecSyncRecycle(BlocksPool.getInstance().blockSize(), allocator, DELETED_BIT_INDEX);
+        rc = new ReferenceCodecSyncRecycle(allocator.blockSize(), allocator, DELETED_BIT_INDEX);
+        allocator.limitMaxBlockID((int) ReferenceCodec.mask(rc.getFirstBitSize()));
         
     }
 
@@ -55,14 +57,59 @@ class NovaMemoryManager extends SyncRecycleMemoryManager {
         return globalVersionNumber.get();
     }
     
-    public static void setTap(AtomicLongArray tap, long ref, int idx) {
-        int i = idx % ThreadIndexCalculator.MAX_THREADS;
-        tap.set(CACHE_PADDING * (i + 1) + REFENTRY, ref);
+    @Override
+    long getContendedLockAcquisitions() {
+        return novaHeader.getContendedAcquisitions();
+    }
+
+    // Frees the released off-heap cuts of the given list, except for those that a writer holds in its tap
+    private void freeReleased(List<SliceNova> myReleaseList) {
+        ArrayList<Long> hostageSlices = new ArrayList<>();
+        for (int i = 0; i < tap.capacity(); i++) {
+            long tapEntry = tap.get(i, REFENTRY);
+            if (tapEntry != INVALID_ENTRY) {
+                hostageSlices.add(tapEntry);
+            }
+        } //TODO remove this to discuss
+        increaseGlobalVersion(); 
+        //TODO to ease contention maybe increase just if Global is smaller 
+        //that the smallest slice we have, or to increase Version on allocation
+        SliceNova toDeleteObj;
+        for (int iret = 0; iret < myReleaseList.size();) {
+            toDeleteObj = myReleaseList.get(iret);
+            // the tap of a writer holds the reference without the version, see preWrite()
+            long tapEntry = rc.encode(toDeleteObj.getAllocatedBlockID(), toDeleteObj.getAllocatedOffset());
+            if (! hostageSlices.contains(tapEntry)) {
+                myReleaseList.remove(toDeleteObj);
+                allocator.free(toDeleteObj);
+                continue;
+            }
+            iret++;
+        }
+    }
+
+    /**
+     * Frees the off-heap cuts released by the calling thread so far (except for those that writers still hold),
+     * see Compactor
+     */
+    @Override
+    void flushReleaseList() {
+        freeReleased(threadIndexCalculator.getThreadElement(releaseLists, () -> new ArrayList<>(RELEASE_LIST_LIMIT)));
+        super.flushReleaseList();
+    }
+
+    // The off-heap cuts are padded to a multiple of the header size, so the header of the next cut stays aligned.
+    // An unaligned header may cross a cache line, and then its CAS (a split lock) is very slow.
+    private static int paddedLength(int length) {
+        return (length + OFF_HEAP_HEADER_SIZE - 1) & -OFF_HEAP_HEADER_SIZE;
+    }
+
+    public static void setTap(ThreadSlotArray tap, long ref, int idx) {
+        tap.set(idx, REFENTRY, ref);
     }
         
-    public static void resetTap(AtomicLongArray tap, int idx) {
-        int i = idx % ThreadIndexCalculator.MAX_THREADS;
-        tap.set(CACHE_PADDING * (i + 1) + REFENTRY, INVALID_ENTRY);
+    public static void resetTap(ThreadSlotArray tap, int idx) {
+        tap.set(idx, REFENTRY, INVALID_ENTRY);
     }
 
     /*=====================================================================*/
@@ -80,6 +127,8 @@ class NovaMemoryManager extends SyncRecycleMemoryManager {
      */
     class SliceNova extends SliceSyncRecycle {
 
+        private long readStamp;   // The header stamp of the current read
+
         /**
          * Allocate new off-heap cut and associated this slice with a new off-heap cut of memory
          *
@@ -95,11 +144,17 @@ class NovaMemoryManager extends SyncRecycleMemoryManager {
          */
         @Override
         public void allocate(int size, boolean existing) {
-            boolean allocated = allocator.allocate(this, size + OFF_HEAP_HEADER_SIZE);
+            boolean allocated = allocator.allocate(this, paddedLength(size + OFF_HEAP_HEADER_SIZE));
             assert allocated;
+            length = size + OFF_HEAP_HEADER_SIZE; // the padding is not part of the data
             associated = true;
             version = globalVersionNumber.get() << 1; //version with 0 as not deleted bit
-            HEADER.initHeader(memAddress + offset, size, version);
+            if (existing) {
+                // the moving value is kept locked for write, until it is written to its new off-heap cut
+                novaHeader.initLockedHeader(memAddress + offset, size, version);
+            } else {
+                novaHeader.initHeader(memAddress + offset, size, version);
+            }
             reference = encodeReference();
         }
 
@@ -111,32 +166,12 @@ class NovaMemoryManager extends SyncRecycleMemoryManager {
         @Override
         public void release() {
             prefetchDataLength(); // this will set the length from off-heap header, if needed
-            int idx = threadIndexCalculator.getIndex();
-            List<SliceNova> myReleaseList = releaseLists.get(idx);
+            List<SliceNova> myReleaseList =
+                threadIndexCalculator.getThreadElement(releaseLists, () -> new ArrayList<>(RELEASE_LIST_LIMIT));
             // ensure the length of the slice is always set
             myReleaseList.add(duplicate());
             if (myReleaseList.size() >= RELEASE_LIST_LIMIT) {
-                ArrayList<Long> hostageSlices = new ArrayList<>();
-                for (int i = CACHE_PADDING; 
-                    i < 2 * CACHE_PADDING * ThreadIndexCalculator.MAX_THREADS; i = i + CACHE_PADDING ) {
-                    if (tap.get(i + REFENTRY) != INVALID_ENTRY) {
-                        hostageSlices.add(tap.get(i + REFENTRY));
-                    }
-                } //TODO remove this to discuss
-                increaseGlobalVersion(); 
-                //TODO to ease contention maybe increase just if Global is smaller 
-                //that the smallest slice we have, or to increase Version on allocation
-                SliceNova toDeleteObj;
-                for (int iret = 0; iret < myReleaseList.size();) {
-                    toDeleteObj = myReleaseList.get(iret);
-                    long tap = rc.encode(blockID, offset, 0);
-                    if (! hostageSlices.contains(tap)) {
-                        myReleaseList.remove(toDeleteObj);
-                        allocator.free(toDeleteObj);
-                        continue;
-                    }
-                    iret++;
-                }
+                freeReleased(myReleaseList);
             }
         }
         
@@ -159,10 +194,15 @@ class NovaMemoryManager extends SyncRecycleMemoryManager {
             if (length == UNDEFINED_LENGTH_OR_OFFSET_OR_ADDRESS) {
                 // the length kept in header is the length of the data only!
                 // add header size
-                this.length = HEADER.getDataLength(getMetadataAddress()) + OFF_HEAP_HEADER_SIZE;
+                this.length = novaHeader.getDataLength(getMetadataAddress()) + OFF_HEAP_HEADER_SIZE;
             }
         }
 
+        @Override
+        public int getAllocatedLength() {
+            return paddedLength(super.getAllocatedLength());
+        }
+
         @Override
         public SliceNova duplicate() {
             SliceNova newSlice = new SliceNova();
@@ -185,32 +225,68 @@ class NovaMemoryManager extends SyncRecycleMemoryManager {
         /*-------------- Off-heap header operations: locking and logical delete --------------*/
 
         /**
-         * Acquires a read lock
+         * Starts a read, without writing to the header, once no writer holds the value.
+         * The read is validated by postRead().
          *
-         * @return {@code TRUE} if the read lock was acquires successfully
+         * @return {@code TRUE} if the read can proceed
          * {@code FALSE} if the header/off-heap-cut is marked as deleted
          * {@code RETRY} if the header/off-heap-cut was moved, or the version of the off-heap header
          * does not match {@code version}.
          */
         public ValueUtils.ValueResult preRead() {
             assert version != ReferenceCodecSyncRecycle.INVALID_VERSION;
-            return HEADER.preRead(version, getMetadataAddress());
+            while (true) {
+                long stamp = novaHeader.startRead(version, getMetadataAddress());
+                if (stamp == NovaMMHeader.INVALID_STAMP) {
+                    return ValueUtils.ValueResult.RETRY;
+                }
+                if (NovaMMHeader.isDeleted(stamp)) {
+                    return ValueUtils.ValueResult.FALSE;
+                }
+                if (NovaMMHeader.isMoved(stamp)) {
+                    return ValueUtils.ValueResult.RETRY;
+                }
+                if (length != UNDEFINED_LENGTH_OR_OFFSET_OR_ADDRESS) {
+                    readStamp = stamp;
+                    return ValueUtils.ValueResult.TRUE;
+                }
+                // The length kept in the header may belong to a later allocation of the off-heap cut,
+                // so it is trusted only if the header did not change while it was read
+                prefetchDataLength();
+                if (novaHeader.validateRead(getMetadataAddress(), stamp)) {
+                    readStamp = stamp;
+                    return ValueUtils.ValueResult.TRUE;
+                }
+                length = UNDEFINED_LENGTH_OR_OFFSET_OR_ADDRESS;
+            }
         }
 
         /**
-         * Releases a read lock
+         * Validates a read
          *
-         * @return {@code TRUE} if the read lock was released successfully
-         * {@code FALSE} if the value is marked as deleted
-         * {@code RETRY} if the value was moved, or the version of the off-heap value does not match {@code version}.
+         * @return {@code TRUE} if no write, delete or move overlapped the read
+         * {@code RETRY} otherwise, the data that was read may be inconsistent
          */
         public ValueUtils.ValueResult postRead() {
             assert version != ReferenceCodecSyncRecycle.INVALID_VERSION;
-            return HEADER.postRead(version, getMetadataAddress());
+            return novaHeader.validateRead(getMetadataAddress(), readStamp)
+                ? ValueUtils.ValueResult.TRUE : ValueUtils.ValueResult.RETRY;
+        }
+
+        // All the reads are optimistic, as there is no read lock
+        @Override
+        public ValueUtils.ValueResult preOptimisticRead() {
+            return preRead();
+        }
+
+        @Override
+        public boolean postOptimisticRead() {
+            return postRead() == ValueUtils.ValueResult.TRUE;
         }
 
         /**
-         * Acquires a write lock
+         * Acquires a write lock, by setting the locked bit of the header.
+         * The reference is published in the tap of the thread meanwhile, so the off-heap cut is not freed.
          *
          * @return {@code TRUE} if the write lock was acquires successfully
          * {@code FALSE} if the value is marked as deleted
@@ -218,7 +294,15 @@ class NovaMemoryManager extends SyncRecycleMemoryManager {
          */
         public ValueUtils.ValueResult preWrite() {
             assert version != ReferenceCodecSyncRecycle.INVALID_VERSION;
-            return HEADER.preWrite(version, rc.encode(blockID, offset), getMetadataAddress(), tap);
+            int threadIndex = threadIndexCalculator.getIndex();
+            setTap(tap, rc.encode(blockID, offset), threadIndex);
+            // the tap is published before the header is checked, see freeReleased()
+            DirectUtils.UNSAFE.fullFence();
+            ValueUtils.ValueResult result = novaHeader.lockWrite(version, getMetadataAddress());
+            if (result != ValueUtils.ValueResult.TRUE) {
+                resetTap(tap, threadIndex);
+            }
+            return result;
         }
 
         /**
@@ -230,7 +314,9 @@ class NovaMemoryManager extends SyncRecycleMemoryManager {
          */
         public ValueUtils.ValueResult postWrite() {
             assert version != ReferenceCodecSyncRecycle.INVALID_VERSION;
-            return HEADER.postWrite(version, getMetadataAddress(),  tap);
+            ValueUtils.ValueResult result = novaHeader.unlockWrite(version, getMetadataAddress());
+            resetTap(tap, threadIndexCalculator.getIndex());
+            return result;
         }
 
         /**
@@ -242,7 +328,7 @@ class NovaMemoryManager extends SyncRecycleMemoryManager {
          */
         public ValueUtils.ValueResult logicalDelete() {
             assert version != ReferenceCodecSyncRecycle.INVALID_VERSION;
-            return HEADER.logicalDelete(version, getMetadataAddress());
+            return novaHeader.logicalDelete(version, getMetadataAddress());
         }
 
         /**
@@ -254,27 +340,28 @@ class NovaMemoryManager extends SyncRecycleMemoryManager {
          */
         public ValueUtils.ValueResult isDeleted() {
             assert version != ReferenceCodecSyncRecycle.INVALID_VERSION;
-            return HEADER.isLogicallyDeleted(version, getMetadataAddress());
+            return novaHeader.isLogicallyDeleted(version, getMetadataAddress());
         }
 
         /**
          * Marks the header of the associated off-heap cut as moved, just write (without CAS)
-         * The write lock must be held (asserted inside the header)
+         * The write lock must be held (asserted inside the header), and it is released by the mark
          */
         public void markAsMoved() {
             assert associated;
-            HEADER.markAsMoved(getMetadataAddress());
-            throw new IllegalAccessError();
+            novaHeader.markAsMoved(getMetadataAddress());
+            resetTap(tap, threadIndexCalculator.getIndex());
         }
 
         /**
          * Marks the header of the associated off-heap cut as deleted, just write (without CAS)
-         * The write lock must be held (asserted inside the header).
+         * The write lock must be held (asserted inside the header), and it is released by the mark.
          * It is similar to logicalDelete() but used when locking and marking don't happen in one CAS
          */
         public void markAsDeleted() {
             assert version != ReferenceCodecSyncRecycle.INVALID_VERSION;
-            HEADER.logicalDelete(version, getMetadataAddress());
+            novaHeader.markAsDeleted(getMetadataAddress());
+            resetTap(tap, threadIndexCalculator.getIndex());
         }
 
     }
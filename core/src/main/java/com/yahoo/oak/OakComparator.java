@@ -6,6 +6,7 @@
 
 package com.yahoo.oak;
 
+import com.google.common.annotations.Beta;
 
 import java.util.Comparator;
 
@@ -19,4 +20,30 @@ public interface OakComparator<K> extends Comparator<K> {
     int compareSerializedKeys(OakScopedReadBuffer serializedKey1, OakScopedReadBuffer serializedKey2);
 
     int compareKeyAndSerializedKey(K key, OakScopedReadBuffer serializedKey);
+
+    /**
+     * An optional hook for a faster search in an ordered map. If it returns true, and the key prefixes are enabled
+     * (see {@code OakMapBuilder.setKeyPrefixes()}), each entry of the map keeps an 8-byte prefix of its key (see
+     * {@link #keyPrefix}), and the serialized key is compared only if the prefixes of the compared keys are equal.
+     *
+     * @return whether this comparator supplies key prefixes
+     */
+    @Beta
+    default boolean hasKeyPrefix() {
+        return false;
+    }
+
+    /**
+     * Returns an order-preserving 8-byte prefix of the key: for every two keys, if
+     * {@code Long.compare(keyPrefix(key1), keyPrefix(key2)) < 0} then {@code compareKeys(key1, key2) < 0}.
+     * Keys with equal prefixes are compared in full, so a prefix does not have to be unique.
+     * Used only if {@link #hasKeyPrefix()} returns true.
+     *
+     * @param key the key
+     * @return the prefix of the key
+     */
+    @Beta
+    default long keyPrefix(K key) {
+        return 0;
+    }
 }
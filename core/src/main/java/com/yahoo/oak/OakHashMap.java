@@ -291,6 +291,91 @@ public class OakHashMap<K, V> extends AbstractMap<K, V> implements AutoCloseable
         return internalOakHash.memorySize();
     }
 
+    /**
+     * Sets the off-heap memory capacity of this map at runtime, instead of the one given to
+     * {@link OakMapBuilder#setMemoryCapacity(long)}. Growing the capacity takes effect at once.
+     * Shrinking it below the memory held by the map does not release memory, but no more memory is taken until
+     * enough of it is emptied: if the compaction was started (see {@link OakMapBuilder#setCompaction}),
+     * compaction passes are run first, to empty memory blocks.
+     * @param memoryCapacity the new capacity in bytes
+     * @return true if the memory held by the map is within the new capacity
+     * @throws IllegalArgumentException if the new capacity is larger than the map can address
+     */
+    @Beta
+    public boolean setMemoryCapacity(long memoryCapacity) {
+        return internalOakHash.setMemoryCapacity(memoryCapacity);
+    }
+
+    /**
+     * Runs a single off-heap compaction pass over the entire map: the live values of the sparsest blocks are
+     * relocated to other blocks, so the emptied blocks can be returned to the blocks pool.
+     * See {@link OakMapBuilder#setCompaction(long, double, long)}.
+     * @return the number of bytes of the relocated values
+     */
+    @Beta
+    public long compact() {
+        return internalOakHash.compact();
+    }
+
+    /**
+     * @return the number of off-heap bytes returned to the blocks pool since the map was created,
+     * as blocks were emptied by the compaction or by removals
+     */
+    @Beta
+    public long reclaimedMemorySize() {
+        return internalOakHash.reclaimedMemorySize();
+    }
+
+    /**
+     * @return the number of background compaction passes that failed since the map was created. A failed pass
+     * does not stop the compaction, and its exception is passed to the uncaught exception handler of the thread.
+     */
+    @Beta
+    public long failedCompactions() {
+        return internalOakHash.failedCompactions();
+    }
+
+    /**
+     * @return the number of off-heap bytes of removed (or relocated) values, which are not freed yet.
+     * See {@link OakMapBuilder#setBackgroundReclamation(long)}.
+     */
+    @Beta
+    public long pendingReleaseMemorySize() {
+        return internalOakHash.pendingReleaseMemorySize();
+    }
+
+    /**
+     * @return the number of background reclamations of removed (or relocated) values that failed since the map was
+     * created. See {@link OakMapBuilder#setBackgroundReclamation(long)}. A failure does not stop the reclamation, and
+     * its exception is passed to the uncaught exception handler of the thread.
+     */
+    @Beta
+    public long failedReclamations() {
+        return internalOakHash.failedReclamations();
+    }
+
+    /**
+     * @return the maximal time, in nanoseconds, from the removal (or relocation) of a value until its off-heap
+     * memory was freed
+     */
+    @Beta
+    public long maxReclaimLatencyNanos() {
+        return internalOakHash.maxReclaimLatencyNanos();
+    }
+
+    /**
+     * @return the number of times a thread had to wait for the lock of a value, held by other threads, so far.
+     * A count that grows fast relative to the number of operations indicates hot keys.
+     */
+    @Beta
+    public long contendedValueLockAcquisitions() {
+        return internalOakHash.contendedValueLockAcquisitions();
+    }
+
+    void startCompaction(long intervalMillis, double maxLiveRatio, long maxBytesPerSecond) {
+        internalOakHash.startCompaction(intervalMillis, maxLiveRatio, maxBytesPerSecond);
+    }
+
     /**
      * Close and release the map and all the memory that is used by it.
      * The user should ensure that there are no concurrent operations
@@ -302,6 +387,11 @@ public class OakHashMap<K, V> extends AbstractMap<K, V> implements AutoCloseable
         internalOakHash.close();
     }
 
+    /**
+     * Removes all of the mappings from this map, without releasing its off-heap memory. For an arena map (see
+     * {@link OakMapBuilder#setArena}), the memory allocator is rewound, keeping its blocks for the next mappings.
+     * The user should ensure that there are no concurrent operations while the map is cleared.
+     */
     @Override
     public void clear() {
         internalOakHash.clear();
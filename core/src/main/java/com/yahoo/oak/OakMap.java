@@ -6,6 +6,8 @@
 
 package com.yahoo.oak;
 
+import com.google.common.annotations.Beta;
+
 import java.util.AbstractCollection;
 import java.util.AbstractMap;
 import java.util.AbstractSet;
@@ -59,9 +61,9 @@ public class OakMap<K, V> extends AbstractMap<K, V>
     }
 
     // Builder constructor: used by OakMapBuilder (package private).
-    OakMap(OakSharedConfig<K, V> config, K minKey, int chunkMaxItems) {
+    OakMap(OakSharedConfig<K, V> config, K minKey, int chunkMaxItems, boolean sortedArrayChunkIndex) {
         this(
-                new InternalOakMap<>(config, minKey, chunkMaxItems),
+                new InternalOakMap<>(config, minKey, chunkMaxItems, sortedArrayChunkIndex),
                 null, false, null, false, false
         );
     }
@@ -469,6 +471,11 @@ public class OakMap<K, V> extends AbstractMap<K, V>
         return this.internalOakMap.getValuesMemoryManager();
     }
 
+    // used only for testing
+    MemoryManager getKeysMemoryManager() {
+        return this.internalOakMap.getKeysMemoryManager();
+    }
+
     public static class OakZeroCopyMap<K, V> implements ZeroCopyMap<K, V> {
         private OakMap<K, V> m;
 
@@ -562,6 +569,125 @@ public class OakMap<K, V> extends AbstractMap<K, V>
         return internalOakMap.memorySize();
     }
 
+    /**
+     * Sets the off-heap memory capacity of this map at runtime, instead of the one given to
+     * {@link OakMapBuilder#setMemoryCapacity(long)}. Growing the capacity takes effect at once.
+     * Shrinking it below the memory held by the map does not release memory, but no more memory is taken until
+     * enough of it is emptied: if the compaction was started (see {@link OakMapBuilder#setCompaction}),
+     * compaction passes are run first, to empty memory blocks.
+     * @param memoryCapacity the new capacity in bytes
+     * @return true if the memory held by the map is within the new capacity
+     * @throws IllegalArgumentException if the new capacity is larger than the map can address
+     */
+    @Beta
+    public boolean setMemoryCapacity(long memoryCapacity) {
+        return internalOakMap.setMemoryCapacity(memoryCapacity);
+    }
+
+    /**
+     * Runs a single off-heap compaction pass over the entire map: the live values of the sparsest blocks are
+     * relocated to other blocks, so the emptied blocks can be returned to the blocks pool.
+     * See {@link OakMapBuilder#setCompaction(long, double, long)}.
+     * @return the number of bytes of the relocated values
+     */
+    @Beta
+    public long compact() {
+        return internalOakMap.compact();
+    }
+
+    /**
+     * @return the number of off-heap bytes returned to the blocks pool since the map was created,
+     * as blocks were emptied by the compaction or by removals
+     */
+    @Beta
+    public long reclaimedMemorySize() {
+        return internalOakMap.reclaimedMemorySize();
+    }
+
+    /**
+     * @return the number of background compaction passes that failed since the map was created. A failed pass
+     * does not stop the compaction, and its exception is passed to the uncaught exception handler of the thread.
+     */
+    @Beta
+    public long failedCompactions() {
+        return internalOakMap.failedCompactions();
+    }
+
+    /**
+     * @return the number of off-heap bytes of removed (or relocated) values, which are not freed yet.
+     * See {@link OakMapBuilder#setBackgroundReclamation(long)}.
+     */
+    @Beta
+    public long pendingReleaseMemorySize() {
+        return internalOakMap.pendingReleaseMemorySize();
+    }
+
+    /**
+     * @return the number of background reclamations of removed (or relocated) values that failed since the map was
+     * created. See {@link OakMapBuilder#setBackgroundReclamation(long)}. A failure does not stop the reclamation, and
+     * its exception is passed to the uncaught exception handler of the thread.
+     */
+    @Beta
+    public long failedReclamations() {
+        return internalOakMap.failedReclamations();
+    }
+
+    /**
+     * @return the maximal time, in nanoseconds, from the removal (or relocation) of a value until its off-heap
+     * memory was freed
+     */
+    @Beta
+    public long maxReclaimLatencyNanos() {
+        return internalOakMap.maxReclaimLatencyNanos();
+    }
+
+    /**
+     * @return the number of times a thread had to wait for the lock of a value, held by other threads, so far.
+     * A count that grows fast relative to the number of operations indicates hot keys.
+     */
+    @Beta
+    public long contendedValueLockAcquisitions() {
+        return internalOakMap.contendedValueLockAcquisitions();
+    }
+
+    /**
+     * @return the number of background rebalances of chunks that failed since the map was created.
+     * See {@link OakMapBuilder#setBackgroundRebalance(int, long)}. The exception of a failure is passed to the uncaught
+     * exception handler of the thread, and the chunk is left to the inline rebalance of its writers.
+     */
+    @Beta
+    public long failedBackgroundRebalances() {
+        return internalOakMap.failedBackgroundRebalances();
+    }
+
+    /**
+     * Removes all of the mappings from this map. For an arena map (see {@link OakMapBuilder#setArena}), the time it
+     * takes does not depend on the number of mappings: the off-heap memory is rewound all at once and kept for the
+     * next mappings, and the chunks are dropped as a whole. Only with direct entry arrays (see
+     * {@link OakMapBuilder#setDirectEntryArrays}) the time is linear in the number of chunks, whose off-heap arrays
+     * are freed one by one. An arena map can be cleared only as a whole, and not via a sub map.
+     * The user should ensure that there are no concurrent operations on an arena map while it is cleared.
+     */
+    @Override
+    public void clear() {
+        if (!internalOakMap.isArena()) {
+            super.clear();
+            return;
+        }
+        if (fromKey != null || toKey != null) {
+            throw new UnsupportedOperationException("A sub map of an arena map cannot be cleared");
+        }
+        internalOakMap.reset();
+    }
+
+    void startCompaction(long intervalMillis, double maxLiveRatio, long maxBytesPerSecond) {
+        internalOakMap.startCompaction(intervalMillis, maxLiveRatio, maxBytesPerSecond);
+    }
+
+    void startBackgroundRebalance(int threads, long pacingMicros) {
+        internalOakMap.startBackgroundRebalance(threads, pacingMicros);
+    }
+
     /**
      * Close and release the map and all the memory that is used by it.
      * The user should ensure that there are no concurrent operations
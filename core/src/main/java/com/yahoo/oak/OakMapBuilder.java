@@ -8,6 +8,8 @@ package com.yahoo.oak;
 
 import com.google.common.annotations.Beta;
 
+import java.nio.file.Path;
+
 /**
  * This class builds a new OakMap instance, and sets serializers, deserializers and allocation size calculators,
  * received from the user.
@@ -35,6 +37,25 @@ public class OakMapBuilder<K, V> {
     // Off-heap fields
     private long memoryCapacity;
     private Integer preferredBlockSizeBytes;
+    private boolean sizeClassFreeLists;
+    private BlocksPool blocksPool;
+    private Path mappedBlocksDirectory;
+    private long compactionIntervalMillis;
+    private double compactionMaxLiveRatio;
+    private long compactionMaxBytesPerSecond;
+    // the keys are allocated from other blocks than the values, see setCompaction()
+    private boolean separateKeysBlocks;
+    private MemoryManagerType keysMemoryManagerType; // null for the default of the map type
+    private MemoryManagerType valuesMemoryManagerType;
+    private long reclamationFlushIntervalMillis;
+    private int fixedValueSize;
+    private ContentionStrategy contentionStrategy;
+    private boolean arena;
+    private boolean directEntryArrays;
+    private boolean sortedArrayChunkIndex;
+    private boolean keyPrefixes;
+    private int backgroundRebalanceThreads;
+    private long backgroundRebalancePacingMicros;
 
     public OakMapBuilder(OakComparator<K> comparator,
                          OakSerializer<K> keySerializer, OakSerializer<V> valueSerializer, K minKey) {
@@ -49,6 +70,23 @@ public class OakMapBuilder<K, V> {
         this.preallocHashChunksNum = FirstLevelHashArray.HASH_CHUNK_NUM_DEFAULT;
         this.memoryCapacity = MAX_MEM_CAPACITY;
         this.preferredBlockSizeBytes = null;
+        this.sizeClassFreeLists = false;
+        this.blocksPool = null;
+        this.mappedBlocksDirectory = null;
+        this.compactionIntervalMillis = 0;
+        this.compactionMaxLiveRatio = Compactor.DEFAULT_MAX_LIVE_RATIO;
+        this.compactionMaxBytesPerSecond = Compactor.DEFAULT_MAX_BYTES_PER_SECOND;
+        this.keysMemoryManagerType = null;
+        this.valuesMemoryManagerType = MemoryManagerType.SYNC_RECYCLE;
+        this.reclamationFlushIntervalMillis = 0;
+        this.fixedValueSize = SyncRecycleMemoryManager.VARIABLE_DATA_LENGTH;
+        this.contentionStrategy = ContentionStrategy.adaptive();
+        this.arena = false;
+        this.directEntryArrays = false;
+        this.sortedArrayChunkIndex = false;
+        this.keyPrefixes = false;
+        this.backgroundRebalanceThreads = 0;
+        this.backgroundRebalancePacingMicros = 0;
     }
 
     public OakMapBuilder<K, V> setKeySerializer(OakSerializer<K> keySerializer) {
@@ -97,6 +135,208 @@ public class OakMapBuilder<K, V> {
         return this;
     }
 
+    /**
+     * Sets the pool of blocks to take the off-heap memory from, instead of the shared (singleton) pool.
+     * This allows maps with different needs to use pools with different block sizes and reserved memory sizes.
+     * The preferred block size is ignored if a pool is set. The pool is not closed when the map is closed.
+     * @param blocksPool a pool created via {@link BlocksPool.Builder}, or null to use the shared pool (the default)
+     */
+    @Beta
+    public OakMapBuilder<K, V> setBlocksPool(BlocksPool blocksPool) {
+        this.blocksPool = blocksPool;
+        return this;
+    }
+
+    /**
+     * Sets the off-heap memory to be backed by memory-mapped files, created in the given directory (one sparse file
+     * per block), instead of the shared pool of blocks. The OS may then page the cold blocks out to their files, so
+     * the map can hold more data than the physical memory. The block size is taken from
+     * {@link #setPreferredBlockSize(int)} (if set), and it is not limited by previously instantiated maps.
+     * @param directory the directory of the block files, or null to use the shared pool of blocks (the default)
+     */
+    @Beta
+    public OakMapBuilder<K, V> setMemoryMappedBlocks(Path directory) {
+        this.mappedBlocksDirectory = directory;
+        return this;
+    }
+
+    /**
+     * Sets whether the released off-heap memory is kept in slab-style size-class free lists, instead of a single
+     * sorted free list. Allocations are then rounded up to their size class (up to 25% bigger, plus 8 bytes),
+     * but releasing and reusing memory is done in constant time, without creating any on-heap objects.
+     * The free lists encode the blocks in 48 bits together with the offsets in them, so a map may hold up to
+     * 2^(48 - log2(block size)) blocks, e.g., two million blocks of the default size.
+     * @param sizeClassFreeLists whether to use size-class free lists
+     */
+    @Beta
+    public OakMapBuilder<K, V> setSizeClassFreeLists(boolean sizeClassFreeLists) {
+        this.sizeClassFreeLists = sizeClassFreeLists;
+        return this;
+    }
+
+    /**
+     * Sets the online off-heap compaction. Every compaction pass selects the sparsest blocks, having at most
+     * maxLiveRatio of their capacity in use, and relocates their live values to other blocks, so the emptied
+     * blocks can be returned to the blocks pool. Passes run in the background every intervalMillis, or only on
+     * demand via {@code compact()} if intervalMillis is zero (the default).
+     * The keys are not relocated, so once the compaction is set, they are allocated from other blocks than
+     * the values, which can then be emptied. Both kinds of blocks count against the memory capacity of the map.
+     * @param intervalMillis    the delay between two background passes, zero for on demand passes only
+     * @param maxLiveRatio      the maximal portion of a block capacity in use, for the block to be evacuated
+     * @param maxBytesPerSecond the maximal relocation rate of a pass, zero for no limit
+     */
+    @Beta
+    public OakMapBuilder<K, V> setCompaction(long intervalMillis, double maxLiveRatio, long maxBytesPerSecond) {
+        this.compactionIntervalMillis = intervalMillis;
+        this.compactionMaxLiveRatio = maxLiveRatio;
+        this.compactionMaxBytesPerSecond = maxBytesPerSecond;
+        this.separateKeysBlocks = true;
+        return this;
+    }
+
+    /**
+     * Sets the memory manager of the keys. The keys are never updated, so all the memory manager types suit them,
+     * except that {@link MemoryManagerType#SEQ_EXPAND} is not supported by the hash map, which frees the keys of
+     * removed entries.
+     * @param keysMemoryManagerType the memory manager type, by default {@link MemoryManagerType#NOVA} for the
+     *                              ordered map, and {@link MemoryManagerType#SYNC_RECYCLE} for the hash map
+     */
+    @Beta
+    public OakMapBuilder<K, V> setKeysMemoryManager(MemoryManagerType keysMemoryManagerType) {
+        this.keysMemoryManagerType = keysMemoryManagerType;
+        return this;
+    }
+
+    /**
+     * Sets the memory manager of the values. The values are updated in place, so only the memory manager types
+     * whose writers exclude each other suit them: {@link MemoryManagerType#SYNC_RECYCLE},
+     * {@link MemoryManagerType#EPOCH_RECLAMATION} and {@link MemoryManagerType#NOVA} (whose header holds the
+     * value length, so it does not support a fixed value size).
+     * @param valuesMemoryManagerType the memory manager type, {@link MemoryManagerType#SYNC_RECYCLE} by default
+     */
+    @Beta
+    public OakMapBuilder<K, V> setValuesMemoryManager(MemoryManagerType valuesMemoryManagerType) {
+        this.valuesMemoryManagerType = valuesMemoryManagerType;
+        return this;
+    }
+
+    /**
+     * Sets the background reclamation of released values. The off-heap memory of removed (or relocated) values is
+     * freed in batches, which are freed by default by the releasing threads once they are full: a latency spike for
+     * the operation that fills a batch, while the batches of threads that stop releasing are never freed.
+     * With background reclamation, the full batches are freed by a background daemon thread instead, and batches
+     * whose first value was released at least flushIntervalMillis ago are freed even if they are not full.
+     * Supported only by the {@link MemoryManagerType#SYNC_RECYCLE} values memory manager.
+     * @param flushIntervalMillis the maximal time a released value waits in a batch that is not full,
+     *                            zero to free the batches by the releasing threads (the default)
+     */
+    @Beta
+    public OakMapBuilder<K, V> setBackgroundReclamation(long flushIntervalMillis) {
+        this.reclamationFlushIntervalMillis = flushIntervalMillis;
+        return this;
+    }
+
+    /**
+     * Sets a fixed size of all the values, e.g., for counters. The off-heap header of a value then holds only its
+     * version and lock (8 bytes), without its length, saving 4 bytes per value. Every value takes exactly valueSize
+     * bytes off-heap, so a smaller value leaves the rest of them unused, and writing a bigger value throws
+     * IllegalArgumentException.
+     * @param valueSize the size of all the values in bytes, or zero for values of any size (the default)
+     */
+    @Beta
+    public OakMapBuilder<K, V> setFixedValueSize(int valueSize) {
+        if (valueSize < 0) {
+            throw new IllegalArgumentException("The fixed value size must not be negative");
+        }
+        this.fixedValueSize = (valueSize == 0) ? SyncRecycleMemoryManager.VARIABLE_DATA_LENGTH : valueSize;
+        return this;
+    }
+
+    /**
+     * Sets how a thread waits for the lock of a value, while other threads hold it. The writers of a value are
+     * preferred over its readers in any case: new readers defer to a waiting writer, so they cannot starve it.
+     * @param contentionStrategy {@link ContentionStrategy#adaptive()} by default
+     */
+    @Beta
+    public OakMapBuilder<K, V> setContentionStrategy(ContentionStrategy contentionStrategy) {
+        this.contentionStrategy = contentionStrategy;
+        return this;
+    }
+
+    /**
+     * Sets the arena mode, for short-lived maps that are filled, scanned and thrown away (e.g., for a join).
+     * The keys and the values are then bump-allocated off-heap, without any header, and their memory is never
+     * freed one by one: the map does not support removals, and {@code clear()} rewinds its memory allocator all at
+     * once, keeping its blocks for the next entries, instead of returning them to the blocks pool.
+     * The values are written in place without any lock, so a value must not be updated concurrently with other
+     * accesses to it. The memory managers set via {@link #setKeysMemoryManager} and {@link #setValuesMemoryManager}
+     * are ignored, and the arena mode does not support compaction, background reclamation, background rebalance
+     * (of the ordered map) and fixed value size.
+     * @param arena whether to build an arena map, false by default
+     */
+    @Beta
+    public OakMapBuilder<K, V> setArena(boolean arena) {
+        this.arena = arena;
+        return this;
+    }
+
+    /**
+     * Sets where the entry arrays of the chunks are stored. The entry arrays of a big map take a lot of the heap
+     * (e.g., 4096 entries of 3-4 longs per chunk), which the GC has to scan and copy. Direct entry arrays are
+     * allocated off-heap, from the blocks of the map, and the array of a chunk is freed once the chunk is
+     * replaced by a rebalance and no thread may read it anymore. The entry arrays count against the memory
+     * capacity of the map (see {@link #setMemoryCapacity(long)}), and are included in its memory size. An entry
+     * array must fit in a single block.
+     * @param directEntryArrays whether the entry arrays are off-heap, false (on-heap) by default
+     */
+    @Beta
+    public OakMapBuilder<K, V> setDirectEntryArrays(boolean directEntryArrays) {
+        this.directEntryArrays = directEntryArrays;
+        return this;
+    }
+
+    /**
+     * Sets the index through which an ordered map finds the chunk of a key. By default, the chunks are indexed by a
+     * concurrent skiplist. A sorted array index keeps the chunks in an array, searched by the key prefixes of their
+     * minimal keys (see {@link OakComparator#keyPrefix}), so a search is cheaper, but the array is copied upon every
+     * split or merge of chunks. It suits read-mostly maps. Ignored by the hash map.
+     * @param sortedArrayChunkIndex whether to index the chunks by a sorted array, false (skiplist) by default
+     */
+    @Beta
+    public OakMapBuilder<K, V> setSortedArrayChunkIndex(boolean sortedArrayChunkIndex) {
+        this.sortedArrayChunkIndex = sortedArrayChunkIndex;
+        return this;
+    }
+
+    /**
+     * Sets whether each entry of an ordered map keeps the 8-byte prefix of its key (see
+     * {@link OakComparator#keyPrefix}), so a search compares the serialized keys only upon a prefix tie. It costs
+     * an additional long per entry, so it pays off only for keys whose prefixes are mostly distinct, and whose
+     * comparison is costly. Ignored if the comparator has no key prefixes, and by the hash map.
+     * @param keyPrefixes whether the entries keep the prefixes of their keys, false by default
+     */
+    @Beta
+    public OakMapBuilder<K, V> setKeyPrefixes(boolean keyPrefixes) {
+        this.keyPrefixes = keyPrefixes;
+        return this;
+    }
+
+    /**
+     * Sets the background rebalance of an ordered map. By default, a writer that finds that its chunk should be
+     * compacted or split runs the rebalance itself. With the background rebalance, the writer only flags the chunk,
+     * and background threads rebalance the flagged chunks, which flattens the tail latency of the puts. A writer
+     * still rebalances inline a chunk that has no free entry for its put. Ignored by the hash map. Not supported
+     * in the arena mode.
+     * @param threads      the number of the background threads, zero (the default) for the inline rebalance only
+     * @param pacingMicros the delay of a background thread after each of its rebalances, zero for no delay
+     */
+    @Beta
+    public OakMapBuilder<K, V> setBackgroundRebalance(int threads, long pacingMicros) {
+        this.backgroundRebalanceThreads = threads;
+        this.backgroundRebalancePacingMicros = pacingMicros;
+        return this;
+    }
+
     private void checkPreconditions() {
         if (comparator == null) {
             throw new IllegalStateException("Must provide a non-null comparator to build the Oak");
@@ -109,8 +349,111 @@ public class OakMapBuilder<K, V> {
         }
     }
 
-    private BlockMemoryAllocator buildMemoryAllocator() {
-        return new NativeMemoryAllocator(memoryCapacity);
+    private MemoryManagerType keysMemoryManagerType(boolean hash) {
+        if (keysMemoryManagerType == null) {
+            return hash ? MemoryManagerType.SYNC_RECYCLE : MemoryManagerType.NOVA;
+        }
+        return keysMemoryManagerType;
+    }
+
+    // checks the memory manager types before any off-heap memory is taken
+    private void checkMemoryManagers(boolean hash) {
+        if (arena) {
+            if (compactionIntervalMillis > 0 || reclamationFlushIntervalMillis > 0
+                    || fixedValueSize != SyncRecycleMemoryManager.VARIABLE_DATA_LENGTH) {
+                throw new IllegalStateException("The arena mode does not support compaction, background "
+                        + "reclamation and fixed value size");
+            }
+            // reset() rewinds the memory of the chunks, which a background rebalance may be copying meanwhile
+            if (!hash && backgroundRebalanceThreads > 0) {
+                throw new IllegalStateException("The arena mode does not support background rebalance");
+            }
+            return;
+        }
+        if (hash && keysMemoryManagerType(true) == MemoryManagerType.SEQ_EXPAND) {
+            // the hash map frees the key of a removed entry, while other threads may still read it
+            throw new IllegalStateException("The keys memory manager of a hash map must reclaim the removed keys, "
+                    + "SEQ_EXPAND is not supported");
+        }
+        if (valuesMemoryManagerType == MemoryManagerType.SEQ_EXPAND) {
+            throw new IllegalStateException("The values are updated in place, so their memory manager must be "
+                    + "SYNC_RECYCLE, EPOCH_RECLAMATION or NOVA, not " + valuesMemoryManagerType);
+        }
+        if (valuesMemoryManagerType == MemoryManagerType.NOVA
+                && fixedValueSize != SyncRecycleMemoryManager.VARIABLE_DATA_LENGTH) {
+            throw new IllegalStateException("The NOVA values memory manager does not support fixed value size");
+        }
+        if (reclamationFlushIntervalMillis > 0 && valuesMemoryManagerType != MemoryManagerType.SYNC_RECYCLE) {
+            throw new IllegalStateException("Background reclamation requires the SYNC_RECYCLE values "
+                    + "memory manager");
+        }
+    }
+
+    private BlocksProvider buildBlocksProvider() {
+        if (mappedBlocksDirectory != null) {
+            return new MappedBlocksProvider(mappedBlocksDirectory,
+                    (preferredBlockSizeBytes != null) ? preferredBlockSizeBytes : BlocksPool.DEFAULT_BLOCK_SIZE_BYTES);
+        }
+        if (blocksPool != null) {
+            return blocksPool;
+        }
+        if (preferredBlockSizeBytes != null) {
+            BlocksPool.preferBlockSize(preferredBlockSizeBytes);
+        }
+        return BlocksPool.getInstance();
+    }
+
+    private NativeMemoryAllocator buildMemoryAllocator(BlocksProvider blocksProvider) {
+        return new NativeMemoryAllocator(memoryCapacity, blocksProvider,
+                NativeMemoryAllocator.DEFAULT_THREAD_BUFFER_SIZE, sizeClassFreeLists);
+    }
+
+    // the keys are never relocated by the compaction, so they would keep sparse blocks of values from being emptied
+    private NativeMemoryAllocator buildKeysAllocator(NativeMemoryAllocator memoryAllocator) {
+        return (separateKeysBlocks && !arena) ? new NativeMemoryAllocator(memoryAllocator) : memoryAllocator;
+    }
+
+    // the entry arrays count against the memory capacity of the map, together with its keys and values
+    private DirectEntryArrays buildDirectEntryArrays(NativeMemoryAllocator memoryAllocator,
+            BlocksProvider blocksProvider) {
+        return directEntryArrays ? new DirectEntryArrays(memoryAllocator, blocksProvider) : null;
+    }
+
+    private MemoryManager buildKeysMemoryManager(BlockMemoryAllocator memoryAllocator, boolean hash) {
+        if (arena) {
+            return new SeqExpandMemoryManager(memoryAllocator);
+        }
+        switch (keysMemoryManagerType(hash)) {
+            case NOVA:
+                return new NovaMemoryManager(memoryAllocator);
+            case SEQ_EXPAND:
+                return new SeqExpandMemoryManager(memoryAllocator);
+            case EPOCH_RECLAMATION:
+                return new EpochMemoryManager(memoryAllocator);
+            case SYNC_RECYCLE:
+            default:
+                return new SyncRecycleMemoryManager(memoryAllocator);
+        }
+    }
+
+    private MemoryManager buildValuesMemoryManager(BlockMemoryAllocator memoryAllocator) {
+        if (arena) {
+            return new SeqExpandMemoryManager(memoryAllocator);
+        }
+        switch (valuesMemoryManagerType) {
+            case EPOCH_RECLAMATION:
+                return new EpochMemoryManager(memoryAllocator, fixedValueSize, contentionStrategy);
+            case NOVA:
+                return new NovaMemoryManager(memoryAllocator, contentionStrategy);
+            case SYNC_RECYCLE:
+            default:
+                SyncRecycleMemoryManager mm = new SyncRecycleMemoryManager(memoryAllocator, fixedValueSize,
+                        contentionStrategy);
+                if (reclamationFlushIntervalMillis > 0) {
+                    mm.startBackgroundReclamation(reclamationFlushIntervalMillis);
+                }
+                return mm;
+        }
     }
 
     /**
@@ -121,23 +464,31 @@ public class OakMapBuilder<K, V> {
             BlockMemoryAllocator memoryAllocator,
             MemoryManager keysMemoryManager,
             MemoryManager valuesMemoryManager
+    ) {
+        return buildSharedConfig(memoryAllocator, keysMemoryManager, valuesMemoryManager, null);
+    }
+
+    private OakSharedConfig<K, V> buildSharedConfig(
+            BlockMemoryAllocator memoryAllocator,
+            MemoryManager keysMemoryManager,
+            MemoryManager valuesMemoryManager,
+            DirectEntryArrays directEntryArrays
     ) {
         return new OakSharedConfig<>(
                 memoryAllocator, keysMemoryManager, valuesMemoryManager,
-                keySerializer, valueSerializer, comparator
+                keySerializer, valueSerializer, comparator, arena, directEntryArrays, keyPrefixes
         );
     }
 
     public OakMap<K, V> buildOrderedMap() {
-        if (preferredBlockSizeBytes != null) {
-            BlocksPool.preferBlockSize(preferredBlockSizeBytes);
-        }
-
-        BlockMemoryAllocator memoryAllocator = buildMemoryAllocator();
+        checkMemoryManagers(false);
+        BlocksProvider blocksProvider = buildBlocksProvider();
+        NativeMemoryAllocator memoryAllocator = buildMemoryAllocator(blocksProvider);
         OakSharedConfig<K, V> config = buildSharedConfig(
                 memoryAllocator,
-                new NovaMemoryManager(memoryAllocator),
-                new SyncRecycleMemoryManager(memoryAllocator)
+                buildKeysMemoryManager(buildKeysAllocator(memoryAllocator), false),
+                buildValuesMemoryManager(memoryAllocator),
+                buildDirectEntryArrays(memoryAllocator, blocksProvider)
         );
 
         checkPreconditions();
@@ -145,21 +496,26 @@ public class OakMapBuilder<K, V> {
         if (minKey == null) {
             throw new IllegalStateException("Must provide a non-null minimal key object to build the OakMap");
         }
-        return new OakMap<>(config, minKey, orderedChunkMaxItems);
+        OakMap<K, V> map = new OakMap<>(config, minKey, orderedChunkMaxItems, sortedArrayChunkIndex);
+        if (!arena) { // the memory of an arena is never freed, so there is nothing to compact
+            map.startCompaction(compactionIntervalMillis, compactionMaxLiveRatio, compactionMaxBytesPerSecond);
+        }
+        if (backgroundRebalanceThreads > 0) {
+            map.startBackgroundRebalance(backgroundRebalanceThreads, backgroundRebalancePacingMicros);
+        }
+        return map;
     }
 
     @Beta
     public OakHashMap<K, V> buildHashMap() {
-        if (preferredBlockSizeBytes != null) {
-            BlocksPool.preferBlockSize(preferredBlockSizeBytes);
-        }
-
-        BlockMemoryAllocator memoryAllocator = buildMemoryAllocator();
+        checkMemoryManagers(true);
+        BlocksProvider blocksProvider = buildBlocksProvider();
+        NativeMemoryAllocator memoryAllocator = buildMemoryAllocator(blocksProvider);
         OakSharedConfig<K, V> config = buildSharedConfig(
                 memoryAllocator,
-                // for hash the keys are indeed deleted, thus SeqExpandMemoryManager isn't acceptable
-                new SyncRecycleMemoryManager(memoryAllocator),
-                new SyncRecycleMemoryManager(memoryAllocator)
+                buildKeysMemoryManager(buildKeysAllocator(memoryAllocator), true),
+                buildValuesMemoryManager(memoryAllocator),
+                buildDirectEntryArrays(memoryAllocator, blocksProvider)
         );
 
         // Number of bits to define the chunk size is calculated from given number of items
@@ -172,7 +528,11 @@ public class OakMapBuilder<K, V> {
 
         checkPreconditions();
 
-        return new OakHashMap<>(config, bitsToKeepChunkSize, bitsToKeepChunksNum);
+        OakHashMap<K, V> map = new OakHashMap<>(config, bitsToKeepChunkSize, bitsToKeepChunksNum);
+        if (!arena) { // the memory of an arena is never freed, so there is nothing to compact
+            map.startCompaction(compactionIntervalMillis, compactionMaxLiveRatio, compactionMaxBytesPerSecond);
+        }
+        return map;
     }
 
 }
@@ -26,6 +26,15 @@ public class OakSharedConfig<K, V> {
 
     public final AtomicInteger size;
 
+    // whether the map is an arena: its memory is never freed, but only rewound all at once
+    public final boolean arena;
+
+    // allocates the off-heap entry arrays, or null if the entry arrays are on-heap
+    final DirectEntryArrays directEntryArrays;
+
+    // whether the entries of an ordered map keep the prefixes of their keys, see OakMapBuilder.setKeyPrefixes()
+    final boolean keyPrefixes;
+
     public OakSharedConfig(
             BlockMemoryAllocator memoryAllocator,
             MemoryManager keysMemoryManager,
@@ -33,6 +42,34 @@ public class OakSharedConfig<K, V> {
             OakSerializer<K> keySerializer,
             OakSerializer<V> valueSerializer,
             OakComparator<K> comparator
+    ) {
+        this(memoryAllocator, keysMemoryManager, valuesMemoryManager, keySerializer, valueSerializer, comparator,
+                false);
+    }
+
+    public OakSharedConfig(
+            BlockMemoryAllocator memoryAllocator,
+            MemoryManager keysMemoryManager,
+            MemoryManager valuesMemoryManager,
+            OakSerializer<K> keySerializer,
+            OakSerializer<V> valueSerializer,
+            OakComparator<K> comparator,
+            boolean arena
+    ) {
+        this(memoryAllocator, keysMemoryManager, valuesMemoryManager, keySerializer, valueSerializer, comparator,
+                arena, null, false);
+    }
+
+    OakSharedConfig(
+            BlockMemoryAllocator memoryAllocator,
+            MemoryManager keysMemoryManager,
+            MemoryManager valuesMemoryManager,
+            OakSerializer<K> keySerializer,
+            OakSerializer<V> valueSerializer,
+            OakComparator<K> comparator,
+            boolean arena,
+            DirectEntryArrays directEntryArrays,
+            boolean keyPrefixes
     ) {
         this.memoryAllocator = memoryAllocator;
         this.valuesMemoryManager = valuesMemoryManager;
@@ -42,5 +79,8 @@ public class OakSharedConfig<K, V> {
         this.comparator = comparator;
         this.valueOperator = new ValueUtils();
         this.size = new AtomicInteger(0);
+        this.arena = arena;
+        this.directEntryArrays = directEntryArrays;
+        this.keyPrefixes = keyPrefixes && comparator.hasKeyPrefix();
     }
 }
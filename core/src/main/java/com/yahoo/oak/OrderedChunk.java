@@ -8,6 +8,7 @@ package com.yahoo.oak;
 
 import java.util.EmptyStackException;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicMarkableReference;
 
@@ -21,6 +22,8 @@ class OrderedChunk<K, V> extends BasicChunk<K, V> {
     private static final double SORTED_REBALANCE_RATIO = 2;
     private static final double MAX_ENTRIES_FACTOR = 2;
     private static final double MAX_IDLE_ENTRIES_FACTOR = 5;
+    // the background rebalance splits a chunk once this portion of its entries is allocated, before it is full
+    private static final double BACKGROUND_SPLIT_RATIO = 0.75;
 
     // defaults
     public static final int ORDERED_CHUNK_MAX_ITEMS_DEFAULT = 4096;
@@ -32,6 +35,10 @@ class OrderedChunk<K, V> extends BasicChunk<K, V> {
 
     // # of sorted items at entry-array's beginning (resulting from split)
     private final AtomicInteger sortedCount;
+    // set while the chunk is queued for the background rebalance (see BackgroundRebalancer)
+    final AtomicBoolean rebalanceFlagged = new AtomicBoolean(false);
+    // set once a background rebalance of the chunk failed, so its writers rebalance it inline from then on
+    volatile boolean backgroundRebalanceFailed = false;
 
     /*-------------- Constructors --------------*/
     /**
@@ -172,6 +179,17 @@ class OrderedChunk<K, V> extends BasicChunk<K, V> {
         if ( !(config.keysMemoryManager instanceof SeqExpandMemoryManager) && released ) {
             entryOrderedSet.releaseAllDeletedKeys();
         }
+        if (released) {
+            entryOrderedSet.retireArray();
+        }
+    }
+
+    /**
+     * Frees the off-heap entry array of a chunk that is not released, but is not reachable by new operations
+     * anymore: it was never published, or it was dropped by a reset. See {@code EntryArray.retireArray()}.
+     */
+    void retireArray() {
+        entryOrderedSet.retireArray();
     }
 
     /**
@@ -240,6 +258,28 @@ class OrderedChunk<K, V> extends BasicChunk<K, V> {
         return KeyUtils.compareEntryKeyAndSerializedKey(key, tempKeyBuff, config.comparator);
     }
 
+    /**
+     * Same as {@code compareKeyAndEntryIndex(KeyBuffer, K, int)}, but if the entries keep the prefixes of their keys,
+     * the prefix of the key is compared first, and the serialized key is compared only if the prefixes are equal.
+     * Hence, the buffer contains the compared serialized key only if the comparison result is zero.
+     *
+     * @param keyPrefix the prefix of the key to compare, see {@code keyPrefix()}
+     */
+    private int compareKeyAndEntryIndex(KeyBuffer tempKeyBuff, K key, long keyPrefix, int ei) {
+        if (entryOrderedSet.hasKeyPrefixes()) {
+            int cmp = Long.compare(keyPrefix, entryOrderedSet.getKeyPrefix(ei));
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return compareKeyAndEntryIndex(tempKeyBuff, key, ei);
+    }
+
+    // Returns the prefix of the key if the entries keep the prefixes of their keys, computed once per search
+    private long keyPrefix(K key) {
+        return entryOrderedSet.hasKeyPrefixes() ? config.comparator.keyPrefix(key) : 0;
+    }
+
     /**
      * Look up a key in this chunk.
      *
@@ -264,13 +304,14 @@ class OrderedChunk<K, V> extends BasicChunk<K, V> {
     void lookUp(ThreadContext ctx, K key) {
         // binary search sorted part of key array to quickly find node to start search at
         // it finds previous-to-key
-        int curr = binaryFind(ctx.tempKey, key);
+        long keyPrefix = keyPrefix(key);
+        int curr = binaryFind(ctx.tempKey, key, keyPrefix);
         curr = (curr == NONE_NEXT) ? entryOrderedSet.getHeadNextEntryIndex() : entryOrderedSet.getNextEntryIndex(curr);
 
         // iterate until end of list (or key is found)
         while (curr != NONE_NEXT) {
             // compare current item's key to searched key
-            int cmp = compareKeyAndEntryIndex(ctx.key, key, curr);
+            int cmp = compareKeyAndEntryIndex(ctx.key, key, keyPrefix, curr);
             // if item's key is larger - we've exceeded our key
             // it's not in chunk - no need to search further
             if (cmp < 0) {
@@ -305,6 +346,11 @@ class OrderedChunk<K, V> extends BasicChunk<K, V> {
      * NONE_NEXT is going to be returned
      */
     private int binaryFind(KeyBuffer tempKey, K key) {
+        return binaryFind(tempKey, key, keyPrefix(key));
+    }
+
+    // The binary search mostly compares the on-heap key prefixes, if the entries keep them
+    private int binaryFind(KeyBuffer tempKey, K key, long keyPrefix) {
         int sortedCount = this.sortedCount.get();
         // if there are no sorted keys, return NONE_NEXT to indicate that a regular linear search is needed
         if (sortedCount == 0) {
@@ -313,12 +359,12 @@ class OrderedChunk<K, V> extends BasicChunk<K, V> {
 
         // if the first item is already larger than key,
         // return NONE_NEXT to indicate that a regular linear search is needed
-        if (compareKeyAndEntryIndex(tempKey, key, entryOrderedSet.getHeadNextEntryIndex()) <= 0) {
+        if (compareKeyAndEntryIndex(tempKey, key, keyPrefix, entryOrderedSet.getHeadNextEntryIndex()) <= 0) {
             return NONE_NEXT;
         }
 
         // optimization: compare with last key to avoid binary search (here sortedCount is not zero)
-        if (compareKeyAndEntryIndex(tempKey, key, getLastSortedEntryIndex(sortedCount)) > 0) {
+        if (compareKeyAndEntryIndex(tempKey, key, keyPrefix, getLastSortedEntryIndex(sortedCount)) > 0) {
             return getLastSortedEntryIndex(sortedCount);
         }
 
@@ -329,7 +375,7 @@ class OrderedChunk<K, V> extends BasicChunk<K, V> {
         int end = sortedCount;
         while (end - start > 1) {
             int curr = start + ((end - start) / 2);
-            if (compareKeyAndEntryIndex(tempKey, key, curr) <= 0) {
+            if (compareKeyAndEntryIndex(tempKey, key, keyPrefix, curr) <= 0) {
                 end = curr;
             } else {
                 start = curr;
@@ -494,6 +540,26 @@ class OrderedChunk<K, V> extends BasicChunk<K, V> {
         if (!isEngaged(null)) {
             return false;
         }
+        return needsRebalance();
+    }
+
+    /**
+     * A chunk that was split is rebalanced by shouldRebalance() only when it is full, by the put that finds no
+     * free entry. The background rebalance also splits the chunks that are close to be full, off the write path.
+     * @return whether the chunk should be flagged for the background rebalance
+     */
+    boolean shouldRebalanceInBackground() {
+        if (rebalanceFlagged.get() || !isEngaged(null)) {
+            return false;
+        }
+        return needsRebalance()
+                || entryOrderedSet.getNumOfEntries() >= getMaxItems() * BACKGROUND_SPLIT_RATIO;
+    }
+
+    /**
+     * @return whether the entries of this chunk should be compacted or split, regardless of a running rebalance
+     */
+    boolean needsRebalance() {
         int numOfEntries = entryOrderedSet.getNumOfEntries();
         int numOfItems = statistics.getTotalCount();
         int sortedCount = this.sortedCount.get();
@@ -508,91 +574,49 @@ class OrderedChunk<K, V> extends BasicChunk<K, V> {
     }
 
     /**
-     * Copies entries from srcOrderedChunk (starting srcEntryIdx) to this chunk,
-     * performing entries sorting on the fly (delete entries that are removed as well).
-     *
-     * @param tempValue   a reusable buffer object for internal temporary usage
-     * @param srcOrderedChunk    chunk to copy from
-     * @param srcEntryIdx start position for copying
-     * @param maxCapacity max number of entries "this" chunk can contain after copy
-     * @return entry index of next to the last copied entry (in the srcOrderedChunk),
-     *         NONE_NEXT if all items were copied
+     * @return the number of entries that were allocated in this chunk, linked to its list or not
      */
-    final int copyPartOfEntries(
-        ValueBuffer tempValue, OrderedChunk<K, V> srcOrderedChunk, final int srcEntryIdx, int maxCapacity) {
-
-        if (srcEntryIdx == NONE_NEXT) {
-            return NONE_NEXT;
-        }
-
-        // use local variables and just set the atomic variables once at the end
-        int thisNumOfEntries = entryOrderedSet.getNumOfEntries();
-
-        // check that we are not beyond allowed number of entries to copy from source chunk
-        if (thisNumOfEntries >= maxCapacity) {
-            return srcEntryIdx;
-        }
-        // assuming that all chunks are bounded with same number of entries to hold
-        assert srcEntryIdx <= getMaxItems();
-
-        // set the next entry index (previous entry or head) from where we start to copy
-        // if sortedThisEntryIndex is one (first entry to be occupied on this chunk)
-        // we are exactly going to update the head (ei=0)
-        if (thisNumOfEntries == 0) {
-            entryOrderedSet.setHeadEntryIndex(thisNumOfEntries);
-        } else {
-            entryOrderedSet.setNextEntryIndex(thisNumOfEntries - 1, thisNumOfEntries);
-        }
-
-        // Here was the code that was trying to read entries from srcEntryIdx on the source chunk
-        // to see how much of them are subject for a copy, ordered and not deleted,
-        // so theoretically they can be copied with copy array. The code is removed, because anyway
-        // the long copy array doesn't happen since "next" needs to be updated separately.
-
-        // copy entry by entry traversing the source linked list
-        int curEntryIdx = srcEntryIdx;
-        while (entryOrderedSet.copyEntry(tempValue, srcOrderedChunk.entryOrderedSet, curEntryIdx)) {
-            // the source entry was either copied or disregarded as deleted
-            // anyway move to next source entry (according to the linked list)
-            curEntryIdx = srcOrderedChunk.entryOrderedSet.getNextEntryIndex(curEntryIdx);
-
-            // if entry was ignored as deleted (no change in this EntryOrderedSet num of entries), continue
-            if (thisNumOfEntries == entryOrderedSet.getNumOfEntries()) {
-                continue;
-            }
-
-            // we indeed copied the entry, update the number of entries and the next pointer
-            thisNumOfEntries++;
-            entryOrderedSet.setNextEntryIndex(thisNumOfEntries - 1, thisNumOfEntries);
+    int getNumOfAllocatedEntries() {
+        return Math.min(entryOrderedSet.getLastEntryIndex(), getMaxItems());
+    }
 
-            // check that we are not beyond allowed number of entries to copy from source chunk
-            if (thisNumOfEntries >= maxCapacity) {
-                break;
-            }
+    /**
+     * @return the index of the entry following the given entry in the list, NONE_NEXT if it is the last one
+     */
+    int getNextItemEntryIndex(int ei) {
+        return entryOrderedSet.getNextEntryIndex(ei);
+    }
 
-            // is there something to copy on the source side?
-            if (curEntryIdx == NONE_NEXT) {
-                break;
-            }
-        }
-        // we have stopped the copy because (1) this entry set is full, OR (2) ended source entries,
-        // OR (3) we copied allowed number of entries
-
-        // the last next pointer was set to what is there in the source to copy, reset it to null
-        if (thisNumOfEntries == 0) {
-            entryOrderedSet.setHeadEntryIndex(NONE_NEXT);
-        } else {
-            entryOrderedSet.setNextEntryIndex(thisNumOfEntries - 1, NONE_NEXT);
-        }
+    /**
+     * See {@code EntryArray.isValueDeleted()} for more information
+     */
+    boolean isValueDeleted(ValueBuffer tempValue, int ei) {
+        return entryOrderedSet.isValueDeleted(tempValue, ei);
+    }
 
+    /**
+     * Prepares this (new) chunk to hold the given number of entries, which are then copied from frozen chunks
+     * via {@code copyEntry()}, possibly by multiple threads. The copied entries are sorted by their entry indexes.
+     *
+     * @param numOfEntries the number of entries to be copied to this chunk
+     */
+    void prepareCopy(int numOfEntries) {
+        assert numOfEntries <= getMaxItems();
+        entryOrderedSet.setCopiedEntries(numOfEntries);
         // sorted count keeps the number of sorted entries
-        sortedCount.set(thisNumOfEntries);
-        statistics.updateInitialCount(sortedCount.get());
-
-        // check the validity of the new entryOrderedSet
-        assert entryOrderedSet.isEntrySetValidAfterRebalance();
+        sortedCount.set(numOfEntries);
+        statistics.updateInitialCount(numOfEntries);
+    }
 
-        return curEntryIdx; // if NONE_NEXT then we finished copying old chunk, else we reached max in new chunk
+    /**
+     * Copies an entry of a frozen chunk to this chunk, see {@code prepareCopy()}.
+     *
+     * @param srcOrderedChunk chunk to copy from
+     * @param srcEntryIdx     the entry index to copy from
+     * @param entryIdx        the entry index of this chunk to copy to
+     */
+    void copyEntry(OrderedChunk<K, V> srcOrderedChunk, int srcEntryIdx, int entryIdx) {
+        entryOrderedSet.copyEntry(srcOrderedChunk.entryOrderedSet, srcEntryIdx, entryIdx);
     }
 
     /**
@@ -6,12 +6,13 @@
 
 package com.yahoo.oak;
 
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntConsumer;
 
 class Rebalancer<K, V> {
 
@@ -22,6 +23,8 @@ class Rebalancer<K, V> {
     private static final double MAX_AFTER_MERGE_PART = 0.7;
     private static final double LOW_THRESHOLD = 0.5;
     private static final double APPEND_THRESHOLD = 0.2;
+    // the number of entries that a thread scans or copies at once, in a task of the (cooperative) copy
+    static final int COPY_TASK_SIZE = 512;
 
     private final int entriesLowThreshold;
     private final int maxRangeToAppend;
@@ -32,6 +35,7 @@ class Rebalancer<K, V> {
     private final AtomicReference<List<OrderedChunk<K, V>>> newChunks = new AtomicReference<>(null);
     private final AtomicReference<List<OrderedChunk<K, V>>> engagedChunks = new AtomicReference<>(null);
     private final AtomicBoolean frozen = new AtomicBoolean(false);
+    private final AtomicReference<ChunksCopy> copy = new AtomicReference<>(null);
     private final OrderedChunk<K, V> first;
     private OrderedChunk<K, V> last;
     private int chunksInRange;
@@ -97,112 +101,299 @@ class Rebalancer<K, V> {
     }
 
     /**
-     * Split or compact
+     * Split or compact. The threads which call this method concurrently share the copy, see {@code ChunksCopy}.
      *
      * @return if managed to CAS to newChunk list of rebalance
      * if we did then the put was inserted
      */
     boolean createNewChunks(ThreadContext ctx) {
-        
-        retry : while (true) {
+        if (this.newChunks.get() != null) {
+            return false; // this was done by another thread already
+        }
+
+        ChunksCopy chunksCopy = copy.get();
+        if (chunksCopy == null) {
+            copy.compareAndSet(null, new ChunksCopy(getEngagedChunks()));
+            chunksCopy = copy.get();
+        }
+        List<OrderedChunk<K, V>> newOrderedChunks;
+        while ((newOrderedChunks = chunksCopy.run(ctx)) == null) {
+            // a task of the copy failed in another thread, so the copy is redone from the start by a new one
             if (this.newChunks.get() != null) {
-                return false; // this was done by another thread already
+                return false;
             }
-    
-            List<OrderedChunk<K, V>> frozenOrderedChunks = engagedChunks.get();
-    
-            ListIterator<OrderedChunk<K, V>> iterFrozen = frozenOrderedChunks.listIterator();
-    
-            OrderedChunk<K, V> firstFrozen = iterFrozen.next();
-            OrderedChunk<K, V> currFrozen = firstFrozen;
-            OrderedChunk<K, V> currNewOrderedChunk = firstFrozen.createFirstChild();
-    
-            int ei = firstFrozen.getFirstItemEntryIndex();
-            List<OrderedChunk<K, V>> newOrderedChunks = new LinkedList<>();
-    
-            KeyBuffer keyBuff = ctx.tempKey;
-            ValueBuffer valueBuff = ctx.tempValue;
-    
-            while (true) {
-                ei = currNewOrderedChunk
-                    .copyPartOfEntries(valueBuff, currFrozen, ei, entriesLowThreshold);
-                // if completed reading curr frozen chunk
-                if (ei == OrderedChunk.NONE_NEXT) {
-                    if (!iterFrozen.hasNext()) {
-                        break;
-                    }
-    
-                    currFrozen = iterFrozen.next();
-                    ei = currFrozen.getFirstItemEntryIndex();
-    
-                } else { // filled new chunk up to entriesLowThreshold
-    
-                    List<OrderedChunk<K, V>> frozenSuffix = frozenOrderedChunks
-                        .subList(iterFrozen.previousIndex(), frozenOrderedChunks.size());
-                    // try to look ahead and add frozen suffix
-                    if (canAppendSuffix(frozenSuffix, maxRangeToAppend)) {
-                        // maybe there is just a little bit copying left
-                        // and we don't want to open a whole new chunk just for it
-                        completeCopy(valueBuff, currNewOrderedChunk, ei, frozenSuffix);
-                        break;
-                    } else {
-                        // we have to open an new chunk
-                        // here we create a new minimal key buffer for the second new chunk,
-                        // created by the split. The new min key is a copy of the older one
-    
-                        if (!currFrozen.readKeyFromEntryIndex(keyBuff, ei)) {
-                            continue retry;
-                        }
-                        OrderedChunk<K, V> c = firstFrozen.createNextChild(keyBuff);
-                        currNewOrderedChunk.next.set(c, false);
-                        newOrderedChunks.add(currNewOrderedChunk);
-                        currNewOrderedChunk = c;
-                    }
+            if (copy.compareAndSet(chunksCopy, new ChunksCopy(getEngagedChunks()))) {
+                chunksCopy.abandon();
+            }
+            chunksCopy = copy.get();
+        }
+
+        // if fail here, another thread succeeded, and op is effectively gone
+        return this.newChunks.compareAndSet(null, newOrderedChunks);
+    }
+
+    /**
+     * A fixed number of tasks, which the threads that help the rebalance claim one by one.
+     */
+    static final class Tasks {
+        private final int numOfTasks;
+        private final AtomicInteger nextTask = new AtomicInteger(0);
+        private final AtomicInteger doneTasks = new AtomicInteger(0);
+        // set once a task failed, so it will never be done
+        private volatile boolean failed = false;
+
+        Tasks(int numOfTasks) {
+            this.numOfTasks = numOfTasks;
+        }
+
+        /**
+         * Runs the unclaimed tasks, and returns true once all the tasks are done, including the ones that other
+         * threads claimed. Hence, the writes of all the tasks are visible when it returns true.
+         * A failure of a task is thrown to the thread that ran it, and the other threads return false instead of
+         * waiting for that task.
+         */
+        boolean runAll(IntConsumer task) {
+            int t;
+            while (!failed && (t = nextTask.getAndIncrement()) < numOfTasks) {
+                try {
+                    task.accept(t);
+                } catch (RuntimeException | Error e) {
+                    failed = true;
+                    throw e;
                 }
-    
+                doneTasks.incrementAndGet();
             }
-    
-            newOrderedChunks.add(currNewOrderedChunk);
-    
-            // if fail here, another thread succeeded, and op is effectively gone
-            return this.newChunks.compareAndSet(null, newOrderedChunks);
+            while (doneTasks.get() < numOfTasks) {
+                if (failed) {
+                    return false;
+                }
+                Thread.yield();
+            }
+            return true;
         }
     }
 
-    private boolean canAppendSuffix(List<OrderedChunk<K, V>> frozenSuffix, int maxCount) {
-        Iterator<OrderedChunk<K, V>> iter = frozenSuffix.iterator();
-        // first of frozen chunks already have entriesLowThreshold copied into new one
-        boolean firstChunk = true;
-        int counter = 0;
-        // use statistics to find out how much is left to copy
-        while (iter.hasNext() && counter < maxCount) {
-            OrderedChunk<K, V> c = iter.next();
-            counter += c.getStatistics().getTotalCount();
-            if (firstChunk) {
-                counter -= entriesLowThreshold;
-                firstChunk = false;
+    /**
+     * Copies the live entries of the frozen chunks to new chunks, in three phases:
+     * 1. Scan: the values of the entries of the frozen chunks are checked for deletion, in ranges of entry indexes.
+     * 2. Layout: a single thread walks the linked lists of the frozen chunks, assigns the live entries to new
+     *    chunks and creates them. The lists are not changed anymore, and walking them is cheap.
+     * 3. Copy: the live entries are copied to the new chunks, in ranges of entry indexes.
+     * The threads which help the rebalance share the tasks of the scan and copy phases, where most of the time is
+     * spent (on reading the off-heap value headers, and on copying the entries). A copy that was claimed must end
+     * before the new chunks are published, as they are updated once connected, hence a phase ends only once all
+     * of its tasks are done. If a task (or the layout) fails, the failure is thrown to the thread that ran it, and
+     * the other threads abandon the copy instead of waiting for it, see {@code Rebalancer.createNewChunks()}.
+     */
+    private final class ChunksCopy {
+        private final List<OrderedChunk<K, V>> frozen;
+        // the result of the scan phase: whether the value of an entry of a frozen chunk was found not deleted
+        private final boolean[][] live;
+        private final int[] scanChunk;
+        private final int[] scanFrom;
+        private final Tasks scanTasks;
+        private final AtomicBoolean layoutClaimed = new AtomicBoolean(false);
+        private volatile Layout layout;
+        private volatile boolean layoutFailed = false;
+
+        ChunksCopy(List<OrderedChunk<K, V>> frozen) {
+            this.frozen = frozen;
+            this.live = new boolean[frozen.size()][];
+            int numOfTasks = 0;
+            for (int i = 0; i < frozen.size(); i++) {
+                live[i] = new boolean[frozen.get(i).getNumOfAllocatedEntries()];
+                numOfTasks += numOfTasks(live[i].length);
+            }
+            this.scanChunk = new int[numOfTasks];
+            this.scanFrom = new int[numOfTasks];
+            int t = 0;
+            for (int i = 0; i < frozen.size(); i++) {
+                for (int from = 0; from < live[i].length; from += COPY_TASK_SIZE) {
+                    scanChunk[t] = i;
+                    scanFrom[t] = from;
+                    t++;
+                }
+            }
+            this.scanTasks = new Tasks(numOfTasks);
+        }
+
+        // Returns the new chunks, or null if the copy failed in another thread
+        List<OrderedChunk<K, V>> run(ThreadContext ctx) {
+            ValueBuffer valueBuff = ctx.tempValue;
+            if (!scanTasks.runAll(t -> scan(valueBuff, scanChunk[t], scanFrom[t]))) {
+                return null;
+            }
+
+            if (layout == null && layoutClaimed.compareAndSet(false, true)) {
+                try {
+                    layout = new Layout(this, ctx.tempKey);
+                } catch (RuntimeException | Error e) {
+                    layoutFailed = true;
+                    throw e;
+                }
+            }
+            Layout l;
+            while ((l = layout) == null) {
+                if (layoutFailed) {
+                    return null;
+                }
+                Thread.yield();
+            }
+
+            return l.copyTasks.runAll(l::copy) ? l.children : null;
+        }
+
+        // Frees the entry arrays of the new chunks of a failed copy, which are never published
+        void abandon() {
+            Layout l = layout;
+            if (l != null) {
+                l.children.forEach(OrderedChunk::retireArray);
+            }
+        }
+
+        private void scan(ValueBuffer valueBuff, int chunk, int from) {
+            OrderedChunk<K, V> c = frozen.get(chunk);
+            boolean[] chunkLive = live[chunk];
+            int to = Math.min(from + COPY_TASK_SIZE, chunkLive.length);
+            for (int ei = from; ei < to; ei++) {
+                chunkLive[ei] = !c.isValueDeleted(valueBuff, ei);
             }
         }
-        return counter < maxCount;
     }
 
-    private void completeCopy(
-        ValueBuffer tempValue, OrderedChunk<K, V> dest,
-        final int ei, List<OrderedChunk<K, V>> srcOrderedChunks) {
+    /**
+     * The assignment of the live entries of the frozen chunks to the new chunks: every new chunk (but the last)
+     * gets entriesLowThreshold entries, unless the rest of the entries (less than maxRangeToAppend) can be appended
+     * to it, so the new chunks are not too small.
+     */
+    private final class Layout {
+        private final ChunksCopy chunksCopy;
+        private final List<OrderedChunk<K, V>> children = new ArrayList<>();
+        // the live entries in their order: their frozen chunks (in the frozen list) and their entry indexes
+        private int[] liveChunk;
+        private int[] liveEntry;
+        // the index (in the live entries) of the first entry of every new chunk
+        private int[] childStart;
+        private int[] copyChild;
+        private int[] copyFrom;
+        private final Tasks copyTasks;
+
+        Layout(ChunksCopy chunksCopy, KeyBuffer keyBuff) {
+            this.chunksCopy = chunksCopy;
+            // retry once a minimal key of a new chunk can not be read, without the entry of that key
+            try {
+                while (!tryLayout(keyBuff)) {
+                    children.forEach(OrderedChunk::retireArray);
+                    children.clear();
+                }
+            } catch (RuntimeException | Error e) {
+                children.forEach(OrderedChunk::retireArray);
+                throw e;
+            }
+
+            int numOfTasks = 0;
+            for (int k = 0; k < children.size(); k++) {
+                numOfTasks += numOfTasks(childStart[k + 1] - childStart[k]);
+            }
+            this.copyChild = new int[numOfTasks];
+            this.copyFrom = new int[numOfTasks];
+            int t = 0;
+            for (int k = 0; k < children.size(); k++) {
+                for (int from = 0; from < childStart[k + 1] - childStart[k]; from += COPY_TASK_SIZE) {
+                    copyChild[t] = k;
+                    copyFrom[t] = from;
+                    t++;
+                }
+            }
+            this.copyTasks = new Tasks(numOfTasks);
+        }
+
+        private void collectLiveEntries() {
+            int capacity = 0;
+            for (boolean[] chunkLive : chunksCopy.live) {
+                capacity += chunkLive.length;
+            }
+            int[] chunks = new int[capacity];
+            int[] entries = new int[capacity];
+            int n = 0;
+            for (int i = 0; i < chunksCopy.frozen.size(); i++) {
+                OrderedChunk<K, V> c = chunksCopy.frozen.get(i);
+                boolean[] chunkLive = chunksCopy.live[i];
+                for (int ei = c.getFirstItemEntryIndex(); ei != OrderedChunk.NONE_NEXT;
+                     ei = c.getNextItemEntryIndex(ei)) {
+                    if (ei < chunkLive.length && chunkLive[ei]) {
+                        chunks[n] = i;
+                        entries[n] = ei;
+                        n++;
+                    }
+                }
+            }
+            liveChunk = Arrays.copyOf(chunks, n);
+            liveEntry = Arrays.copyOf(entries, n);
+        }
 
-        final int maxItems = dest.getMaxItems();
-        Iterator<OrderedChunk<K, V>> iter = srcOrderedChunks.iterator();
+        private boolean tryLayout(KeyBuffer keyBuff) {
+            collectLiveEntries();
+            int numOfLive = liveEntry.length;
+            int perChunk = Math.max(entriesLowThreshold, 1);
 
-        OrderedChunk<K, V> src = iter.next();
-        dest.copyPartOfEntries(tempValue, src, ei, maxItems);
+            List<Integer> starts = new ArrayList<>();
+            int start = 0;
+            while (true) {
+                starts.add(start);
+                // maybe there is just a little bit copying left
+                // and we don't want to open a whole new chunk just for it
+                if (numOfLive - start - perChunk < maxRangeToAppend) {
+                    break;
+                }
+                start += perChunk;
+            }
+            childStart = new int[starts.size() + 1];
+            for (int k = 0; k < starts.size(); k++) {
+                childStart[k] = starts.get(k);
+            }
+            childStart[starts.size()] = numOfLive;
+
+            OrderedChunk<K, V> firstFrozen = chunksCopy.frozen.get(0);
+            OrderedChunk<K, V> prevChild = null;
+            for (int k = 0; k < starts.size(); k++) {
+                OrderedChunk<K, V> child;
+                if (k == 0) {
+                    child = firstFrozen.createFirstChild();
+                } else {
+                    // here we create a new minimal key buffer for the next new chunk,
+                    // created by the split. The new min key is a copy of the older one
+                    int s = childStart[k];
+                    OrderedChunk<K, V> src = chunksCopy.frozen.get(liveChunk[s]);
+                    if (!src.readKeyFromEntryIndex(keyBuff, liveEntry[s])) {
+                        chunksCopy.live[liveChunk[s]][liveEntry[s]] = false;
+                        return false;
+                    }
+                    child = firstFrozen.createNextChild(keyBuff);
+                    prevChild.next.set(child, false);
+                }
+                child.prepareCopy(childStart[k + 1] - childStart[k]);
+                children.add(child);
+                prevChild = child;
+            }
+            return true;
+        }
 
-        while (iter.hasNext()) {
-            OrderedChunk<K, V> curSrc = iter.next();
-            int curEntryIndex = src.getFirstItemEntryIndex();
-            dest.copyPartOfEntries(tempValue, curSrc, curEntryIndex, maxItems);
+        private void copy(int t) {
+            int k = copyChild[t];
+            OrderedChunk<K, V> child = children.get(k);
+            int to = Math.min(copyFrom[t] + COPY_TASK_SIZE, childStart[k + 1] - childStart[k]);
+            for (int ei = copyFrom[t]; ei < to; ei++) {
+                int i = childStart[k] + ei;
+                child.copyEntry(chunksCopy.frozen.get(liveChunk[i]), liveEntry[i], ei);
+            }
         }
     }
 
+    private static int numOfTasks(int numOfEntries) {
+        return (numOfEntries + COPY_TASK_SIZE - 1) / COPY_TASK_SIZE;
+    }
+
     private OrderedChunk<K, V> findNextCandidate() {
 
         updateRangeView();
@@ -261,7 +452,8 @@ class Rebalancer<K, V> {
 
     private List<OrderedChunk<K, V>> createEngagedList() {
         OrderedChunk<K, V> current = first;
-        List<OrderedChunk<K, V>> engaged = new LinkedList<>();
+        // indexed by the copy, see ChunksCopy
+        List<OrderedChunk<K, V>> engaged = new ArrayList<>();
 
         while (current != null && current.isEngaged(this)) {
             engaged.add(current);
@@ -16,44 +16,80 @@ package com.yahoo.oak;
  *
  * All these parameters may be squashed together into one long for easy representation.
  * Using different number of bits for each parameter may incur different limitations on their sizes.
+ *
+ * By default, block ID and offset take 42 bits, which address 4TB of memory per allocator (e.g., 32K blocks of
+ * 128MB), and the version takes the remaining 22 bits (including the delete bit). An allocator with a bigger
+ * capacity takes the bits it needs out of the version, up to 48 bits that address 256TB. The tradeoff is that
+ * every such bit halves the number of versions before they wrap around, after which a thread holding a stale
+ * reference might not detect that its off-heap cut was reused. The global version is increased once per released
+ * batch of off-heap cuts, so even 15 version bits (32K batches of 1K releases, 32M releases) are unlikely to wrap
+ * around during a single access.
  */
 class ReferenceCodecSyncRecycle extends ReferenceCodec {
 
     static final int    INVALID_VERSION = 0;
 
-    // All Oak instances on one machine are expected to reference to no more than 4TB of RAM.
-    // 4TB = 2^42 bytes
-    // blockIDBitSize + offsetBitSize = BITS_FOR_MAXIMUM_RAM
-    // The number of bits required to represent such memory:
-    private static final int BITS_FOR_MAXIMUM_RAM = 42;
-    private long versionDeleteBitMASK = (1 << (Long.SIZE - BITS_FOR_MAXIMUM_RAM - 1));
-    private long referenceDeleteBitMASK
-            = (INVALID_REFERENCE | (versionDeleteBitMASK << BITS_FOR_MAXIMUM_RAM));
+    // The number of bits of block ID + offset, which limits the memory that can be referenced,
+    // unless the allocator capacity requires more: 4TB = 2^42 bytes
+    static final int DEFAULT_BITS_FOR_MAXIMUM_RAM = 42;
+    // The version keeps at least 16 bits (including the delete bit): 256TB = 2^48 bytes
+    static final int MAX_BITS_FOR_MAXIMUM_RAM = 48;
+
+    private final long versionDeleteBitMASK;
+    private final long referenceDeleteBitMASK;
 
     // number of allowed bits for version (-1 for delete bit) set to one
-    static final int LAST_VALID_VERSION = (int) mask(Long.SIZE - BITS_FOR_MAXIMUM_RAM - 1);
+    final int lastValidVersion;
 
     /**
      * Initialize the codec with offset in the size of block.
      * This will inflict a limit on the maximal number of blocks - size of block ID.
-     * The remaining bits out of maximum RAM (BITS_FOR_MAXIMUM_RAM)
+     * The remaining bits out of maximum RAM (see bitsForMaximumRAM())
      * @param blockSize an upper limit on the size of a block (exclusive)
-     * @param allocator
+     * @param allocator the allocator of the referenced memory, its capacity sets the bits for maximum RAM
      *
      */
     ReferenceCodecSyncRecycle(long blockSize, BlockMemoryAllocator allocator) {
-        super(BITS_FOR_MAXIMUM_RAM - ReferenceCodec.requiredBits(blockSize),
-            ReferenceCodec.requiredBits(blockSize), AUTO_CALCULATE_BIT_SIZE);
-        // and the rest goes for version (currently 22 bits)
+        this(blockSize, bitsForMaximumRAM(blockSize, allocator.capacity()));
     }
-    
+
     ReferenceCodecSyncRecycle(long blockSize, BlockMemoryAllocator allocator, long versionDeleteBitMASK) {
-        super(BITS_FOR_MAXIMUM_RAM - ReferenceCodec.requiredBits(blockSize),
+        this(blockSize, bitsForMaximumRAM(blockSize, allocator.capacity()), versionDeleteBitMASK);
+    }
+
+    private ReferenceCodecSyncRecycle(long blockSize, int bitsForMaximumRAM) {
+        // the MSB of the version is the delete bit
+        this(blockSize, bitsForMaximumRAM, 1L << (Long.SIZE - bitsForMaximumRAM - 1));
+    }
+
+    private ReferenceCodecSyncRecycle(long blockSize, int bitsForMaximumRAM, long versionDeleteBitMASK) {
+        super(bitsForMaximumRAM - ReferenceCodec.requiredBits(blockSize),
             ReferenceCodec.requiredBits(blockSize), AUTO_CALCULATE_BIT_SIZE);
-        // and the rest goes for version (currently 22 bits)
+        // and the rest goes for version (22 bits by default)
         this.versionDeleteBitMASK = versionDeleteBitMASK;
         this.referenceDeleteBitMASK
-                = (INVALID_REFERENCE | (versionDeleteBitMASK << BITS_FOR_MAXIMUM_RAM));
+                = (INVALID_REFERENCE | (versionDeleteBitMASK << bitsForMaximumRAM));
+        this.lastValidVersion = (int) mask(Long.SIZE - bitsForMaximumRAM - 1);
+    }
+
+    // The number of bits of block ID + offset, for an allocator of the given block size and capacity.
+    // The block IDs of twice the capacity can be encoded, as the IDs of blocks returned to the provider
+    // are reused only once no thread may access those blocks, so new blocks may need fresh IDs meanwhile.
+    static int bitsForMaximumRAM(long blockSize, long capacity) {
+        long numOfBlocks = (capacity + blockSize - 1) / blockSize + 1; // the first block ID is invalid
+        int bits = ReferenceCodec.requiredBits(blockSize) + ReferenceCodec.requiredBits(numOfBlocks) + 1;
+        if (bits > MAX_BITS_FOR_MAXIMUM_RAM) {
+            throw new IllegalArgumentException(String.format(
+                    "The capacity %,d bytes cannot be referenced with blocks of %,d bytes", capacity, blockSize));
+        }
+        return Math.max(DEFAULT_BITS_FOR_MAXIMUM_RAM, bits);
+    }
+
+    // The maximal block ID that can be encoded in a reference, for the given block size and capacity,
+    // bounded by the maximal array index (the references of tiny blocks have room for more IDs)
+    static int maxBlockID(long blockSize, long capacity) {
+        return (int) Math.min(Integer.MAX_VALUE - 1,
+                mask(bitsForMaximumRAM(blockSize, capacity) - ReferenceCodec.requiredBits(blockSize)));
     }
 
     @Override
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2020, Verizon Media.
+ * Licensed under the terms of the Apache 2.0 license.
+ * Please see LICENSE file in the project root for terms.
+ */
+
+package com.yahoo.oak;
+
+import java.io.Closeable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Background reclamation of the release lists of a SyncRecycleMemoryManager.
+ * Without it, the thread whose release fills its release list frees the entire list inline (a latency spike for
+ * the operation that happened to release), and the lists of threads that stop releasing are never freed.
+ * With it, a full release list is handed to a background daemon thread, which frees it, and the lists whose first
+ * off-heap cut was released at least a flush interval ago are periodically freed as well, even if they are not full.
+ */
+class ReleaseReclaimer implements Closeable {
+
+    private static final long CLOSE_TIMEOUT_SECONDS = 10;
+
+    private final SyncRecycleMemoryManager memoryManager;
+    private final long flushIntervalNanos;
+    private final ScheduledExecutorService executor;
+    private final AtomicLong failures = new AtomicLong(0);
+
+    /**
+     * @param memoryManager       the memory manager whose release lists are reclaimed
+     * @param flushIntervalMillis the maximal time a released off-heap cut waits in a list that is not full
+     */
+    ReleaseReclaimer(SyncRecycleMemoryManager memoryManager, long flushIntervalMillis) {
+        if (flushIntervalMillis <= 0) {
+            throw new IllegalArgumentException("The flush interval must be positive");
+        }
+        this.memoryManager = memoryManager;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "oak-reclaimer");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.scheduleWithFixedDelay(this::flushStaleLists, flushIntervalMillis, flushIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Hands a full release list to the background thread, which frees it.
+     */
+    void submit(SyncRecycleMemoryManager.ReleaseList releaseList) {
+        try {
+            executor.execute(() -> reclaim(releaseList, 0));
+        } catch (RejectedExecutionException e) {
+            // the reclaimer is closed, together with the memory manager and its allocator
+        }
+    }
+
+    private void flushStaleLists() {
+        for (SyncRecycleMemoryManager.ReleaseList releaseList : memoryManager.getReleaseLists()) {
+            reclaim(releaseList, flushIntervalNanos);
+        }
+    }
+
+    private void reclaim(SyncRecycleMemoryManager.ReleaseList releaseList, long minAgeNanos) {
+        try {
+            memoryManager.reclaimReleaseList(releaseList, minAgeNanos);
+        } catch (RuntimeException e) {
+            // a failure while the memory manager is being closed is expected, otherwise it is counted and reported
+            // via the uncaught exception handler of the thread, which goes on reclaiming the other lists
+            if (!memoryManager.isClosed()) {
+                failures.incrementAndGet();
+                Thread t = Thread.currentThread();
+                t.getUncaughtExceptionHandler().uncaughtException(t, e);
+            }
+        }
+    }
+
+    // the number of reclamations of release lists that failed
+    long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * Stops the background reclamation, waiting for a running reclamation to end.
+     * The lists that were not freed yet are left to the closing of the allocator.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -15,16 +15,17 @@ import java.util.function.Consumer;
  */
 final class ScopedWriteBuffer extends ScopedReadBuffer implements OakScopedWriteBuffer, OakUnsafeDirectBuffer {
 
-    private boolean enabled = true;
+    private boolean enabled = false;
 
     /**
      * This class is instantiated only internally to ensure that the buffer is disabled for writes once the scope
-     * is finished.
+     * is finished. The buffer is attached to the slice of a scope only until the scope is finished, so a thread
+     * may reuse its buffer for its later scopes (see ThreadContext).
      *
-     * @param s the buffer to use.
+     * @param s an empty slice of the memory manager whose slices the buffer is attached to
      */
-    private ScopedWriteBuffer(Slice s) {
-        super(s.duplicate());
+    ScopedWriteBuffer(Slice s) {
+        super(s);
     }
 
     /**
@@ -39,9 +40,25 @@ final class ScopedWriteBuffer extends ScopedReadBuffer implements OakScopedWrite
      * @param serializer the serialization method
      */
     static <T> void serialize(Slice s, T obj, OakSerializer<T> serializer) {
-        ScopedWriteBuffer writeBuffer = new ScopedWriteBuffer(s);
-        serializer.serialize(obj, writeBuffer);
-        writeBuffer.enabled = false;
+        serialize(new ScopedWriteBuffer(s.duplicate()), s, obj, serializer);
+    }
+
+    /**
+     * Serialize an object as {@code serialize(s, obj, serializer)} does, but via the given buffer of the calling
+     * thread, which is attached to the input Slice for the scope of the serialization only.
+     *
+     * @param writeBuffer the recycled buffer of the calling thread
+     * @param s           the buffer to write to
+     * @param obj         the object to write
+     * @param serializer  the serialization method
+     */
+    static <T> void serialize(ScopedWriteBuffer writeBuffer, Slice s, T obj, OakSerializer<T> serializer) {
+        writeBuffer.attach(s);
+        try {
+            serializer.serialize(obj, writeBuffer);
+        } finally {
+            writeBuffer.detach();
+        }
     }
 
     /**
@@ -55,9 +72,35 @@ final class ScopedWriteBuffer extends ScopedReadBuffer implements OakScopedWrite
      * @param computer the update method
      */
     static void compute(Slice s, Consumer<OakScopedWriteBuffer> computer) {
-        ScopedWriteBuffer writeBuffer = new ScopedWriteBuffer(s);
-        computer.accept(writeBuffer);
-        writeBuffer.enabled = false;
+        compute(new ScopedWriteBuffer(s.duplicate()), s, computer);
+    }
+
+    /**
+     * Perform an update as {@code compute(s, computer)} does, but via the given buffer of the calling thread,
+     * which is attached to the input Slice for the scope of the update only.
+     *
+     * @param writeBuffer the recycled buffer of the calling thread
+     * @param s           the buffer to write to
+     * @param computer    the update method
+     */
+    static void compute(ScopedWriteBuffer writeBuffer, Slice s, Consumer<OakScopedWriteBuffer> computer) {
+        writeBuffer.attach(s);
+        try {
+            computer.accept(writeBuffer);
+        } finally {
+            writeBuffer.detach();
+        }
+    }
+
+    private void attach(Slice s) {
+        this.s.copyFrom(s);
+        enabled = true;
+    }
+
+    // A reference to the buffer that escaped its scope can neither write nor read the slice anymore
+    private void detach() {
+        enabled = false;
+        this.s.invalidate();
     }
 
     void validateAccess() {
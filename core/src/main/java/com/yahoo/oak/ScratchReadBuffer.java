@@ -0,0 +1,110 @@
+/*
+ * Copyright 2020, Verizon Media.
+ * Licensed under the terms of the Apache 2.0 license.
+ * Please see LICENSE file in the project root for terms.
+ */
+
+package com.yahoo.oak;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A private copy of an off-heap value, read optimistically (see Slice.preOptimisticRead()), so the transformer of the
+ * user is applied to data that was validated to be consistent, without locking the value.
+ * The copy is kept off-heap as well, so it can be accessed via OakUnsafeDirectBuffer like any other read buffer.
+ * An instance is owned by a single thread (see ThreadContext), and its memory is reused by the following copies.
+ */
+class ScratchReadBuffer implements OakScopedReadBuffer, OakUnsafeDirectBuffer {
+
+    private static final int MIN_CAPACITY = 64;
+
+    // holds the memory of the copy, which is freed once this buffer is collected
+    private ByteBuffer memory = null;
+    private long address = 0;
+    private int length = 0;
+
+    /**
+     * Copies the data of the given value. The copy is consistent only if the read of the value is validated after
+     * the copy (e.g., by Slice.postOptimisticRead()).
+     */
+    void copyFrom(ValueBuffer value) {
+        int valueLength = value.getLength();
+        if (memory == null || memory.capacity() < valueLength) {
+            int capacity = Math.max(MIN_CAPACITY, valueLength);
+            if (memory != null && capacity < Integer.MAX_VALUE / 2) {
+                capacity = Math.max(capacity, memory.capacity() * 2);
+            }
+            memory = ByteBuffer.allocateDirect(capacity);
+            address = DirectUtils.getAddress(memory);
+        }
+        DirectUtils.copyMemory(value.getAddress(), address, valueLength);
+        length = valueLength;
+    }
+
+    private long getDataAddress(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException(String.format("Index %s is out of bound (length: %s)",
+                    index, length));
+        }
+        return address + index;
+    }
+
+    // ------------------------------ OakScopedReadBuffer ------------------------------
+
+    @Override
+    public int capacity() {
+        return length;
+    }
+
+    @Override
+    public byte get(int index) {
+        return DirectUtils.get(getDataAddress(index));
+    }
+
+    @Override
+    public char getChar(int index) {
+        return DirectUtils.getChar(getDataAddress(index));
+    }
+
+    @Override
+    public short getShort(int index) {
+        return DirectUtils.getShort(getDataAddress(index));
+    }
+
+    @Override
+    public int getInt(int index) {
+        return DirectUtils.getInt(getDataAddress(index));
+    }
+
+    @Override
+    public long getLong(int index) {
+        return DirectUtils.getLong(getDataAddress(index));
+    }
+
+    @Override
+    public float getFloat(int index) {
+        return DirectUtils.getFloat(getDataAddress(index));
+    }
+
+    @Override
+    public double getDouble(int index) {
+        return DirectUtils.getDouble(getDataAddress(index));
+    }
+
+    // ------------------------------ OakUnsafeDirectBuffer ------------------------------
+
+    @Override
+    public ByteBuffer getByteBuffer() {
+        return DirectUtils.wrapAddress(address, length).asReadOnlyBuffer();
+    }
+
+    @Override
+    public int getLength() {
+        return length;
+    }
+
+    @Override
+    public long getAddress() {
+        return address;
+    }
+}
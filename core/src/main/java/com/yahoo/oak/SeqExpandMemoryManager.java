@@ -36,8 +36,16 @@ package com.yahoo.oak;
  *      0             27 28            55 56   63
  *
  * From that, we can derive that the maximal number of 1K items that can be allocated is ~128 million (2^26).
- * Note: these limitations will change for different block sizes. */
+ * Note: these limitations will change for different block sizes.
+ *
+ * An allocator whose capacity needs more block IDs (e.g., more than 32GB of 256MB blocks) takes the bits for them out
+ * of the length, which then limits the size of an allocation instead: e.g., 1TB of 256MB blocks takes 14 bits for
+ * the block ID (the IDs of twice the capacity, see ReferenceCodecSyncRecycle), leaving 22 bits for lengths of up to
+ * 4MB. */
 class SeqExpandMemoryManager implements MemoryManager  {
+    // the length keeps at least this number of bits, for allocations of up to 64KB
+    static final int MIN_LENGTH_BITS = 16;
+
     private final BlockMemoryAllocator allocator;
 
     /*
@@ -57,14 +65,39 @@ class SeqExpandMemoryManager implements MemoryManager  {
      * Note: these limitations will change for different block sizes.
      *
      */
-    private final ReferenceCodec rc = new ReferenceCodec(
-        ReferenceCodec.AUTO_CALCULATE_BIT_SIZE, // bits# to represent block id are calculated upon other parameters
-        ReferenceCodec.requiredBits(BlocksPool.getInstance().blockSize()),   // bits# to represent offset
-        ReferenceCodec.requiredBits(BlocksPool.getInstance().blockSize()));  // bits# to represent length
+    private final ReferenceCodec rc;
+    // the maximal size of an allocation that can be encoded in a reference
+    private final int maxAllocationSize;
 
     SeqExpandMemoryManager(BlockMemoryAllocator memoryAllocator) {
         assert memoryAllocator != null;
         this.allocator = memoryAllocator;
+        int offsetBits = ReferenceCodec.requiredBits(memoryAllocator.blockSize());
+        this.rc = new ReferenceCodec(
+            ReferenceCodec.AUTO_CALCULATE_BIT_SIZE, // bits# to represent block id are calculated upon other parameters
+            offsetBits,   // bits# to represent offset
+            lengthBits(memoryAllocator.blockSize(), memoryAllocator.capacity()));  // bits# to represent length
+        this.maxAllocationSize = (int) Math.min(memoryAllocator.blockSize(),
+                ReferenceCodec.mask(rc.getThirdBitSize()));
+        memoryAllocator.limitMaxBlockID((int) ReferenceCodec.mask(rc.getFirstBitSize()));
+    }
+
+    // The number of bits of the length, for an allocator of the given block size and capacity:
+    // the bits that remain after the offset and the block IDs of twice the capacity, up to the bits of the offset
+    static int lengthBits(long blockSize, long capacity) {
+        int offsetBits = ReferenceCodec.requiredBits(blockSize);
+        long numOfBlocks = (capacity + blockSize - 1) / blockSize + 1; // the first block ID is invalid
+        int blockIDBits = ReferenceCodec.requiredBits(numOfBlocks) + 1;
+        int lengthBits = Math.min(offsetBits, Long.SIZE - offsetBits - blockIDBits);
+        if (lengthBits < MIN_LENGTH_BITS) {
+            throw new IllegalArgumentException(String.format(
+                    "The capacity %,d bytes cannot be referenced with blocks of %,d bytes", capacity, blockSize));
+        }
+        return lengthBits;
+    }
+
+    int getMaxAllocationSize() {
+        return maxAllocationSize;
     }
 
     public void close() {
@@ -180,6 +213,10 @@ class SeqExpandMemoryManager implements MemoryManager  {
          */
         @Override
         public void allocate(int size, boolean existing) {
+            if (size > maxAllocationSize) {
+                throw new IllegalArgumentException(String.format(
+                        "Cannot allocate more than %,d bytes with this capacity", maxAllocationSize));
+            }
             boolean allocated = allocator.allocate(this, size);
             assert allocated;
             associated = true;
@@ -213,7 +250,9 @@ class SeqExpandMemoryManager implements MemoryManager  {
          */
         @Override
         public boolean decodeReference(long reference) {
-            if (getAllocatedBlockID() == rc.getFirst(reference)) {
+            // an invalidated slice has the invalid block ID, which is also the block ID of the invalid reference
+            if (getAllocatedBlockID() != NativeMemoryAllocator.INVALID_BLOCK_ID
+                    && getAllocatedBlockID() == rc.getFirst(reference)) {
                 // it shows performance improvement (10%) in stream scans, when only offset of the
                 // key's slice is updated upon reference decoding.
                 // Slice is not invalidated between next iterator steps and all the rest information
@@ -221,11 +260,8 @@ class SeqExpandMemoryManager implements MemoryManager  {
                 updateOnSameBlock(rc.getSecond(reference)/*offset*/, rc.getThird(reference)/*length*/);
                 return true;
             }
-            if (decode(reference)) {
-                allocator.readMemoryAddress(this);
-                return true;
-            }
-            return false;
+            // the block of a stale reference may have already been returned by the allocator
+            return decode(reference) && allocator.readMemoryAddress(this);
         }
 
         /**
@@ -338,6 +374,11 @@ class SeqExpandMemoryManager implements MemoryManager  {
             return getMetadataAddress();
         }
 
+        @Override
+        public BlockMemoryAllocator getAllocator() {
+            return allocator;
+        }
+
         @Override
         public String toString() {
             return String.format(
@@ -0,0 +1,293 @@
+/*
+ * Copyright 2020, Verizon Media.
+ * Licensed under the terms of the Apache 2.0 license.
+ * Please see LICENSE file in the project root for terms.
+ */
+
+package com.yahoo.oak;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A slab-style free list. Allocation sizes are rounded up to size classes: four classes per power of two
+ * (e.g., 20, 24, 28, 32, 40, 48, ...), so the internal fragmentation is bounded by 25%.
+ * Each class has its own lock-free (Treiber) stack of free slots. The stack is intrusive: the link to the
+ * next free slot is written in the last 8 bytes of the free slot itself, so no on-heap object is kept per
+ * free slot. A slot reserves these 8 bytes also while it is allocated, so that the link never overwrites the
+ * header or data of a released off-heap cut (which may still be inspected by stale readers).
+ *
+ * The head of a stack is an encoding of the top slot (block id and offset) together with a tag, which is
+ * incremented on every change of the head, to avoid the ABA problem. The offset takes only the bits needed for the
+ * offsets within a block, so the smaller the blocks, the more of them can be encoded, see maxBlockID().
+ *
+ * The links are read inside allocator.enterRead() and exitRead(), as the top slot may belong to a block which is
+ * concurrently removed (see removeBlock()), and then returned to the provider once no reader remains.
+ */
+class SizeClassFreeList implements FreeList {
+
+    private static final int LINK_SIZE = Long.BYTES;
+    private static final int LOG_MIN_SLOT_SIZE = 4;
+    static final int MIN_SLOT_SIZE = 1 << LOG_MIN_SLOT_SIZE;
+    private static final int CLASSES_PER_POWER_OF_TWO_LOG = 2;
+    private static final int CLASSES_PER_POWER_OF_TWO = 1 << CLASSES_PER_POWER_OF_TWO_LOG;
+    // class 0 holds the minimal slot size, then CLASSES_PER_POWER_OF_TWO classes for every power of two
+    private static final int NUM_OF_CLASSES = 1 + (Integer.SIZE - 1 - LOG_MIN_SLOT_SIZE) * CLASSES_PER_POWER_OF_TWO;
+
+    // head encoding: tag (16 bits) | block id (the rest of the bits) | offset (the bits of the offsets in a block)
+    private static final int TAG_SHIFT = 48;
+    private static final long TAG_MASK = 0xFFFFL;
+    private static final long EMPTY = 0; // an encoding with INVALID_BLOCK_ID
+
+    private final NativeMemoryAllocator allocator;
+    private final int blockSize;
+    private final AtomicLongArray heads = new AtomicLongArray(NUM_OF_CLASSES);
+    private final int offsetBits;
+    private final long offsetMask;
+    private final int blockIDMask;
+
+    SizeClassFreeList(NativeMemoryAllocator allocator, int blockSize, int maxBlockID) {
+        if (maxBlockID > maxBlockID(blockSize)) {
+            throw new IllegalArgumentException(String.format(
+                    "Size-class free lists support up to %d blocks of %d bytes per allocator (requested: %d).",
+                    maxBlockID(blockSize), blockSize, maxBlockID));
+        }
+        this.allocator = allocator;
+        this.blockSize = blockSize;
+        this.offsetBits = offsetBits(blockSize);
+        this.offsetMask = (1L << offsetBits) - 1;
+        this.blockIDMask = maxBlockID(blockSize);
+    }
+
+    // the number of bits of the offsets within a block of the given size
+    private static int offsetBits(int blockSize) {
+        return Integer.SIZE - Integer.numberOfLeadingZeros(blockSize - 1);
+    }
+
+    // the maximal block id that can be encoded together with the offsets within a block of the given size,
+    // e.g., 2^21 - 1 for the default 128MB blocks
+    static int maxBlockID(int blockSize) {
+        return (int) Math.min(Integer.MAX_VALUE, (1L << (TAG_SHIFT - offsetBits(blockSize))) - 1);
+    }
+
+    // the size class of an allocation of the given size (including the link)
+    static int classIndex(int size) {
+        int slot = size + LINK_SIZE;
+        if (slot <= MIN_SLOT_SIZE) {
+            return 0;
+        }
+        int log = Integer.SIZE - 1 - Integer.numberOfLeadingZeros(slot - 1); // 2^log < slot <= 2^(log+1)
+        int step = 1 << (log - CLASSES_PER_POWER_OF_TWO_LOG);
+        int stepInPower = (slot - 1 - (1 << log)) / step;
+        return 1 + (log - LOG_MIN_SLOT_SIZE) * CLASSES_PER_POWER_OF_TWO + stepInPower;
+    }
+
+    // the slot size of a given size class, before it is bounded by the block size
+    static long classSize(int classIndex) {
+        if (classIndex == 0) {
+            return MIN_SLOT_SIZE;
+        }
+        int log = LOG_MIN_SLOT_SIZE + (classIndex - 1) / CLASSES_PER_POWER_OF_TWO;
+        int stepInPower = (classIndex - 1) % CLASSES_PER_POWER_OF_TWO;
+        return (1L << log) + (long) (stepInPower + 1) * (1L << (log - CLASSES_PER_POWER_OF_TWO_LOG));
+    }
+
+    private int slotSizeOfClass(int classIndex) {
+        return (int) Math.min(classSize(classIndex), blockSize);
+    }
+
+    @Override
+    public int slotSize(int size) {
+        return slotSizeOfClass(classIndex(size));
+    }
+
+    @Override
+    public boolean reuse(BlockAllocationSlice s, int size) {
+        int classIndex = classIndex(size);
+        int slotSize = slotSizeOfClass(classIndex);
+        allocator.enterRead();
+        try {
+            while (true) {
+                long head = heads.get(classIndex);
+                int blockID = blockID(head);
+                if (blockID == NativeMemoryAllocator.INVALID_BLOCK_ID) {
+                    return false;
+                }
+                long blockMemAddress = allocator.heldBlockMemAddress(blockID);
+                if (blockMemAddress == 0) {
+                    continue; // the block was removed, so the head was already changed
+                }
+                int offset = offset(head);
+                // The slot may be concurrently popped and reused, so the link may be garbage,
+                // but then the tag of the head was changed and the CAS below fails.
+                long next = DirectUtils.getLong(blockMemAddress + offset + slotSize - LINK_SIZE);
+                if (heads.compareAndSet(classIndex, head, withTag(next, tag(head) + 1))) {
+                    if (!allocator.acquireBlockRange(blockID, slotSize)) {
+                        continue; // the block is evacuated or retired, the slot is dropped with it
+                    }
+                    s.associateBlockAllocation(blockID, offset, size, blockMemAddress);
+                    return true;
+                }
+            }
+        } finally {
+            allocator.exitRead();
+        }
+    }
+
+    @Override
+    public void add(BlockAllocationSlice s) {
+        int classIndex = classIndex(s.getAllocatedLength());
+        push(classIndex, s.getAllocatedBlockID(), s.getAllocatedOffset(), s.getMetadataAddress());
+    }
+
+    @Override
+    public void addRange(int blockID, int offset, int length, long blockMemAddress) {
+        // The range is carved into slots, each of the largest class that fits in the rest of the range,
+        // so only a rest shorter than the minimal slot is lost.
+        int slotOffset = offset;
+        int rest = length;
+        int classIndex = NUM_OF_CLASSES - 1;
+        while (rest >= MIN_SLOT_SIZE) {
+            while (slotSizeOfClass(classIndex) > rest) {
+                classIndex--;
+            }
+            push(classIndex, blockID, slotOffset, blockMemAddress + slotOffset);
+            slotOffset += slotSizeOfClass(classIndex);
+            rest -= slotSizeOfClass(classIndex);
+        }
+    }
+
+    private void push(int classIndex, int blockID, int offset, long slotAddress) {
+        pushChain(classIndex, encode(blockID, offset), slotAddress + slotSizeOfClass(classIndex) - LINK_SIZE);
+    }
+
+    // Pushes a chain of linked slots, from the given first slot to the slot with the given link address
+    private void pushChain(int classIndex, long first, long lastLinkAddress) {
+        while (true) {
+            long head = heads.get(classIndex);
+            DirectUtils.putLong(lastLinkAddress, withTag(head, 0));
+            if (heads.compareAndSet(classIndex, head, withTag(first, tag(head) + 1))) {
+                return;
+            }
+        }
+    }
+
+    private long linkAddress(int classIndex, long encoded) {
+        return allocator.getBlockMemAddress(blockID(encoded)) + offset(encoded)
+                + slotSizeOfClass(classIndex) - LINK_SIZE;
+    }
+
+    // Each stack is detached as a whole, so no other thread walks it, and the slots of other blocks are pushed
+    // back as a single chain. Called by the allocator before the block is removed from its blocks array, and
+    // never concurrently with itself.
+    @Override
+    public void removeBlock(int blockID) {
+        for (int i = 0; i < NUM_OF_CLASSES; i++) {
+            long head;
+            do {
+                head = heads.get(i);
+            } while (blockID(head) != NativeMemoryAllocator.INVALID_BLOCK_ID
+                    && !heads.compareAndSet(i, head, withTag(EMPTY, tag(head) + 1)));
+            long first = EMPTY;
+            long lastLinkAddress = 0;
+            for (long e = withTag(head, 0); blockID(e) != NativeMemoryAllocator.INVALID_BLOCK_ID; ) {
+                long linkAddress = linkAddress(i, e);
+                long next = DirectUtils.getLong(linkAddress);
+                if (blockID(e) != blockID) {
+                    if (first == EMPTY) {
+                        first = e;
+                    } else {
+                        DirectUtils.putLong(lastLinkAddress, e);
+                    }
+                    lastLinkAddress = linkAddress;
+                }
+                e = next;
+            }
+            if (first != EMPTY) {
+                pushChain(i, first, lastLinkAddress);
+            }
+        }
+    }
+
+    // The stacks are not indexed by blocks, so the free slots of an evacuating block are still reused
+    @Override
+    public void detachBlock(int blockID) {
+    }
+
+    @Override
+    public void restoreBlock(int blockID) {
+    }
+
+    // the number of free slots in the given class, not thread safe
+    private int classLength(int classIndex) {
+        int slotSize = slotSizeOfClass(classIndex);
+        int length = 0;
+        for (long e = heads.get(classIndex); blockID(e) != NativeMemoryAllocator.INVALID_BLOCK_ID; length++) {
+            e = DirectUtils.getLong(allocator.getBlockMemAddress(blockID(e)) + offset(e) + slotSize - LINK_SIZE);
+        }
+        return length;
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (int i = 0; i < NUM_OF_CLASSES; i++) {
+            size += classLength(i);
+        }
+        return size;
+    }
+
+    // not thread safe, walks over all the free slots
+    @Override
+    public long freeBytes() {
+        long bytes = 0;
+        for (int i = 0; i < NUM_OF_CLASSES; i++) {
+            bytes += (long) classLength(i) * slotSizeOfClass(i);
+        }
+        return bytes;
+    }
+
+    @Override
+    public long largestFreeRange() {
+        for (int i = NUM_OF_CLASSES - 1; i >= 0; i--) {
+            if (blockID(heads.get(i)) != NativeMemoryAllocator.INVALID_BLOCK_ID) {
+                return slotSizeOfClass(i);
+            }
+        }
+        return 0;
+    }
+
+    // the free slots are never coalesced
+    @Override
+    public long coalescings() {
+        return 0;
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < NUM_OF_CLASSES; i++) {
+            heads.set(i, EMPTY);
+        }
+    }
+
+    /*-------------- Slot encoding --------------*/
+
+    private long encode(int blockID, int offset) {
+        return ((long) blockID << offsetBits) | offset;
+    }
+
+    private static long withTag(long encoded, long tag) {
+        return ((tag & TAG_MASK) << TAG_SHIFT) | (encoded & ~(TAG_MASK << TAG_SHIFT));
+    }
+
+    private static long tag(long encoded) {
+        return (encoded >>> TAG_SHIFT) & TAG_MASK;
+    }
+
+    private int blockID(long encoded) {
+        return (int) ((encoded >>> offsetBits) & blockIDMask);
+    }
+
+    private int offset(long encoded) {
+        return (int) (encoded & offsetMask);
+    }
+}
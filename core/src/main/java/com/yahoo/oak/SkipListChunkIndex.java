@@ -0,0 +1,106 @@
+/*
+ * Copyright 2020, Verizon Media.
+ * Licensed under the terms of the Apache 2.0 license.
+ * Please see LICENSE file in the project root for terms.
+ */
+
+package com.yahoo.oak;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * A chunk index over a concurrent skiplist, whose updates are lock-free. The default chunk index.
+ */
+class SkipListChunkIndex<K, V> implements ChunkIndex<K, V> {
+
+    // not final, as reset() replaces it as a whole
+    private ConcurrentSkipListMap<Object, OrderedChunk<K, V>> skiplist;
+
+    SkipListChunkIndex(OakComparator<K> comparator) {
+        // This is a trick for letting us search through the skiplist using both serialized and unserialized keys.
+        // Might be nicer to replace it with a proper visitor
+        Comparator<Object> mixedKeyComparator = (o1, o2) -> {
+            if (o1 instanceof OakScopedReadBuffer) {
+                if (o2 instanceof OakScopedReadBuffer) {
+                    return comparator.compareSerializedKeys((OakScopedReadBuffer) o1, (OakScopedReadBuffer) o2);
+                } else {
+                    // Note the inversion of arguments, hence sign flip
+                    return (-1) * comparator.compareKeyAndSerializedKey(asKey(o2), (OakScopedReadBuffer) o1);
+                }
+            } else {
+                if (o2 instanceof OakScopedReadBuffer) {
+                    return comparator.compareKeyAndSerializedKey(asKey(o1), (OakScopedReadBuffer) o2);
+                } else {
+                    return comparator.compareKeys(asKey(o1), asKey(o2));
+                }
+            }
+        };
+        this.skiplist = new ConcurrentSkipListMap<>(mixedKeyComparator);
+    }
+
+    // The skiplist is keyed by the serialized minimal keys of the chunks, and is searched either by serialized keys
+    // or by keys of the map, so a key that is not serialized is of the key type of the map.
+    @SuppressWarnings("unchecked")
+    private static <T> T asKey(Object key) {
+        return (T) key;
+    }
+
+    private static <K, V> OrderedChunk<K, V> valueOf(Map.Entry<Object, OrderedChunk<K, V>> entry) {
+        return entry != null ? entry.getValue() : null;
+    }
+
+    @Override
+    public OrderedChunk<K, V> floor(K key) {
+        return valueOf(skiplist.floorEntry(key));
+    }
+
+    @Override
+    public OrderedChunk<K, V> lower(K key) {
+        return valueOf(skiplist.lowerEntry(key));
+    }
+
+    @Override
+    public OrderedChunk<K, V> lower(OrderedChunk<K, V> chunk) {
+        return valueOf(skiplist.lowerEntry(chunk.minKey));
+    }
+
+    @Override
+    public OrderedChunk<K, V> first() {
+        return valueOf(skiplist.firstEntry());
+    }
+
+    @Override
+    public OrderedChunk<K, V> last() {
+        return valueOf(skiplist.lastEntry());
+    }
+
+    @Override
+    public void putIfAbsent(OrderedChunk<K, V> chunk) {
+        skiplist.putIfAbsent(chunk.minKey, chunk);
+    }
+
+    @Override
+    public void replace(OrderedChunk<K, V> oldChunk, OrderedChunk<K, V> newChunk) {
+        skiplist.replace(oldChunk.minKey, oldChunk, newChunk);
+    }
+
+    @Override
+    public void remove(OrderedChunk<K, V> chunk) {
+        skiplist.remove(chunk.minKey, chunk);
+    }
+
+    @Override
+    public void reset(OrderedChunk<K, V> first) {
+        // a new skiplist, as clearing the old one takes a time linear in its size
+        ConcurrentSkipListMap<Object, OrderedChunk<K, V>> empty = new ConcurrentSkipListMap<>(skiplist.comparator());
+        empty.put(first.minKey, first);
+        skiplist = empty;
+    }
+
+    @Override
+    public int size() {
+        return skiplist.size();
+    }
+}
@@ -97,6 +97,12 @@ interface Slice {
      */
     long getAddress();
 
+    /**
+     * Returns the allocator of the off-heap cut. An access to the off-heap cut which is not inside an operation of
+     * the map (e.g., via an un-scoped buffer) is surrounded by enterRead() and exitRead() of this allocator.
+     */
+    BlockMemoryAllocator getAllocator();
+
     /* ------------------------------------------------------------------------------------
      * Off-heap metadata based operations: locking and logical delete
      * ------------------------------------------------------------------------------------*/
@@ -120,6 +126,31 @@ interface Slice {
      */
     ValueUtils.ValueResult postRead();
 
+    /**
+     * Starts an optimistic read, which is validated by postOptimisticRead() instead of being protected by a lock.
+     * By default, a read lock is acquired, so the read is always valid.
+     * The read must be inside enterRead() and exitRead() of the allocator, so the block of the off-heap cut is not
+     * returned meanwhile. The off-heap cut itself may be released and reused, which is detected by the validation.
+     *
+     * @return {@code TRUE} if the read may proceed
+     * {@code FALSE} if the header/off-heap-cut is marked as deleted
+     * {@code RETRY} if the header/off-heap-cut was moved, or the version of the off-heap header
+     * does not match {@code version}.
+     */
+    default ValueUtils.ValueResult preOptimisticRead() {
+        return preRead();
+    }
+
+    /**
+     * Finishes an optimistic read
+     *
+     * @return {@code true} if the data read since preOptimisticRead() is consistent, otherwise, a concurrent
+     * update overlapped the read, and it should be retried (starting with preOptimisticRead()).
+     */
+    default boolean postOptimisticRead() {
+        return postRead() == ValueUtils.ValueResult.TRUE;
+    }
+
     /**
      * Acquires a write lock
      *
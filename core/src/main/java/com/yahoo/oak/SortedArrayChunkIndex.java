@@ -0,0 +1,203 @@
+/*
+ * Copyright 2020, Verizon Media.
+ * Licensed under the terms of the Apache 2.0 license.
+ * Please see LICENSE file in the project root for terms.
+ */
+
+package com.yahoo.oak;
+
+/**
+ * A copy-on-write chunk index: the chunks are kept in an array sorted by their minimal keys, next to an array of
+ * the key prefixes of the minimal keys (see {@link OakComparator#keyPrefix}). A search is a binary search on the
+ * contiguous prefixes, which reads the off-heap minimal key of a chunk only upon a prefix tie, instead of the
+ * pointer chase of a skiplist, and allocates nothing.
+ *
+ * An update copies the arrays under a lock, and publishes them at once, so it costs O(#chunks). Hence, this index
+ * suits read-mostly maps, whose chunks are rarely rebalanced.
+ */
+class SortedArrayChunkIndex<K, V> implements ChunkIndex<K, V> {
+
+    // an immutable version of the index
+    private static final class Snapshot<K, V> {
+        final OrderedChunk<K, V>[] chunks;
+        final long[] prefixes; // all zeros when the comparator has no key prefixes
+
+        Snapshot(OrderedChunk<K, V>[] chunks, long[] prefixes) {
+            this.chunks = chunks;
+            this.prefixes = prefixes;
+        }
+    }
+
+    private final OakComparator<K> comparator;
+    private final OakSerializer<K> keySerializer;
+    private final boolean hasKeyPrefix;
+    private volatile Snapshot<K, V> snapshot;
+
+    SortedArrayChunkIndex(OakComparator<K> comparator, OakSerializer<K> keySerializer) {
+        this.comparator = comparator;
+        this.keySerializer = keySerializer;
+        this.hasKeyPrefix = comparator.hasKeyPrefix();
+        this.snapshot = new Snapshot<>(newChunksArray(0), new long[0]);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <K, V> OrderedChunk<K, V>[] newChunksArray(int length) {
+        return (OrderedChunk<K, V>[]) new OrderedChunk[length];
+    }
+
+    // the minimal keys are written once, so the prefix of a chunk is computed only when it is indexed
+    private long minKeyPrefix(OrderedChunk<K, V> chunk) {
+        return hasKeyPrefix ? comparator.keyPrefix(keySerializer.deserialize(chunk.minKey)) : 0;
+    }
+
+    private int compare(Snapshot<K, V> s, K key, long keyPrefix, int i) {
+        if (hasKeyPrefix) {
+            int cmp = Long.compare(keyPrefix, s.prefixes[i]);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return comparator.compareKeyAndSerializedKey(key, s.chunks[i].minKey);
+    }
+
+    /**
+     * @param inclusive whether a chunk whose minimal key equals the key is a match (floor) or not (lower)
+     * @return the index of the greatest matching chunk, or -1 if there is none
+     */
+    private int search(Snapshot<K, V> s, K key, boolean inclusive) {
+        long keyPrefix = hasKeyPrefix ? comparator.keyPrefix(key) : 0;
+        int found = -1;
+        int low = 0;
+        int high = s.chunks.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(s, key, keyPrefix, mid);
+            if (cmp > 0 || (inclusive && cmp == 0)) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Searches by a serialized minimal key, as in {@link java.util.Arrays#binarySearch}.
+     * @return the index of the chunk with the given minimal key, or (-(insertion point) - 1) if there is none
+     */
+    private int search(Snapshot<K, V> s, OakScopedReadBuffer minKey) {
+        int low = 0;
+        int high = s.chunks.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = comparator.compareSerializedKeys(minKey, s.chunks[mid].minKey);
+            if (cmp > 0) {
+                low = mid + 1;
+            } else if (cmp < 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private static <K, V> OrderedChunk<K, V> chunkAt(Snapshot<K, V> s, int i) {
+        return (i >= 0 && i < s.chunks.length) ? s.chunks[i] : null;
+    }
+
+    @Override
+    public OrderedChunk<K, V> floor(K key) {
+        Snapshot<K, V> s = snapshot;
+        return chunkAt(s, search(s, key, true));
+    }
+
+    @Override
+    public OrderedChunk<K, V> lower(K key) {
+        Snapshot<K, V> s = snapshot;
+        return chunkAt(s, search(s, key, false));
+    }
+
+    @Override
+    public OrderedChunk<K, V> lower(OrderedChunk<K, V> chunk) {
+        Snapshot<K, V> s = snapshot;
+        int i = search(s, chunk.minKey);
+        // the chunk before the one with the same minimal key, or before the insertion point
+        return chunkAt(s, i >= 0 ? i - 1 : -(i + 1) - 1);
+    }
+
+    @Override
+    public OrderedChunk<K, V> first() {
+        Snapshot<K, V> s = snapshot;
+        return chunkAt(s, 0);
+    }
+
+    @Override
+    public OrderedChunk<K, V> last() {
+        Snapshot<K, V> s = snapshot;
+        return chunkAt(s, s.chunks.length - 1);
+    }
+
+    @Override
+    public synchronized void putIfAbsent(OrderedChunk<K, V> chunk) {
+        Snapshot<K, V> s = snapshot;
+        int i = search(s, chunk.minKey);
+        if (i >= 0) {
+            return;
+        }
+        int at = -(i + 1);
+        int length = s.chunks.length;
+        OrderedChunk<K, V>[] chunks = newChunksArray(length + 1);
+        long[] prefixes = new long[length + 1];
+        System.arraycopy(s.chunks, 0, chunks, 0, at);
+        System.arraycopy(s.prefixes, 0, prefixes, 0, at);
+        chunks[at] = chunk;
+        prefixes[at] = minKeyPrefix(chunk);
+        System.arraycopy(s.chunks, at, chunks, at + 1, length - at);
+        System.arraycopy(s.prefixes, at, prefixes, at + 1, length - at);
+        snapshot = new Snapshot<>(chunks, prefixes);
+    }
+
+    @Override
+    public synchronized void replace(OrderedChunk<K, V> oldChunk, OrderedChunk<K, V> newChunk) {
+        Snapshot<K, V> s = snapshot;
+        int i = search(s, oldChunk.minKey);
+        if (i < 0 || s.chunks[i] != oldChunk) {
+            return;
+        }
+        // the same minimal key, so the prefixes are shared
+        OrderedChunk<K, V>[] chunks = s.chunks.clone();
+        chunks[i] = newChunk;
+        snapshot = new Snapshot<>(chunks, s.prefixes);
+    }
+
+    @Override
+    public synchronized void remove(OrderedChunk<K, V> chunk) {
+        Snapshot<K, V> s = snapshot;
+        int i = search(s, chunk.minKey);
+        if (i < 0 || s.chunks[i] != chunk) {
+            return;
+        }
+        int length = s.chunks.length;
+        OrderedChunk<K, V>[] chunks = newChunksArray(length - 1);
+        long[] prefixes = new long[length - 1];
+        System.arraycopy(s.chunks, 0, chunks, 0, i);
+        System.arraycopy(s.prefixes, 0, prefixes, 0, i);
+        System.arraycopy(s.chunks, i + 1, chunks, i, length - i - 1);
+        System.arraycopy(s.prefixes, i + 1, prefixes, i, length - i - 1);
+        snapshot = new Snapshot<>(chunks, prefixes);
+    }
+
+    @Override
+    public synchronized void reset(OrderedChunk<K, V> first) {
+        OrderedChunk<K, V>[] chunks = newChunksArray(1);
+        chunks[0] = first;
+        snapshot = new Snapshot<>(chunks, new long[] {minKeyPrefix(first)});
+    }
+
+    @Override
+    public int size() {
+        return snapshot.chunks.length;
+    }
+}
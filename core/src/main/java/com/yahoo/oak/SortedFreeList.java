@@ -0,0 +1,317 @@
+/*
+ * Copyright 2020, Verizon Media.
+ * Licensed under the terms of the Apache 2.0 license.
+ * Please see LICENSE file in the project root for terms.
+ */
+
+package com.yahoo.oak;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The default free list: a set of free ranges of the blocks, searched for the best fit.
+ * A free range bigger than requested is split, and the remainder is kept in the free list.
+ * Adjacent free ranges of a block are coalesced (best effort), in the order of their addresses.
+ *
+ * Coalescing needs care, because released off-heap cuts may still be inspected via stale references:
+ * the memory managers detect reuse by checking the header at the beginning of the off-heap cut, and that location
+ * may end up in the middle of a later allocation once its range is appended to its left neighbour.
+ * A free range is "virgin" if no off-heap cut was ever allocated at its offset: a remainder of a split,
+ * or an unused tail of a thread-local allocation buffer. Appending a virgin range is always safe. When a range that
+ * is not virgin is appended:
+ * - the coalesced range is reused only once the threads which may have read a stale reference to the appended
+ *   header left their epoch (see {@code EpochTracker}), and
+ * - {@code coalescings()} is increased, so stale references that outlive their epoch (e.g., of unscoped buffers)
+ *   are looked up again before their header is trusted, see {@code BlockMemoryAllocator.coalescings()}.
+ *
+ * A free range is always in the position map, and it is also in the size set unless its block is being evacuated
+ * by the compaction. Hence, the ranges of an evacuating block are still coalesced, but the best-fit search does not
+ * have to skip them, see {@code detachBlock()}.
+ */
+class SortedFreeList implements FreeList {
+
+    // A remainder of a split range that is shorter than this is dropped, rather than kept in the free list, as no
+    // allocation is likely to fit in it. It is not counted as live bytes, so it does not keep its block from being
+    // returned.
+    static final int MIN_RANGE_SIZE = 16;
+
+    // A free range of a block
+    static final class FreeRange implements Comparable<FreeRange> {
+        final int blockID;
+        final int offset;
+        // changed only for a search probe of the calling thread, never for a range in the free list
+        int length;
+        final long blockMemAddress;
+        // true if no off-heap cut was ever allocated starting at this offset
+        final boolean virgin;
+        // the range is not reused before this epoch is safe (see EpochTracker.isSafe()), or 0 if it can be reused
+        final long reusableEpoch;
+        // distinguishes between ranges with the same length and position, e.g., a range being removed from the
+        // free list and the same range being added again, so each range is removed only by its owner
+        final long sequence;
+
+        FreeRange(int blockID, int offset, int length, long blockMemAddress, boolean virgin, long reusableEpoch,
+                long sequence) {
+            this.blockID = blockID;
+            this.offset = offset;
+            this.length = length;
+            this.blockMemAddress = blockMemAddress;
+            this.virgin = virgin;
+            this.reusableEpoch = reusableEpoch;
+            this.sequence = sequence;
+        }
+
+        long position() {
+            return position(blockID, offset);
+        }
+
+        static long position(int blockID, int offset) {
+            return ((long) blockID << Integer.SIZE) | offset;
+        }
+
+        // The ranges are ordered by their length, then by their block id, then by their offset,
+        // same as in {@code BlockAllocationSlice.compareTo()}, and then by their sequence
+        @Override
+        public int compareTo(FreeRange o) {
+            int cmp = Integer.compare(this.length, o.length);
+            if (cmp != 0) {
+                return cmp;
+            }
+            cmp = Integer.compare(this.blockID, o.blockID);
+            if (cmp != 0) {
+                return cmp;
+            }
+            cmp = Integer.compare(this.offset, o.offset);
+            if (cmp != 0) {
+                return cmp;
+            }
+            return Long.compare(this.sequence, o.sequence);
+        }
+    }
+
+    // free ranges sorted by their length, used for the best-fit search
+    private final ConcurrentSkipListSet<FreeRange> bySize = new ConcurrentSkipListSet<>();
+    // free ranges sorted by their position (block id and offset), used to find the neighbours.
+    // A range is owned by the thread which removes it from this map.
+    private final ConcurrentSkipListMap<Long, FreeRange> byPosition = new ConcurrentSkipListMap<>();
+    private final LongAdder freeBytes = new LongAdder();
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong coalescings = new AtomicLong();
+    private final NativeMemoryAllocator allocator;
+    private final EpochTracker epochs;
+    // the search probe of every thread, so a search does not allocate
+    private final ThreadLocal<FreeRange> probes = ThreadLocal.withInitial(() ->
+            new FreeRange(NativeMemoryAllocator.INVALID_BLOCK_ID, 0, 0, 0, false, 0, 0));
+
+    SortedFreeList(NativeMemoryAllocator allocator, EpochTracker epochs) {
+        this.allocator = allocator;
+        this.epochs = epochs;
+    }
+
+    private FreeRange newRange(int blockID, int offset, int length, long blockMemAddress, boolean virgin,
+            long reusableEpoch) {
+        return new FreeRange(blockID, offset, length, blockMemAddress, virgin, reusableEpoch,
+                sequence.incrementAndGet());
+    }
+
+    @Override
+    public int slotSize(int size) {
+        return size;
+    }
+
+    @Override
+    public boolean reuse(BlockAllocationSlice s, int size) {
+        if (bySize.isEmpty()) {
+            return false;
+        }
+        // the ranges coalesced before the last scan of the epochs can be reused, the epochs are scanned
+        // at most once per search, only if a range coalesced since then is found
+        long safeEpoch = epochs.lastSafeEpoch();
+        boolean scanned = false;
+        // The best fit is the first range with greater or equal length to the length of the probe,
+        // which is found with time complexity of O(log N), where N is the number of free ranges.
+        FreeRange probe = probes.get();
+        probe.length = size;
+        for (FreeRange bestFit = bySize.ceiling(probe); bestFit != null; bestFit = bySize.higher(bestFit)) {
+            // a range inserted while the evacuation of its block started, see insert()
+            if (allocator.isEvacuating(bestFit.blockID)) {
+                detach(bestFit);
+                continue;
+            }
+            // A range that was coalesced with a released neighbour may still be inspected via stale references
+            // (a range that can be reused at once has a zero reusable epoch, below any safe epoch)
+            if (bestFit.reusableEpoch >= safeEpoch) {
+                if (!scanned) {
+                    safeEpoch = epochs.scanSafeEpoch();
+                    scanned = true;
+                }
+                if (bestFit.reusableEpoch >= safeEpoch) {
+                    continue;
+                }
+            }
+            if (!claimAndAcquire(bestFit, size)) {
+                continue;
+            }
+            s.associateBlockAllocation(bestFit.blockID, bestFit.offset, size, bestFit.blockMemAddress);
+            int remainder = bestFit.length - size;
+            if (remainder >= MIN_RANGE_SIZE) {
+                insert(newRange(bestFit.blockID, bestFit.offset + size, remainder,
+                        bestFit.blockMemAddress, true, 0));
+            }
+            return true;
+        }
+        return false;
+    }
+
+    // Claims the given range and acquires size bytes of its block for it. A range can be claimed only before its
+    // block is retired, and the ID of a retired block is recycled only once the threads that entered before exit,
+    // so the bytes are not acquired from another block that was given the same ID meanwhile.
+    private boolean claimAndAcquire(FreeRange r, int size) {
+        allocator.enterRead();
+        try {
+            // If multiple threads got the same range only one can use it, the rest try the next range.
+            // If the block was retired after the range was found, the range is dropped with its block.
+            return claim(r) && allocator.acquireBlockRange(r.blockID, size);
+        } finally {
+            allocator.exitRead();
+        }
+    }
+
+    @Override
+    public void add(BlockAllocationSlice s) {
+        int offset = s.getAllocatedOffset();
+        insert(newRange(s.getAllocatedBlockID(), offset, s.getAllocatedLength(),
+                s.getMetadataAddress() - offset, false, 0));
+    }
+
+    @Override
+    public void addRange(int blockID, int offset, int length, long blockMemAddress) {
+        insert(newRange(blockID, offset, length, blockMemAddress, true, 0));
+    }
+
+    @Override
+    public void removeBlock(int blockID) {
+        for (FreeRange r : blockRanges(blockID)) {
+            claim(r);
+        }
+    }
+
+    // The free ranges of a block being evacuated by the compaction are not reused, so it can be emptied
+    @Override
+    public void detachBlock(int blockID) {
+        for (FreeRange r : blockRanges(blockID)) {
+            bySize.remove(r);
+        }
+    }
+
+    @Override
+    public void restoreBlock(int blockID) {
+        for (FreeRange r : blockRanges(blockID)) {
+            addToSizeSet(r);
+        }
+    }
+
+    private Iterable<FreeRange> blockRanges(int blockID) {
+        return byPosition.subMap(FreeRange.position(blockID, 0), FreeRange.position(blockID + 1, 0)).values();
+    }
+
+    // Removes a range of an evacuating block from the size set only, it is added back by restoreBlock()
+    private void detach(FreeRange r) {
+        bySize.remove(r);
+        // the evacuation may have ended meanwhile, after restoreBlock() found the range still in the size set
+        if (!allocator.isEvacuating(r.blockID)) {
+            addToSizeSet(r);
+        }
+    }
+
+    // Adds a range of the position map to the size set, unless the range is concurrently claimed
+    private void addToSizeSet(FreeRange r) {
+        bySize.add(r);
+        // the owner of the range may have missed it in the size set, so it is removed from there by this thread
+        if (byPosition.get(r.position()) != r) {
+            bySize.remove(r);
+        }
+    }
+
+    // Takes the ownership on a free range, removing it from the free list.
+    // Returns false if the range was already taken by another thread.
+    private boolean claim(FreeRange r) {
+        if (!byPosition.remove(r.position(), r)) {
+            return false;
+        }
+        bySize.remove(r);
+        freeBytes.add(-r.length);
+        return true;
+    }
+
+    // Inserts a range to the free list, after coalescing it with its free neighbours (if possible)
+    private void insert(FreeRange range) {
+        FreeRange r = range;
+        while (true) {
+            Map.Entry<Long, FreeRange> e = byPosition.lowerEntry(r.position());
+            FreeRange left = (e == null) ? null : e.getValue();
+            if (left != null && left.blockID == r.blockID && left.offset + left.length == r.offset
+                    && claim(left)) {
+                r = coalesce(left, r);
+                continue;
+            }
+            FreeRange right = byPosition.get(FreeRange.position(r.blockID, r.offset + r.length));
+            if (right != null && claim(right)) {
+                r = coalesce(r, right);
+                continue;
+            }
+            break;
+        }
+        freeBytes.add(r.length);
+        byPosition.put(r.position(), r);
+        // if the evacuation of the block ends after this check, restoreBlock() finds the range in the position map
+        if (!allocator.isEvacuating(r.blockID)) {
+            addToSizeSet(r);
+        }
+    }
+
+    // Appends a free range to its adjacent left neighbour, both owned by the calling thread
+    private FreeRange coalesce(FreeRange left, FreeRange right) {
+        long reusableEpoch = Math.max(left.reusableEpoch, right.reusableEpoch);
+        if (!right.virgin) {
+            // the header of the right range is not at the beginning of a range anymore
+            coalescings.incrementAndGet();
+            reusableEpoch = Math.max(reusableEpoch, epochs.retireEpoch());
+        }
+        return newRange(left.blockID, left.offset, left.length + right.length, left.blockMemAddress, left.virgin,
+                reusableEpoch);
+    }
+
+    @Override
+    public int size() {
+        return byPosition.size();
+    }
+
+    @Override
+    public long freeBytes() {
+        return freeBytes.sum();
+    }
+
+    @Override
+    public long largestFreeRange() {
+        FreeRange largest = bySize.floor(
+                new FreeRange(Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, 0, false, 0, Long.MAX_VALUE));
+        return (largest == null) ? 0 : largest.length;
+    }
+
+    @Override
+    public long coalescings() {
+        return coalescings.get();
+    }
+
+    @Override
+    public void clear() {
+        bySize.clear();
+        byPosition.clear();
+        freeBytes.reset();
+    }
+}
@@ -6,17 +6,30 @@
 
 package com.yahoo.oak;
 
+import java.util.concurrent.atomic.LongAdder;
+
 class SyncRecycleMMHeader {
 
     /*
     * Long SyncRecycleMMHeader: int version + int lock
-    * 0...  ...31 | 32...                  ...61| 62 63
-    *  version    |   lock: current_readers#    | lock state
+    * 0...          ...10 | 11...  ...31 | 32...             ...46 |       47       | 48...       ...61| 62 63
+    *  write sequence high |   version   | lock: write sequence low | writer waiting |  current_readers# | lock state
     *
     * lock state: 0x00 - FREE, 0x01 - LOCKED, 0x10 - DELETED, 0x11 - MOVED
     *
+    * The write sequence is increased whenever a write lock is released, so an optimistic reader, which does not
+    * take the read lock, can validate that no write happened during its read (as in a seqlock).
+    * The sequence has 26 bits: its low part is in the lock, and it carries over to the bits of the version int that
+    * the references do not use (see ReferenceCodecSyncRecycle, the version has at most 21 bits besides the delete
+    * bit). A read is wrongly validated only if exactly a multiple of 2^26 writes of the same value overlapped it.
+    *
+    * A writer that waits for the readers to release the lock sets the writer waiting bit, and new readers then
+    * defer to it (for a bounded number of attempts), so a steady stream of readers cannot starve the writers.
+    * The waiting time of contended acquisitions is defined by a ContentionStrategy.
+    *
     * The length (in integer size) of the data is also held just following the header (in long size)
-    * The length is set once upon header allocation and later can only be read. */
+    * The length is set once upon header allocation and later can only be read.
+    * A compact header omits the length, for memory managers whose data length is fixed. */
 
     enum LockStates {
         FREE(0), LOCKED(1), DELETED(2), MOVED(3);
@@ -34,11 +47,42 @@ class SyncRecycleMMHeader {
     private static final int LOCK_SIZE = 4;
     private static final int LOCK_OFFSET = VERSION_SIZE;
 
+    // the bits of the version int that hold the version, the rest hold the high part of the write sequence
+    private static final int VERSION_BITS =
+            Long.SIZE - ReferenceCodecSyncRecycle.DEFAULT_BITS_FOR_MAXIMUM_RAM - 1;
+    private static final int VERSION_MASK = (1 << VERSION_BITS) - 1;
+    private static final int WRITE_SEQUENCE_HIGH_UNIT = 1 << VERSION_BITS;
+
     private static final int LOCK_STATE_MASK = 0x3;
     private static final int LOCK_STATE_SHIFT = 2;
+    private static final int WRITER_WAITING = 1 << 16;
+    private static final int READERS_MASK = (WRITER_WAITING - 1) & ~LOCK_STATE_MASK;
+    private static final int WRITE_SEQUENCE_SHIFT = 17;
+    private static final int WRITE_SEQUENCE_MASK = -1 << WRITE_SEQUENCE_SHIFT;
+    // the lock without its number of readers
+    private static final int STAMP_MASK = WRITE_SEQUENCE_MASK | LOCK_STATE_MASK;
 
+    private static final int LENGTH_SIZE = 4;
     private static final int LENGTH_OFFSET = VERSION_SIZE + LOCK_SIZE;
 
+    // the header size in bytes, with and without the data length
+    static final int SIZE = LENGTH_OFFSET + LENGTH_SIZE;
+    static final int COMPACT_SIZE = LENGTH_OFFSET;
+
+    static final int INVALID_STATE = -1;
+    static final long INVALID_STAMP = -1;
+
+    // The number of attempts a reader defers to a waiting writer, before it takes the read lock anyway.
+    // The deferral is bounded, as the writer may wait for a read lock held by the same reader thread.
+    static final int READER_DEFER_ATTEMPTS = 32;
+
+    private final ContentionStrategy contentionStrategy;
+    private final LongAdder contendedAcquisitions = new LongAdder();
+
+    SyncRecycleMMHeader(ContentionStrategy contentionStrategy) {
+        this.contentionStrategy = contentionStrategy;
+    }
+
     private static int getInt(long headerAddress, int intOffsetInBytes) {
         return DirectUtils.getInt(headerAddress + intOffsetInBytes);
     }
@@ -52,6 +96,11 @@ class SyncRecycleMMHeader {
     }
 
     int getOffHeapVersion(long headerAddress) {
+        return getInt(headerAddress, VERSION_OFFSET) & VERSION_MASK;
+    }
+
+    // the version int, including the high part of the write sequence
+    private static int getVersionInt(long headerAddress) {
         return getInt(headerAddress, VERSION_OFFSET);
     }
 
@@ -71,141 +120,236 @@ class SyncRecycleMMHeader {
         putInt(headerAddress, LENGTH_OFFSET, length);
     }
 
-    private void initHeader(long headerAddress, LockStates state, int dataLength, int version) {
+    private void initHeader(long headerAddress, LockStates state, int version) {
+        assert (version & ~VERSION_MASK) == 0 : "The version does not fit in the header: " + version;
         setOffHeapVersion(headerAddress, version);
         setLockState(headerAddress, state);
-        setDataLength(headerAddress, dataLength);
     }
 
     void initFreeHeader(long headerAddress, int dataLength, int version) {
-        initHeader(headerAddress, LockStates.FREE, dataLength, version);
+        initHeader(headerAddress, LockStates.FREE, version);
+        setDataLength(headerAddress, dataLength);
     }
 
     void initLockedHeader(long headerAddress, int dataLength, int version) {
-        initHeader(headerAddress, LockStates.LOCKED, dataLength, version);
+        initHeader(headerAddress, LockStates.LOCKED, version);
+        setDataLength(headerAddress, dataLength);
+    }
+
+    // the compact header variants, which do not hold the data length
+    void initFreeCompactHeader(long headerAddress, int version) {
+        initHeader(headerAddress, LockStates.FREE, version);
+    }
+
+    void initLockedCompactHeader(long headerAddress, int version) {
+        initHeader(headerAddress, LockStates.LOCKED, version);
     }
 
     /*---------------- Locking Implementation ----------------*/
 
-    private static boolean cas(long headerAddress, int expectedLock, int newLock, int version) {
+    // the version int is passed as read from the header, with the high part of the write sequence
+    private static boolean cas(long headerAddress, int expectedLock, int newLock, int versionInt) {
+        return cas(headerAddress, expectedLock, newLock, versionInt, versionInt);
+    }
+
+    private static boolean cas(long headerAddress, int expectedLock, int newLock, int expectedVersionInt,
+            int newVersionInt) {
         // Since the writing is done directly to the memory, the endianness of the memory is important here.
         // Therefore, we make sure that the values are read and written correctly.
-        long expected = DirectUtils.intsToLong(version, expectedLock);
-        long value = DirectUtils.intsToLong(version, newLock);
+        long expected = DirectUtils.intsToLong(expectedVersionInt, expectedLock);
+        long value = DirectUtils.intsToLong(newVersionInt, newLock);
         return DirectUtils.UNSAFE.compareAndSwapLong(null, headerAddress, expected, value);
     }
 
+    /**
+     * Waits before the next attempt to acquire a contended lock.
+     * @param attempt the number of failed attempts of the current acquisition, starting at zero
+     */
+    void awaitContended(int attempt) {
+        if (attempt == 0) {
+            contendedAcquisitions.increment();
+        }
+        contentionStrategy.await(attempt);
+    }
+
+    // the number of lock acquisitions that had to wait for other threads, so far
+    long getContendedAcquisitions() {
+        return contendedAcquisitions.sum();
+    }
+
     ValueUtils.ValueResult lockRead(final int onHeapVersion, long headerAddress) {
-        int lockState;
         assert onHeapVersion > ReferenceCodecSyncRecycle.INVALID_VERSION
             : "In locking for read the version was: " + onHeapVersion;
-        do {
-            int offHeapVersion = getOffHeapVersion(headerAddress);
-            if (offHeapVersion != onHeapVersion) {
+        for (int attempt = 0; ; attempt++) {
+            int versionInt = getVersionInt(headerAddress);
+            if ((versionInt & VERSION_MASK) != onHeapVersion) {
                 return ValueUtils.ValueResult.RETRY;
             }
-            lockState = getLockState(headerAddress);
-            if (offHeapVersion != getOffHeapVersion(headerAddress)) {
+            int lockState = getLockState(headerAddress);
+            if (getOffHeapVersion(headerAddress) != onHeapVersion) {
                 return ValueUtils.ValueResult.RETRY;
             }
-            if (lockState == LockStates.DELETED.value) {
+            if ((lockState & LOCK_STATE_MASK) == LockStates.DELETED.value) {
                 return ValueUtils.ValueResult.FALSE;
             }
-            if (lockState == LockStates.MOVED.value) {
+            if ((lockState & LOCK_STATE_MASK) == LockStates.MOVED.value) {
                 return ValueUtils.ValueResult.RETRY;
             }
-            lockState &= ~LOCK_STATE_MASK;
-        } while (!cas(headerAddress, lockState, lockState + (1 << LOCK_STATE_SHIFT), onHeapVersion));
-        return ValueUtils.ValueResult.TRUE;
+            // a free lock is taken, unless a writer waits for it, or the number of readers cannot be increased
+            if ((lockState & LOCK_STATE_MASK) == LockStates.FREE.value
+                    && ((lockState & WRITER_WAITING) == 0 || attempt >= READER_DEFER_ATTEMPTS)
+                    && (lockState & READERS_MASK) != READERS_MASK
+                    && cas(headerAddress, lockState, lockState + (1 << LOCK_STATE_SHIFT), versionInt)) {
+                return ValueUtils.ValueResult.TRUE;
+            }
+            awaitContended(attempt);
+        }
+    }
+
+    // Used by readers that announce their read instead of taking the read lock (see EpochMemoryManager).
+    // The header is read with volatile semantics, so it must be invoked after the announcement is published.
+    // Returns the lock state (the value of one of LockStates, the number of readers is omitted),
+    // or INVALID_STATE if the version does not match.
+    int getAnnouncedReadState(final int onHeapVersion, long headerAddress) {
+        long header = DirectUtils.UNSAFE.getLongVolatile(null, headerAddress);
+        if (((int) header & VERSION_MASK) != onHeapVersion) {
+            return INVALID_STATE;
+        }
+        return (int) (header >>> Integer.SIZE) & LOCK_STATE_MASK;
     }
 
     ValueUtils.ValueResult unlockRead(final int onHeapVersion, long headerAddress) {
-        int lockState;
         assert onHeapVersion > ReferenceCodecSyncRecycle.INVALID_VERSION;
-        do {
-            lockState = getLockState(headerAddress);
-            assert lockState > LockStates.MOVED.value;
-            lockState &= ~LOCK_STATE_MASK;
-        } while (!cas(headerAddress, lockState, lockState - (1 << LOCK_STATE_SHIFT), onHeapVersion));
-        return ValueUtils.ValueResult.TRUE;
+        while (true) {
+            int versionInt = getVersionInt(headerAddress);
+            int lockState = getLockState(headerAddress);
+            assert (lockState & READERS_MASK) != 0;
+            if (cas(headerAddress, lockState, lockState - (1 << LOCK_STATE_SHIFT), versionInt)) {
+                return ValueUtils.ValueResult.TRUE;
+            }
+            // only other readers (or a waiting writer) changed the lock, so the shortest wait is enough
+            contentionStrategy.await(0);
+        }
     }
 
-    ValueUtils.ValueResult lockWrite(final int onHeapVersion, long headerAddress) {
+    // Takes the lock exclusively, once it is free and has no readers, either for write (setting it to LOCKED),
+    // or for delete (setting it to DELETED). Sets the writer waiting bit while readers hold the lock.
+    private ValueUtils.ValueResult lockExclusively(final int onHeapVersion, long headerAddress, boolean delete) {
         assert onHeapVersion > ReferenceCodecSyncRecycle.INVALID_VERSION;
-        do {
-            int oldVersion = getOffHeapVersion(headerAddress);
-            if (oldVersion != onHeapVersion) {
+        for (int attempt = 0; ; attempt++) {
+            int versionInt = getVersionInt(headerAddress);
+            if ((versionInt & VERSION_MASK) != onHeapVersion) {
                 return ValueUtils.ValueResult.RETRY;
             }
             int lockState = getLockState(headerAddress);
-            if (oldVersion != getOffHeapVersion(headerAddress)) {
+            if (getOffHeapVersion(headerAddress) != onHeapVersion) {
                 return ValueUtils.ValueResult.RETRY;
             }
-            if (lockState == LockStates.DELETED.value) {
+            if ((lockState & LOCK_STATE_MASK) == LockStates.DELETED.value) {
                 return ValueUtils.ValueResult.FALSE;
             }
-            if (lockState == LockStates.MOVED.value) {
+            if ((lockState & LOCK_STATE_MASK) == LockStates.MOVED.value) {
                 return ValueUtils.ValueResult.RETRY;
             }
-        } while (!cas(headerAddress, LockStates.FREE.value, LockStates.LOCKED.value, onHeapVersion));
-        return ValueUtils.ValueResult.TRUE;
+            if ((lockState & LOCK_STATE_MASK) == LockStates.FREE.value) {
+                if ((lockState & READERS_MASK) == 0) {
+                    // the lock is taken only when it is free and has no readers, clearing the writer waiting bit
+                    int newLock = delete ? LockStates.DELETED.value
+                        : (lockState & WRITE_SEQUENCE_MASK) | LockStates.LOCKED.value;
+                    if (cas(headerAddress, lockState, newLock, versionInt)) {
+                        return ValueUtils.ValueResult.TRUE;
+                    }
+                } else if ((lockState & WRITER_WAITING) == 0) {
+                    // a failure means that the lock was changed, which is checked on the next attempt
+                    cas(headerAddress, lockState, lockState | WRITER_WAITING, versionInt);
+                }
+            }
+            awaitContended(attempt);
+        }
+    }
+
+    ValueUtils.ValueResult lockWrite(final int onHeapVersion, long headerAddress) {
+        return lockExclusively(onHeapVersion, headerAddress, false);
     }
 
     ValueUtils.ValueResult unlockWrite(final int onHeapVersion, long headerAddress) {
+        int versionInt = getVersionInt(headerAddress);
         int lockState = getLockState(headerAddress);
-        assert (lockState == LockStates.LOCKED.value)
-            && (onHeapVersion == getOffHeapVersion(headerAddress));
+        assert ((lockState & ~WRITE_SEQUENCE_MASK) == LockStates.LOCKED.value)
+            && (onHeapVersion == (versionInt & VERSION_MASK));
+        // the next write sequence (wrapping around) invalidates the optimistic reads that overlapped the write
+        int freeLock = (lockState & WRITE_SEQUENCE_MASK) + (1 << WRITE_SEQUENCE_SHIFT);
+        // the low part of the sequence wrapped around, so it carries over to the high part
+        int newVersionInt = (freeLock == 0) ? versionInt + WRITE_SEQUENCE_HIGH_UNIT : versionInt;
         // use CAS and not just write so potential waiting reads can proceed immediately
-        cas(headerAddress, lockState, LockStates.FREE.value, onHeapVersion);
+        cas(headerAddress, lockState, freeLock, versionInt, newVersionInt);
         return ValueUtils.ValueResult.TRUE;
     }
 
-    ValueUtils.ValueResult logicalDelete(final int onHeapVersion, long headerAddress) {
+    // Starts an optimistic read, which does not write to the header. Waits while a writer holds the lock.
+    // Returns the stamp to validate the read with (the header without the number of readers), whose state is FREE
+    // if the read can proceed, or the DELETED or MOVED lock state. Returns INVALID_STAMP if the version does not
+    // match.
+    long startOptimisticRead(final int onHeapVersion, long headerAddress) {
         assert onHeapVersion > ReferenceCodecSyncRecycle.INVALID_VERSION;
-        do {
-            int oldVersion = getOffHeapVersion(headerAddress);
-            if (oldVersion != onHeapVersion) {
-                return ValueUtils.ValueResult.RETRY;
+        for (int attempt = 0; ; attempt++) {
+            // the version and the lock are read at once, as the write sequence spans both
+            long header = DirectUtils.UNSAFE.getLongVolatile(null, headerAddress);
+            if (((int) header & VERSION_MASK) != onHeapVersion) {
+                return INVALID_STAMP;
             }
-            int lockState = getLockState(headerAddress);
-            if (oldVersion != getOffHeapVersion(headerAddress)) {
-                return ValueUtils.ValueResult.RETRY;
+            if (getStampLockState(header) != LockStates.LOCKED.value) {
+                return toStamp(header);
             }
-            if (lockState == LockStates.DELETED.value) {
-                return ValueUtils.ValueResult.FALSE;
-            }
-            if (lockState == LockStates.MOVED.value) {
-                return ValueUtils.ValueResult.RETRY;
-            }
-        } while (!cas(headerAddress, LockStates.FREE.value, LockStates.DELETED.value, onHeapVersion));
-        return ValueUtils.ValueResult.TRUE;
+            awaitContended(attempt);
+        }
+    }
+
+    private static long toStamp(long header) {
+        return header & DirectUtils.intsToLong(-1, STAMP_MASK);
+    }
+
+    static int getStampLockState(long stamp) {
+        return (int) (stamp >>> Integer.SIZE) & LOCK_STATE_MASK;
+    }
+
+    // Validates an optimistic read of the data, started with the given stamp (whose state was FREE).
+    // Returns true if neither the version nor the lock (other than its number of readers) changed since then,
+    // i.e., no write, delete or move overlapped the read.
+    boolean validateOptimisticRead(long headerAddress, long stamp) {
+        // the data reads must not be reordered after the header reads
+        DirectUtils.UNSAFE.loadFence();
+        return toStamp(DirectUtils.UNSAFE.getLongVolatile(null, headerAddress)) == stamp;
+    }
+
+    ValueUtils.ValueResult logicalDelete(final int onHeapVersion, long headerAddress) {
+        return lockExclusively(onHeapVersion, headerAddress, true);
     }
 
     ValueUtils.ValueResult isLogicallyDeleted(final int onHeapVersion, long headerAddress) {
-        int oldVersion = getOffHeapVersion(headerAddress);
-        if (oldVersion != onHeapVersion) {
+        if (getOffHeapVersion(headerAddress) != onHeapVersion) {
             return ValueUtils.ValueResult.RETRY;
         }
         int lockState = getLockState(headerAddress);
-        if (oldVersion != getOffHeapVersion(headerAddress)) {
+        if (getOffHeapVersion(headerAddress) != onHeapVersion) {
             return ValueUtils.ValueResult.RETRY;
         }
-        if (lockState == LockStates.MOVED.value) {
+        if ((lockState & LOCK_STATE_MASK) == LockStates.MOVED.value) {
             return ValueUtils.ValueResult.RETRY;
         }
-        if (lockState == LockStates.DELETED.value) {
+        if ((lockState & LOCK_STATE_MASK) == LockStates.DELETED.value) {
             return ValueUtils.ValueResult.TRUE;
         }
         return ValueUtils.ValueResult.FALSE;
     }
 
     void markAsMoved(long headerAddress) {
-        assert getLockState(headerAddress) == LockStates.LOCKED.value;
+        assert (getLockState(headerAddress) & ~WRITE_SEQUENCE_MASK) == LockStates.LOCKED.value;
         setLockState(headerAddress, LockStates.MOVED);
     }
 
     void markAsDeleted(long headerAddress) {
-        assert getLockState(headerAddress) == LockStates.LOCKED.value;
+        assert (getLockState(headerAddress) & ~WRITE_SEQUENCE_MASK) == LockStates.LOCKED.value;
         setLockState(headerAddress, LockStates.DELETED);
     }
 }
@@ -10,17 +10,34 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 class SyncRecycleMemoryManager implements MemoryManager {
     static final int RELEASE_LIST_LIMIT = 1024;
-    private static final SyncRecycleMMHeader HEADER =
-        new SyncRecycleMMHeader(); // for off-heap header operations
+    // with background reclamation, a thread frees its release list itself once it reaches this size,
+    // so the lists do not grow unboundedly when the background thread falls behind
+    static final int RELEASE_LIST_BACKLOG_LIMIT = 8 * RELEASE_LIST_LIMIT;
     private static final int VERS_INIT_VALUE = 1;
-    private static final int OFF_HEAP_HEADER_SIZE = 12; /* Bytes */
+    // the data length of the off-heap cuts of a memory manager whose data length is not fixed
+    static final int VARIABLE_DATA_LENGTH = -1;
+    private static final int OFF_HEAP_HEADER_SIZE = SyncRecycleMMHeader.SIZE; /* Bytes */
+    // with a fixed data length, the off-heap header does not hold the length
+    private static final int COMPACT_OFF_HEAP_HEADER_SIZE = SyncRecycleMMHeader.COMPACT_SIZE; /* Bytes */
     protected final ThreadIndexCalculator threadIndexCalculator;
-    private final List<List<SliceSyncRecycle>> releaseLists;
+    private final List<ReleaseList> releaseLists;
     protected final AtomicInteger globalVersionNumber;
     protected final BlockMemoryAllocator allocator;
+    protected final SyncRecycleMMHeader header; // for off-heap header operations
+    // the data length of all the off-heap cuts, or VARIABLE_DATA_LENGTH
+    private final int fixedDataLength;
+    private final int headerSize;
+    // frees the release lists in the background, null if they are freed by the releasing threads
+    private volatile ReleaseReclaimer reclaimer;
+
+    // the number of release lists freed so far, and the time from the first release of a list until it was freed
+    private final AtomicLong reclaims = new AtomicLong(0);
+    private final AtomicLong totalReclaimLatencyNanos = new AtomicLong(0);
+    private final AtomicLong maxReclaimLatencyNanos = new AtomicLong(0);
 
     /*
      * The VALUE_RC reference codec encodes the reference (with memory manager abilities) of the values
@@ -31,21 +48,59 @@ class SyncRecycleMemoryManager implements MemoryManager {
     protected ReferenceCodecSyncRecycle rc;
 
     SyncRecycleMemoryManager(BlockMemoryAllocator allocator) {
+        this(allocator, VARIABLE_DATA_LENGTH);
+    }
+
+    /**
+     * @param allocator       the allocator of the off-heap cuts
+     * @param fixedDataLength the data length of all the off-heap cuts, or VARIABLE_DATA_LENGTH.
+     *                        With a fixed data length, the length is not kept in the off-heap headers,
+     *                        and an allocation of less data still takes the fixed length.
+     */
+    SyncRecycleMemoryManager(BlockMemoryAllocator allocator, int fixedDataLength) {
+        this(allocator, fixedDataLength, ContentionStrategy.adaptive());
+    }
+
+    /**
+     * @param allocator          the allocator of the off-heap cuts
+     * @param fixedDataLength    the data length of all the off-heap cuts, or VARIABLE_DATA_LENGTH
+     * @param contentionStrategy how the threads wait for the contended locks of the off-heap cuts
+     */
+    SyncRecycleMemoryManager(BlockMemoryAllocator allocator, int fixedDataLength,
+                             ContentionStrategy contentionStrategy) {
+        if (fixedDataLength != VARIABLE_DATA_LENGTH && fixedDataLength <= 0) {
+            throw new IllegalArgumentException("The fixed data length must be positive");
+        }
+        this.fixedDataLength = fixedDataLength;
+        this.headerSize = (fixedDataLength == VARIABLE_DATA_LENGTH) ? OFF_HEAP_HEADER_SIZE
+                : COMPACT_OFF_HEAP_HEADER_SIZE;
+        this.header = new SyncRecycleMMHeader(contentionStrategy);
         this.threadIndexCalculator = ThreadIndexCalculator.newInstance();
+        // the release lists are added on demand, as new thread indices are assigned
         this.releaseLists = new CopyOnWriteArrayList<>();
-        for (int i = 0; i < ThreadIndexCalculator.MAX_THREADS; i++) {
-            this.releaseLists.add(new ArrayList<>(RELEASE_LIST_LIMIT));
-        }
         globalVersionNumber = new AtomicInteger(VERS_INIT_VALUE);
         this.allocator = allocator;
-        rc = new ReferenceCodecSyncRecycle(BlocksPool.getInstance().blockSize(), allocator);
+        rc = new ReferenceCodecSyncRecycle(allocator.blockSize(), allocator);
+        allocator.limitMaxBlockID((int) ReferenceCodec.mask(rc.getFirstBitSize()));
     }
 
     @Override
     public void close() {
+        ReleaseReclaimer r = reclaimer;
+        if (r != null) {
+            r.close();
+        }
         allocator.close();
     }
 
+    /**
+     * Starts freeing the release lists in the background, see ReleaseReclaimer.
+     * @param flushIntervalMillis the maximal time a released off-heap cut waits in a list that is not full
+     */
+    void startBackgroundReclamation(long flushIntervalMillis) {
+        reclaimer = new ReleaseReclaimer(this, flushIntervalMillis);
+    }
+
     @Override
     public boolean isClosed() {
         return allocator.isClosed();
@@ -118,7 +173,14 @@ class SyncRecycleMemoryManager implements MemoryManager {
     @VisibleForTesting
     @Override
     public int getHeaderSize() {
-        return OFF_HEAP_HEADER_SIZE;
+        return headerSize;
+    }
+
+    /**
+     * @return the data length of all the off-heap cuts, or VARIABLE_DATA_LENGTH if it is not fixed
+     */
+    int getFixedDataLength() {
+        return fixedDataLength;
     }
 
     @Override
@@ -126,9 +188,6 @@ class SyncRecycleMemoryManager implements MemoryManager {
         if (clearAllocator) {
             allocator.clear();
         }
-        for (int i = 0; i < ThreadIndexCalculator.MAX_THREADS; i++) {
-            this.releaseLists.add(new ArrayList<>(RELEASE_LIST_LIMIT));
-        }
         globalVersionNumber.set(VERS_INIT_VALUE);
     }
 
@@ -148,7 +207,7 @@ class SyncRecycleMemoryManager implements MemoryManager {
         // the version takes specific number of bits (including delete bit)
         // version increasing needs to restart once the maximal number of bits is reached
         int curVer = globalVersionNumber.get();
-        if (curVer == rc.LAST_VALID_VERSION) {
+        if (curVer == rc.lastValidVersion) {
             globalVersionNumber.compareAndSet(curVer, VERS_INIT_VALUE);
         } else {
             globalVersionNumber.compareAndSet(curVer, curVer + 1);
@@ -156,6 +215,146 @@ class SyncRecycleMemoryManager implements MemoryManager {
         // if CAS fails someone else updated the version, which is good enough
     }
 
+    /*-------------- Release lists --------------*/
+
+    // The off-heap cuts released by a thread, which are not freed yet.
+    // With background reclamation, it is guarded by itself, as the background thread takes its cuts.
+    static final class ReleaseList {
+        private ArrayList<SliceSyncRecycle> slices = new ArrayList<>(RELEASE_LIST_LIMIT);
+        private long bytes; // the allocated bytes of the slices
+        private long firstReleaseNanos; // the release time of the first slice
+        private boolean submitted; // whether the list was handed to the background reclamation
+
+        private void add(SliceSyncRecycle s) {
+            if (slices.isEmpty()) {
+                firstReleaseNanos = System.nanoTime();
+            }
+            slices.add(s);
+            bytes += s.getAllocatedLength();
+        }
+
+        private int size() {
+            return slices.size();
+        }
+    }
+
+    private ReleaseList getMyReleaseList() {
+        return threadIndexCalculator.getThreadElement(releaseLists, ReleaseList::new);
+    }
+
+    List<ReleaseList> getReleaseLists() {
+        return releaseLists;
+    }
+
+    private void addToReleaseList(SliceSyncRecycle s) {
+        ReleaseList myReleaseList = getMyReleaseList();
+        ReleaseReclaimer r = reclaimer;
+        if (r == null) {
+            myReleaseList.add(s);
+            if (myReleaseList.size() >= RELEASE_LIST_LIMIT) {
+                freeReleased(myReleaseList.slices, myReleaseList.firstReleaseNanos);
+                myReleaseList.slices.clear();
+                myReleaseList.bytes = 0;
+            }
+            return;
+        }
+        boolean submit;
+        boolean backlogged;
+        synchronized (myReleaseList) {
+            myReleaseList.add(s);
+            submit = myReleaseList.size() >= RELEASE_LIST_LIMIT && !myReleaseList.submitted;
+            myReleaseList.submitted |= submit;
+            backlogged = myReleaseList.size() >= RELEASE_LIST_BACKLOG_LIMIT;
+        }
+        if (backlogged) {
+            reclaimReleaseList(myReleaseList, 0);
+        } else if (submit) {
+            r.submit(myReleaseList);
+        }
+    }
+
+    /**
+     * Frees the off-heap cuts of the given release list, if its first cut was released at least minAgeNanos ago.
+     * May be invoked by the background reclamation, concurrently with the owner thread of the list.
+     */
+    void reclaimReleaseList(ReleaseList releaseList, long minAgeNanos) {
+        ArrayList<SliceSyncRecycle> released;
+        long firstReleaseNanos;
+        synchronized (releaseList) {
+            releaseList.submitted = false;
+            if (releaseList.size() == 0 || System.nanoTime() - releaseList.firstReleaseNanos < minAgeNanos) {
+                return;
+            }
+            released = releaseList.slices;
+            firstReleaseNanos = releaseList.firstReleaseNanos;
+            releaseList.slices = new ArrayList<>(RELEASE_LIST_LIMIT);
+            releaseList.bytes = 0;
+        }
+        freeReleased(released, firstReleaseNanos);
+    }
+
+    private void freeReleased(List<SliceSyncRecycle> released, long firstReleaseNanos) {
+        increaseGlobalVersion();
+        for (SliceSyncRecycle allocToRelease : released) {
+            allocator.free(allocToRelease);
+        }
+        long latency = System.nanoTime() - firstReleaseNanos;
+        reclaims.incrementAndGet();
+        totalReclaimLatencyNanos.addAndGet(latency);
+        maxReclaimLatencyNanos.accumulateAndGet(latency, Math::max);
+    }
+
+    /**
+     * Frees the off-heap cuts released so far by the calling thread, without waiting for its release list to fill.
+     * Used by the off-heap compaction, so the values it relocated are freed by the end of a compaction pass.
+     */
+    void flushReleaseList() {
+        reclaimReleaseList(getMyReleaseList(), 0);
+    }
+
+    /**
+     * @return the number of bytes of the off-heap cuts that were released but not freed yet
+     */
+    long getPendingReleaseBytes() {
+        long bytes = 0;
+        for (ReleaseList releaseList : releaseLists) {
+            synchronized (releaseList) {
+                bytes += releaseList.bytes;
+            }
+        }
+        return bytes;
+    }
+
+    // the number of release lists freed so far
+    long getReclaims() {
+        return reclaims.get();
+    }
+
+    // the average and maximal time from the first release of a list until it was freed
+    long getAverageReclaimLatencyNanos() {
+        long n = reclaims.get();
+        return (n == 0) ? 0 : totalReclaimLatencyNanos.get() / n;
+    }
+
+    long getMaxReclaimLatencyNanos() {
+        return maxReclaimLatencyNanos.get();
+    }
+
+    // the number of background reclamations that failed, zero if the release lists are not reclaimed in the background
+    long getFailedReclamations() {
+        ReleaseReclaimer r = reclaimer;
+        return (r == null) ? 0 : r.getFailures();
+    }
+
+    /*-------------- Lock contention --------------*/
+
+    /**
+     * @return the number of acquisitions of the locks of the off-heap cuts that waited for other threads, so far
+     */
+    long getContendedLockAcquisitions() {
+        return header.getContendedAcquisitions();
+    }
+
     /*=====================================================================*/
     /*           SliceSyncRecycle                 */
     /* Inner Class for easier access to SyncRecycleMemoryManager abilities */
@@ -172,6 +371,7 @@ class SyncRecycleMemoryManager implements MemoryManager {
     class SliceSyncRecycle extends BlockAllocationSlice {
 
         protected int version;    // Allocation time version
+        private long readStamp;   // The header stamp of the current optimistic read
 
         /* ------------------------------------------------------------------------------------
          * Constructors
@@ -191,12 +391,22 @@ class SyncRecycleMemoryManager implements MemoryManager {
          *    the lock of the newly allocated slice to be taken exclusively until the process of
          *    move is finished.
          *
+         * 3. With a fixed data length, the fixed length is allocated, and the header does not hold it
+         *
          * @param size     the number of bytes required by the user
          * @param existing whether the allocation is for existing off-heap cut moving to the other
          */
         @Override
         public void allocate(int size, boolean existing) {
-            boolean allocated = allocator.allocate(this, size + OFF_HEAP_HEADER_SIZE);
+            int dataLength = size;
+            if (fixedDataLength != VARIABLE_DATA_LENGTH) {
+                if (size > fixedDataLength) {
+                    throw new IllegalArgumentException(String.format(
+                        "The data size (%d bytes) exceeds the fixed data length (%d bytes)", size, fixedDataLength));
+                }
+                dataLength = fixedDataLength;
+            }
+            boolean allocated = allocator.allocate(this, dataLength + headerSize);
             assert allocated;
             int allocationVersion = globalVersionNumber.get();
             version = allocationVersion;
@@ -205,12 +415,18 @@ class SyncRecycleMemoryManager implements MemoryManager {
             // for value written for the first time (not existing):
             //      initializing the header's lock to be free
             // for value being moved (existing): initialize the lock to be locked
-            if (existing) {
-                HEADER.initLockedHeader(getMetadataAddress(), size, allocationVersion);
+            if (fixedDataLength != VARIABLE_DATA_LENGTH) {
+                if (existing) {
+                    header.initLockedCompactHeader(getMetadataAddress(), allocationVersion);
+                } else {
+                    header.initFreeCompactHeader(getMetadataAddress(), allocationVersion);
+                }
+            } else if (existing) {
+                header.initLockedHeader(getMetadataAddress(), dataLength, allocationVersion);
             } else {
-                HEADER.initFreeHeader(getMetadataAddress(), size, allocationVersion);
+                header.initFreeHeader(getMetadataAddress(), dataLength, allocationVersion);
             }
-            assert HEADER.getOffHeapVersion(getMetadataAddress()) == allocationVersion;
+            assert header.getOffHeapVersion(getMetadataAddress()) == allocationVersion;
             reference = encodeReference();
         }
 
@@ -232,17 +448,8 @@ class SyncRecycleMemoryManager implements MemoryManager {
         @Override
         public void release() {
             prefetchDataLength(); // this will set the length from off-heap header, if needed
-            int idx = threadIndexCalculator.getIndex();
-            List<SliceSyncRecycle> myReleaseList = releaseLists.get(idx);
             // ensure the length of the slice is always set
-            myReleaseList.add(duplicate());
-            if (myReleaseList.size() >= RELEASE_LIST_LIMIT) {
-                increaseGlobalVersion();
-                for (SliceSyncRecycle allocToRelease : myReleaseList) {
-                    allocator.free(allocToRelease);
-                }
-                myReleaseList.clear();
-            }
+            addToReleaseList(duplicate());
         }
 
         /**
@@ -255,11 +462,8 @@ class SyncRecycleMemoryManager implements MemoryManager {
         @Override
         public boolean decodeReference(long reference) {
             // reference is set in the slice as part of decoding
-            if (decode(reference)) {
-                allocator.readMemoryAddress(this);
-                return true;
-            }
-            return false;
+            // the block of a stale reference may have already been returned by the allocator
+            return decode(reference) && allocator.readMemoryAddress(this);
         }
 
         /**
@@ -337,7 +541,9 @@ class SyncRecycleMemoryManager implements MemoryManager {
             if (length == UNDEFINED_LENGTH_OR_OFFSET_OR_ADDRESS) {
                 // the length kept in header is the length of the data only!
                 // add header size
-                this.length = HEADER.getDataLength(getMetadataAddress()) + OFF_HEAP_HEADER_SIZE;
+                int dataLength = (fixedDataLength != VARIABLE_DATA_LENGTH) ? fixedDataLength
+                        : header.getDataLength(getMetadataAddress());
+                this.length = dataLength + headerSize;
             }
         }
 
@@ -366,12 +572,17 @@ class SyncRecycleMemoryManager implements MemoryManager {
         public int getLength() {
             // prefetchDataLength() prefetches the length from header only if Slice's length is undefined
             prefetchDataLength();
-            return length - OFF_HEAP_HEADER_SIZE;
+            return length - headerSize;
         }
 
         @Override
         public long getAddress() {
-            return memAddress + offset + OFF_HEAP_HEADER_SIZE;
+            return memAddress + offset + headerSize;
+        }
+
+        @Override
+        public BlockMemoryAllocator getAllocator() {
+            return allocator;
         }
 
         @Override
@@ -394,7 +605,7 @@ class SyncRecycleMemoryManager implements MemoryManager {
          */
         public ValueUtils.ValueResult preRead() {
             assert version != ReferenceCodecSyncRecycle.INVALID_VERSION;
-            return HEADER.lockRead(version, getMetadataAddress());
+            return header.lockRead(version, getMetadataAddress());
         }
 
         /**
@@ -406,7 +617,58 @@ class SyncRecycleMemoryManager implements MemoryManager {
          */
         public ValueUtils.ValueResult postRead() {
             assert version != ReferenceCodecSyncRecycle.INVALID_VERSION;
-            return HEADER.unlockRead(version, getMetadataAddress());
+            return header.unlockRead(version, getMetadataAddress());
+        }
+
+        /**
+         * Starts an optimistic read, without writing to the header. Waits while the value is locked for a write.
+         * The length of the data is valid once it returns, as the data may be read (e.g., copied) up to it before
+         * the read is validated.
+         *
+         * @return {@code TRUE} if the read may proceed
+         * {@code FALSE} if the header/off-heap-cut is marked as deleted
+         * {@code RETRY} if the header/off-heap-cut was moved, or the version of the off-heap header
+         * does not match {@code version}.
+         */
+        @Override
+        public ValueUtils.ValueResult preOptimisticRead() {
+            assert version != ReferenceCodecSyncRecycle.INVALID_VERSION;
+            while (true) {
+                long stamp = header.startOptimisticRead(version, getMetadataAddress());
+                if (stamp == SyncRecycleMMHeader.INVALID_STAMP) {
+                    return ValueUtils.ValueResult.RETRY;
+                }
+                int state = SyncRecycleMMHeader.getStampLockState(stamp);
+                if (state == SyncRecycleMMHeader.LockStates.DELETED.value) {
+                    return ValueUtils.ValueResult.FALSE;
+                }
+                if (state == SyncRecycleMMHeader.LockStates.MOVED.value) {
+                    return ValueUtils.ValueResult.RETRY;
+                }
+                if (length != UNDEFINED_LENGTH_OR_OFFSET_OR_ADDRESS) {
+                    readStamp = stamp;
+                    return ValueUtils.ValueResult.TRUE;
+                }
+                // The length kept in the header may belong to a later allocation of the off-heap cut,
+                // so it is trusted only if the header did not change while it was read
+                prefetchDataLength();
+                if (header.validateOptimisticRead(getMetadataAddress(), stamp)) {
+                    readStamp = stamp;
+                    return ValueUtils.ValueResult.TRUE;
+                }
+                length = UNDEFINED_LENGTH_OR_OFFSET_OR_ADDRESS;
+            }
+        }
+
+        /**
+         * Validates an optimistic read
+         *
+         * @return {@code true} if no write, delete or move of the value overlapped the read
+         */
+        @Override
+        public boolean postOptimisticRead() {
+            assert version != ReferenceCodecSyncRecycle.INVALID_VERSION;
+            return header.validateOptimisticRead(getMetadataAddress(), readStamp);
         }
 
         /**
@@ -421,7 +683,7 @@ class SyncRecycleMemoryManager implements MemoryManager {
                 System.out.println("Version in the slice is invalid!");
             }
             assert version != ReferenceCodecSyncRecycle.INVALID_VERSION;
-            return HEADER.lockWrite(version, getMetadataAddress());
+            return header.lockWrite(version, getMetadataAddress());
         }
 
         /**
@@ -433,7 +695,7 @@ class SyncRecycleMemoryManager implements MemoryManager {
          */
         public ValueUtils.ValueResult postWrite() {
             assert version != ReferenceCodecSyncRecycle.INVALID_VERSION;
-            return HEADER.unlockWrite(version, getMetadataAddress());
+            return header.unlockWrite(version, getMetadataAddress());
         }
 
         /**
@@ -446,7 +708,7 @@ class SyncRecycleMemoryManager implements MemoryManager {
         public ValueUtils.ValueResult logicalDelete() {
             assert version != ReferenceCodecSyncRecycle.INVALID_VERSION;
             assert associated;
-            return HEADER.logicalDelete(version, getMetadataAddress());
+            return header.logicalDelete(version, getMetadataAddress());
         }
 
         /**
@@ -458,7 +720,7 @@ class SyncRecycleMemoryManager implements MemoryManager {
          */
         public ValueUtils.ValueResult isDeleted() {
             assert version != ReferenceCodecSyncRecycle.INVALID_VERSION;
-            return HEADER.isLogicallyDeleted(version, getMetadataAddress());
+            return header.isLogicallyDeleted(version, getMetadataAddress());
         }
 
         /**
@@ -467,7 +729,7 @@ class SyncRecycleMemoryManager implements MemoryManager {
          */
         public void markAsMoved() {
             assert associated;
-            HEADER.markAsMoved(getMetadataAddress());
+            header.markAsMoved(getMetadataAddress());
         }
 
         /**
@@ -477,7 +739,7 @@ class SyncRecycleMemoryManager implements MemoryManager {
          */
         public void markAsDeleted() {
             assert associated;
-            HEADER.markAsDeleted(getMetadataAddress());
+            header.markAsDeleted(getMetadataAddress());
         }
     }
 }
@@ -61,6 +61,22 @@ class ThreadContext {
     final KeyBuffer tempKey;
     final ValueBuffer tempValue;
 
+    /* The buffers handed to the serializers and computers of the user, attached to a slice only for the scope of
+     * a single serialization or update, see ScopedWriteBuffer */
+    final ScopedWriteBuffer keyWriteBuffer;
+    final ScopedWriteBuffer valueWriteBuffer;
+
+    /* The copy of a value that is read optimistically, for the transformer of the user, see ScratchReadBuffer */
+    final ScratchReadBuffer valueCopy;
+
+    /*-----------------------------------------------------------
+     * Recycling Context
+     *-----------------------------------------------------------*/
+
+    /* Set while an operation holds this context, so a nested operation of the same thread
+     * (e.g., rebalance within put, or a user callback accessing the map) will not reuse it */
+    boolean inUse;
+
     ThreadContext(OakSharedConfig<?, ?> config) {
         entryIndex = EntryArray.INVALID_ENTRY_INDEX;
         entryState = EntryArray.EntryState.UNKNOWN;
@@ -72,9 +88,13 @@ class ThreadContext {
         this.result = new Result();
         this.tempKey = new KeyBuffer(config.keysMemoryManager.getEmptySlice());
         this.tempValue = new ValueBuffer(config.valuesMemoryManager.getEmptySlice());
+        this.keyWriteBuffer = new ScopedWriteBuffer(config.keysMemoryManager.getEmptySlice());
+        this.valueWriteBuffer = new ScopedWriteBuffer(config.valuesMemoryManager.getEmptySlice());
+        this.valueCopy = new ScratchReadBuffer();
 
         this.keyHashAndUpdateCnt = EntryHashSet.INVALID_KEY_HASH_AND_UPD_CNT;
         this.operationKeyHash = EntryHashSet.INVALID_KEY_HASH;
+        this.inUse = false;
     }
 
     void invalidate() {
@@ -89,6 +109,16 @@ class ThreadContext {
         // No need to invalidate the temporary buffers
     }
 
+    /**
+     * Brings a recycled context to the state of a newly created one.
+     * Unlike {@code invalidate()}, which is also used between the retries of the same operation,
+     * this also forgets the key hash of the previous operation.
+     */
+    void reset() {
+        invalidate();
+        this.operationKeyHash = EntryHashSet.INVALID_KEY_HASH;
+    }
+
     /**
      * Initialize the entry context index to be used by methods that manages the key/value of this context.
      * The entry index is stored in the context so it can be used later by other methods without passing the
@@ -6,75 +6,116 @@
 
 package com.yahoo.oak;
 
-import sun.misc.Unsafe;
-
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
+/**
+ * Assigns small indices to the threads, to index per-thread data, such as release lists.
+ * An index is kept by its thread until the thread releases it or dies, and it is then reused by other threads.
+ * Thus, the indices are bounded by the maximal number of concurrently live threads, and not by the total number
+ * of threads, which may be huge with short-lived (e.g., virtual) threads. There is no limit on the number of
+ * indices, and the per-thread data should grow with them, e.g., via {@code getThreadElement()} or ThreadSlotArray.
+ */
 final class ThreadIndexCalculator {
 
-    public static final int MAX_THREADS = 64;
-    private static final int INVALID_THREAD_ID = -1;
-    // Long for correctness and anti false-sharing
-    private final long[] indices = new long[MAX_THREADS];
+    // The number of indices upon which the indices of dead threads are first looked for
+    static final int INITIAL_RECLAIM_SIZE = 64;
+
+    private final ThreadLocal<Integer> threadIndex = new ThreadLocal<>();
     private final AtomicInteger index = new AtomicInteger(0);
 
+    // The owner thread of every index, or null if the index is free. Guarded by this.
+    private final List<WeakReference<Thread>> owners = new ArrayList<>();
+    private final ArrayDeque<Integer> freeIndices = new ArrayDeque<>();
+    // The indices of dead threads are looked for once there are no free indices, and the number of indices
+    // reaches this size. It doubles if only few indices are found, so the search is amortized over new indices.
+    private int reclaimSize = INITIAL_RECLAIM_SIZE;
+
     private ThreadIndexCalculator() {
-        for (int i = 0; i < MAX_THREADS; ++i) {
-            indices[i] = INVALID_THREAD_ID;
+    }
+
+    public int getIndex() {
+        Integer idx = threadIndex.get();
+        if (idx == null) {
+            idx = assignIndex();
+            threadIndex.set(idx);
         }
+        return idx;
     }
 
-    private int getExistingIndex(long threadID) {
-        int iterationCnt = 0;
-        int currentIndex = ((int) threadID) % MAX_THREADS;
-        while (indices[currentIndex] != threadID) {
-            if (indices[currentIndex] == INVALID_THREAD_ID) {
-                // negative output indicates that a new index need to be created for this thread id
-                return -1 * currentIndex;
+    private synchronized int assignIndex() {
+        if (freeIndices.isEmpty() && owners.size() >= reclaimSize) {
+            reclaimIndicesOfDeadThreads();
+            if (freeIndices.size() < owners.size() / 2) {
+                reclaimSize = owners.size() * 2;
             }
-            currentIndex = (currentIndex + 1) % MAX_THREADS;
-            iterationCnt++;
-            assert (iterationCnt < MAX_THREADS) : (String.format("threadID: %s, currentIndex: %s, iterationCnt: %s",
-                    threadID, currentIndex, iterationCnt));
         }
-        return currentIndex;
+        Integer idx = freeIndices.poll();
+        if (idx == null) {
+            idx = owners.size();
+            owners.add(null);
+        }
+        owners.set(idx, new WeakReference<>(Thread.currentThread()));
+        return idx;
     }
 
-    public int getIndex() {
-        long tid = Thread.currentThread().getId();
-        int threadIdx = getExistingIndex(tid);
-        if (threadIdx > 0) {
-            return threadIdx;
-        }
-        if (threadIdx == 0) {
-            // due to multiplying by -1 check this special array element
-            if (tid == indices[0]) {
-                return threadIdx;
+    private void reclaimIndicesOfDeadThreads() {
+        for (int i = 0; i < owners.size(); i++) {
+            WeakReference<Thread> owner = owners.get(i);
+            if (owner == null) {
+                continue;
+            }
+            Thread t = owner.get();
+            if (t == null || !t.isAlive()) {
+                owners.set(i, null);
+                freeIndices.add(i);
             }
         }
-        int i = threadIdx * -1;
-        while (!DirectUtils.UNSAFE.compareAndSwapLong(indices,
-                Unsafe.ARRAY_LONG_BASE_OFFSET + i * Unsafe.ARRAY_LONG_INDEX_SCALE, INVALID_THREAD_ID, tid)) {
-            //TODO get out of loop sometime
-            i = (i + 1) % MAX_THREADS;
-        }
-        return i;
     }
-    
+
     public int getMonotonicIndex() {
         return index.getAndAdd(1);
     }
 
     public void releaseIndex() {
-        long tid = Thread.currentThread().getId();
-        int index = getExistingIndex(tid);
-        if (index < 0) {
+        Integer idx = threadIndex.get();
+        if (idx == null) {
             // There is no such thread index in the calculator, so throw NoSuchElementException
             // Probably releasing the same thread twice
             throw new NoSuchElementException();
         }
-        indices[index] = INVALID_THREAD_ID;
+        threadIndex.remove();
+        synchronized (this) {
+            owners.set(idx, null);
+            freeIndices.add(idx);
+        }
+    }
+
+    // the number of indices assigned so far, including the free ones
+    synchronized int size() {
+        return owners.size();
+    }
+
+    /**
+     * Returns the element of the calling thread in a list of per-thread elements, indexed by this calculator.
+     * The list is grown with new elements (from the given factory) as needed, so it must support concurrent
+     * reads and additions, e.g., a CopyOnWriteArrayList.
+     */
+    <T> T getThreadElement(List<T> perThreadElements, Supplier<T> factory) {
+        int idx = getIndex();
+        if (idx >= perThreadElements.size()) {
+            synchronized (perThreadElements) {
+                while (perThreadElements.size() <= idx) {
+                    perThreadElements.add(factory.get());
+                }
+            }
+        }
+        return perThreadElements.get(idx);
     }
 
     public static ThreadIndexCalculator newInstance() {
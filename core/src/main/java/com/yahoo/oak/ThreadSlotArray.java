@@ -0,0 +1,81 @@
+/*
+ * Copyright 2020, Verizon Media.
+ * Licensed under the terms of the Apache 2.0 license.
+ * Please see LICENSE file in the project root for terms.
+ */
+
+package com.yahoo.oak;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A growable array of per-thread slots (longs), indexed by the indices of a ThreadIndexCalculator.
+ * The slots of every thread are padded to their own cache lines, so they are written without false sharing,
+ * and can be read (scanned) by all the threads.
+ * The array grows in segments, for a fixed number of threads each. A segment is never moved once it is added,
+ * so the slots are not lost by concurrent writes while the array grows. A scan that reads the segments before a
+ * new segment is added misses only the threads that were assigned their indices after the scan started.
+ */
+final class ThreadSlotArray {
+    static final int THREADS_PER_SEGMENT = 64;
+    private static final int CACHE_LINE_LONGS = 8;
+
+    private final int stride;
+    private volatile AtomicLongArray[] segments;
+
+    /**
+     * @param slotsPerThread the number of slots of every thread, all initialized to zero
+     */
+    ThreadSlotArray(int slotsPerThread) {
+        this.stride = ((slotsPerThread + CACHE_LINE_LONGS - 1) / CACHE_LINE_LONGS) * CACHE_LINE_LONGS;
+        this.segments = new AtomicLongArray[] {newSegment()};
+    }
+
+    private AtomicLongArray newSegment() {
+        // the first stride is left unused, to pad the slots of the first thread of the segment
+        return new AtomicLongArray((THREADS_PER_SEGMENT + 1) * stride);
+    }
+
+    /**
+     * @return the segment holding the slots of the given thread, the array is grown if needed
+     */
+    AtomicLongArray segment(int threadIndex) {
+        int s = threadIndex / THREADS_PER_SEGMENT;
+        AtomicLongArray[] current = segments;
+        return (s < current.length) ? current[s] : grow(s);
+    }
+
+    private synchronized AtomicLongArray grow(int s) {
+        AtomicLongArray[] current = segments;
+        if (s >= current.length) {
+            AtomicLongArray[] grown = Arrays.copyOf(current, s + 1);
+            for (int i = current.length; i < grown.length; i++) {
+                grown[i] = newSegment();
+            }
+            segments = grown;
+            current = grown;
+        }
+        return current[s];
+    }
+
+    /**
+     * @return the index of the first slot of the given thread in its segment
+     */
+    int base(int threadIndex) {
+        return (threadIndex % THREADS_PER_SEGMENT + 1) * stride;
+    }
+
+    // the number of threads that currently have slots, the slots of the higher thread indices are zero
+    int capacity() {
+        return segments.length * THREADS_PER_SEGMENT;
+    }
+
+    long get(int threadIndex, int slot) {
+        return segment(threadIndex).get(base(threadIndex) + slot);
+    }
+
+    void set(int threadIndex, int slot, long value) {
+        segment(threadIndex).set(base(threadIndex) + slot, value);
+    }
+}
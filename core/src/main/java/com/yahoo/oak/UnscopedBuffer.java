@@ -7,6 +7,7 @@
 package com.yahoo.oak;
 
 import java.nio.ByteBuffer;
+import java.util.ConcurrentModificationException;
 
 /**
  * This is a generic class for key/value un-scoped buffers.
@@ -19,6 +20,12 @@ import java.nio.ByteBuffer;
  * <p>
  * It should only be used without other concurrent writes in the background to this buffer.
  * <p>
+ * The buffer is read after the operation that created it ended, when the block of its memory may be returned to the
+ * blocks provider (once all of its off-heap cuts were released). Hence, every access resolves the address again
+ * between enterRead() and exitRead() of the allocator (see start() and end()), and throws
+ * ConcurrentModificationException if the block was already returned. The address exposed by OakUnsafeDirectBuffer is
+ * not protected this way, as it is accessed without Oak.
+ * <p>
  * A child class that require synchronization, needs to override the following methods
  *  - public <T> T transform(OakTransformer<T> transformer)
  *  - protected <R> R safeAccessToScopedBuffer(Getter<R> getter, int index)
@@ -93,7 +100,12 @@ class UnscopedBuffer<B extends ScopedReadBuffer> implements OakUnscopedBuffer, O
         if (transformer == null) {
             throw new NullPointerException();
         }
-        return transformer.apply(internalScopedReadBuffer);
+        start();
+        try {
+            return transformer.apply(internalScopedReadBuffer);
+        } finally {
+            end();
+        }
     }
 
     @FunctionalInterface
@@ -109,7 +121,28 @@ class UnscopedBuffer<B extends ScopedReadBuffer> implements OakUnscopedBuffer, O
      */
     protected <R> R safeAccessToScopedBuffer(Getter<R> getter, int index) {
         // Internal call. No input validation.
-        return getter.get(internalScopedReadBuffer, index);
+        start();
+        try {
+            return getter.get(internalScopedReadBuffer, index);
+        } finally {
+            end();
+        }
+    }
+
+    // Starts an access, which must be ended by end(). Meanwhile, the block of the memory is not returned to the
+    // blocks provider, see BlockMemoryAllocator.enterRead().
+    private void start() {
+        BlockMemoryAllocator allocator = internalScopedReadBuffer.s.getAllocator();
+        allocator.enterRead();
+        // the address is resolved again, as the block may have been returned since the previous access
+        if (!allocator.readMemoryAddress(internalScopedReadBuffer.s)) {
+            allocator.exitRead();
+            throw new ConcurrentModificationException();
+        }
+    }
+
+    private void end() {
+        internalScopedReadBuffer.s.getAllocator().exitRead();
     }
 
     /*-------------- OakUnsafeDirectBuffer --------------*/
@@ -15,11 +15,14 @@ import java.util.ConcurrentModificationException;
  *  - EntryIterator (for values)
  * <p>
  * It extends the non-synchronized version, and overrides the transform() and safeAccessToScopedBuffer() methods to
- * perform synchronization before any access to the data.
+ * perform synchronization around any access to the data. The reads are optimistic: a read is validated after the
+ * access, and retried if a concurrent update overlapped it. The user's transformer may fail or not terminate on
+ * inconsistent data, so it is applied once, to a validated copy of the value.
  */
 class UnscopedValueBufferSynced extends UnscopedBuffer<ValueBuffer> {
 
     private static final int MAX_RETRIES = 1024;
+    private static final long NOT_VALIDATED = -1;
 
     final KeyBuffer key;
 
@@ -28,58 +31,156 @@ class UnscopedValueBufferSynced extends UnscopedBuffer<ValueBuffer> {
      */
     private final InternalOakBasics<?, ?> internalOakBasics;
 
+    // The coalescings of the allocator when the value reference was last validated, see
+    // BlockMemoryAllocator.coalescings(). If they changed, the reference is looked up again before it is accessed.
+    private long coalescings = NOT_VALIDATED;
+
     UnscopedValueBufferSynced(KeyBuffer key, ValueBuffer value, InternalOakBasics<?, ?> internalOakBasics) {
         super(new ValueBuffer(value));
         this.key = new KeyBuffer(key);
         this.internalOakBasics = internalOakBasics;
     }
 
+    // Validates the value reference, so it is not looked up again upon the first access.
+    // Must be called between enterRead() and exitRead() of the allocator, as the value was read.
+    void validate() {
+        coalescings = internalOakBasics.config.memoryAllocator.coalescings();
+        // The header of the value is checked after the coalescings are read. If the value was already released,
+        // its memory is not reused yet, so the header reflects it.
+        if (internalScopedReadBuffer.s.isDeleted() != ValueUtils.ValueResult.FALSE) {
+            coalescings = NOT_VALIDATED;
+        }
+    }
+
     @Override
     public <T> T transform(OakTransformer<T> transformer) {
         if (transformer == null) {
             throw new NullPointerException();
         }
-
-        start();
+        // the copy is kept in the context of the calling thread, see ValueUtils.transform()
+        ThreadContext ctx = internalOakBasics.getThreadContext();
         try {
-            return transformer.apply(internalScopedReadBuffer);
+            for (int i = 0; i < ValueUtils.MAX_OPTIMISTIC_RETRIES; i++) {
+                start(true);
+                boolean consistent;
+                try {
+                    ctx.valueCopy.copyFrom(internalScopedReadBuffer);
+                } finally {
+                    consistent = end(true);
+                }
+                if (consistent) {
+                    return transformer.apply(ctx.valueCopy);
+                }
+            }
+            while (true) {
+                start(false);
+                boolean consistent;
+                try {
+                    ctx.valueCopy.copyFrom(internalScopedReadBuffer);
+                } finally {
+                    consistent = end(false);
+                }
+                if (consistent) {
+                    return transformer.apply(ctx.valueCopy);
+                }
+            }
         } finally {
-            end();
+            internalOakBasics.releaseThreadContext(ctx);
         }
     }
 
+    // The read is optimistic (see Slice.preOptimisticRead()), so it does not write to the value's header, and it
+    // is retried (with the getter applied again) if it overlapped a concurrent update of the value. A getter whose
+    // reads keep overlapping updates is applied under the read lock.
     @Override
     protected <R> R safeAccessToScopedBuffer(Getter<R> getter, int index) {
         // Internal call. No input validation.
 
-        start();
-        try {
-            return getter.get(internalScopedReadBuffer, index);
-        } finally {
-            end();
+        for (int i = 0; i < ValueUtils.MAX_OPTIMISTIC_RETRIES; i++) {
+            start(true);
+            R ret;
+            try {
+                ret = getter.get(internalScopedReadBuffer, index);
+            } catch (RuntimeException e) {
+                // the getter may fail due to a concurrent update, in which case the read is retried
+                if (end(true)) {
+                    throw e;
+                }
+                continue;
+            }
+            if (end(true)) {
+                return ret;
+            }
+        }
+
+        while (true) {
+            start(false);
+            R ret;
+            try {
+                ret = getter.get(internalScopedReadBuffer, index);
+            } catch (RuntimeException e) {
+                if (end(false)) {
+                    throw e;
+                }
+                continue;
+            }
+            if (end(false)) {
+                return ret;
+            }
         }
     }
 
-    private void start() {
-        // Use a "for" loop to ensure maximal retries.
-        for (int i = 0; i < MAX_RETRIES; i++) {
-            ValueUtils.ValueResult res = internalScopedReadBuffer.s.preRead();
-            switch (res) {
-                case TRUE:
-                    return;
-                case FALSE:
-                    throw new ConcurrentModificationException();
-                case RETRY:
+    // Starts an access, which is ended by end() with the same optimistic flag. Meanwhile, the off-heap memory of the
+    // value is not returned to the blocks provider, see BlockMemoryAllocator.enterRead().
+    // An optimistic access does not take the read lock, and it is validated by end().
+    private void start(boolean optimistic) {
+        BlockMemoryAllocator allocator = internalOakBasics.config.memoryAllocator;
+        allocator.enterRead();
+        try {
+            // Use a "for" loop to ensure maximal retries.
+            for (int i = 0; i < MAX_RETRIES; i++) {
+                long currentCoalescings = allocator.coalescings();
+                if (currentCoalescings != coalescings) {
+                    // the header of the value may be in the middle of a later allocation, so it is not trusted
                     refreshValueReference();
-                    break;
+                    coalescings = currentCoalescings;
+                }
+                // the address is resolved again, as the memory may have been returned since the previous access
+                if (!allocator.readMemoryAddress(internalScopedReadBuffer.s)) {
+                    throw new ConcurrentModificationException();
+                }
+                ValueUtils.ValueResult res = optimistic
+                        ? internalScopedReadBuffer.s.preOptimisticRead()
+                        : internalScopedReadBuffer.s.preRead();
+                switch (res) {
+                    case TRUE:
+                        return;
+                    case FALSE:
+                        throw new ConcurrentModificationException();
+                    case RETRY:
+                        refreshValueReference();
+                        break;
+                }
             }
-        }
 
-        throw new RuntimeException("Op failed: reached retry limit (1024).");
+            throw new RuntimeException("Op failed: reached retry limit (1024).");
+        } catch (RuntimeException e) {
+            allocator.exitRead();
+            throw e;
+        }
     }
 
-    private void end() {
-        internalScopedReadBuffer.s.postRead();
+    // Returns true if the data read since start() is consistent, which is always the case for an access under the
+    // read lock (a memory manager without a read lock, see NovaMemoryManager, validates the read instead)
+    private boolean end(boolean optimistic) {
+        try {
+            if (optimistic) {
+                return internalScopedReadBuffer.s.postOptimisticRead();
+            }
+            return internalScopedReadBuffer.s.postRead() == ValueUtils.ValueResult.TRUE;
+        } finally {
+            internalOakBasics.config.memoryAllocator.exitRead();
+        }
     }
 
     /**
@@ -14,6 +14,9 @@ class ValueUtils {
         TRUE, FALSE, RETRY
     }
 
+    // the optimistic reads of a value that are retried before the value is read under the read lock
+    static final int MAX_OPTIMISTIC_RETRIES = 16;
+
     /* ==================== Methods for operating on existing off-heap values ==================== */
 
     /**
@@ -21,24 +24,46 @@ class ValueUtils {
      *
      * @param result      The result object
      * @param value       the value's off-heap Slice object
+     * @param copy        the buffer of the calling thread to copy the value to, see ThreadContext
      * @param transformer value deserializer
      * @param <T>         the type of {@code transformer}'s output
      * @return {@code TRUE} if the value was read successfully
      * {@code FALSE} if the value is deleted
      * {@code RETRY} if the value was moved, or the version of the off-heap value does not match {@code version}.
      * In case of {@code TRUE}, the read value is stored in the returned Result, otherwise, the value is {@code null}.
+     * The value is copied optimistically (see Slice.preOptimisticRead()), so the read does not write to the header
+     * of the value, and the copy is retried if a concurrent update overlapped it. The transformer is user code,
+     * which may fail or not terminate on inconsistent data, so it is applied once, to the validated copy.
+     * If the copies keep overlapping updates, the value is copied under the read lock.
+     * Like any read of an operation, it is inside the enterRead() and exitRead() of the memory allocator.
      */
-    <T> Result transform(Result result, ValueBuffer value, OakTransformer<T> transformer) {
-        ValueResult ret = value.s.preRead();
-        if (ret != ValueResult.TRUE) {
-            return result.withFlag(ret);
+    <T> Result transform(Result result, ValueBuffer value, ScratchReadBuffer copy, OakTransformer<T> transformer) {
+        for (int i = 0; i < MAX_OPTIMISTIC_RETRIES; i++) {
+            ValueResult ret = value.s.preOptimisticRead();
+            if (ret != ValueResult.TRUE) {
+                return result.withFlag(ret);
+            }
+            copy.copyFrom(value);
+            if (value.s.postOptimisticRead()) {
+                return result.withValue(transformer.apply(copy));
+            }
         }
 
-        try {
-            T transformation = transformer.apply(value);
-            return result.withValue(transformation);
-        } finally {
-            value.s.postRead();
+        while (true) {
+            ValueResult ret = value.s.preRead();
+            if (ret != ValueResult.TRUE) {
+                return result.withFlag(ret);
+            }
+            boolean consistent;
+            try {
+                copy.copyFrom(value);
+            } finally {
+                // a read that does not lock the value (see NovaMemoryManager) is validated when it ends
+                consistent = value.s.postRead() == ValueResult.TRUE;
+            }
+            if (consistent) {
+                return result.withValue(transformer.apply(copy));
+            }
         }
     }
 
@@ -68,7 +93,7 @@ class ValueUtils {
         if (capacity > ctx.value.getLength()) {
             return moveValue(chunk, ctx, newVal);
         }
-        ScopedWriteBuffer.serialize(ctx.value.s, newVal, serializer);
+        ScopedWriteBuffer.serialize(ctx.valueWriteBuffer, ctx.value.s, newVal, serializer);
         return ValueResult.TRUE;
     }
 
@@ -91,6 +116,33 @@ class ValueUtils {
         return ValueResult.TRUE;
     }
 
+    /**
+     * Moves a value as is to a newly allocated off-heap cut, so the memory of its current off-heap cut can be
+     * reclaimed. Used by the off-heap compaction (see {@code Compactor}).
+     * Unlike a move upon put, the old off-heap cut is released. Threads that still hold the old reference find it
+     * either marked as moved, or (once it is reused) with a different version, and look the value up again.
+     *
+     * @param chunk the chunk of the entry (inside ctx) that points to the value
+     * @param ctx   the context holding the entry and its value
+     * @return {@code TRUE} if the value was moved, {@code FALSE} if the value is deleted,
+     * {@code RETRY} if the value was moved by another thread, or the entry cannot be updated (e.g., rebalance)
+     */
+    <V> ValueResult relocate(BasicChunk<?, V> chunk, ThreadContext ctx) {
+        ValueResult result = ctx.value.s.preWrite();
+        if (result != ValueResult.TRUE) {
+            return result;
+        }
+        if (!chunk.relocateExistingValue(ctx)) {
+            ctx.value.s.postWrite();
+            return ValueResult.RETRY;
+        }
+        ctx.value.s.markAsMoved();
+        ctx.value.s.release();
+        ctx.value.copyFrom(ctx.newValue);
+        ctx.value.s.postWrite();
+        return ValueResult.TRUE;
+    }
+
     /**
      * @param value    the value's off-heap Slice object
      * @param computer the function to apply on the Slice
@@ -99,13 +151,24 @@ class ValueUtils {
      * {@code RETRY} if the value was moved.
      */
     ValueResult compute(ValueBuffer value, Consumer<OakScopedWriteBuffer> computer) {
+        return compute(value, new ScopedWriteBuffer(value.s.duplicate()), computer);
+    }
+
+    /**
+     * Same as {@code compute(value, computer)}, but the function is applied via the given write buffer.
+     *
+     * @param value       the value's off-heap Slice object
+     * @param writeBuffer the recycled write buffer of the calling thread, see ThreadContext
+     * @param computer    the function to apply on the Slice
+     */
+    ValueResult compute(ValueBuffer value, ScopedWriteBuffer writeBuffer, Consumer<OakScopedWriteBuffer> computer) {
         ValueResult result = value.s.preWrite();
         if (result != ValueResult.TRUE) {
             return result;
         }
 
         try {
-            ScopedWriteBuffer.compute(value.s, computer);
+            ScopedWriteBuffer.compute(writeBuffer, value.s, computer);
         } finally {
             value.s.postWrite();
         }
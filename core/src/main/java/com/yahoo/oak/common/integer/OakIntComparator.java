@@ -24,4 +24,15 @@ public class OakIntComparator implements OakComparator<Integer> {
     public int compareKeyAndSerializedKey(Integer key, OakScopedReadBuffer serializedKey) {
         return Integer.compare(key, serializedKey.getInt(0));
     }
+
+    @Override
+    public boolean hasKeyPrefix() {
+        return true;
+    }
+
+    // the key itself, so the serialized keys are compared only upon equality
+    @Override
+    public long keyPrefix(Integer key) {
+        return key;
+    }
 }
@@ -11,6 +11,8 @@ import com.yahoo.oak.OakScopedReadBuffer;
 
 public class OakStringComparator implements OakComparator<String> {
 
+    private static final int PREFIX_CHARS = Long.BYTES / Character.BYTES;
+
     @Override
     public int compareKeys(String key1, String key2) {
         return key1.compareTo(key2);
@@ -55,4 +57,20 @@ public class OakStringComparator implements OakComparator<String> {
 
         return size1 - size2;
     }
+
+    @Override
+    public boolean hasKeyPrefix() {
+        return true;
+    }
+
+    // The first chars of the key (padded with zeros), with the sign bit flipped so the signed comparison of the
+    // prefixes agrees with the unsigned comparison of the chars
+    @Override
+    public long keyPrefix(String key) {
+        long prefix = 0;
+        for (int i = 0; i < PREFIX_CHARS; i++) {
+            prefix = (prefix << Character.SIZE) | (i < key.length() ? key.charAt(i) : 0);
+        }
+        return prefix ^ Long.MIN_VALUE;
+    }
 }
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2020, Verizon Media.
+ * Licensed under the terms of the Apache 2.0 license.
+ * Please see LICENSE file in the project root for terms.
+ */
+
+package com.yahoo.oak;
+
+import com.yahoo.oak.common.OakCommonBuildersFactory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+@RunWith(Parameterized.class)
+public class ArenaMapTest {
+    private static final int NUM_OF_ENTRIES = 100_000;
+
+    private final Function<OakMapBuilder<Integer, Integer>, ConcurrentZCMap<Integer, Integer>> build;
+    private ConcurrentZCMap<Integer, Integer> oak;
+
+    public ArenaMapTest(Function<OakMapBuilder<Integer, Integer>, ConcurrentZCMap<Integer, Integer>> build) {
+        this.build = build;
+    }
+
+    @Parameterized.Parameters
+    public static Collection<Object[]> parameters() {
+        Function<OakMapBuilder<Integer, Integer>, ConcurrentZCMap<Integer, Integer>> ordered =
+                OakMapBuilder::buildOrderedMap;
+        Function<OakMapBuilder<Integer, Integer>, ConcurrentZCMap<Integer, Integer>> hash =
+                OakMapBuilder::buildHashMap;
+        return Arrays.asList(new Object[][] {
+            {ordered},
+            {hash}
+        });
+    }
+
+    @After
+    public void tearDown() {
+        if (oak != null) {
+            oak.close();
+        }
+        BlocksPool.clear();
+    }
+
+    private static OakMapBuilder<Integer, Integer> builder() {
+        return OakCommonBuildersFactory.getDefaultIntBuilder()
+                .setChunkMaxItems(1024)
+                .setArena(true);
+    }
+
+    private static MemoryManager valuesMemoryManager(ConcurrentZCMap<Integer, Integer> map) {
+        return (map instanceof OakMap) ? ((OakMap<Integer, Integer>) map).getValuesMemoryManager()
+                : ((OakHashMap<Integer, Integer>) map).getValuesMemoryManager();
+    }
+
+    private static NativeMemoryAllocator allocator(ConcurrentZCMap<Integer, Integer> map) {
+        return (NativeMemoryAllocator) valuesMemoryManager(map).getBlockMemoryAllocator();
+    }
+
+    private void fillAndScan(int from, int to, int delta) {
+        for (int i = from; i < to; i++) {
+            oak.zc().put(i, i + delta);
+        }
+        Assert.assertEquals(to - from, oak.size());
+        int count = 0;
+        for (Map.Entry<Integer, Integer> e : oak.entrySet()) {
+            Assert.assertEquals(Integer.valueOf(e.getKey() + delta), e.getValue());
+            count++;
+        }
+        Assert.assertEquals(to - from, count);
+    }
+
+    @Test
+    public void resetReusesTheBlocks() {
+        oak = build.apply(builder());
+        Assert.assertEquals(0, valuesMemoryManager(oak).getHeaderSize());
+
+        fillAndScan(0, NUM_OF_ENTRIES, 1);
+        int blocks = allocator(oak).numOfAllocatedBlocks();
+        long memorySize = oak.memorySize();
+        Assert.assertTrue(memorySize > 0);
+
+        for (int round = 0; round < 3; round++) {
+            oak.clear();
+            Assert.assertEquals(0, oak.size());
+            Assert.assertNull(oak.get(0));
+            Assert.assertTrue(oak.memorySize() < memorySize);
+
+            // the next query takes the same memory, without any new block
+            fillAndScan(NUM_OF_ENTRIES, 2 * NUM_OF_ENTRIES, round);
+            Assert.assertNull(oak.get(0));
+            Assert.assertEquals(blocks, allocator(oak).numOfAllocatedBlocks());
+        }
+    }
+
+    @Test
+    public void updatesInPlace() {
+        oak = build.apply(builder());
+        fillAndScan(0, NUM_OF_ENTRIES, 0);
+        for (int i = 0; i < NUM_OF_ENTRIES; i++) {
+            oak.zc().computeIfPresent(i, buffer -> buffer.putInt(0, buffer.getInt(0) + 1));
+        }
+        for (int i = 0; i < NUM_OF_ENTRIES; i++) {
+            Assert.assertEquals(Integer.valueOf(i + 1), oak.get(i));
+        }
+    }
+
+    @Test
+    public void removalsAreNotSupported() {
+        oak = build.apply(builder());
+        oak.zc().put(0, 0);
+        try {
+            oak.zc().remove(0);
+            Assert.fail("An entry was removed from an arena map");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        try {
+            oak.remove(0);
+            Assert.fail("An entry was removed from an arena map");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        Assert.assertEquals(Integer.valueOf(0), oak.get(0));
+    }
+
+    @Test
+    public void subMapCannotBeCleared() {
+        oak = build.apply(builder());
+        if (!(oak instanceof OakMap)) {
+            return;
+        }
+        oak.zc().put(0, 0);
+        try (OakMap<Integer, Integer> sub = ((OakMap<Integer, Integer>) oak).tailMap(0, true)) {
+            sub.clear();
+            Assert.fail("A sub map of an arena map was cleared");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        Assert.assertEquals(Integer.valueOf(0), oak.get(0));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void compactionIsNotSupported() {
+        oak = build.apply(builder().setCompaction(1000, 0.5, 0));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void backgroundRebalanceIsNotSupported() {
+        oak = builder().setBackgroundRebalance(1, 0).buildOrderedMap();
+    }
+
+    @Test(timeout = 120000)
+    public void concurrentInserts() throws InterruptedException {
+        final int numOfThreads = 4;
+        final int keysPerThread = NUM_OF_ENTRIES / numOfThreads;
+        oak = build.apply(builder());
+        for (int round = 0; round < 3; round++) {
+            final int delta = round;
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < numOfThreads; t++) {
+                final int first = t * keysPerThread;
+                threads.add(new Thread(() -> {
+                    for (int i = first; i < first + keysPerThread; i++) {
+                        oak.zc().put(i, i + delta);
+                    }
+                }));
+            }
+            for (Thread t : threads) {
+                t.start();
+            }
+            for (Thread t : threads) {
+                t.join();
+            }
+            for (int i = 0; i < NUM_OF_ENTRIES; i++) {
+                Assert.assertEquals(Integer.valueOf(i + delta), oak.get(i));
+            }
+            oak.clear();
+        }
+    }
+}
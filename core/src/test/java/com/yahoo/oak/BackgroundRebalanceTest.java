@@ -0,0 +1,184 @@
+/*
+ * Copyright 2020, Verizon Media.
+ * Licensed under the terms of the Apache 2.0 license.
+ * Please see LICENSE file in the project root for terms.
+ */
+
+package com.yahoo.oak;
+
+import com.yahoo.oak.common.OakCommonBuildersFactory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class BackgroundRebalanceTest {
+    private static final int NUM_OF_ENTRIES = 50_000;
+    private static final int NUM_OF_THREADS = 4;
+
+    private OakMap<Integer, Integer> oak;
+
+    @After
+    public void tearDown() {
+        if (oak != null) {
+            oak.close();
+        }
+        BlocksPool.clear();
+    }
+
+    private static InternalOakMap<Integer, Integer> internalOakMap(OakMap<Integer, Integer> map)
+            throws ReflectiveOperationException {
+        Field field = OakMap.class.getDeclaredField("internalOakMap");
+        field.setAccessible(true);
+        return (InternalOakMap<Integer, Integer>) field.get(map);
+    }
+
+    private static boolean isRebalancerThreadAlive() {
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            if (t.getName().startsWith("oak-rebalancer") && t.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void concurrentPutsAndRemoves() throws Exception {
+        oak = OakCommonBuildersFactory.getDefaultIntBuilder()
+                .setChunkMaxItems(256)
+                .setBackgroundRebalance(2, 0)
+                .buildOrderedMap();
+        BackgroundRebalancer<Integer, Integer> rebalancer = internalOakMap(oak).getBackgroundRebalancer();
+        Assert.assertNotNull(rebalancer);
+        List<Integer> keys = new ArrayList<>();
+        for (int i = 0; i < NUM_OF_ENTRIES; i++) {
+            keys.add(i);
+        }
+        Collections.shuffle(keys, new Random(0));
+
+        // every thread puts its own keys, and then removes most of them, so the chunks are split and compacted
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < NUM_OF_THREADS; t++) {
+            final int id = t;
+            threads.add(new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                for (int i = id; i < NUM_OF_ENTRIES; i += NUM_OF_THREADS) {
+                    oak.zc().put(keys.get(i), keys.get(i));
+                }
+                for (int i = id; i < NUM_OF_ENTRIES; i += NUM_OF_THREADS) {
+                    if (keys.get(i) % 10 != 0) {
+                        oak.zc().remove(keys.get(i));
+                    }
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        start.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        Assert.assertTrue(rebalancer.getFlagged() > 0);
+        Assert.assertTrue(internalOakMap(oak).chunkIndex.size() > 1);
+        for (int i = 0; i < NUM_OF_ENTRIES; i++) {
+            Assert.assertEquals((i % 10 == 0) ? Integer.valueOf(i) : null, oak.get(i));
+        }
+        int expected = 0;
+        for (Integer key : oak.keySet()) {
+            Assert.assertEquals(Integer.valueOf(expected), key);
+            expected += 10;
+        }
+        Assert.assertEquals(NUM_OF_ENTRIES, expected);
+    }
+
+    @Test
+    public void flaggedChunksAreRebalanced() throws Exception {
+        // a slow background thread, so some chunks are filled up and rebalanced inline
+        oak = OakCommonBuildersFactory.getDefaultIntBuilder()
+                .setChunkMaxItems(256)
+                .setBackgroundRebalance(1, 1000)
+                .buildOrderedMap();
+        BackgroundRebalancer<Integer, Integer> rebalancer = internalOakMap(oak).getBackgroundRebalancer();
+        Random random = new Random(0);
+        for (int i = 0; i < NUM_OF_ENTRIES; i++) {
+            oak.zc().put(random.nextInt(NUM_OF_ENTRIES), i);
+        }
+
+        // the queued chunks are rebalanced once the writes stop
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (rebalancer.getRebalances() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertTrue(rebalancer.getRebalances() > 0);
+        Assert.assertTrue(isRebalancerThreadAlive());
+
+        oak.close();
+        oak = null;
+        Assert.assertFalse(isRebalancerThreadAlive());
+    }
+
+    @Test
+    public void failedChunksAreRebalancedInline() throws Exception {
+        oak = OakCommonBuildersFactory.getDefaultIntBuilder()
+                .setChunkMaxItems(256)
+                .setBackgroundRebalance(1, 0)
+                .buildOrderedMap();
+        InternalOakMap<Integer, Integer> map = internalOakMap(oak);
+        BackgroundRebalancer<Integer, Integer> rebalancer = map.getBackgroundRebalancer();
+
+        // the chunk index fails the background threads, after they froze their chunks
+        ChunkIndex<Integer, Integer> index = map.chunkIndex;
+        Object failingIndex = Proxy.newProxyInstance(ChunkIndex.class.getClassLoader(),
+                new Class<?>[] {ChunkIndex.class}, (proxy, method, args) -> {
+                    if (Thread.currentThread().getName().startsWith("oak-rebalancer")) {
+                        throw new IllegalStateException("A failed rebalance");
+                    }
+                    try {
+                        return method.invoke(index, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+        Field field = InternalOakMap.class.getDeclaredField("chunkIndex");
+        field.setAccessible(true);
+        field.set(map, failingIndex);
+
+        AtomicLong reported = new AtomicLong(0);
+        Thread.UncaughtExceptionHandler defaultHandler = Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler((t, e) -> reported.incrementAndGet());
+        try {
+            for (int i = 0; i < NUM_OF_ENTRIES; i++) {
+                oak.zc().put(i, i);
+            }
+        } finally {
+            // no background rebalance fails after the handler is restored
+            rebalancer.close();
+            Thread.setDefaultUncaughtExceptionHandler(defaultHandler);
+        }
+
+        Assert.assertTrue(rebalancer.getFailures() > 0);
+        Assert.assertEquals(rebalancer.getFailures(), oak.failedBackgroundRebalances());
+        Assert.assertEquals(rebalancer.getFailures(), reported.get());
+        Assert.assertEquals(0, rebalancer.getRebalances());
+        // the writers split the chunks themselves
+        Assert.assertTrue(map.chunkIndex.size() > 1);
+        for (int i = 0; i < NUM_OF_ENTRIES; i++) {
+            Assert.assertEquals(Integer.valueOf(i), oak.get(i));
+        }
+        Assert.assertEquals(NUM_OF_ENTRIES, oak.size());
+    }
+}
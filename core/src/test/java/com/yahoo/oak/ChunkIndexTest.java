@@ -0,0 +1,169 @@
+/*
+ * Copyright 2020, Verizon Media.
+ * Licensed under the terms of the Apache 2.0 license.
+ * Please see LICENSE file in the project root for terms.
+ */
+
+package com.yahoo.oak;
+
+import com.yahoo.oak.common.OakCommonBuildersFactory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+
+@RunWith(Parameterized.class)
+public class ChunkIndexTest {
+    private static final int NUM_OF_ENTRIES = 50_000;
+    private static final int NUM_OF_THREADS = 4;
+
+    private final boolean sortedArrayChunkIndex;
+    private OakMap<Integer, Integer> oak;
+    private OakMap<String, String> stringOak;
+
+    public ChunkIndexTest(boolean sortedArrayChunkIndex) {
+        this.sortedArrayChunkIndex = sortedArrayChunkIndex;
+    }
+
+    @Parameterized.Parameters
+    public static Collection<Object[]> parameters() {
+        return Arrays.asList(new Object[][] {
+            {false},
+            {true}
+        });
+    }
+
+    @After
+    public void tearDown() {
+        if (oak != null) {
+            oak.close();
+        }
+        if (stringOak != null) {
+            stringOak.close();
+        }
+        BlocksPool.clear();
+    }
+
+    private static <K, V> InternalOakMap<K, V> internalOakMap(OakMap<K, V> map) throws ReflectiveOperationException {
+        Field field = OakMap.class.getDeclaredField("internalOakMap");
+        field.setAccessible(true);
+        return (InternalOakMap<K, V>) field.get(map);
+    }
+
+    // once the map is quiescent, the index holds exactly the chunks of the list, in order
+    private static <K, V> void assertIndexMatchesChunksList(OakMap<K, V> map) throws ReflectiveOperationException {
+        ChunkIndex<K, V> index = internalOakMap(map).chunkIndex;
+        Assert.assertTrue(index.size() > 1);
+        OrderedChunk<K, V> prev = null;
+        OrderedChunk<K, V> curr = index.first();
+        int count = 0;
+        while (curr != null) {
+            Assert.assertSame(prev, index.lower(curr));
+            prev = curr;
+            curr = curr.next.getReference();
+            count++;
+        }
+        Assert.assertSame(prev, index.last());
+        Assert.assertEquals(index.size(), count);
+    }
+
+    @Test
+    public void concurrentSplitsAndMerges() throws Exception {
+        oak = OakCommonBuildersFactory.getDefaultIntBuilder()
+                .setChunkMaxItems(256)
+                .setSortedArrayChunkIndex(sortedArrayChunkIndex)
+                .buildOrderedMap();
+        List<Integer> keys = new ArrayList<>();
+        for (int i = 0; i < NUM_OF_ENTRIES; i++) {
+            keys.add(i);
+        }
+        Collections.shuffle(keys, new Random(0));
+
+        // every thread puts its own keys, and then removes most of them, so the chunks are split and merged
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < NUM_OF_THREADS; t++) {
+            final int id = t;
+            threads.add(new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                for (int i = id; i < NUM_OF_ENTRIES; i += NUM_OF_THREADS) {
+                    oak.zc().put(keys.get(i), keys.get(i));
+                }
+                for (int i = id; i < NUM_OF_ENTRIES; i += NUM_OF_THREADS) {
+                    if (keys.get(i) % 10 != 0) {
+                        oak.zc().remove(keys.get(i));
+                    }
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        start.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        for (int i = 0; i < NUM_OF_ENTRIES; i++) {
+            Assert.assertEquals((i % 10 == 0) ? Integer.valueOf(i) : null, oak.get(i));
+        }
+        Assert.assertEquals(Integer.valueOf(0), oak.firstKey());
+        Assert.assertNull(oak.lowerKey(0));
+        Assert.assertEquals(Integer.valueOf(1000), oak.lowerKey(1001));
+
+        // the descending iteration moves to the previous chunk through the index
+        int expected = NUM_OF_ENTRIES - 10;
+        try (OakMap<Integer, Integer> descending = oak.descendingMap()) {
+            for (Integer key : descending.keySet()) {
+                Assert.assertEquals(Integer.valueOf(expected), key);
+                expected -= 10;
+            }
+        }
+        Assert.assertEquals(-10, expected);
+        assertIndexMatchesChunksList(oak);
+    }
+
+    @Test
+    public void stringKeys() throws Exception {
+        // the string comparator has key prefixes, which tie for keys with a common beginning
+        stringOak = OakCommonBuildersFactory.getDefaultStringBuilder()
+                .setChunkMaxItems(256)
+                .setSortedArrayChunkIndex(sortedArrayChunkIndex)
+                .buildOrderedMap();
+        TreeMap<String, String> expected = new TreeMap<>();
+        Random random = new Random(0);
+        for (int i = 0; i < NUM_OF_ENTRIES; i++) {
+            String key = "key" + random.nextInt(NUM_OF_ENTRIES);
+            stringOak.zc().put(key, key);
+            expected.put(key, key);
+        }
+        for (String key : expected.keySet()) {
+            Assert.assertEquals(key, stringOak.get(key));
+            Assert.assertNull(stringOak.get(key + "x"));
+        }
+        Assert.assertEquals(expected.lowerKey("key5"), stringOak.lowerKey("key5"));
+
+        try (OakMap<String, String> tail = stringOak.tailMap("key5", true)) {
+            Iterator<String> iter = tail.keySet().iterator();
+            for (String key : expected.tailMap("key5", true).keySet()) {
+                Assert.assertEquals(key, iter.next());
+            }
+            Assert.assertFalse(iter.hasNext());
+        }
+        assertIndexMatchesChunksList(stringOak);
+    }
+}
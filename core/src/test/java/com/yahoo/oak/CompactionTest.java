@@ -0,0 +1,177 @@
+/*
+ * Copyright 2020, Verizon Media.
+ * Licensed under the terms of the Apache 2.0 license.
+ * Please see LICENSE file in the project root for terms.
+ */
+
+package com.yahoo.oak;
+
+import com.yahoo.oak.common.OakCommonBuildersFactory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+public class CompactionTest {
+    private static final int VALUE_INTS = 4096; // 16KB values
+    private static final int NUM_OF_ENTRIES = 20000; // about two and a half blocks of values
+    private static final int KEPT_EVERY = 10;
+
+    private ConcurrentZCMap<ByteBuffer, ByteBuffer> oak;
+
+    @After
+    public void tearDown() {
+        oak.close();
+        BlocksPool.clear();
+    }
+
+    private static OakMapBuilder<ByteBuffer, ByteBuffer> builder() {
+        return OakCommonBuildersFactory.getDefaultIntBufferBuilder(1, VALUE_INTS)
+                .setCompaction(0, Compactor.DEFAULT_MAX_LIVE_RATIO, 0);
+    }
+
+    private static ByteBuffer key(int i) {
+        ByteBuffer key = ByteBuffer.allocate(Integer.BYTES);
+        key.putInt(0, i);
+        return key;
+    }
+
+    private static ByteBuffer value(int i) {
+        ByteBuffer value = ByteBuffer.allocate(VALUE_INTS * Integer.BYTES);
+        for (int j = 0; j < VALUE_INTS; j++) {
+            value.putInt(j * Integer.BYTES, i + j);
+        }
+        return value;
+    }
+
+    // fills the map, and then removes most of the entries, so the first blocks are left sparse
+    private void fillSparse() {
+        for (int i = 0; i < NUM_OF_ENTRIES; i++) {
+            oak.zc().put(key(i), value(i));
+        }
+        for (int i = 0; i < NUM_OF_ENTRIES; i++) {
+            if (i % KEPT_EVERY != 0) {
+                oak.zc().remove(key(i));
+            }
+        }
+    }
+
+    private void checkValues() {
+        Assert.assertEquals(NUM_OF_ENTRIES / KEPT_EVERY, oak.size());
+        for (int i = 0; i < NUM_OF_ENTRIES; i += KEPT_EVERY) {
+            OakUnscopedBuffer value = oak.zc().get(key(i));
+            Assert.assertNotNull(value);
+            for (int j = 0; j < VALUE_INTS; j += 512) {
+                Assert.assertEquals(i + j, value.getInt(j * Integer.BYTES));
+            }
+        }
+    }
+
+    private static NativeMemoryAllocator allocator(MemoryManager memoryManager) {
+        return (NativeMemoryAllocator) memoryManager.getBlockMemoryAllocator();
+    }
+
+    private void compactSparseBlocks(MemoryManager valuesMemoryManager, LongSupplier compact,
+            LongSupplier reclaimedMemorySize) {
+        NativeMemoryAllocator allocator = allocator(valuesMemoryManager);
+        int blocks = allocator.numOfAllocatedBlocks();
+        Assert.assertEquals(0, reclaimedMemorySize.getAsLong());
+
+        Assert.assertTrue(compact.getAsLong() > 0);
+        checkValues();
+        // the sparse blocks held only values (the keys are in other blocks), so they were emptied and returned
+        Assert.assertTrue(allocator.numOfAllocatedBlocks() < blocks);
+        Assert.assertTrue(reclaimedMemorySize.getAsLong() >= (long) (blocks - allocator.numOfAllocatedBlocks())
+                * allocator.blockSize());
+        Assert.assertEquals(0, compact.getAsLong());
+    }
+
+    @Test
+    public void compactOrderedMap() {
+        OakMap<ByteBuffer, ByteBuffer> map = builder().buildOrderedMap();
+        oak = map;
+        fillSparse();
+        compactSparseBlocks(map.getValuesMemoryManager(), map::compact, map::reclaimedMemorySize);
+    }
+
+    @Test
+    public void compactHashMap() {
+        OakHashMap<ByteBuffer, ByteBuffer> map = builder().buildHashMap();
+        oak = map;
+        fillSparse();
+        compactSparseBlocks(map.getValuesMemoryManager(), map::compact, map::reclaimedMemorySize);
+    }
+
+    @Test
+    public void keysAreAllocatedFromOtherBlocks() {
+        OakMap<ByteBuffer, ByteBuffer> map = builder().buildOrderedMap();
+        oak = map;
+        NativeMemoryAllocator keysAllocator = allocator(map.getKeysMemoryManager());
+        NativeMemoryAllocator valuesAllocator = allocator(map.getValuesMemoryManager());
+        Assert.assertNotSame(keysAllocator, valuesAllocator);
+        Assert.assertEquals(1, keysAllocator.numOfAllocatedBlocks());
+        Assert.assertEquals(1, valuesAllocator.numOfAllocatedBlocks());
+
+        // the blocks of the keys count against the capacity of the map as well
+        Assert.assertFalse(map.setMemoryCapacity(valuesAllocator.blockSize()));
+        Assert.assertTrue(keysAllocator.isOverCapacity());
+        Assert.assertTrue(map.setMemoryCapacity(2L * valuesAllocator.blockSize()));
+    }
+
+    @Test
+    public void valuesAreUpdatedAfterCompaction() {
+        OakMap<ByteBuffer, ByteBuffer> map = builder().buildOrderedMap();
+        oak = map;
+        fillSparse();
+        OakUnscopedBuffer before = map.zc().get(key(0));
+        Assert.assertTrue(map.compact() > 0);
+
+        // an unscoped buffer that was taken before the relocation still reads the value
+        Assert.assertEquals(0, before.getInt(0));
+        map.zc().put(key(0), value(1));
+        Assert.assertEquals(1, before.getInt(0));
+        Assert.assertEquals(1, map.zc().get(key(0)).getInt(0));
+    }
+
+    @Test
+    public void failedBackgroundPassesAreCounted() throws Exception {
+        OakMap<ByteBuffer, ByteBuffer> map = builder().buildOrderedMap();
+        oak = map;
+        Field mapField = OakMap.class.getDeclaredField("internalOakMap");
+        mapField.setAccessible(true);
+        InternalOakBasics<?, ?> internalOakMap = (InternalOakBasics<?, ?>) mapField.get(map);
+        List<Throwable> reported = Collections.synchronizedList(new ArrayList<>());
+        Thread.UncaughtExceptionHandler defaultHandler = Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler((t, e) -> reported.add(e));
+        try {
+            // background passes that fail every time, replacing the on-demand compaction of the map
+            Compactor failing = new Compactor(internalOakMap, 1, Compactor.DEFAULT_MAX_LIVE_RATIO, 0) {
+                @Override
+                synchronized long compact() {
+                    throw new IllegalStateException("A failed pass");
+                }
+            };
+            Field compactorField = InternalOakBasics.class.getDeclaredField("compactor");
+            compactorField.setAccessible(true);
+            compactorField.set(internalOakMap, failing);
+
+            // the passes go on after a failure
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (reported.size() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            failing.close();
+        } finally {
+            Thread.setDefaultUncaughtExceptionHandler(defaultHandler);
+        }
+        Assert.assertTrue(reported.size() >= 2);
+        Assert.assertTrue(reported.get(0) instanceof IllegalStateException);
+        Assert.assertEquals(reported.size(), map.failedCompactions());
+    }
+}
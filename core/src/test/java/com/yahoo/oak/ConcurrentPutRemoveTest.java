@@ -30,6 +30,7 @@ import java.util.function.Supplier;
 @RunWith(Parameterized.class)
 public class ConcurrentPutRemoveTest {
     private static final int NUM_THREADS = 1;
+    private static final int THREAD_ID_MODULO = 64;
     private static final long TIME_LIMIT_IN_SECONDS = 10;
 
     private static final long DURATION = 1000;
@@ -97,7 +98,7 @@ public class ConcurrentPutRemoveTest {
 
             Random r = new Random();
 
-            int id = (int) Thread.currentThread().getId() % ThreadIndexCalculator.MAX_THREADS;
+            int id = (int) Thread.currentThread().getId() % THREAD_ID_MODULO;
 
             int[] puts = new int[NUM_OF_ENTRIES];
             int[] removes = new int[NUM_OF_ENTRIES];
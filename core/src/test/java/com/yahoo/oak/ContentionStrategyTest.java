@@ -0,0 +1,167 @@
+/*
+ * Copyright 2020, Verizon Media.
+ * Licensed under the terms of the Apache 2.0 license.
+ * Please see LICENSE file in the project root for terms.
+ */
+
+package com.yahoo.oak;
+
+import com.yahoo.oak.common.OakCommonBuildersFactory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ContentionStrategyTest {
+    private static final int VALUE_SIZE = 16;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private SyncRecycleMemoryManager memoryManager;
+    private OakMap<Integer, Integer> oak;
+
+    @After
+    public void tearDown() throws InterruptedException {
+        executor.shutdownNow();
+        // the memory must not be freed while a thread still waits for its lock
+        executor.awaitTermination(1, TimeUnit.SECONDS);
+        if (memoryManager != null) {
+            memoryManager.close();
+        }
+        if (oak != null) {
+            oak.close();
+        }
+        BlocksPool.clear();
+    }
+
+    // records the largest attempt of the given thread (or of any thread, if null) it waited for
+    private static class RecordingStrategy implements ContentionStrategy {
+        final AtomicInteger maxAttempt = new AtomicInteger(-1);
+        volatile Thread recorded = null;
+
+        @Override
+        public void await(int attempt) {
+            Thread t = recorded;
+            if (t == null || t == Thread.currentThread()) {
+                maxAttempt.accumulateAndGet(attempt, Math::max);
+            }
+            Thread.yield();
+        }
+    }
+
+    private SyncRecycleMemoryManager.SliceSyncRecycle allocate(ContentionStrategy strategy) {
+        memoryManager = new SyncRecycleMemoryManager(new NativeMemoryAllocator(1 << 20),
+                SyncRecycleMemoryManager.VARIABLE_DATA_LENGTH, strategy);
+        SyncRecycleMemoryManager.SliceSyncRecycle s = memoryManager.getEmptySlice();
+        s.allocate(VALUE_SIZE, false);
+        return s;
+    }
+
+    private static void assertBlocked(Future<?> f) throws Exception {
+        try {
+            f.get(200, TimeUnit.MILLISECONDS);
+            Assert.fail("The lock was acquired while it is held");
+        } catch (TimeoutException e) {
+            // expected
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void uncontendedAcquisitionsAreNotCounted() {
+        SyncRecycleMemoryManager.SliceSyncRecycle s = allocate(ContentionStrategy.adaptive());
+        Assert.assertEquals(ValueUtils.ValueResult.TRUE, s.preRead());
+        Assert.assertEquals(ValueUtils.ValueResult.TRUE, s.postRead());
+        Assert.assertEquals(ValueUtils.ValueResult.TRUE, s.preWrite());
+        Assert.assertEquals(ValueUtils.ValueResult.TRUE, s.postWrite());
+        Assert.assertEquals(ValueUtils.ValueResult.TRUE, s.preOptimisticRead());
+        Assert.assertTrue(s.postOptimisticRead());
+        Assert.assertEquals(0, memoryManager.getContendedLockAcquisitions());
+    }
+
+    @Test(timeout = 10000)
+    public void readerWaitsForWriter() throws Exception {
+        RecordingStrategy strategy = new RecordingStrategy();
+        SyncRecycleMemoryManager.SliceSyncRecycle s = allocate(strategy);
+        Assert.assertEquals(ValueUtils.ValueResult.TRUE, s.preWrite());
+
+        Future<ValueUtils.ValueResult> read = executor.submit(() -> {
+            SyncRecycleMemoryManager.SliceSyncRecycle reader = s.duplicate();
+            ValueUtils.ValueResult result = reader.preRead();
+            reader.postRead();
+            return result;
+        });
+        assertBlocked(read);
+        s.postWrite();
+        Assert.assertEquals(ValueUtils.ValueResult.TRUE, read.get());
+        Assert.assertEquals(1, memoryManager.getContendedLockAcquisitions());
+        Assert.assertTrue(strategy.maxAttempt.get() > 0);
+    }
+
+    @Test(timeout = 10000)
+    public void newReadersDeferToWaitingWriter() throws Exception {
+        RecordingStrategy strategy = new RecordingStrategy();
+        SyncRecycleMemoryManager.SliceSyncRecycle s = allocate(strategy);
+        Assert.assertEquals(ValueUtils.ValueResult.TRUE, s.preRead());
+
+        Future<ValueUtils.ValueResult> write = executor.submit(() -> {
+            SyncRecycleMemoryManager.SliceSyncRecycle writer = s.duplicate();
+            ValueUtils.ValueResult result = writer.preWrite();
+            writer.postWrite();
+            return result;
+        });
+        assertBlocked(write);
+
+        // a new reader waits for the writer, but only for a bounded number of attempts, as the writer may wait for
+        // a read lock of the reader's own thread (here, the read lock taken above)
+        SyncRecycleMemoryManager.SliceSyncRecycle reader = s.duplicate();
+        strategy.recorded = Thread.currentThread();
+        strategy.maxAttempt.set(-1);
+        Assert.assertEquals(ValueUtils.ValueResult.TRUE, reader.preRead());
+        Assert.assertEquals(SyncRecycleMMHeader.READER_DEFER_ATTEMPTS - 1, strategy.maxAttempt.get());
+        reader.postRead();
+        assertBlocked(write);
+
+        // the writer gets the lock once the readers are gone
+        s.postRead();
+        Assert.assertEquals(ValueUtils.ValueResult.TRUE, write.get());
+    }
+
+    @Test(timeout = 10000)
+    public void adaptiveStrategyParksForBoundedTimes() {
+        ContentionStrategy strategy = new AdaptiveContentionStrategy(2, 2, TimeUnit.MILLISECONDS.toNanos(1));
+        long start = System.nanoTime();
+        for (int attempt = 0; attempt < 100; attempt++) {
+            strategy.await(attempt);
+        }
+        // 96 parks of at most a millisecond each (with a large slack for the scheduler)
+        Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    }
+
+    @Test(timeout = 60000)
+    public void hotKeyIncrements() throws Exception {
+        final int numOfThreads = 4;
+        final int increments = 10_000;
+        oak = OakCommonBuildersFactory.getDefaultIntBuilder().buildOrderedMap();
+        oak.zc().put(0, 0);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < numOfThreads; t++) {
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < increments; i++) {
+                    oak.zc().computeIfPresent(0, buffer -> buffer.putInt(0, buffer.getInt(0) + 1));
+                    Assert.assertNotNull(oak.get(0));
+                }
+            }));
+        }
+        for (Future<?> f : futures) {
+            f.get();
+        }
+        Assert.assertEquals(Integer.valueOf(numOfThreads * increments), oak.get(0));
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2020, Verizon Media.
+ * Licensed under the terms of the Apache 2.0 license.
+ * Please see LICENSE file in the project root for terms.
+ */
+
+package com.yahoo.oak;
+
+import com.yahoo.oak.common.OakCommonBuildersFactory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class DirectEntryArraysTest {
+    private static final int NUM_OF_ENTRIES = 50_000;
+    private static final int BLOCK_SIZE = 1024 * 1024;
+
+    private DirectEntryArrays arrays;
+    private BlocksPool pool;
+    private ConcurrentZCMap<Integer, Integer> oak;
+
+    @After
+    public void tearDown() {
+        if (arrays != null) {
+            arrays.close();
+        }
+        if (pool != null) {
+            pool.close();
+        }
+        if (oak != null) {
+            oak.close();
+        }
+        BlocksPool.clear();
+    }
+
+    private void newArrays() {
+        pool = new BlocksPool.Builder().setBlockSize(BLOCK_SIZE).build();
+        arrays = new DirectEntryArrays(BLOCK_SIZE * 4L, pool);
+    }
+
+    @Test
+    public void arraysAreZeroed() {
+        newArrays();
+        EntryArrayDirect array = arrays.allocate(100, 3);
+        Assert.assertEquals(100, array.entryCount());
+        Assert.assertEquals(3, array.fieldCount());
+        for (int i = 0; i < 100; i++) {
+            for (int f = 0; f < 3; f++) {
+                Assert.assertEquals(0, array.getEntryFieldLong(i, f));
+                array.setEntryFieldLong(i, f, -1);
+            }
+        }
+        Assert.assertTrue(array.casEntryFieldLong(99, 2, -1, 7));
+        Assert.assertEquals(7, array.getEntryFieldLong(99, 2));
+        array.clear();
+        Assert.assertEquals(0, array.getEntryFieldLong(99, 2));
+    }
+
+    @Test
+    public void retiredArraysAreFreed() throws InterruptedException {
+        pool = new BlocksPool.Builder().setBlockSize(BLOCK_SIZE).build();
+        NativeMemoryAllocator mapAllocator = new NativeMemoryAllocator(BLOCK_SIZE * 4L, pool);
+        arrays = new DirectEntryArrays(mapAllocator, pool);
+        try {
+            int arraySize = 1000 * 4 * Long.BYTES;
+            List<EntryArrayDirect> live = new ArrayList<>();
+            live.add(arrays.allocate(1000, 4));
+            arrays.allocate(1000, 4); // dropped, but never retired
+            // a reader of the map that may still access the arrays retired while it is inside
+            mapAllocator.enterRead();
+            for (int i = 0; i < 10; i++) {
+                arrays.retire(arrays.allocate(1000, 4));
+            }
+            Assert.assertEquals(12 * arraySize, arrays.allocated());
+            for (int i = 0; i < 10; i++) {
+                System.gc();
+                Thread.sleep(10);
+                arrays.freeRetired();
+            }
+            Assert.assertEquals(12, arrays.numOfArrays());
+
+            mapAllocator.exitRead();
+            for (int i = 0; i < 100 && arrays.numOfArrays() > 2; i++) {
+                System.gc();
+                Thread.sleep(10);
+                arrays.freeRetired();
+            }
+            Assert.assertEquals(2, arrays.numOfArrays());
+            Assert.assertEquals(2 * arraySize, arrays.allocated());
+
+            // the freed memory is reused, and zeroed again
+            live.add(arrays.allocate(1000, 4));
+            Assert.assertEquals(0, live.get(1).getEntryFieldLong(999, 3));
+            Assert.assertEquals(3 * arraySize, arrays.allocated());
+        } finally {
+            mapAllocator.close();
+        }
+    }
+
+    @Test
+    public void arraysCountAgainstMapCapacity() {
+        pool = new BlocksPool.Builder().setBlockSize(BLOCK_SIZE).build();
+        NativeMemoryAllocator mapAllocator = new NativeMemoryAllocator(BLOCK_SIZE * 2L, pool);
+        arrays = new DirectEntryArrays(mapAllocator, pool);
+        try {
+            Slice s = new SyncRecycleMemoryManager(mapAllocator).getEmptySlice();
+            s.allocate(BLOCK_SIZE / 2, false);
+            // a block for the arrays and a block for the keys and values fill the capacity
+            arrays.allocate(BLOCK_SIZE / Long.BYTES / 2, 1);
+            try {
+                arrays.allocate(BLOCK_SIZE / Long.BYTES / 2 + 1, 1);
+                Assert.fail("The arrays exceeded the capacity of the map");
+            } catch (OakOutOfMemoryException expected) {
+                // the third block is not taken
+            }
+            arrays.setCapacity(BLOCK_SIZE * 3L);
+            mapAllocator.setCapacity(BLOCK_SIZE * 3L);
+            arrays.allocate(BLOCK_SIZE / Long.BYTES / 2 + 1, 1);
+            Assert.assertFalse(arrays.isOverCapacity());
+            Assert.assertFalse(mapAllocator.isOverCapacity());
+        } finally {
+            mapAllocator.close();
+        }
+    }
+
+    @Test
+    public void arraysAreIncludedInMemorySize() {
+        ConcurrentZCMap<Integer, Integer> heapArrays = OakCommonBuildersFactory.getDefaultIntBuilder()
+                .setChunkMaxItems(256)
+                .buildOrderedMap();
+        try {
+            oak = OakCommonBuildersFactory.getDefaultIntBuilder()
+                    .setChunkMaxItems(256)
+                    .setDirectEntryArrays(true)
+                    .buildOrderedMap();
+            for (int i = 0; i < NUM_OF_ENTRIES; i++) {
+                oak.zc().put(i, i);
+                heapArrays.zc().put(i, i);
+            }
+            Assert.assertTrue(oak.memorySize() > heapArrays.memorySize());
+        } finally {
+            heapArrays.close();
+        }
+    }
+
+    private void putGetRemove() {
+        for (int i = 0; i < NUM_OF_ENTRIES; i++) {
+            oak.zc().put(i, i);
+        }
+        for (int i = 0; i < NUM_OF_ENTRIES; i += 2) {
+            oak.zc().remove(i);
+        }
+        for (int i = 0; i < NUM_OF_ENTRIES; i++) {
+            Assert.assertEquals((i % 2 == 0) ? null : Integer.valueOf(i), oak.get(i));
+        }
+        int count = 0;
+        for (Map.Entry<Integer, Integer> e : oak.entrySet()) {
+            Assert.assertEquals(e.getKey(), e.getValue());
+            count++;
+        }
+        Assert.assertEquals(NUM_OF_ENTRIES / 2, count);
+    }
+
+    @Test
+    public void orderedMap() {
+        // small chunks, so the chunks are split and rebalanced many times
+        oak = OakCommonBuildersFactory.getDefaultIntBuilder()
+                .setChunkMaxItems(256)
+                .setDirectEntryArrays(true)
+                .buildOrderedMap();
+        putGetRemove();
+    }
+
+    @Test
+    public void hashMap() {
+        oak = OakCommonBuildersFactory.getDefaultIntBuilder()
+                .setChunkMaxItems(256)
+                .setPreallocHashChunksNum(256)
+                .setDirectEntryArrays(true)
+                .buildHashMap();
+        putGetRemove();
+        oak.clear();
+        Assert.assertEquals(0, oak.size());
+        putGetRemove();
+    }
+}
@@ -218,7 +218,8 @@ public class EntryHashSetTest {
         Assert.assertEquals(ctx.newValue.getSlice().getReference(), config.valuesMemoryManager.getInvalidReference());
         Assert.assertTrue(ctx.isValueValid());
 
-        Result result = config.valueOperator.transform(new Result(), ctx.value, config.valueSerializer::deserialize);
+        Result result = config.valueOperator.transform(new Result(), ctx.value, ctx.valueCopy,
+                config.valueSerializer::deserialize);
         Assert.assertEquals(ValueUtils.ValueResult.TRUE, result.operationResult);
         Assert.assertEquals(50, ((Integer) result.value).intValue());
 
@@ -231,7 +232,8 @@ public class EntryHashSetTest {
         Assert.assertEquals(ctx.newValue.getSlice().getReference(), config.valuesMemoryManager.getInvalidReference());
         Assert.assertTrue(ctx.isValueValid());
 
-        result = config.valueOperator.transform(new Result(), ctx.value, config.valueSerializer::deserialize);
+        result = config.valueOperator.transform(new Result(), ctx.value, ctx.valueCopy,
+                config.valueSerializer::deserialize);
         Assert.assertEquals(ValueUtils.ValueResult.TRUE, result.operationResult);
         Assert.assertEquals(150, ((Integer) result.value).intValue());
 
@@ -244,7 +246,8 @@ public class EntryHashSetTest {
         Assert.assertEquals(ctx.newValue.getSlice().getReference(), config.valuesMemoryManager.getInvalidReference());
         Assert.assertTrue(ctx.isValueValid());
 
-        result = config.valueOperator.transform(new Result(), ctx.value, config.valueSerializer::deserialize);
+        result = config.valueOperator.transform(new Result(), ctx.value, ctx.valueCopy,
+                config.valueSerializer::deserialize);
         Assert.assertEquals(ValueUtils.ValueResult.TRUE, result.operationResult);
         Assert.assertEquals(250, ((Integer) result.value).intValue());
 
@@ -277,7 +280,8 @@ public class EntryHashSetTest {
         Assert.assertEquals(ctx.newValue.getSlice().getReference(), config.valuesMemoryManager.getInvalidReference());
         Assert.assertTrue(ctx.isValueValid());
 
-        result = config.valueOperator.transform(new Result(), ctx.value, config.valueSerializer::deserialize);
+        result = config.valueOperator.transform(new Result(), ctx.value, ctx.valueCopy,
+                config.valueSerializer::deserialize);
         Assert.assertEquals(ValueUtils.ValueResult.TRUE, result.operationResult);
         Assert.assertEquals(350, ((Integer) result.value).intValue());
     }
@@ -298,7 +302,8 @@ public class EntryHashSetTest {
         Assert.assertEquals(ctx.newValue.getSlice().getReference(), config.valuesMemoryManager.getInvalidReference());
         Assert.assertTrue(ctx.isValueValid());
 
-        Result result = config.valueOperator.transform(new Result(), ctx.value, config.valueSerializer::deserialize);
+        Result result = config.valueOperator.transform(new Result(), ctx.value, ctx.valueCopy,
+                config.valueSerializer::deserialize);
         Assert.assertEquals(ValueUtils.ValueResult.TRUE, result.operationResult);
         Assert.assertEquals(50, ((Integer) result.value).intValue());
 
@@ -361,7 +366,8 @@ public class EntryHashSetTest {
         Assert.assertEquals(ctx.newValue.getSlice().getReference(), config.valuesMemoryManager.getInvalidReference());
         Assert.assertTrue(ctx.isValueValid());
 
-        result = config.valueOperator.transform(new Result(), ctx.value, config.valueSerializer::deserialize);
+        result = config.valueOperator.transform(new Result(), ctx.value, ctx.valueCopy,
+                config.valueSerializer::deserialize);
         Assert.assertEquals(ValueUtils.ValueResult.TRUE, result.operationResult);
         Assert.assertEquals(50, ((Integer) result.value).intValue());
 
@@ -421,7 +427,8 @@ public class EntryHashSetTest {
         Assert.assertEquals(ctx.newValue.getSlice().getReference(), config.valuesMemoryManager.getInvalidReference());
         Assert.assertTrue(ctx.isValueValid());
 
-        result = config.valueOperator.transform(new Result(), ctx.value, config.valueSerializer::deserialize);
+        result = config.valueOperator.transform(new Result(), ctx.value, ctx.valueCopy,
+                config.valueSerializer::deserialize);
         Assert.assertEquals(ValueUtils.ValueResult.TRUE, result.operationResult);
         Assert.assertEquals(50, ((Integer) result.value).intValue());
 
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2020, Verizon Media.
+ * Licensed under the terms of the Apache 2.0 license.
+ * Please see LICENSE file in the project root for terms.
+ */
+
+package com.yahoo.oak;
+
+import com.yahoo.oak.common.OakCommonBuildersFactory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class EpochMemoryManagerTest {
+    private static final int VALUE_SIZE = 16;
+
+    private NativeMemoryAllocator allocator;
+    private EpochMemoryManager memoryManager;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        allocator = new NativeMemoryAllocator(1 << 20);
+        memoryManager = new EpochMemoryManager(allocator);
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        memoryManager.clear(true);
+        BlocksPool.clear();
+    }
+
+    private EpochMemoryManager.SliceEpoch allocate() {
+        EpochMemoryManager.SliceEpoch s = memoryManager.getEmptySlice();
+        s.allocate(VALUE_SIZE, false);
+        return s;
+    }
+
+    @Test(timeout = 10000)
+    public void writerWaitsForAnnouncedRead() throws Exception {
+        EpochMemoryManager.SliceEpoch s = allocate();
+        EpochMemoryManager.SliceEpoch reader = s.duplicate();
+        Assert.assertEquals(ValueUtils.ValueResult.TRUE, reader.preRead());
+
+        Future<ValueUtils.ValueResult> write = executor.submit(() -> {
+            EpochMemoryManager.SliceEpoch writer = s.duplicate();
+            ValueUtils.ValueResult result = writer.preWrite();
+            writer.postWrite();
+            return result;
+        });
+        try {
+            write.get(200, TimeUnit.MILLISECONDS);
+            Assert.fail("The write did not wait for the announced read");
+        } catch (TimeoutException expected) {
+            // the writer waits
+        }
+        reader.postRead();
+        Assert.assertEquals(ValueUtils.ValueResult.TRUE, write.get());
+    }
+
+    @Test(timeout = 10000)
+    public void nestedReadsFallBackToReadLock() throws Exception {
+        EpochMemoryManager.SliceEpoch s = allocate();
+        List<EpochMemoryManager.SliceEpoch> readers = new ArrayList<>();
+        for (int i = 0; i < EpochMemoryManager.MAX_ANNOUNCED_READS * 2; i++) {
+            EpochMemoryManager.SliceEpoch reader = s.duplicate();
+            Assert.assertEquals(ValueUtils.ValueResult.TRUE, reader.preRead());
+            readers.add(reader);
+        }
+        for (EpochMemoryManager.SliceEpoch reader : readers) {
+            Assert.assertEquals(ValueUtils.ValueResult.TRUE, reader.postRead());
+        }
+        // neither announcements nor read locks are left
+        Future<ValueUtils.ValueResult> write = executor.submit(() -> s.duplicate().preWrite());
+        Assert.assertEquals(ValueUtils.ValueResult.TRUE, write.get());
+    }
+
+    @Test
+    public void deletedValueIsNotRead() {
+        EpochMemoryManager.SliceEpoch s = allocate();
+        Assert.assertEquals(ValueUtils.ValueResult.TRUE, s.logicalDelete());
+        Assert.assertEquals(ValueUtils.ValueResult.FALSE, s.duplicate().preRead());
+    }
+
+    @Test(timeout = 10000)
+    public void retiredMemoryIsFreedAfterReads() throws Exception {
+        EpochMemoryManager.SliceEpoch s = allocate();
+        long allocated = memoryManager.allocated();
+
+        // another thread is in an older epoch, while the value is deleted and released
+        EpochMemoryManager.SliceEpoch reader = s.duplicate();
+        Assert.assertEquals(ValueUtils.ValueResult.TRUE, executor.submit(reader::preRead).get());
+        Assert.assertEquals(ValueUtils.ValueResult.TRUE, s.logicalDelete());
+        s.release();
+        memoryManager.flushReleaseList();
+        Assert.assertEquals(allocated, memoryManager.allocated());
+
+        Assert.assertEquals(ValueUtils.ValueResult.TRUE, executor.submit(reader::postRead).get());
+        memoryManager.flushReleaseList();
+        Assert.assertEquals(0, memoryManager.allocated());
+    }
+
+    @Test
+    public void epochMap() {
+        OakMap<Integer, Integer> oak = OakCommonBuildersFactory.getDefaultIntBuilder()
+                .setValuesMemoryManager(MemoryManagerType.EPOCH_RECLAMATION)
+                .buildOrderedMap();
+        try {
+            int numOfEntries = EpochMemoryManager.RELEASE_LIST_LIMIT * 4;
+            for (int i = 0; i < numOfEntries; i++) {
+                oak.zc().put(i, i);
+            }
+            for (int i = 0; i < numOfEntries; i += 2) {
+                oak.zc().remove(i);
+            }
+            for (int i = 0; i < numOfEntries; i++) {
+                Assert.assertEquals((i % 2 == 0) ? null : Integer.valueOf(i), oak.get(i));
+                oak.zc().put(i, -i);
+                Assert.assertEquals(Integer.valueOf(-i), oak.get(i));
+            }
+        } finally {
+            oak.close();
+        }
+    }
+}
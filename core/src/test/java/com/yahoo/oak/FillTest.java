@@ -27,6 +27,7 @@ import java.util.function.Supplier;
 public class FillTest {
 
     private static final int NUM_THREADS = 1;
+    private static final int THREAD_ID_MODULO = 64;
     private static final long TIME_LIMIT_IN_SECONDS = 60;
 
     private static final long K = 1024;
@@ -98,7 +99,7 @@ public class FillTest {
             latch.await();
             Random r = new Random();
 
-            int id = (int) Thread.currentThread().getId() % ThreadIndexCalculator.MAX_THREADS;
+            int id = (int) Thread.currentThread().getId() % THREAD_ID_MODULO;
             int amount = (int) Math.round(NUM_OF_ENTRIES * 0.5) / NUM_THREADS;
             int start = id * amount + (int) Math.round(NUM_OF_ENTRIES * 0.5);
             int end = (id + 1) * amount + (int) Math.round(NUM_OF_ENTRIES * 0.5);
@@ -135,7 +136,7 @@ public class FillTest {
     public void testMain() throws ExecutorUtils.ExecutionError {
 
         int id = (int) Thread.currentThread().getId();
-        id = id % ThreadIndexCalculator.MAX_THREADS;
+        id = id % THREAD_ID_MODULO;
 
         //executor.submitTasks(NUM_THREADS, i -> new RunThreads(latch));
 
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2020, Verizon Media.
+ * Licensed under the terms of the Apache 2.0 license.
+ * Please see LICENSE file in the project root for terms.
+ */
+
+package com.yahoo.oak;
+
+import com.yahoo.oak.common.OakCommonBuildersFactory;
+import com.yahoo.oak.common.integer.OakIntSerializer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.function.Function;
+
+@RunWith(Parameterized.class)
+public class FixedValueSizeTest {
+    private static final int VALUE_SIZE = 8; // e.g., a counter
+    private static final int NUM_OF_ENTRIES = 10_000;
+
+    private final Function<OakMapBuilder<Integer, Integer>, ConcurrentZCMap<Integer, Integer>> build;
+    private ConcurrentZCMap<Integer, Integer> variable;
+    private ConcurrentZCMap<Integer, Integer> fixed;
+
+    public FixedValueSizeTest(Function<OakMapBuilder<Integer, Integer>, ConcurrentZCMap<Integer, Integer>> build) {
+        this.build = build;
+    }
+
+    @Parameterized.Parameters
+    public static Collection<Object[]> parameters() {
+        Function<OakMapBuilder<Integer, Integer>, ConcurrentZCMap<Integer, Integer>> ordered =
+                OakMapBuilder::buildOrderedMap;
+        Function<OakMapBuilder<Integer, Integer>, ConcurrentZCMap<Integer, Integer>> hash =
+                OakMapBuilder::buildHashMap;
+        return Arrays.asList(new Object[][] {
+            {ordered},
+            {hash}
+        });
+    }
+
+    @After
+    public void tearDown() {
+        if (variable != null) {
+            variable.close();
+        }
+        if (fixed != null) {
+            fixed.close();
+        }
+        BlocksPool.clear();
+    }
+
+    private static OakMapBuilder<Integer, Integer> builder(int serializedValueSize) {
+        return OakCommonBuildersFactory.getDefaultIntBuilder()
+                .setChunkMaxItems(1024)
+                .setValueSerializer(new OakIntSerializer(serializedValueSize));
+    }
+
+    private static int valuesHeaderSize(ConcurrentZCMap<Integer, Integer> map) {
+        MemoryManager mm = (map instanceof OakMap) ? ((OakMap<Integer, Integer>) map).getValuesMemoryManager()
+                : ((OakHashMap<Integer, Integer>) map).getValuesMemoryManager();
+        return mm.getHeaderSize();
+    }
+
+    private static void fill(ConcurrentZCMap<Integer, Integer> map) {
+        for (int i = 0; i < NUM_OF_ENTRIES; i++) {
+            map.zc().put(i, i);
+        }
+    }
+
+    @Test
+    public void savesTheLengthOfEveryValue() {
+        variable = build.apply(builder(VALUE_SIZE));
+        fixed = build.apply(builder(VALUE_SIZE).setFixedValueSize(VALUE_SIZE));
+        Assert.assertEquals(SyncRecycleMMHeader.SIZE, valuesHeaderSize(variable));
+        Assert.assertEquals(SyncRecycleMMHeader.COMPACT_SIZE, valuesHeaderSize(fixed));
+
+        fill(variable);
+        fill(fixed);
+        double savedPerEntry = (double) (variable.memorySize() - fixed.memorySize()) / NUM_OF_ENTRIES;
+        Assert.assertEquals(SyncRecycleMMHeader.SIZE - SyncRecycleMMHeader.COMPACT_SIZE, savedPerEntry, 0.5);
+
+        for (int i = 0; i < NUM_OF_ENTRIES; i++) {
+            Assert.assertEquals(Integer.valueOf(i), fixed.get(i));
+        }
+    }
+
+    @Test
+    public void updatesAndRemovals() {
+        fixed = build.apply(builder(VALUE_SIZE).setFixedValueSize(VALUE_SIZE));
+        fill(fixed);
+        for (int i = 0; i < NUM_OF_ENTRIES; i++) {
+            Assert.assertEquals(Integer.valueOf(i), fixed.replace(i, -i));
+        }
+        for (int i = 0; i < NUM_OF_ENTRIES; i += 2) {
+            fixed.zc().remove(i);
+        }
+        for (int i = 0; i < NUM_OF_ENTRIES; i += 2) {
+            Assert.assertTrue(fixed.zc().putIfAbsent(i, i));
+        }
+        for (int i = 0; i < NUM_OF_ENTRIES; i++) {
+            Assert.assertEquals(Integer.valueOf((i % 2 == 0) ? i : -i), fixed.get(i));
+        }
+    }
+
+    @Test
+    public void smallerValuesTakeTheFixedSize() {
+        fixed = build.apply(builder(Integer.BYTES).setFixedValueSize(VALUE_SIZE));
+        fixed.zc().put(0, 0);
+        fixed.zc().put(1, 1);
+        Assert.assertEquals(Integer.valueOf(1), fixed.get(1));
+        fixed.zc().computeIfPresent(1, buffer -> buffer.putInt(0, buffer.getInt(0) + 1));
+        Assert.assertEquals(Integer.valueOf(2), fixed.get(1));
+        Assert.assertEquals(VALUE_SIZE, fixed.zc().get(1).capacity());
+    }
+
+    @Test
+    public void biggerValuesAreRejected() {
+        fixed = build.apply(builder(VALUE_SIZE).setFixedValueSize(Integer.BYTES));
+        try {
+            fixed.zc().put(0, 0);
+            Assert.fail("A value bigger than the fixed size was written");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        Assert.assertNull(fixed.get(0));
+        Assert.assertEquals(0, fixed.size());
+    }
+
+    @Test
+    public void epochReclamation() {
+        fixed = build.apply(builder(VALUE_SIZE).setFixedValueSize(VALUE_SIZE)
+                .setValuesMemoryManager(MemoryManagerType.EPOCH_RECLAMATION));
+        Assert.assertEquals(SyncRecycleMMHeader.COMPACT_SIZE, valuesHeaderSize(fixed));
+        fill(fixed);
+        for (int i = 0; i < NUM_OF_ENTRIES; i++) {
+            Assert.assertEquals(Integer.valueOf(i), fixed.get(i));
+        }
+    }
+}
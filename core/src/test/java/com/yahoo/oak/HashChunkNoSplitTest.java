@@ -140,7 +140,8 @@ public class HashChunkNoSplitTest {
         }
 
         // check the value
-        Result result = config.valueOperator.transform(new Result(), ctx.value, config.valueSerializer::deserialize);
+        Result result = config.valueOperator.transform(new Result(), ctx.value, ctx.valueCopy,
+                config.valueSerializer::deserialize);
         Assert.assertEquals(ValueUtils.ValueResult.TRUE, result.operationResult);
         Assert.assertEquals(key + 1, ((Integer) result.value).intValue());
     }
@@ -155,7 +156,8 @@ public class HashChunkNoSplitTest {
         Assert.assertEquals(ctx.newValue.getSlice().getReference(), config.valuesMemoryManager.getInvalidReference());
         Assert.assertTrue(ctx.isValueValid());
 
-        Result result = config.valueOperator.transform(new Result(), ctx.value, config.valueSerializer::deserialize);
+        Result result = config.valueOperator.transform(new Result(), ctx.value, ctx.valueCopy,
+                config.valueSerializer::deserialize);
         Assert.assertEquals(ValueUtils.ValueResult.TRUE, result.operationResult);
         Assert.assertEquals(key + 1, ((Integer) result.value).intValue());
 
@@ -234,7 +236,7 @@ public class HashChunkNoSplitTest {
             Assert.assertTrue(ctxInserter.isKeyValid());
             Assert.assertTrue(ctxInserter.isValueValid());
             Result result = config.valueOperator.transform(
-                new Result(), ctxInserter.value, config.valueSerializer::deserialize);
+                new Result(), ctxInserter.value, ctxInserter.valueCopy, config.valueSerializer::deserialize);
             Assert.assertEquals(ValueUtils.ValueResult.TRUE, result.operationResult);
             Assert.assertEquals(keySecond + 1, ((Integer) result.value).intValue());
 
@@ -242,7 +244,7 @@ public class HashChunkNoSplitTest {
             Assert.assertTrue(ctxInserter.isKeyValid());
             Assert.assertTrue(ctxInserter.isValueValid());
             result = config.valueOperator.transform(
-                new Result(), ctxInserter.value, config.valueSerializer::deserialize);
+                new Result(), ctxInserter.value, ctxInserter.valueCopy, config.valueSerializer::deserialize);
             Assert.assertEquals(ValueUtils.ValueResult.TRUE, result.operationResult);
             Assert.assertEquals(keyFirst + 1, ((Integer) result.value).intValue());
 
@@ -251,7 +253,7 @@ public class HashChunkNoSplitTest {
             Assert.assertTrue(ctxInserter.isKeyValid());
             Assert.assertTrue(ctxInserter.isValueValid());
             result = config.valueOperator.transform(
-                new Result(), ctxInserter.value, config.valueSerializer::deserialize);
+                new Result(), ctxInserter.value, ctxInserter.valueCopy, config.valueSerializer::deserialize);
             Assert.assertEquals(ValueUtils.ValueResult.TRUE, result.operationResult);
             Assert.assertEquals(keyThird + 1, ((Integer) result.value).intValue());
 
@@ -278,7 +280,7 @@ public class HashChunkNoSplitTest {
         Assert.assertTrue(ctx.isKeyValid());
         Assert.assertTrue(ctx.isValueValid());
         Result result = config.valueOperator.transform(
-            new Result(), ctx.value, config.valueSerializer::deserialize);
+            new Result(), ctx.value, ctx.valueCopy, config.valueSerializer::deserialize);
         Assert.assertEquals(ValueUtils.ValueResult.TRUE, result.operationResult);
         Assert.assertEquals(keyFirstNegative + 1, ((Integer) result.value).intValue());
 
@@ -287,7 +289,7 @@ public class HashChunkNoSplitTest {
         Assert.assertTrue(ctx.isKeyValid());
         Assert.assertTrue(ctx.isValueValid());
         result = config.valueOperator.transform(
-            new Result(), ctx.value, config.valueSerializer::deserialize);
+            new Result(), ctx.value, ctx.valueCopy, config.valueSerializer::deserialize);
         Assert.assertEquals(ValueUtils.ValueResult.TRUE, result.operationResult);
         Assert.assertEquals(keySecondNegative + 1, ((Integer) result.value).intValue());
 
@@ -345,7 +347,7 @@ public class HashChunkNoSplitTest {
                 Assert.assertTrue(ctxInserter.isKeyValid());
                 Assert.assertTrue(ctxInserter.isValueValid());
                 Result result = config.valueOperator.transform(
-                    new Result(), ctxInserter.value, config.valueSerializer::deserialize);
+                    new Result(), ctxInserter.value, ctxInserter.valueCopy, config.valueSerializer::deserialize);
                 Assert.assertEquals(ValueUtils.ValueResult.TRUE, result.operationResult);
                 Assert.assertEquals(key + 1, ((Integer) result.value).intValue());
             }
@@ -374,7 +376,7 @@ public class HashChunkNoSplitTest {
             Assert.assertTrue(ctx.isKeyValid());
             Assert.assertTrue(ctx.isValueValid());
             Result result = config.valueOperator.transform(
-                new Result(), ctx.value, config.valueSerializer::deserialize);
+                new Result(), ctx.value, ctx.valueCopy, config.valueSerializer::deserialize);
             Assert.assertEquals(ValueUtils.ValueResult.TRUE, result.operationResult);
             Assert.assertEquals(key + 1, ((Integer) result.value).intValue());
         }
@@ -17,6 +17,8 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized;
 
 import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -33,37 +35,55 @@ public class HeapUsageTest {
 
     private ConcurrentZCMap<Integer, Integer> oak;
     private Supplier<ConcurrentZCMap<Integer , Integer>> supplier;
+    private String entryArrays;
 
-    public HeapUsageTest(Supplier<ConcurrentZCMap<Integer , Integer>> supplier) {
+    public HeapUsageTest(Supplier<ConcurrentZCMap<Integer , Integer>> supplier, String entryArrays) {
         this.supplier = supplier;
+        this.entryArrays = entryArrays;
     }
 
     @Parameterized.Parameters
     public static Collection parameters() {
 
-        Supplier<ConcurrentZCMap<Integer , Integer>> s1 = () -> {
-            int maxItemsPerChunk = 2048;
-            OakMapBuilder<Integer, Integer> builder = OakCommonBuildersFactory.getDefaultIntBuilder()
-                .setChunkMaxItems(maxItemsPerChunk)
-                .setKeySerializer(new OakIntSerializer(keySize))
-                .setValueSerializer(new OakIntSerializer(valSize));
-
-            return builder.buildOrderedMap();
-        };
-        Supplier<ConcurrentZCMap<Integer , Integer>> s2 = () -> {
-            int maxItemsPerChunk = 512;
-            OakMapBuilder<Integer, Integer> builder = OakCommonBuildersFactory.getDefaultIntBuilder()
-                .setChunkMaxItems(maxItemsPerChunk)
-                .setKeySerializer(new OakIntSerializer(keySize))
-                .setValueSerializer(new OakIntSerializer(valSize));
-            return builder.buildHashMap();
-        };
+        Supplier<ConcurrentZCMap<Integer , Integer>> s1 = () -> orderedBuilder(false).buildOrderedMap();
+        Supplier<ConcurrentZCMap<Integer , Integer>> s2 = () -> hashBuilder(false).buildHashMap();
+        Supplier<ConcurrentZCMap<Integer , Integer>> s3 = () -> orderedBuilder(true).buildOrderedMap();
+        Supplier<ConcurrentZCMap<Integer , Integer>> s4 = () -> hashBuilder(true).buildHashMap();
         return Arrays.asList(new Object[][] {
-            { s1 },
-            { s2 }
+            { s1, "heap" },
+            { s2, "heap" },
+            { s3, "direct" },
+            { s4, "direct" }
         });
     }
 
+    private static OakMapBuilder<Integer, Integer> orderedBuilder(boolean directEntryArrays) {
+        int maxItemsPerChunk = 2048;
+        return OakCommonBuildersFactory.getDefaultIntBuilder()
+            .setChunkMaxItems(maxItemsPerChunk)
+            .setKeySerializer(new OakIntSerializer(keySize))
+            .setValueSerializer(new OakIntSerializer(valSize))
+            .setDirectEntryArrays(directEntryArrays);
+    }
+
+    private static OakMapBuilder<Integer, Integer> hashBuilder(boolean directEntryArrays) {
+        int maxItemsPerChunk = 512;
+        return OakCommonBuildersFactory.getDefaultIntBuilder()
+            .setChunkMaxItems(maxItemsPerChunk)
+            .setKeySerializer(new OakIntSerializer(keySize))
+            .setValueSerializer(new OakIntSerializer(valSize))
+            .setDirectEntryArrays(directEntryArrays);
+    }
+
+    // the accumulated collection time of all the garbage collectors
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return millis;
+    }
+
 
 
     @Before
@@ -81,9 +101,9 @@ public class HeapUsageTest {
     public void testMain() throws InterruptedException {
 
         if (oak instanceof OakHashMap) {
-            System.out.println("====== Results for OakHash ======");
+            System.out.println("====== Results for OakHash with " + entryArrays + " entry arrays ======");
         } else {
-            System.out.println("====== Results for OakMap ======");
+            System.out.println("====== Results for OakMap with " + entryArrays + " entry arrays ======");
         }
         // this number can be changed to test larger sizes however JVM memory limit need to be changed
         // otherwise this will hit "java.lang.OutOfMemoryError: Direct buffer memory" exception
@@ -98,6 +118,7 @@ public class HeapUsageTest {
         long heapSize = Runtime.getRuntime().totalMemory(); // Get current size of heap in bytes
         long heapMaxSize = Runtime.getRuntime().maxMemory(); // Get maximum size of heap in bytes
         long heapFreeSize = Runtime.getRuntime().freeMemory();
+        long gcMillis = gcMillis();
 
 //        System.err.println("\nBefore filling up oak"); //TODO: to remove after memory usage is tuned
 //        System.err.println(
@@ -144,6 +165,8 @@ public class HeapUsageTest {
             + oak.memorySize() / M + "MB");
         float percent = (100 * (heapSize - heapFreeSize)) / oak.memorySize();
         System.out.println("on/off heap used: " + String.format("%.0f%%", percent));
+        // includes the full collections requested above, whose pauses grow with the live heap
+        System.out.println("GC time: " + (gcMillis() - gcMillis) + "ms");
 
     }
 
@@ -14,6 +14,7 @@ import org.junit.Test;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
 public class InternalOakMapTest {
 
@@ -132,4 +133,52 @@ public class InternalOakMapTest {
 
         Assert.assertNotEquals(results[0], results[1]);
     }
+
+    @Test
+    public void threadContextIsRecycled() {
+        ThreadContext ctx = testMap.getThreadContext();
+        ctx.operationKeyHash = 1;
+        ctx.entryIndex = 1;
+
+        // a nested operation of the same thread must not share the context that is still held
+        ThreadContext nested = testMap.getThreadContext();
+        Assert.assertNotSame(ctx, nested);
+        testMap.releaseThreadContext(nested);
+        testMap.releaseThreadContext(ctx);
+
+        // once released, the same instance is reused and it does not remember the previous operation
+        ThreadContext reused = testMap.getThreadContext();
+        Assert.assertSame(ctx, reused);
+        Assert.assertEquals(EntryHashSet.INVALID_KEY_HASH, reused.operationKeyHash);
+        Assert.assertEquals(EntryArray.INVALID_ENTRY_INDEX, reused.entryIndex);
+        testMap.releaseThreadContext(reused);
+    }
+
+    @Test
+    public void threadContextsAreDroppedOnClose() throws InterruptedException {
+        ThreadContext[] contexts = new ThreadContext[2];
+        CountDownLatch used = new CountDownLatch(1);
+        CountDownLatch closed = new CountDownLatch(1);
+        Thread thread = new Thread(() -> {
+            contexts[0] = testMap.getThreadContext();
+            testMap.releaseThreadContext(contexts[0]);
+            used.countDown();
+            try {
+                closed.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            contexts[1] = testMap.getThreadContext();
+            testMap.releaseThreadContext(contexts[1]);
+        });
+        thread.start();
+        used.await();
+
+        // the thread is still alive, but it no longer keeps the context of the closed map
+        testMap.close();
+        closed.countDown();
+        thread.join();
+        Assert.assertNotNull(contexts[1]);
+        Assert.assertNotSame(contexts[0], contexts[1]);
+    }
 }
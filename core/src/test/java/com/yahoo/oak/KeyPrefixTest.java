@@ -0,0 +1,160 @@
+/*
+ * Copyright 2020, Verizon Media.
+ * Licensed under the terms of the Apache 2.0 license.
+ * Please see LICENSE file in the project root for terms.
+ */
+
+package com.yahoo.oak;
+
+import com.yahoo.oak.common.OakCommonBuildersFactory;
+import com.yahoo.oak.common.integer.OakIntComparator;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+public class KeyPrefixTest {
+    private static final int NUM_OF_ENTRIES = 20_000;
+
+    private OakMap<Integer, Integer> oak;
+    private OakMap<String, String> stringOak;
+
+    @After
+    public void tearDown() {
+        if (oak != null) {
+            oak.close();
+        }
+        if (stringOak != null) {
+            stringOak.close();
+        }
+        BlocksPool.clear();
+    }
+
+    // prefixes that are shared by 16 consecutive keys, so most of the searches end with a tie
+    private static class CoarsePrefixComparator extends OakIntComparator {
+        @Override
+        public long keyPrefix(Integer key) {
+            return key >> 4;
+        }
+    }
+
+    private static boolean hasKeyPrefixes(OakMap<?, ?> map) throws ReflectiveOperationException {
+        Field mapField = OakMap.class.getDeclaredField("internalOakMap");
+        mapField.setAccessible(true);
+        OrderedChunk<?, ?> chunk = ((InternalOakMap<?, ?>) mapField.get(map)).chunkIndex.first();
+        Field setField = OrderedChunk.class.getDeclaredField("entryOrderedSet");
+        setField.setAccessible(true);
+        return ((EntryOrderedSet<?, ?>) setField.get(chunk)).hasKeyPrefixes();
+    }
+
+    private static List<Integer> shuffledKeys() {
+        List<Integer> keys = new ArrayList<>();
+        for (int i = -NUM_OF_ENTRIES / 2; i < NUM_OF_ENTRIES / 2; i++) {
+            keys.add(i);
+        }
+        Collections.shuffle(keys, new Random(0));
+        return keys;
+    }
+
+    @Test
+    public void prefixTies() throws ReflectiveOperationException {
+        oak = OakCommonBuildersFactory.getDefaultIntBuilder()
+                .setComparator(new CoarsePrefixComparator())
+                .setChunkMaxItems(256)
+                .setKeyPrefixes(true)
+                .buildOrderedMap();
+        Assert.assertTrue(hasKeyPrefixes(oak));
+        List<Integer> keys = shuffledKeys();
+        for (Integer k : keys) {
+            oak.zc().put(k, k);
+        }
+        for (Integer k : keys) {
+            if (k % 3 == 0) {
+                oak.zc().remove(k);
+            }
+        }
+
+        Assert.assertNull(oak.get(NUM_OF_ENTRIES));
+        int expected = -NUM_OF_ENTRIES / 2;
+        for (Map.Entry<Integer, Integer> e : oak.entrySet()) {
+            while (expected % 3 == 0) {
+                Assert.assertNull(oak.get(expected));
+                expected++;
+            }
+            Assert.assertEquals(Integer.valueOf(expected), e.getKey());
+            Assert.assertEquals(Integer.valueOf(expected), oak.get(expected));
+            expected++;
+        }
+
+        // range queries start with a search for their bound
+        try (OakMap<Integer, Integer> tail = oak.tailMap(17, true)) {
+            Iterator<Integer> iter = tail.keySet().iterator();
+            for (int k = 17; k < 45; k++) {
+                if (k % 3 != 0) {
+                    Assert.assertEquals(Integer.valueOf(k), iter.next());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void stringPrefixesPreserveTheOrder() {
+        OakComparator<String> comparator = OakCommonBuildersFactory.DEFAULT_STRING_COMPARATOR;
+        Assert.assertTrue(comparator.hasKeyPrefix());
+        Random random = new Random(0);
+        List<String> strings = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            StringBuilder sb = new StringBuilder();
+            int length = random.nextInt(8);
+            for (int j = 0; j < length; j++) {
+                // includes chars with the high bit set, and zero chars
+                sb.append((char) (random.nextBoolean() ? random.nextInt(4) : random.nextInt(Character.MAX_VALUE)));
+            }
+            strings.add(sb.toString());
+        }
+        for (String s1 : strings) {
+            for (String s2 : strings) {
+                int cmp = Long.compare(comparator.keyPrefix(s1), comparator.keyPrefix(s2));
+                if (cmp != 0) {
+                    Assert.assertEquals(Integer.signum(cmp), Integer.signum(comparator.compareKeys(s1, s2)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void prefixesAreDisabledByDefault() throws ReflectiveOperationException {
+        oak = OakCommonBuildersFactory.getDefaultIntBuilder().buildOrderedMap();
+        Assert.assertFalse(hasKeyPrefixes(oak));
+    }
+
+    @Test
+    public void stringKeys() throws ReflectiveOperationException {
+        stringOak = OakCommonBuildersFactory.getDefaultStringBuilder()
+                .setChunkMaxItems(256)
+                .setKeyPrefixes(true)
+                .buildOrderedMap();
+        Assert.assertTrue(hasKeyPrefixes(stringOak));
+        TreeMap<String, String> expected = new TreeMap<>();
+        Random random = new Random(0);
+        for (int i = 0; i < NUM_OF_ENTRIES; i++) {
+            // a common first char, so many keys share their prefix
+            String key = "k" + random.nextInt(NUM_OF_ENTRIES);
+            stringOak.zc().put(key, key);
+            expected.put(key, key);
+        }
+        Assert.assertEquals(expected.size(), stringOak.size());
+        Assert.assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(stringOak.keySet()));
+        for (String key : expected.keySet()) {
+            Assert.assertEquals(key, stringOak.get(key));
+        }
+    }
+}
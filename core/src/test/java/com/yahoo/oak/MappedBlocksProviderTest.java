@@ -0,0 +1,163 @@
+/*
+ * Copyright 2020, Verizon Media.
+ * Licensed under the terms of the Apache 2.0 license.
+ * Please see LICENSE file in the project root for terms.
+ */
+
+package com.yahoo.oak;
+
+import com.yahoo.oak.common.OakCommonBuildersFactory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+public class MappedBlocksProviderTest {
+    private static final int BLOCK_SIZE = 1 << 20;
+    private static final int LARGE_BLOCK_SIZE = 1 << 30;
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("oak-mapped-blocks-test");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path f : (Iterable<Path>) files::iterator) {
+                Files.delete(f);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    private long numOfFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+    @Test
+    public void mapAndReturnBlocks() throws IOException {
+        MappedBlocksProvider provider = new MappedBlocksProvider(directory, BLOCK_SIZE);
+        Assert.assertEquals(BLOCK_SIZE, provider.blockSize());
+
+        Block b1 = provider.getBlock();
+        Block b2 = provider.getBlock();
+        Assert.assertEquals(2, provider.numOfMappedBlocks());
+        Assert.assertEquals(BLOCK_SIZE, b1.getCapacity());
+        // a new block file reads as zeros, so it is not zeroed again
+        Assert.assertTrue(b1.isZeroed());
+        Assert.assertEquals(0, DirectUtils.getLong(b1.getStartMemAddress() + BLOCK_SIZE - Long.BYTES));
+
+        DirectUtils.putLong(b1.getStartMemAddress(), 1L);
+        DirectUtils.putLong(b2.getStartMemAddress() + BLOCK_SIZE - Long.BYTES, 2L);
+        Assert.assertEquals(1L, DirectUtils.getLong(b1.getStartMemAddress()));
+        Assert.assertEquals(2L, DirectUtils.getLong(b2.getStartMemAddress() + BLOCK_SIZE - Long.BYTES));
+
+        provider.returnBlock(b1);
+        provider.returnBlock(b2);
+        Assert.assertEquals(0, provider.numOfMappedBlocks());
+        Assert.assertEquals(0, numOfFiles());
+    }
+
+    // Allocates allocationSize bytes at a time, until the given number of large sparse blocks is used,
+    // and reads the allocations back via their references
+    private static void fillLargeBlocks(MemoryManager mm, int allocationSize, int numOfBlocks) {
+        List<Long> references = new ArrayList<>();
+        BlockAllocationSlice s = (BlockAllocationSlice) mm.getEmptySlice();
+        do {
+            s.allocate(allocationSize, false);
+            DirectUtils.putInt(s.getAddress(), references.size()); // touches a single page of the block
+            references.add(s.getReference());
+        } while (s.getAllocatedBlockID() < numOfBlocks);
+
+        Slice read = mm.getEmptySlice();
+        for (int i = 0; i < references.size(); i++) {
+            Assert.assertTrue(read.decodeReference(references.get(i)));
+            Assert.assertEquals(allocationSize, read.getLength());
+            Assert.assertEquals(i, DirectUtils.getInt(read.getAddress()));
+        }
+    }
+
+    @Test(timeout = 300000)
+    public void capacityPastTheDefaultReferenceLimit() throws IOException {
+        // 4TB of 1GB blocks can be referenced with the default bits, the blocks of a bigger capacity take more bits
+        int defaultMaxBlockID = (int) UnionCodec.mask(ReferenceCodecSyncRecycle.DEFAULT_BITS_FOR_MAXIMUM_RAM
+                - ReferenceCodec.requiredBits(LARGE_BLOCK_SIZE));
+        int numOfBlocks = defaultMaxBlockID + 16;
+        MappedBlocksProvider provider = new MappedBlocksProvider(directory, LARGE_BLOCK_SIZE);
+        NativeMemoryAllocator allocator = new NativeMemoryAllocator((long) numOfBlocks * LARGE_BLOCK_SIZE, provider,
+                0);
+        SyncRecycleMemoryManager mm = new SyncRecycleMemoryManager(allocator);
+        try {
+            Assert.assertTrue(allocator.getMaxBlockID() >= numOfBlocks);
+            // the extra bits for the block IDs are taken out of the version
+            Assert.assertTrue(mm.rc.lastValidVersion
+                    < UnionCodec.mask(Long.SIZE - ReferenceCodecSyncRecycle.DEFAULT_BITS_FOR_MAXIMUM_RAM - 1));
+            fillLargeBlocks(mm, LARGE_BLOCK_SIZE - mm.getHeaderSize(), numOfBlocks);
+        } finally {
+            mm.close();
+        }
+        Assert.assertEquals(0, provider.numOfMappedBlocks());
+    }
+
+    @Test(timeout = 300000)
+    public void seqExpandCapacityPastTheDefaultReferenceLimit() throws IOException {
+        // offset and length take 30 bits each by default, leaving only 4 bits for the block ID
+        int numOfBlocks = 32;
+        MappedBlocksProvider provider = new MappedBlocksProvider(directory, LARGE_BLOCK_SIZE);
+        NativeMemoryAllocator allocator = new NativeMemoryAllocator((long) numOfBlocks * LARGE_BLOCK_SIZE, provider,
+                0);
+        SeqExpandMemoryManager mm = new SeqExpandMemoryManager(allocator);
+        try {
+            // the length gives up bits for the block IDs, so an allocation cannot take a whole block anymore
+            Assert.assertTrue(mm.getMaxAllocationSize() < LARGE_BLOCK_SIZE);
+            try {
+                mm.getEmptySlice().allocate(mm.getMaxAllocationSize() + 1, false);
+                Assert.fail("An allocation bigger than its reference can encode was made");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+            fillLargeBlocks(mm, mm.getMaxAllocationSize(), numOfBlocks);
+        } finally {
+            mm.close();
+        }
+        Assert.assertEquals(0, provider.numOfMappedBlocks());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void missingDirectory() {
+        new MappedBlocksProvider(directory.resolve("missing"), BLOCK_SIZE);
+    }
+
+    @Test
+    public void mappedMap() throws IOException {
+        int numOfEntries = 100_000; // requires a few blocks
+        OakMap<Integer, Integer> oak = OakCommonBuildersFactory.getDefaultIntBuilder()
+                .setMemoryMappedBlocks(directory)
+                .setPreferredBlockSize(BLOCK_SIZE)
+                .buildOrderedMap();
+        try {
+            for (int i = 0; i < numOfEntries; i++) {
+                oak.zc().put(i, i);
+            }
+            for (int i = 0; i < numOfEntries; i++) {
+                Assert.assertEquals(Integer.valueOf(i), oak.get(i));
+            }
+            Assert.assertTrue(oak.memorySize() > BLOCK_SIZE);
+        } finally {
+            oak.close();
+        }
+        Assert.assertEquals(0, numOfFiles());
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2020, Verizon Media.
+ * Licensed under the terms of the Apache 2.0 license.
+ * Please see LICENSE file in the project root for terms.
+ */
+
+package com.yahoo.oak;
+
+import com.yahoo.oak.common.OakCommonBuildersFactory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+@RunWith(Parameterized.class)
+public class MemoryManagersCombinationTest {
+    private static final int NUM_OF_THREADS = 8;
+    private static final int KEYS_PER_THREAD = 5_000;
+    private static final int ROUNDS = 3;
+    private static final int SHARED_KEYS = 16;
+    private static final int INCREMENTS_PER_THREAD = 2_000;
+
+    private final boolean hash;
+    private final MemoryManagerType keysType;
+    private final MemoryManagerType valuesType;
+    private ConcurrentZCMap<Integer, Integer> oak;
+
+    public MemoryManagersCombinationTest(boolean hash, MemoryManagerType keysType, MemoryManagerType valuesType) {
+        this.hash = hash;
+        this.keysType = keysType;
+        this.valuesType = valuesType;
+    }
+
+    @Parameterized.Parameters(name = "hash={0} keys={1} values={2}")
+    public static Collection<Object[]> parameters() {
+        List<Object[]> parameters = new ArrayList<>();
+        for (boolean hash : new boolean[] {false, true}) {
+            for (MemoryManagerType keysType : MemoryManagerType.values()) {
+                for (MemoryManagerType valuesType : MemoryManagerType.values()) {
+                    parameters.add(new Object[] {hash, keysType, valuesType});
+                }
+            }
+        }
+        return parameters;
+    }
+
+    @After
+    public void tearDown() {
+        if (oak != null) {
+            oak.close();
+        }
+        BlocksPool.clear();
+    }
+
+    private boolean isSupported() {
+        // the values are updated in place, so their writers must exclude each other
+        boolean valuesExclusive = valuesType != MemoryManagerType.SEQ_EXPAND;
+        return valuesExclusive && !(hash && keysType == MemoryManagerType.SEQ_EXPAND);
+    }
+
+    private ConcurrentZCMap<Integer, Integer> build() {
+        OakMapBuilder<Integer, Integer> builder = OakCommonBuildersFactory.getDefaultIntBuilder()
+                .setChunkMaxItems(1024)
+                .setKeysMemoryManager(keysType)
+                .setValuesMemoryManager(valuesType);
+        return hash ? builder.buildHashMap() : builder.buildOrderedMap();
+    }
+
+    @Test(timeout = 120000)
+    public void concurrentPutGetRemove() throws InterruptedException {
+        if (!isSupported()) {
+            try {
+                oak = build();
+                Assert.fail("An unsupported combination of memory managers was built");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+            return;
+        }
+
+        oak = build();
+        List<Throwable> failures = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < NUM_OF_THREADS; t++) {
+            final int first = t * KEYS_PER_THREAD;
+            threads.add(new Thread(() -> {
+                try {
+                    for (int r = 0; r < ROUNDS; r++) {
+                        for (int i = first; i < first + KEYS_PER_THREAD; i++) {
+                            oak.zc().put(i, i + r);
+                        }
+                        for (int i = first; i < first + KEYS_PER_THREAD; i++) {
+                            Assert.assertEquals(Integer.valueOf(i + r), oak.get(i));
+                        }
+                        for (int i = first; i < first + KEYS_PER_THREAD; i += 2) {
+                            oak.zc().remove(i);
+                        }
+                        // the other threads read keys and values that are concurrently updated and removed
+                        int other = ((first / KEYS_PER_THREAD + 1) % NUM_OF_THREADS) * KEYS_PER_THREAD;
+                        for (int i = other; i < other + KEYS_PER_THREAD; i++) {
+                            Integer value = oak.get(i);
+                            Assert.assertTrue(value == null || value - i >= 0 && value - i < ROUNDS);
+                        }
+                    }
+                } catch (Throwable e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        Assert.assertTrue(failures.toString(), failures.isEmpty());
+
+        for (int i = 0; i < NUM_OF_THREADS * KEYS_PER_THREAD; i++) {
+            Assert.assertEquals((i % 2 == 0) ? null : Integer.valueOf(i + ROUNDS - 1), oak.get(i));
+        }
+    }
+
+    @Test(timeout = 120000)
+    public void concurrentUpdatesOfSameKeys() throws InterruptedException {
+        if (!isSupported()) {
+            return; // see concurrentPutGetRemove()
+        }
+
+        oak = build();
+        for (int i = 0; i < SHARED_KEYS; i++) {
+            oak.zc().put(i, 0);
+        }
+        List<Throwable> failures = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < NUM_OF_THREADS; t++) {
+            threads.add(new Thread(() -> {
+                try {
+                    for (int n = 0; n < INCREMENTS_PER_THREAD; n++) {
+                        int key = n % SHARED_KEYS;
+                        // an increment is lost if the writers of the value do not exclude each other
+                        Assert.assertTrue(oak.zc().computeIfPresent(key, b -> b.putInt(0, b.getInt(0) + 1)));
+                        Integer value = oak.get(key);
+                        Assert.assertTrue(value != null && value > 0);
+                    }
+                } catch (Throwable e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        Assert.assertTrue(failures.toString(), failures.isEmpty());
+
+        int expected = NUM_OF_THREADS * INCREMENTS_PER_THREAD / SHARED_KEYS;
+        for (int i = 0; i < SHARED_KEYS; i++) {
+            Assert.assertEquals(Integer.valueOf(expected), oak.get(i));
+        }
+    }
+}
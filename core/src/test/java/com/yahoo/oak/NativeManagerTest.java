@@ -28,13 +28,14 @@ public class NativeManagerTest {
     @Parameterized.Parameters
     public static Collection parameters() {
 
+        // thread-local allocation buffers are disabled, as their tails would be added to the checked free list
         Supplier<SyncRecycleMemoryManager> s1 = () -> {
-            final NativeMemoryAllocator allocator = new NativeMemoryAllocator(128);
+            final NativeMemoryAllocator allocator = new NativeMemoryAllocator(128, BlocksPool.getInstance(), 0);
             return new SyncRecycleMemoryManager(allocator);
         };
 
         Supplier<NovaMemoryManager> s2 = () -> {
-            final NativeMemoryAllocator allocator = new NativeMemoryAllocator(128);
+            final NativeMemoryAllocator allocator = new NativeMemoryAllocator(128, BlocksPool.getInstance(), 0);
             return new NovaMemoryManager(allocator);
         };
 
@@ -59,6 +60,10 @@ public class NativeManagerTest {
         BlocksPool.clear();
     }
 
+    private static int dataLength(int i) {
+        return 8 * i + 5;
+    }
+
     @Test
     public void reuseTest() {
         long oldVersion = 0;
@@ -70,10 +75,13 @@ public class NativeManagerTest {
         BlockAllocationSlice[] allocatedSlices = new BlockAllocationSlice[memoryManager.getReleaseLimit()];
         for (int i = 0; i < memoryManager.getReleaseLimit(); i++) {
             allocatedSlices[i] = (BlockAllocationSlice) memoryManager.getEmptySlice();
-            allocatedSlices[i].allocate(i + 5, false);
+            // the sizes are distinct even once NovaMemoryManager pads them to a multiple of its header size
+            allocatedSlices[i].allocate(dataLength(i), false);
+            // a barrier, so the released slices are not coalesced with each other
+            memoryManager.getEmptySlice().allocate(1, false);
         }
         for (int i = 0; i < memoryManager.getReleaseLimit(); i++) {
-            Assert.assertEquals(i + 5, allocatedSlices[i].getLength());
+            Assert.assertEquals(dataLength(i), allocatedSlices[i].getLength());
             allocatedSlices[i].release();
         }
         Assert.assertEquals(memoryManager.getReleaseLimit(), memoryManager.getFreeListSize());
@@ -86,7 +94,7 @@ public class NativeManagerTest {
         Assert.assertEquals(oldVersion + 1, newVersion);
         for (int i = memoryManager.getReleaseLimit() - 1; i > -1; i--) {
             BlockAllocationSlice s = (BlockAllocationSlice) memoryManager.getEmptySlice();
-            s.allocate(i + 5, false);
+            s.allocate(dataLength(i), false);
             Assert.assertEquals(allocatedSlices[i].getAllocatedBlockID(), s.getAllocatedBlockID());
             Assert.assertEquals(allocatedSlices[i].getAllocatedLength(), s.getAllocatedLength());
             Assert.assertEquals(allocatedSlices[i].getAllocatedOffset(), s.getAllocatedOffset());
@@ -18,8 +18,10 @@ import org.mockito.Mockito;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.ConcurrentModificationException;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -39,6 +41,8 @@ public class NativeMemoryAllocatorTest {
     public void setup() {
         executor = new ExecutorUtils<>(NUM_THREADS);
         BlocksPool.setBlockSize(8 * 1024 * 1024);
+        // the tests below check the exact number of blocks in the pool
+        BlocksPool.getInstance().setAsyncRefill(false);
         allocator = null;
         oak = null;
     }
@@ -57,12 +61,19 @@ public class NativeMemoryAllocatorTest {
     }
 
     static int calcExpectedSize(int keyCount, int valueCount) {
-        return (keyCount * (KEYS_SIZE_AFTER_SERIALIZATION +     KEY_MEMORY_MANAGER.getHeaderSize())) +
+        // the Nova keys are padded to a multiple of their header size
+        int keyHeaderSize = KEY_MEMORY_MANAGER.getHeaderSize();
+        int keySize = (KEYS_SIZE_AFTER_SERIALIZATION + 2 * keyHeaderSize - 1) / keyHeaderSize * keyHeaderSize;
+        return (keyCount * keySize) +
                 (valueCount * (VALUE_SIZE_AFTER_SERIALIZATION + VALUE_MEMORY_MANAGER.getHeaderSize()));
     }
 
-    private static final MemoryManager VALUE_MEMORY_MANAGER = new SyncRecycleMemoryManager(null);
-    private static final MemoryManager KEY_MEMORY_MANAGER = new NovaMemoryManager(null); //TODO maybe change later
+    // the memory managers below are used only for their header sizes, their allocator never allocates
+    private static final BlockMemoryAllocator HEADER_SIZES_ALLOCATOR =
+            new NativeMemoryAllocator(BlocksPool.DEFAULT_BLOCK_SIZE_BYTES, new BlocksPool.Builder().build());
+    private static final MemoryManager VALUE_MEMORY_MANAGER = new SyncRecycleMemoryManager(HEADER_SIZES_ALLOCATOR);
+    private static final MemoryManager KEY_MEMORY_MANAGER =
+            new NovaMemoryManager(HEADER_SIZES_ALLOCATOR); //TODO maybe change later
 
 
     BlockAllocationSlice allocate(NativeMemoryAllocator allocator, int size) {
@@ -103,7 +114,8 @@ public class NativeMemoryAllocatorTest {
 
         int blockSize = BlocksPool.getInstance().blockSize();
         int capacity = blockSize * 3;
-        allocator = new NativeMemoryAllocator(capacity);
+        // thread-local allocation buffers are disabled to check the linear allocation within the blocks
+        allocator = new NativeMemoryAllocator(capacity, BlocksPool.getInstance(), 0);
 
         /* simple allocation */
         BlockAllocationSlice bb = allocate(allocator, 4);
@@ -139,6 +151,638 @@ public class NativeMemoryAllocatorTest {
                 allocator.getCurrentBlock().allocatedWithPossibleDelta());
     }
 
+    @Test
+    public void threadBufferAllocation() throws ExecutorUtils.ExecutionError {
+        int blockSize = BlocksPool.getInstance().blockSize();
+        int allocationSize = 64;
+        int allocationsPerThread = 2 * NativeMemoryAllocator.DEFAULT_THREAD_BUFFER_SIZE / allocationSize;
+        allocator = new NativeMemoryAllocator(blockSize * 2L);
+
+        List<BlockAllocationSlice> slices = Collections.synchronizedList(new ArrayList<>());
+        executor.submitTasks(NUM_THREADS, i -> () -> {
+            BlockAllocationSlice s = null;
+            for (int j = 0; j < allocationsPerThread; j++) {
+                s = allocate(allocator, allocationSize);
+                slices.add(s);
+            }
+            return s;
+        });
+        executor.shutdown(TIME_LIMIT_IN_SECONDS);
+
+        // the allocated counter is exact, regardless of the memory reserved for the threads' buffers
+        Assert.assertEquals((long) NUM_THREADS * allocationsPerThread * allocationSize, allocator.allocated());
+        Assert.assertEquals(1, allocator.numOfAllocatedBlocks());
+
+        // no two allocations overlap
+        slices.sort((a, b) -> Integer.compare(a.getAllocatedOffset(), b.getAllocatedOffset()));
+        for (int i = 1; i < slices.size(); i++) {
+            BlockAllocationSlice prev = slices.get(i - 1);
+            Assert.assertTrue(prev.getAllocatedOffset() + prev.getAllocatedLength()
+                    <= slices.get(i).getAllocatedOffset());
+        }
+    }
+
+    @Test
+    public void threadBufferOfDeadThreadIsRetired() throws InterruptedException {
+        int blockSize = BlocksPool.getInstance().blockSize();
+        int allocationSize = 64;
+        allocator = new NativeMemoryAllocator(blockSize * 2L);
+        Thread thread = new Thread(() -> allocate(allocator, allocationSize));
+        thread.start();
+        thread.join();
+        Assert.assertEquals(0, allocator.getFreeListLength());
+
+        // the TLAB of this thread is reserved, and the tail of the TLAB of the dead thread is returned
+        allocate(allocator, allocationSize);
+        Assert.assertEquals(1, allocator.getFreeListLength());
+        Assert.assertEquals(NativeMemoryAllocator.DEFAULT_THREAD_BUFFER_SIZE + allocationSize,
+                allocator.getCurrentBlock().getLiveBytes());
+    }
+
+    @Test
+    public void threadBufferIsUsedBeforeFreeList() {
+        allocator = new NativeMemoryAllocator(BlocksPool.getInstance().blockSize());
+        int allocationSize = 64;
+        BlockAllocationSlice first = allocate(allocator, allocationSize);
+        allocator.free(first);
+        Assert.assertEquals(1, allocator.getFreeListLength());
+
+        // the TLAB still has room, so the released allocation is not reused yet
+        BlockAllocationSlice second = allocate(allocator, allocationSize);
+        Assert.assertEquals(first.getAllocatedOffset() + allocationSize, second.getAllocatedOffset());
+        Assert.assertEquals(1, allocator.getFreeListLength());
+    }
+
+    @Test
+    public void threadBufferOfEvacuatedBlockIsRetired() {
+        int blockSize = BlocksPool.getInstance().blockSize();
+        int bigAllocationSize = blockSize / 8;
+        allocator = new NativeMemoryAllocator(blockSize * 3L);
+        List<BlockAllocationSlice> slices = new ArrayList<>();
+        // a TLAB is reserved in the first block, which is then filled up
+        slices.add(allocate(allocator, 64));
+        while (allocator.numOfAllocatedBlocks() == 1) {
+            slices.add(allocate(allocator, bigAllocationSize));
+        }
+        slices.forEach(allocator::free);
+        // the tail of the TLAB keeps the first block, although the thread does not allocate anymore
+        Assert.assertEquals(2, allocator.numOfAllocatedBlocks());
+
+        int[] evacuated = allocator.startEvacuation(1.0, 16);
+        Assert.assertEquals(1, evacuated.length);
+        Assert.assertEquals(1, allocator.numOfAllocatedBlocks());
+        allocator.endEvacuation(evacuated);
+    }
+
+    @Test
+    public void blockIsReturnedOnceNotRead() {
+        int blockSize = BlocksPool.getInstance().blockSize();
+        allocator = new NativeMemoryAllocator(blockSize * 3L, BlocksPool.getInstance(), 0);
+        BlockAllocationSlice first = allocate(allocator, blockSize);
+        allocate(allocator, 64); // takes the second block
+        Assert.assertEquals(2, allocator.numOfAllocatedBlocks());
+
+        allocator.enterRead();
+        allocator.free(first);
+        // the emptied block is not found anymore, but it is not returned while this thread may still access it
+        Assert.assertFalse(allocator.readMemoryAddress(first));
+        Assert.assertEquals(1, allocator.numOfAllocatedBlocks());
+        Assert.assertEquals(0, allocator.returnedBytes());
+        allocator.exitRead();
+        Assert.assertEquals(blockSize, allocator.returnedBytes());
+    }
+
+    @Test
+    public void blockIsReturnedOnceTheOldestReaderLeaves() throws InterruptedException {
+        int blockSize = BlocksPool.getInstance().blockSize();
+        allocator = new NativeMemoryAllocator(blockSize * 3L, BlocksPool.getInstance(), 0);
+        BlockAllocationSlice first = allocate(allocator, blockSize);
+        allocate(allocator, 64); // takes the second block
+
+        allocator.enterRead();
+        allocator.free(first);
+        // the readers that entered after the block was retired cannot access it, so their exits leave it retired
+        Thread reader = new Thread(() -> {
+            for (int i = 0; i < 1000; i++) {
+                allocator.enterRead();
+                allocator.exitRead();
+            }
+        });
+        reader.start();
+        reader.join();
+        Assert.assertEquals(0, allocator.returnedBytes());
+        allocator.exitRead();
+        Assert.assertEquals(blockSize, allocator.returnedBytes());
+    }
+
+    @Test
+    public void unscopedBufferOfReturnedBlockIsNotRead() {
+        int blockSize = BlocksPool.getInstance().blockSize();
+        allocator = new NativeMemoryAllocator(blockSize * 3L, BlocksPool.getInstance(), 0);
+        SyncRecycleMemoryManager memoryManager = new SyncRecycleMemoryManager(allocator);
+        Slice key = memoryManager.getEmptySlice();
+        key.allocate(blockSize - memoryManager.getHeaderSize(), false);
+        allocate(allocator, 64); // takes the second block
+        DirectUtils.putInt(key.getAddress(), 7);
+        UnscopedBuffer<KeyBuffer> buffer = new UnscopedBuffer<>(new KeyBuffer(key.duplicate()));
+        Assert.assertEquals(7, buffer.getInt(0));
+
+        // the block is returned to the pool, where it may already be given to another map
+        allocator.free(key);
+        Assert.assertEquals(blockSize, allocator.returnedBytes());
+        try {
+            buffer.getInt(0);
+            Assert.fail("The memory of a returned block was read");
+        } catch (ConcurrentModificationException expected) {
+            // the key was removed
+        }
+    }
+
+    @Test
+    public void sizeClassFreeListReuse() {
+        // thread-local allocation buffers are disabled, as their tails would be added to the checked free list
+        allocator = new NativeMemoryAllocator(BlocksPool.getInstance().blockSize(), BlocksPool.getInstance(), 0, true);
+        allocator.collectStats();
+
+        int numOfSlices = 1000;
+        List<Slice> slices = new ArrayList<>();
+        for (int i = 0; i < numOfSlices; i++) {
+            Slice s = VALUE_MEMORY_MANAGER.getEmptySlice();
+            allocator.allocate(s, VALUE_MEMORY_MANAGER.getHeaderSize() + 1 + i);
+            slices.add(s);
+        }
+        long blockAllocation = allocator.getCurrentBlock().allocatedWithPossibleDelta();
+        slices.forEach(allocator::free);
+        Assert.assertEquals(0, allocator.allocated());
+        Assert.assertEquals(numOfSlices, allocator.getFreeListLength());
+
+        // the same sizes are reallocated (in a different order) only from the free list
+        for (int i = numOfSlices - 1; i >= 0; i--) {
+            int size = VALUE_MEMORY_MANAGER.getHeaderSize() + 1 + i;
+            BlockAllocationSlice s = allocate(allocator, size);
+            Assert.assertEquals(size, s.getAllocatedLength());
+        }
+        Assert.assertEquals(numOfSlices, allocator.getStats().reclaimedBuffers);
+        Assert.assertEquals(0, allocator.getFreeListLength());
+        Assert.assertEquals(blockAllocation, allocator.getCurrentBlock().allocatedWithPossibleDelta());
+    }
+
+    @Test
+    public void sizeClassFreeListDropsReturnedBlock() {
+        int blockSize = BlocksPool.getInstance().blockSize();
+        allocator = new NativeMemoryAllocator(blockSize * 3L, BlocksPool.getInstance(), 0, true);
+        int size = 100;
+        List<BlockAllocationSlice> slices = new ArrayList<>();
+        while (allocator.numOfAllocatedBlocks() == 1) {
+            slices.add(allocate(allocator, size));
+        }
+        BlockAllocationSlice secondBlockSlice = slices.remove(slices.size() - 1);
+
+        // the free slots of the first block are interleaved with a free slot of the second block
+        int half = slices.size() / 2;
+        slices.subList(0, half).forEach(allocator::free);
+        allocator.free(secondBlockSlice);
+        slices.subList(half, slices.size()).forEach(allocator::free);
+        Assert.assertEquals(blockSize, allocator.returnedBytes());
+        Assert.assertEquals(1, allocator.getFreeListLength());
+
+        BlockAllocationSlice s = allocate(allocator, size);
+        Assert.assertEquals(secondBlockSlice.getAllocatedBlockID(), s.getAllocatedBlockID());
+        Assert.assertEquals(secondBlockSlice.getAllocatedOffset(), s.getAllocatedOffset());
+        Assert.assertEquals(0, allocator.getFreeListLength());
+    }
+
+    @Test
+    public void sizeClassFreeListKeepsWholeRange() throws InterruptedException {
+        int blockSize = BlocksPool.getInstance().blockSize();
+        allocator = new NativeMemoryAllocator(blockSize * 2L, BlocksPool.getInstance(),
+                NativeMemoryAllocator.DEFAULT_THREAD_BUFFER_SIZE, true);
+        allocator.collectStats();
+        int allocationSize = 64;
+        Thread thread = new Thread(() -> allocate(allocator, allocationSize));
+        thread.start();
+        thread.join();
+
+        // the tail of the TLAB of the dead thread is carved into several slots, and almost none of it is lost
+        allocate(allocator, allocationSize);
+        long tail = NativeMemoryAllocator.DEFAULT_THREAD_BUFFER_SIZE
+                - SizeClassFreeList.classSize(SizeClassFreeList.classIndex(allocationSize));
+        Assert.assertTrue(allocator.getFreeListLength() > 1);
+        Assert.assertTrue(allocator.getStats().freeBytes > tail - SizeClassFreeList.MIN_SLOT_SIZE);
+        Assert.assertTrue(allocator.getStats().freeBytes <= tail);
+    }
+
+    @Test
+    public void sizeClassFreeListBlockIDs() {
+        // the smaller the blocks, the more of them are encoded
+        Assert.assertEquals((1 << 21) - 1, SizeClassFreeList.maxBlockID(BlocksPool.DEFAULT_BLOCK_SIZE_BYTES));
+        Assert.assertEquals((1 << 25) - 1, SizeClassFreeList.maxBlockID(8 * 1024 * 1024));
+        int blockSize = BlocksPool.getInstance().blockSize();
+        allocator = new NativeMemoryAllocator(blockSize * 2L, BlocksPool.getInstance(), 0, true);
+        Assert.assertTrue(allocator.getMaxBlockID() > (1 << 16));
+    }
+
+    @Test
+    public void sizeClasses() {
+        int prevClassSize = 0;
+        for (int size = 1; size < 1024 * 1024; size++) {
+            int classIndex = SizeClassFreeList.classIndex(size);
+            long classSize = SizeClassFreeList.classSize(classIndex);
+            // the class can hold the allocation and its link, with at most 25% of internal fragmentation
+            Assert.assertTrue(classSize >= size + Long.BYTES);
+            Assert.assertTrue(classSize <= Math.max(16, (size + Long.BYTES) * 5 / 4));
+            // a class does not fit smaller allocations
+            Assert.assertTrue(classIndex == 0 || SizeClassFreeList.classSize(classIndex - 1) < size + Long.BYTES);
+            Assert.assertTrue(classSize >= prevClassSize);
+            prevClassSize = (int) classSize;
+        }
+    }
+
+    @Test
+    public void allocationsAreZeroed() {
+        int size = 1024;
+        int capacity = BlocksPool.getInstance().blockSize();
+        for (int i = 0; i < 3; i++) {
+            // the block of the previous iteration was returned dirty to the pool, and may be reused
+            allocator = new NativeMemoryAllocator(capacity);
+            for (int j = 0; j < 100; j++) {
+                BlockAllocationSlice s = allocate(allocator, size);
+                for (int k = 0; k < size; k++) {
+                    Assert.assertEquals(0, DirectUtils.get(s.getMetadataAddress() + k));
+                }
+                DirectUtils.setMemory(s.getMetadataAddress(), size, (byte) 0xFF);
+            }
+            allocator.close();
+        }
+        allocator = null;
+    }
+
+    @Test
+    public void blockReturnedToClosedPoolIsNotKept() {
+        int blockSize = 1024 * 1024;
+        BlocksPool pool = new BlocksPool.Builder().setBlockSize(blockSize).build();
+        pool.close();
+        // the block is freed instead of being queued for zeroing, as no background thread runs anymore
+        pool.returnBlock(new Block(blockSize));
+        Assert.assertEquals(0, pool.numOfRemainingBlocks());
+    }
+
+    @Test
+    public void returnedBlocksAreZeroed() throws InterruptedException {
+        int blockSize = 1024 * 1024;
+        int numOfBlocks = 32;
+        BlocksPool pool = new BlocksPool.Builder().setBlockSize(blockSize)
+                .setReservedSize(0, 2L * numOfBlocks * blockSize).build();
+        pool.setAsyncRefill(false);
+        // the blocks returned while a zeroing task runs are zeroed by that task, none is left dirty
+        for (int i = 0; i < numOfBlocks; i++) {
+            Block b = new Block(blockSize);
+            DirectUtils.setMemory(b.getStartMemAddress(), blockSize, (byte) 1);
+            pool.returnBlock(b);
+        }
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIME_LIMIT_IN_SECONDS);
+        while (pool.numOfRemainingBlocks() < numOfBlocks && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(numOfBlocks, pool.numOfRemainingBlocks());
+        for (int i = 0; i < numOfBlocks; i++) {
+            Block b = pool.getBlock();
+            Assert.assertEquals(0, DirectUtils.getLong(b.getStartMemAddress() + blockSize - Long.BYTES));
+            b.clean();
+        }
+        pool.close();
+    }
+
+    @Test
+    public void asyncPoolRefill() throws InterruptedException {
+        BlocksPool pool = BlocksPool.getInstance();
+        pool.setAsyncRefill(true);
+        Assert.assertEquals(0, pool.numOfRemainingBlocks());
+
+        // the pool is empty, so the first block is allocated synchronously, then the pool is refilled
+        allocator = new NativeMemoryAllocator(pool.blockSize() * 4L);
+        Assert.assertEquals(1, pool.getSyncAllocations());
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIME_LIMIT_IN_SECONDS);
+        while (pool.numOfRemainingBlocks() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertTrue(pool.getAsyncAllocatedBlocks() > 0);
+
+        // the next block is taken from the refilled pool
+        allocate(allocator, pool.blockSize());
+        allocate(allocator, pool.blockSize());
+        Assert.assertEquals(2, allocator.numOfAllocatedBlocks());
+        Assert.assertEquals(1, pool.getSyncAllocations());
+    }
+
+    @Test
+    public void independentBlocksPools() throws InterruptedException {
+        int smallBlockSize = 1024 * 1024;
+        int largeBlockSize = 16 * 1024 * 1024;
+        BlocksPool smallPool = new BlocksPool.Builder().setBlockSize(smallBlockSize)
+                .setReservedSize(0, 4L * smallBlockSize).build();
+        BlocksPool largePool = new BlocksPool.Builder().setBlockSize(largeBlockSize)
+                .setPreAllocSize(2L * largeBlockSize).build();
+        smallPool.setAsyncRefill(false);
+        largePool.setAsyncRefill(false);
+        Assert.assertEquals(2, largePool.numOfRemainingBlocks());
+
+        int numOfEntries = 100_000;
+        OakMap<Integer, Integer> small = OakCommonBuildersFactory.getDefaultIntBuilder()
+                .setBlocksPool(smallPool).buildOrderedMap();
+        OakMap<Integer, Integer> large = OakCommonBuildersFactory.getDefaultIntBuilder()
+                .setBlocksPool(largePool).buildOrderedMap();
+        try {
+            for (int i = 0; i < numOfEntries; i++) {
+                small.zc().put(i, i);
+                large.zc().put(i, i);
+            }
+            for (int i = 0; i < numOfEntries; i++) {
+                Assert.assertEquals(Integer.valueOf(i), small.get(i));
+                Assert.assertEquals(Integer.valueOf(i), large.get(i));
+            }
+            NativeMemoryAllocator smallAllocator =
+                    (NativeMemoryAllocator) small.getValuesMemoryManager().getBlockMemoryAllocator();
+            NativeMemoryAllocator largeAllocator =
+                    (NativeMemoryAllocator) large.getValuesMemoryManager().getBlockMemoryAllocator();
+            Assert.assertEquals(smallBlockSize, smallAllocator.blockSize());
+            Assert.assertEquals(largeBlockSize, largeAllocator.blockSize());
+            Assert.assertTrue(smallAllocator.numOfAllocatedBlocks() > 1);
+            Assert.assertEquals(1, largeAllocator.numOfAllocatedBlocks());
+            // the large map took a pre-allocated block
+            Assert.assertEquals(1, largePool.numOfRemainingBlocks());
+        } finally {
+            small.close();
+            large.close();
+        }
+
+        // the blocks are returned to their own pool (a returned block is not counted while it is being zeroed)
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIME_LIMIT_IN_SECONDS);
+        while (largePool.numOfRemainingBlocks() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(2, largePool.numOfRemainingBlocks());
+        // the small pool keeps at most its high reserved size
+        Assert.assertTrue(smallPool.numOfRemainingBlocks() <= 4);
+        smallPool.close();
+        largePool.close();
+    }
+
+    @Test
+    public void returnUnusedBlocks() throws InterruptedException {
+        int blockSize = 1024 * 1024;
+        // a private pool without background refill, so only this test changes its number of blocks
+        BlocksPool pool = new BlocksPool.Builder().setBlockSize(blockSize).build();
+        pool.setAsyncRefill(false);
+        // thread-local allocation buffers are disabled, as they keep their block in use
+        allocator = new NativeMemoryAllocator(blockSize * 3L, pool, 0);
+        allocator.collectStats();
+        int allocationSize = blockSize / 4;
+
+        List<BlockAllocationSlice> firstBlock = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            firstBlock.add(allocate(allocator, allocationSize));
+        }
+        BlockAllocationSlice secondBlock = allocate(allocator, allocationSize);
+        Assert.assertEquals(2, allocator.numOfAllocatedBlocks());
+        int poolBlocks = pool.numOfRemainingBlocks();
+
+        // the first block is returned once all its allocations are released, including the reused ones
+        allocator.free(firstBlock.get(0));
+        allocator.free(firstBlock.get(1));
+        BlockAllocationSlice reused = allocate(allocator, allocationSize);
+        Assert.assertEquals(firstBlock.get(0).getAllocatedBlockID(), reused.getAllocatedBlockID());
+        allocator.free(firstBlock.get(2));
+        allocator.free(firstBlock.get(3));
+        Assert.assertEquals(2, allocator.numOfAllocatedBlocks());
+        long coalescings = allocator.coalescings();
+        allocator.free(reused);
+
+        Assert.assertEquals(1, allocator.numOfAllocatedBlocks());
+        Assert.assertEquals(1, allocator.getStats().returnedBlocks);
+        // the returned block is not counted while it is zeroed in the background
+        for (int i = 0; i < 100 && pool.numOfRemainingBlocks() != poolBlocks + 1; i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(poolBlocks + 1, pool.numOfRemainingBlocks());
+        // the free ranges of the returned block were removed
+        Assert.assertEquals(0, allocator.getFreeListLength());
+        Assert.assertEquals(0, allocator.getStats().freeBytes);
+        Assert.assertEquals(allocationSize, allocator.allocated());
+
+        // a stale reference to the returned block is not resolved
+        BlockAllocationSlice stale = (BlockAllocationSlice) VALUE_MEMORY_MANAGER.getEmptySlice();
+        stale.copyFrom(reused);
+        Assert.assertFalse(allocator.readMemoryAddress(stale));
+        Assert.assertTrue(allocator.readMemoryAddress(secondBlock));
+        // nor trusted once its ID is given to a new block
+        Assert.assertNotEquals(coalescings, allocator.coalescings());
+
+        // the current block is never returned, and new blocks get the IDs of the returned blocks
+        allocator.free(secondBlock);
+        Assert.assertEquals(1, allocator.numOfAllocatedBlocks());
+        for (int i = 0; i < 4; i++) {
+            allocate(allocator, allocationSize);
+        }
+        BlockAllocationSlice thirdBlock = allocate(allocator, allocationSize);
+        Assert.assertEquals(2, allocator.numOfAllocatedBlocks());
+        Assert.assertEquals(reused.getAllocatedBlockID(), thirdBlock.getAllocatedBlockID());
+
+        allocator.close();
+        allocator = null;
+        pool.close();
+    }
+
+    @Test
+    public void returnBlocksBeyondBlockIDs() {
+        int blockSize = 1024 * 1024;
+        BlocksPool pool = new BlocksPool.Builder().setBlockSize(blockSize).build();
+        pool.setAsyncRefill(false);
+        allocator = new NativeMemoryAllocator(blockSize * 3L, pool, 0);
+        allocator.collectStats();
+        // as few IDs as the capacity needs, so every new block needs the ID of a returned block
+        allocator.limitMaxBlockID(3);
+
+        // each allocation fills a new block, and the previous block is emptied and returned
+        int cycles = 10 * allocator.getMaxBlockID();
+        BlockAllocationSlice previous = allocate(allocator, blockSize);
+        for (int i = 0; i < cycles; i++) {
+            BlockAllocationSlice next = allocate(allocator, blockSize);
+            Assert.assertTrue(next.getAllocatedBlockID() <= allocator.getMaxBlockID());
+            allocator.free(previous);
+            previous = next;
+            Assert.assertTrue(allocator.numOfAllocatedBlocks() <= 2);
+        }
+        Assert.assertEquals(cycles, allocator.getStats().returnedBlocks);
+        Assert.assertEquals((long) cycles * blockSize, allocator.returnedBytes());
+
+        // the ID of a block retired while a thread may access it is not recycled, then fresh IDs are used up
+        allocator.enterRead();
+        try {
+            for (int i = 0; i < 2; i++) {
+                BlockAllocationSlice next = allocate(allocator, blockSize);
+                allocator.free(previous);
+                previous = next;
+            }
+            try {
+                allocate(allocator, blockSize);
+                Assert.fail("The block IDs were exhausted");
+            } catch (OakOutOfMemoryException e) {
+                // expected
+            }
+        } finally {
+            allocator.exitRead();
+        }
+        // and once the thread exits, the retired blocks are returned and their IDs are recycled
+        Assert.assertEquals(cycles + 2, allocator.getStats().returnedBlocks);
+        allocate(allocator, blockSize);
+
+        allocator.close();
+        allocator = null;
+        pool.close();
+    }
+
+    @Test
+    public void rewindKeepsTheBlocks() {
+        int blockSize = 1024 * 1024;
+        BlocksPool pool = new BlocksPool.Builder().setBlockSize(blockSize).build();
+        pool.setAsyncRefill(false);
+        // the capacity is exactly the blocks in use, so a new block after rewind() would exceed it
+        allocator = new NativeMemoryAllocator(blockSize * 3L, pool, 0);
+        int allocationSize = blockSize / 4;
+
+        List<BlockAllocationSlice> first = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            first.add(allocate(allocator, allocationSize));
+        }
+        Assert.assertEquals(3, allocator.numOfAllocatedBlocks());
+        int poolBlocks = pool.numOfRemainingBlocks();
+
+        allocator.rewind();
+        Assert.assertEquals(0, allocator.allocated());
+        Assert.assertEquals(3, allocator.numOfAllocatedBlocks());
+        Assert.assertEquals(poolBlocks, pool.numOfRemainingBlocks());
+
+        // the blocks are reused in the order of their IDs, so the same references are given again
+        for (int i = 0; i < 12; i++) {
+            BlockAllocationSlice s = allocate(allocator, allocationSize);
+            Assert.assertEquals(first.get(i).getAllocatedBlockID(), s.getAllocatedBlockID());
+            Assert.assertEquals(first.get(i).getAllocatedOffset(), s.getAllocatedOffset());
+        }
+        Assert.assertEquals(3, allocator.numOfAllocatedBlocks());
+        Assert.assertEquals(poolBlocks, pool.numOfRemainingBlocks());
+        try {
+            allocate(allocator, allocationSize);
+            Assert.fail("The allocator capacity was exceeded");
+        } catch (OakOutOfMemoryException e) {
+            // expected
+        }
+
+        allocator.close();
+        allocator = null;
+        pool.close();
+    }
+
+    private void assertOutOfMemory(NativeMemoryAllocator allocator, int size) {
+        try {
+            allocate(allocator, size);
+            Assert.fail("The allocator capacity was exceeded");
+        } catch (OakOutOfMemoryException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void setCapacityAtRuntime() {
+        int blockSize = 1024 * 1024;
+        BlocksPool pool = new BlocksPool.Builder().setBlockSize(blockSize).build();
+        pool.setAsyncRefill(false);
+        allocator = new NativeMemoryAllocator(blockSize * 2L, pool, 0);
+        int allocationSize = blockSize / 4;
+
+        List<BlockAllocationSlice> firstBlocks = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            firstBlocks.add(allocate(allocator, allocationSize));
+        }
+        assertOutOfMemory(allocator, allocationSize);
+
+        // growing the capacity takes effect at once, and the new blocks are resolved as the old ones
+        allocator.setCapacity(blockSize * 4L);
+        Assert.assertEquals(blockSize * 4L, allocator.capacity());
+        List<BlockAllocationSlice> lastBlocks = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            lastBlocks.add(allocate(allocator, allocationSize));
+        }
+        Assert.assertEquals(4, allocator.numOfAllocatedBlocks());
+        Assert.assertFalse(allocator.isOverCapacity());
+        for (BlockAllocationSlice s : firstBlocks) {
+            Assert.assertTrue(allocator.readMemoryAddress(s));
+        }
+        assertOutOfMemory(allocator, allocationSize);
+
+        // shrinking the capacity keeps the blocks until they are emptied
+        allocator.setCapacity(blockSize * 2L);
+        Assert.assertTrue(allocator.isOverCapacity());
+        for (BlockAllocationSlice s : lastBlocks) {
+            Assert.assertTrue(allocator.readMemoryAddress(s));
+        }
+        for (BlockAllocationSlice s : firstBlocks) {
+            allocator.free(s);
+        }
+        Assert.assertEquals(2, allocator.numOfAllocatedBlocks());
+        Assert.assertFalse(allocator.isOverCapacity());
+        assertOutOfMemory(allocator, allocationSize);
+
+        // a capacity needing more blocks than can be encoded in a reference is rejected
+        allocator.limitMaxBlockID(8);
+        try {
+            allocator.setCapacity(blockSize * 16L);
+            Assert.fail("The capacity exceeds the block IDs");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        Assert.assertEquals(blockSize * 2L, allocator.capacity());
+
+        allocator.close();
+        allocator = null;
+        pool.close();
+    }
+
+    @Test
+    public void setOakCapacityAtRuntime() {
+        int blockSize = BlocksPool.getInstance().blockSize();
+        // every value takes a block of its own
+        oak = OakCommonBuildersFactory.getDefaultIntBuilder()
+                .setValueSerializer(new OakIntSerializer(VALUE_SIZE_AFTER_SERIALIZATION))
+                .setMemoryCapacity(blockSize * 2L)
+                .buildOrderedMap();
+        oak.zc().put(0, 0);
+        oak.zc().put(1, 1);
+        try {
+            oak.zc().put(2, 2);
+            Assert.fail("The map capacity was exceeded");
+        } catch (OakOutOfMemoryException e) {
+            // expected
+        }
+
+        Assert.assertTrue(oak.setMemoryCapacity(blockSize * 4L));
+        oak.zc().put(2, 2);
+        oak.zc().put(3, 3);
+        Assert.assertEquals(4, oak.size());
+
+        // the map holds more than the new capacity, and no compaction was started to empty blocks
+        Assert.assertFalse(oak.setMemoryCapacity(blockSize * 2L));
+        try {
+            oak.zc().put(4, 4);
+            Assert.fail("The map capacity was exceeded");
+        } catch (OakOutOfMemoryException e) {
+            // expected
+        }
+        for (int i = 0; i < 4; i++) {
+            Assert.assertEquals(Integer.valueOf(i), oak.get(i));
+        }
+    }
+
     @Test
     public void checkOakCapacity() {
         int initBlocks = BlocksPool.getInstance().numOfRemainingBlocks();
@@ -290,18 +934,19 @@ public class NativeMemoryAllocatorTest {
     @Test
     public void checkFreelistOrdering() {
         long capacity = 100;
-        allocator = new NativeMemoryAllocator(capacity);
+        // thread-local allocation buffers are disabled, as the small allocations below would be served from them
+        allocator = new NativeMemoryAllocator(capacity, BlocksPool.getInstance(), 0);
         allocator.collectStats();
 
-        // Order is important here!
-        int[] sizes = new int[]{4 + VALUE_MEMORY_MANAGER.getHeaderSize(),
-            16 + VALUE_MEMORY_MANAGER.getHeaderSize(),
-            8 + VALUE_MEMORY_MANAGER.getHeaderSize(),
-            32 + + VALUE_MEMORY_MANAGER.getHeaderSize()};
+        // Order is important here! The remainders of the splits below are not too short to be kept.
+        int base = SortedFreeList.MIN_RANGE_SIZE + VALUE_MEMORY_MANAGER.getHeaderSize();
+        int[] sizes = new int[]{4 + base, 16 + base, 8 + base, 32 + base};
+        // each allocation is followed by a barrier, so the released allocations are not coalesced
         List<Slice> allocated = Arrays.stream(sizes)
                 .mapToObj(curSize -> {
                     Slice s = VALUE_MEMORY_MANAGER.getEmptySlice();
                     allocator.allocate(s, curSize);
+                    allocate(allocator, 1);
                     return s;
                 }).collect(Collectors.toList());
         int bytesAllocated = IntStream.of(sizes).sum();
@@ -312,28 +957,120 @@ public class NativeMemoryAllocatorTest {
         Assert.assertEquals(sizes.length, stats.releasedBuffers);
         Assert.assertEquals(bytesAllocated, stats.releasedBytes);
 
-        // Requesting a small buffer should not reclaim existing buffers
-        allocate(allocator, 1);
+        // Requesting a small buffer reclaims the smallest free buffer, which is split
+        BlockAllocationSlice bb = allocate(allocator, 1);
+        Assert.assertEquals(1, bb.getAllocatedLength());
         stats = allocator.getStats();
-        Assert.assertEquals(0, stats.reclaimedBuffers);
+        Assert.assertEquals(1, stats.reclaimedBuffers);
+        Assert.assertEquals(sizes.length, allocator.getFreeListLength());
 
-        // Verify free list ordering
-        BlockAllocationSlice bb = allocate(allocator, 4);
-        Assert.assertEquals(4, ((BlockAllocationSlice) bb).getAllocatedLength());
-        bb = allocate(allocator, 4);
-        Assert.assertEquals(4, ((BlockAllocationSlice) bb).getAllocatedLength());
+        // Verify free list ordering: the remainder of the split is the best fit
+        BlockAllocationSlice bb1 = allocate(allocator, 4);
+        Assert.assertEquals(4, bb1.getAllocatedLength());
+        Assert.assertEquals(bb.getAllocatedOffset() + 1, bb1.getAllocatedOffset());
+        BlockAllocationSlice bb2 = allocate(allocator, 4);
+        Assert.assertEquals(4, bb2.getAllocatedLength());
+        Assert.assertEquals(bb1.getAllocatedOffset() + 4, bb2.getAllocatedOffset());
+
+        bb = allocate(allocator, 8 + base);
+        Assert.assertEquals(8 + base, bb.getAllocatedLength());
+        bb = allocate(allocator, 16 + base);
+        Assert.assertEquals(16 + base, bb.getAllocatedLength());
 
         stats = allocator.getStats();
-        Assert.assertEquals(0, stats.reclaimedBuffers);
-        Assert.assertEquals(0, stats.reclaimedBytes);
+        Assert.assertEquals(5, stats.reclaimedBuffers);
+        Assert.assertEquals(1 + 4 + 4 + (8 + base) + (16 + base), stats.reclaimedBytes);
+        Assert.assertEquals(bytesAllocated - stats.reclaimedBytes, stats.freeBytes);
+    }
 
-        bb = allocate(allocator, 32);
-        Assert.assertEquals(44, bb.getAllocatedLength());
-        bb = allocate(allocator, 16);
-        Assert.assertEquals(16, bb.getAllocatedLength());
+    @Test
+    public void splitAndCoalesce() {
+        // thread-local allocation buffers are disabled, as their tails would be added to the checked free list
+        allocator = new NativeMemoryAllocator(BlocksPool.getInstance().blockSize(), BlocksPool.getInstance(), 0);
+        allocator.collectStats();
+        int bigSize = 1024;
+        int smallSize = 100;
+
+        BlockAllocationSlice big = allocate(allocator, bigSize);
+        BlockAllocationSlice barrier = allocate(allocator, smallSize); // the next allocation is not free
+        allocator.free(big);
+        Assert.assertEquals(0, allocator.getStats().externalFragmentation(), 0);
+
+        // the big free slice is split between the small allocations
+        BlockAllocationSlice[] small = new BlockAllocationSlice[bigSize / smallSize];
+        for (int i = 0; i < small.length; i++) {
+            small[i] = allocate(allocator, smallSize);
+            Assert.assertEquals(big.getAllocatedOffset() + i * smallSize, small[i].getAllocatedOffset());
+        }
+        Assert.assertEquals(1, allocator.getFreeListLength());
 
-        //Assert.assertEquals(sizes.length, stats.reclaimedBuffers);
-        // We lost 4 bytes recycling an 8-byte buffer for a 4-byte allocation
-        //Assert.assertEquals(bytesAllocated - 4, stats.reclaimedBytes);
+        // releasing every second allocation fragments the free memory,
+        // the last allocation is merged with the remainder of the big slice
+        for (int i = 1; i < small.length; i += 2) {
+            allocator.free(small[i]);
+        }
+        int remainder = bigSize - small.length * smallSize;
+        NativeMemoryAllocator.Stats stats = allocator.getStats();
+        Assert.assertEquals(small.length / 2, allocator.getFreeListLength());
+        Assert.assertEquals(smallSize + remainder, stats.largestFreeBytes);
+        Assert.assertEquals(small.length / 2 * smallSize + remainder, stats.freeBytes);
+        Assert.assertTrue(stats.externalFragmentation() > 0.5);
+
+        // a split-off allocation is merged back with its remainder when it is released
+        BlockAllocationSlice s = allocate(allocator, smallSize / 2);
+        Assert.assertEquals(small[1].getAllocatedOffset(), s.getAllocatedOffset());
+        Assert.assertEquals(small.length / 2, allocator.getFreeListLength());
+        allocator.free(s);
+        stats = allocator.getStats();
+        Assert.assertEquals(small.length / 2, allocator.getFreeListLength());
+        Assert.assertEquals(small.length / 2 * smallSize + remainder, stats.freeBytes);
+
+        allocator.free(barrier);
+    }
+
+    @Test
+    public void splitSliverIsDropped() {
+        allocator = new NativeMemoryAllocator(BlocksPool.getInstance().blockSize(), BlocksPool.getInstance(), 0);
+        int size = 128;
+        BlockAllocationSlice s = allocate(allocator, size);
+        allocate(allocator, size); // a barrier
+        allocator.free(s);
+
+        // the remainder of the split is too short for the free list
+        s = allocate(allocator, size - SortedFreeList.MIN_RANGE_SIZE + 1);
+        Assert.assertEquals(0, allocator.getFreeListLength());
+        allocator.free(s);
+        Assert.assertEquals(1, allocator.getFreeListLength());
+    }
+
+    @Test
+    public void releasedNeighboursAreCoalesced() {
+        allocator = new NativeMemoryAllocator(BlocksPool.getInstance().blockSize(), BlocksPool.getInstance(), 0);
+        int size = 128;
+        BlockAllocationSlice left = allocate(allocator, size);
+        BlockAllocationSlice middle = allocate(allocator, size);
+        BlockAllocationSlice right = allocate(allocator, size);
+        allocate(allocator, size); // a barrier
+        long coalescings = allocator.coalescings();
+
+        allocator.free(left);
+        allocator.free(right);
+        Assert.assertEquals(2, allocator.getFreeListLength());
+        Assert.assertEquals(coalescings, allocator.coalescings());
+
+        // the released middle is coalesced with both its neighbours, in the order of their offsets
+        allocator.enterRead();
+        allocator.free(middle);
+        Assert.assertEquals(1, allocator.getFreeListLength());
+        Assert.assertEquals(coalescings + 2, allocator.coalescings());
+
+        // this thread may still inspect the headers of the released neighbours, so the coalesced range is not reused
+        BlockAllocationSlice s = allocate(allocator, size * 3);
+        Assert.assertNotEquals(left.getAllocatedOffset(), s.getAllocatedOffset());
+        allocator.free(s);
+        allocator.exitRead();
+
+        s = allocate(allocator, size * 3);
+        Assert.assertEquals(left.getAllocatedOffset(), s.getAllocatedOffset());
     }
 }
@@ -58,6 +58,31 @@ public class OakUnsafeDirectBufferTest {
                 ((OakUnsafeDirectBuffer) buf).getByteBuffer().isReadOnly()));
     }
 
+    @Test
+    public void recycledScopedWriteBufferShouldBeDisabledOutsideItsScope() {
+        ScopedWriteBuffer writeBuffer = new ScopedWriteBuffer(memoryManager.getEmptySlice());
+        Slice first = memoryManager.getEmptySlice();
+        first.allocate(100, false);
+        Slice second = memoryManager.getEmptySlice();
+        second.allocate(100, false);
+        OakScopedWriteBuffer[] escaped = new OakScopedWriteBuffer[1];
+
+        ScopedWriteBuffer.compute(writeBuffer, first, buf -> {
+            buf.putInt(0, 1);
+            escaped[0] = buf;
+        });
+        ScopedWriteBuffer.compute(writeBuffer, second, buf -> buf.putInt(0, 2));
+        Assert.assertEquals(1, new ScopedReadBuffer(first).getInt(0));
+        Assert.assertEquals(2, new ScopedReadBuffer(second).getInt(0));
+        try {
+            escaped[0].putInt(0, 3);
+            Assert.fail("A scoped buffer was used outside of its scope");
+        } catch (RuntimeException e) {
+            // expected
+        }
+        Assert.assertEquals(2, new ScopedReadBuffer(second).getInt(0));
+    }
+
     @Test
     public void byteBufferFromScopedBufferShouldBeReadOnlyWhenWrappingReadOnlyBuffer() {
         Slice s = memoryManager.getEmptySlice();
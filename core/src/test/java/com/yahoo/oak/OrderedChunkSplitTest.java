@@ -14,7 +14,6 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.lang.reflect.Field;
-import java.util.concurrent.ConcurrentSkipListMap;
 
 public class OrderedChunkSplitTest {
     private static final int MAX_ITEMS_PER_CHUNK = 10;
@@ -51,12 +50,7 @@ public class OrderedChunkSplitTest {
         field.setAccessible(true);
         InternalOakMap<String, String> internalOakMap = (InternalOakMap<String, String>) field.get(oakStr);
 
-        Field skipListField = internalOakMap.getClass().getDeclaredField("skiplist");
-        skipListField.setAccessible(true);
-        ConcurrentSkipListMap<Object, OrderedChunk<String, String>> skipList =
-            (ConcurrentSkipListMap<Object, OrderedChunk<String,
-                        String>>) skipListField.get(internalOakMap);
-        Assert.assertTrue(skipList.size() > 1);
+        Assert.assertTrue(internalOakMap.chunkIndex.size() > 1);
     }
 
     @Test
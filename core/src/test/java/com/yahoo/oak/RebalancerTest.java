@@ -0,0 +1,158 @@
+/*
+ * Copyright 2020, Verizon Media.
+ * Licensed under the terms of the Apache 2.0 license.
+ * Please see LICENSE file in the project root for terms.
+ */
+
+package com.yahoo.oak;
+
+import com.yahoo.oak.common.OakCommonBuildersFactory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RebalancerTest {
+    private static final int NUM_OF_ENTRIES = 3000;
+    private static final int NUM_OF_THREADS = 4;
+
+    private OakMap<Integer, Integer> oak;
+
+    @After
+    public void tearDown() {
+        if (oak != null) {
+            oak.close();
+        }
+        BlocksPool.clear();
+    }
+
+    private static InternalOakMap<Integer, Integer> internalOakMap(OakMap<Integer, Integer> map)
+            throws ReflectiveOperationException {
+        Field field = OakMap.class.getDeclaredField("internalOakMap");
+        field.setAccessible(true);
+        return (InternalOakMap<Integer, Integer>) field.get(map);
+    }
+
+    private static int countLiveEntries(InternalOakMap<Integer, Integer> map, OrderedChunk<Integer, Integer> c) {
+        ThreadContext ctx = map.getThreadContext();
+        try {
+            int count = 0;
+            for (int ei = c.getFirstItemEntryIndex(); ei != OrderedChunk.NONE_NEXT; ei = c.getNextItemEntryIndex(ei)) {
+                if (!c.isValueDeleted(ctx.tempValue, ei)) {
+                    count++;
+                }
+            }
+            return count;
+        } finally {
+            map.releaseThreadContext(ctx);
+        }
+    }
+
+    @Test
+    public void concurrentCopy() throws Exception {
+        oak = OakCommonBuildersFactory.getDefaultIntBuilder().buildOrderedMap();
+        for (int i = 0; i < NUM_OF_ENTRIES; i++) {
+            oak.zc().put(i, i);
+        }
+        for (int i = 0; i < NUM_OF_ENTRIES; i += 3) {
+            oak.zc().remove(i);
+        }
+        InternalOakMap<Integer, Integer> internalOakMap = internalOakMap(oak);
+        OrderedChunk<Integer, Integer> chunk = internalOakMap.chunkIndex.first();
+        // enough entries for several tasks of the copy
+        Assert.assertTrue(chunk.getNumOfAllocatedEntries() > 2 * Rebalancer.COPY_TASK_SIZE);
+
+        Rebalancer<Integer, Integer> rebalancer = new Rebalancer<>(chunk).engageChunks();
+        rebalancer.freeze();
+        int live = 0;
+        for (OrderedChunk<Integer, Integer> c : rebalancer.getEngagedChunks()) {
+            live += countLiveEntries(internalOakMap, c);
+        }
+
+        // all the threads share the copy, and only one of them publishes the new chunks
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger published = new AtomicInteger(0);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < NUM_OF_THREADS; t++) {
+            threads.add(new Thread(() -> {
+                ThreadContext ctx = internalOakMap.getThreadContext();
+                try {
+                    start.await();
+                    if (rebalancer.createNewChunks(ctx)) {
+                        published.incrementAndGet();
+                    }
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                } finally {
+                    internalOakMap.releaseThreadContext(ctx);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        start.countDown();
+        for (Thread t : threads) {
+            t.join();
+        }
+        Assert.assertEquals(1, published.get());
+
+        // the removed entries are not copied
+        int copied = 0;
+        for (OrderedChunk<Integer, Integer> c : rebalancer.getNewChunks()) {
+            copied += c.getNumOfAllocatedEntries();
+        }
+        Assert.assertEquals(live, copied);
+
+        // the next accesses to the frozen chunk complete the rebalance
+        int expected = 1;
+        for (Map.Entry<Integer, Integer> e : oak.entrySet()) {
+            Assert.assertEquals(Integer.valueOf(expected), e.getKey());
+            Assert.assertEquals(Integer.valueOf(expected), e.getValue());
+            expected += (expected % 3 == 1) ? 1 : 2;
+        }
+        Assert.assertEquals(NUM_OF_ENTRIES - (NUM_OF_ENTRIES + 2) / 3, oak.size());
+        for (int i = 0; i < NUM_OF_ENTRIES; i++) {
+            Assert.assertEquals((i % 3 == 0) ? null : Integer.valueOf(i), oak.get(i));
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void failedTaskIsNotAwaited() throws Exception {
+        Rebalancer.Tasks tasks = new Rebalancer.Tasks(2);
+        CountDownLatch claimed = new CountDownLatch(1);
+        CountDownLatch waiting = new CountDownLatch(1);
+        AtomicInteger failures = new AtomicInteger(0);
+        Thread failing = new Thread(() -> {
+            try {
+                tasks.runAll(t -> {
+                    claimed.countDown();
+                    try {
+                        waiting.await();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                    throw new IllegalStateException("task " + t);
+                });
+            } catch (IllegalStateException e) {
+                failures.incrementAndGet();
+            }
+        });
+        failing.start();
+        claimed.await();
+
+        // the other task is done, but the failed one never will be
+        AtomicBoolean done = new AtomicBoolean(true);
+        Thread waiter = new Thread(() -> done.set(tasks.runAll(t -> waiting.countDown())));
+        waiter.start();
+        waiter.join();
+        failing.join();
+        Assert.assertFalse(done.get());
+        Assert.assertEquals(1, failures.get());
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2020, Verizon Media.
+ * Licensed under the terms of the Apache 2.0 license.
+ * Please see LICENSE file in the project root for terms.
+ */
+
+package com.yahoo.oak;
+
+import com.yahoo.oak.common.OakCommonBuildersFactory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+public class ReleaseReclaimerTest {
+    private static final long FLUSH_INTERVAL_MILLIS = 200;
+    private static final long WAIT_MILLIS = 10_000;
+
+    private OakMap<Integer, Integer> oak;
+
+    @After
+    public void tearDown() {
+        if (oak != null) {
+            oak.close();
+        }
+        BlocksPool.clear();
+    }
+
+    private static OakMapBuilder<Integer, Integer> builder(long flushIntervalMillis) {
+        return OakCommonBuildersFactory.getDefaultIntBuilder()
+                .setBackgroundReclamation(flushIntervalMillis);
+    }
+
+    private SyncRecycleMemoryManager valuesMemoryManager() {
+        return (SyncRecycleMemoryManager) oak.getValuesMemoryManager();
+    }
+
+    private static boolean waitFor(LongSupplier value, long expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+        while (value.getAsLong() != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        return value.getAsLong() == expected;
+    }
+
+    private void putAndRemove(int from, int to) {
+        for (int i = from; i < to; i++) {
+            oak.zc().put(i, i);
+        }
+        for (int i = from; i < to; i++) {
+            oak.zc().remove(i);
+        }
+    }
+
+    @Test
+    public void releasingThreadsFreeByDefault() {
+        oak = builder(0).buildOrderedMap();
+        int numOfRemoved = SyncRecycleMemoryManager.RELEASE_LIST_LIMIT / 2;
+        putAndRemove(0, numOfRemoved);
+        // a list that is not full is not freed
+        Assert.assertTrue(oak.pendingReleaseMemorySize() >= (long) numOfRemoved * Integer.BYTES);
+        Assert.assertEquals(0, valuesMemoryManager().getReclaims());
+
+        putAndRemove(numOfRemoved, SyncRecycleMemoryManager.RELEASE_LIST_LIMIT);
+        Assert.assertEquals(0, oak.pendingReleaseMemorySize());
+        Assert.assertEquals(1, valuesMemoryManager().getReclaims());
+    }
+
+    @Test(timeout = 60000)
+    public void partialListsAreFlushed() throws InterruptedException {
+        oak = builder(FLUSH_INTERVAL_MILLIS).buildOrderedMap();
+        putAndRemove(0, 100);
+        Assert.assertTrue(oak.pendingReleaseMemorySize() > 0);
+
+        Assert.assertTrue(waitFor(valuesMemoryManager()::getReclaims, 1));
+        Assert.assertEquals(0, oak.pendingReleaseMemorySize());
+        // the list was freed only after its first value waited for the flush interval
+        Assert.assertTrue(oak.maxReclaimLatencyNanos() >= TimeUnit.MILLISECONDS.toNanos(FLUSH_INTERVAL_MILLIS));
+        for (int i = 0; i < 100; i++) {
+            Assert.assertNull(oak.get(i));
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void fullListsAreFreedInBackground() throws InterruptedException {
+        // the partial lists are not flushed during the test
+        oak = builder(TimeUnit.HOURS.toMillis(1)).buildOrderedMap();
+        putAndRemove(0, SyncRecycleMemoryManager.RELEASE_LIST_LIMIT);
+        Assert.assertTrue(waitFor(valuesMemoryManager()::getReclaims, 1));
+        Assert.assertEquals(0, oak.pendingReleaseMemorySize());
+        Assert.assertTrue(oak.maxReclaimLatencyNanos() > 0);
+
+        // the freed memory is reused
+        long allocated = oak.memorySize();
+        putAndRemove(0, SyncRecycleMemoryManager.RELEASE_LIST_LIMIT);
+        Assert.assertTrue(waitFor(valuesMemoryManager()::getReclaims, 2));
+        Assert.assertTrue(oak.memorySize() <= allocated);
+    }
+
+    @Test(timeout = 120000)
+    public void concurrentPutRemove() throws InterruptedException {
+        final int numOfThreads = 4;
+        final int keysPerThread = 10_000;
+        oak = builder(1).buildOrderedMap();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < numOfThreads; t++) {
+            final int first = t * keysPerThread;
+            threads.add(new Thread(() -> {
+                for (int j = 0; j < 5; j++) {
+                    for (int i = first; i < first + keysPerThread; i++) {
+                        oak.zc().put(i, i + j);
+                    }
+                    for (int i = first; i < first + keysPerThread; i += 2) {
+                        oak.zc().remove(i);
+                    }
+                }
+            }));
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        for (int i = 0; i < numOfThreads * keysPerThread; i++) {
+            Assert.assertEquals((i % 2 == 0) ? null : Integer.valueOf(i + 4), oak.get(i));
+        }
+        // the lists of the finished threads are flushed as well
+        Assert.assertTrue(waitFor(oak::pendingReleaseMemorySize, 0));
+    }
+
+    @Test(timeout = 60000)
+    public void failedReclamationsAreCounted() throws Exception {
+        oak = builder(TimeUnit.HOURS.toMillis(1)).buildOrderedMap();
+        Field field = SyncRecycleMemoryManager.class.getDeclaredField("reclaimer");
+        field.setAccessible(true);
+        ReleaseReclaimer reclaimer = (ReleaseReclaimer) field.get(valuesMemoryManager());
+        List<Throwable> reported = Collections.synchronizedList(new ArrayList<>());
+        Thread.UncaughtExceptionHandler defaultHandler = Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler((t, e) -> reported.add(e));
+        try {
+            // the reclamation of a missing list fails
+            reclaimer.submit(null);
+            Assert.assertTrue(waitFor(oak::failedReclamations, 1));
+            Assert.assertTrue(waitFor(reported::size, 1));
+        } finally {
+            Thread.setDefaultUncaughtExceptionHandler(defaultHandler);
+        }
+        Assert.assertTrue(reported.get(0) instanceof NullPointerException);
+
+        // the background thread goes on reclaiming the full lists
+        putAndRemove(0, SyncRecycleMemoryManager.RELEASE_LIST_LIMIT);
+        Assert.assertTrue(waitFor(valuesMemoryManager()::getReclaims, 1));
+        Assert.assertEquals(1, oak.failedReclamations());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void notSupportedByEpochReclamation() {
+        oak = builder(FLUSH_INTERVAL_MILLIS)
+                .setValuesMemoryManager(MemoryManagerType.EPOCH_RECLAMATION)
+                .buildOrderedMap();
+    }
+}
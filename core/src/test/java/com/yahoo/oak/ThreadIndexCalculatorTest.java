@@ -6,6 +6,7 @@
 
 package com.yahoo.oak;
 
+import com.yahoo.oak.common.OakCommonBuildersFactory;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -15,24 +16,24 @@ import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.CountDownLatch;
 
 public class ThreadIndexCalculatorTest {
-
+    private static final int NUM_THREADS = ThreadIndexCalculator.INITIAL_RECLAIM_SIZE;
 
     @Test
     public void testReuseIndices() throws InterruptedException {
 
-        Thread[] threads = new Thread[ThreadIndexCalculator.MAX_THREADS];
-        Thread[] threadsSecondBatch = new Thread[ThreadIndexCalculator.MAX_THREADS];
+        Thread[] threads = new Thread[NUM_THREADS];
+        Thread[] threadsSecondBatch = new Thread[NUM_THREADS];
         CountDownLatch firstRoundLatch = new CountDownLatch(1);
-        CountDownLatch doneFirstRoundLatch = new CountDownLatch(ThreadIndexCalculator.MAX_THREADS);
+        CountDownLatch doneFirstRoundLatch = new CountDownLatch(NUM_THREADS);
         CountDownLatch secondRoundLatch = new CountDownLatch(1);
-        CountDownLatch doneSecondRoundLatch = new CountDownLatch(ThreadIndexCalculator.MAX_THREADS);
+        CountDownLatch doneSecondRoundLatch = new CountDownLatch(NUM_THREADS);
         CountDownLatch firstBatchWait = new CountDownLatch(1);
         CountDownLatch firstBatchRelease = new CountDownLatch(1);
 
         ThreadIndexCalculator indexCalculator = ThreadIndexCalculator.newInstance();
         ConcurrentSkipListSet<Integer> uniqueIndices = new ConcurrentSkipListSet<>();
 
-        for (int i = 0; i < ThreadIndexCalculator.MAX_THREADS; ++i) {
+        for (int i = 0; i < NUM_THREADS; ++i) {
 
             Thread thread = new Thread(() -> {
                 try {
@@ -72,18 +73,18 @@ public class ThreadIndexCalculatorTest {
 
         firstRoundLatch.countDown();
         doneFirstRoundLatch.await();
-        Assert.assertEquals(ThreadIndexCalculator.MAX_THREADS, uniqueIndices.size());
+        Assert.assertEquals(NUM_THREADS, uniqueIndices.size());
         uniqueIndices.clear();
 
         secondRoundLatch.countDown();
         doneSecondRoundLatch.await();
-        Assert.assertEquals(ThreadIndexCalculator.MAX_THREADS, uniqueIndices.size());
+        Assert.assertEquals(NUM_THREADS, uniqueIndices.size());
         uniqueIndices.clear();
         firstBatchRelease.countDown();
 
         CountDownLatch secondBatchStart = new CountDownLatch(1);
-        CountDownLatch doneSecondBatch = new CountDownLatch(ThreadIndexCalculator.MAX_THREADS);
-        for (int i = 0; i < ThreadIndexCalculator.MAX_THREADS; ++i) {
+        CountDownLatch doneSecondBatch = new CountDownLatch(NUM_THREADS);
+        for (int i = 0; i < NUM_THREADS; ++i) {
 
             Thread thread = new Thread(() -> {
                 try {
@@ -102,11 +103,11 @@ public class ThreadIndexCalculatorTest {
 
         secondBatchStart.countDown();
         doneSecondBatch.await();
-        Assert.assertEquals(ThreadIndexCalculator.MAX_THREADS, uniqueIndices.size());
+        Assert.assertEquals(NUM_THREADS, uniqueIndices.size());
 
 
         firstBatchWait.countDown();
-        for (int i = 0; i < ThreadIndexCalculator.MAX_THREADS; i++) {
+        for (int i = 0; i < NUM_THREADS; i++) {
             threads[i].join();
             threadsSecondBatch[i].join();
         }
@@ -115,14 +116,14 @@ public class ThreadIndexCalculatorTest {
     @Test(timeout = 10000)
     public void testThreadIDCollision() throws InterruptedException {
         CountDownLatch threadsStart = new CountDownLatch(1);
-        CountDownLatch threadsFinished = new CountDownLatch(ThreadIndexCalculator.MAX_THREADS);
+        CountDownLatch threadsFinished = new CountDownLatch(NUM_THREADS);
 
         ThreadIndexCalculator indexCalculator = ThreadIndexCalculator.newInstance();
         ConcurrentSkipListSet<Integer> uniqueIndices = new ConcurrentSkipListSet<>();
 
-        List<Thread> threads = new ArrayList<>(ThreadIndexCalculator.MAX_THREADS);
+        List<Thread> threads = new ArrayList<>(NUM_THREADS);
 
-        while (threads.size() < ThreadIndexCalculator.MAX_THREADS) {
+        while (threads.size() < NUM_THREADS) {
 
             Thread thread = new Thread(() -> {
                 try {
@@ -135,7 +136,7 @@ public class ThreadIndexCalculatorTest {
                 uniqueIndices.add(index);
                 threadsFinished.countDown();
             });
-            if (thread.getId() % ThreadIndexCalculator.MAX_THREADS == 0) {
+            if (thread.getId() % NUM_THREADS == 0) {
                 threads.add(thread);
                 thread.start();
             }
@@ -143,7 +144,108 @@ public class ThreadIndexCalculatorTest {
 
         threadsStart.countDown();
         threadsFinished.await();
-        Assert.assertEquals(ThreadIndexCalculator.MAX_THREADS, uniqueIndices.size());
+        Assert.assertEquals(NUM_THREADS, uniqueIndices.size());
+    }
+
+    @Test(timeout = 30000)
+    public void testMoreThreadsThanInitialSize() throws InterruptedException {
+        int numThreads = NUM_THREADS * 8;
+        CountDownLatch threadsStart = new CountDownLatch(1);
+        CountDownLatch threadsFinished = new CountDownLatch(numThreads);
+        CountDownLatch threadsRelease = new CountDownLatch(1);
+
+        ThreadIndexCalculator indexCalculator = ThreadIndexCalculator.newInstance();
+        ConcurrentSkipListSet<Integer> uniqueIndices = new ConcurrentSkipListSet<>();
+        List<Thread> threads = new ArrayList<>(numThreads);
+
+        for (int i = 0; i < numThreads; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    threadsStart.await();
+                    uniqueIndices.add(indexCalculator.getIndex());
+                    threadsFinished.countDown();
+                    // keep the index until all the threads got theirs
+                    threadsRelease.await();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        threadsStart.countDown();
+        threadsFinished.await();
+        threadsRelease.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(numThreads, uniqueIndices.size());
+        Assert.assertEquals(numThreads - 1, uniqueIndices.last().intValue());
     }
 
+    @Test(timeout = 60000)
+    public void testIndicesOfDeadThreadsAreReused() throws InterruptedException {
+        int numThreads = 10_000;
+        int concurrentThreads = NUM_THREADS / 4;
+        ThreadIndexCalculator indexCalculator = ThreadIndexCalculator.newInstance();
+
+        Thread[] batch = new Thread[concurrentThreads];
+        for (int i = 0; i < numThreads; i += concurrentThreads) {
+            for (int j = 0; j < concurrentThreads; j++) {
+                batch[j] = new Thread(indexCalculator::getIndex);
+                batch[j].start();
+            }
+            for (Thread thread : batch) {
+                thread.join();
+            }
+        }
+        // the indices are bounded by the number of live threads, and not by the total number of threads
+        Assert.assertTrue(indexCalculator.size() <= NUM_THREADS * 2);
+    }
+
+    @Test(timeout = 60000)
+    public void testMoreThreadsThanInitialSizeOnMap() throws InterruptedException {
+        int numThreads = NUM_THREADS * 2;
+        int numOfKeys = 100;
+        OakMap<Integer, Integer> oak = OakCommonBuildersFactory.getDefaultIntBuilder()
+                .setValuesMemoryManager(MemoryManagerType.EPOCH_RECLAMATION)
+                .buildOrderedMap();
+        try {
+            CountDownLatch threadsStart = new CountDownLatch(1);
+            ConcurrentSkipListSet<Integer> failed = new ConcurrentSkipListSet<>();
+            List<Thread> threads = new ArrayList<>(numThreads);
+            for (int i = 0; i < numThreads; i++) {
+                final int id = i;
+                Thread thread = new Thread(() -> {
+                    try {
+                        threadsStart.await();
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                    // every thread updates its own keys, so its index is used by the (growing) per-thread data
+                    for (int j = 0; j < 2 * numOfKeys; j++) {
+                        int key = id * numOfKeys + j % numOfKeys;
+                        oak.zc().put(key, j);
+                        Integer value = oak.get(key);
+                        if (value == null || value != j) {
+                            failed.add(id);
+                        }
+                        if (j % 2 == 0) {
+                            oak.zc().remove(key);
+                        }
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+            }
+            threadsStart.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            Assert.assertTrue(failed.isEmpty());
+        } finally {
+            oak.close();
+        }
+    }
 }
@@ -231,4 +231,120 @@ public class ValueUtilsSimpleTest {
         s.associateMMAllocation(2, -1);
         Assert.assertEquals(ValueUtils.ValueResult.RETRY, s.logicalDelete());
     }
+
+    @Test
+    public void testOptimisticReadDoesNotWriteHeader() {
+        long header = DirectUtils.getLong(s.getMetadataAddress());
+        Assert.assertEquals(ValueUtils.ValueResult.TRUE, s.preOptimisticRead());
+        Assert.assertEquals(header, DirectUtils.getLong(s.getMetadataAddress()));
+        Assert.assertTrue(s.postOptimisticRead());
+        Assert.assertEquals(header, DirectUtils.getLong(s.getMetadataAddress()));
+    }
+
+    @Test
+    public void testOptimisticReadInvalidatedByWrite() {
+        Assert.assertEquals(ValueUtils.ValueResult.TRUE, s.preOptimisticRead());
+        // read locks do not invalidate optimistic reads
+        Assert.assertEquals(ValueUtils.ValueResult.TRUE, s.preRead());
+        s.postRead();
+        Assert.assertTrue(s.postOptimisticRead());
+
+        Assert.assertEquals(ValueUtils.ValueResult.TRUE, s.preOptimisticRead());
+        Assert.assertEquals(ValueUtils.ValueResult.TRUE, s.preWrite());
+        s.postWrite();
+        Assert.assertFalse(s.postOptimisticRead());
+        // the write lock can be taken again after the write sequence was increased
+        Assert.assertEquals(ValueUtils.ValueResult.TRUE, s.preWrite());
+        s.postWrite();
+        Assert.assertEquals(ValueUtils.ValueResult.TRUE, s.preOptimisticRead());
+        Assert.assertTrue(s.postOptimisticRead());
+    }
+
+    @Test
+    public void testOptimisticReadInvalidatedByWrappingWrites() {
+        // enough writes to wrap around the part of the write sequence that is kept in the lock
+        final int numOfWrites = 1 << 15;
+        Assert.assertEquals(ValueUtils.ValueResult.TRUE, s.preOptimisticRead());
+        for (int i = 0; i < numOfWrites; i++) {
+            Assert.assertEquals(ValueUtils.ValueResult.TRUE, s.preWrite());
+            s.postWrite();
+        }
+        Assert.assertFalse(s.postOptimisticRead());
+        Assert.assertEquals(ValueUtils.ValueResult.TRUE, s.preRead());
+        s.postRead();
+        Assert.assertEquals(ValueUtils.ValueResult.TRUE, s.preOptimisticRead());
+        Assert.assertTrue(s.postOptimisticRead());
+    }
+
+    @Test
+    public void testTransformIsAppliedOnceToValidatedCopy() {
+        long header = DirectUtils.getLong(s.getMetadataAddress());
+        AtomicInteger applied = new AtomicInteger(0);
+        Result result = new ValueUtils().transform(new Result(), new ValueBuffer(s), new ScratchReadBuffer(),
+                buffer -> {
+                    applied.incrementAndGet();
+                    // the read does not lock the value, so it does not write to the header
+                    Assert.assertEquals(header, DirectUtils.getLong(s.getMetadataAddress()));
+                    // the transformer reads a validated copy, which a later update of the value does not change
+                    DirectUtils.putInt(s.getAddress(), 2);
+                    return buffer.getInt(0);
+                });
+        Assert.assertEquals(ValueUtils.ValueResult.TRUE, result.operationResult);
+        Assert.assertEquals(1, result.value);
+        Assert.assertEquals(1, applied.get());
+        Assert.assertEquals(header, DirectUtils.getLong(s.getMetadataAddress()));
+    }
+
+    @Test
+    public void testOptimisticReadInvalidatedByDelete() {
+        Assert.assertEquals(ValueUtils.ValueResult.TRUE, s.preOptimisticRead());
+        Assert.assertEquals(ValueUtils.ValueResult.TRUE, s.logicalDelete());
+        Assert.assertFalse(s.postOptimisticRead());
+        Assert.assertEquals(ValueUtils.ValueResult.FALSE, s.preOptimisticRead());
+    }
+
+    @Test
+    public void testCannotReadOptimisticallyDifferentVersion() {
+        s.associateMMAllocation(2, -1);
+        Assert.assertEquals(ValueUtils.ValueResult.RETRY, s.preOptimisticRead());
+    }
+
+    @Test(timeout = 60000)
+    public void testOptimisticReadsAreConsistent() throws InterruptedException {
+        final int numOfWrites = 100000;
+        DirectUtils.putInt(s.getAddress() + Integer.BYTES, 1);
+        AtomicBoolean done = new AtomicBoolean(false);
+        AtomicInteger inconsistentReads = new AtomicInteger(0);
+        Thread writer = new Thread(() -> {
+            for (int i = 2; i < numOfWrites; i++) {
+                Assert.assertEquals(ValueUtils.ValueResult.TRUE, s.preWrite());
+                DirectUtils.putInt(s.getAddress(), i);
+                DirectUtils.putInt(s.getAddress() + Integer.BYTES, i);
+                s.postWrite();
+            }
+            done.set(true);
+        });
+        Thread[] readers = new Thread[2];
+        for (int t = 0; t < readers.length; t++) {
+            // the slices of the readers hold their own read stamps
+            BlockAllocationSlice readerSlice = s.duplicate();
+            readers[t] = new Thread(() -> {
+                while (!done.get()) {
+                    Assert.assertEquals(ValueUtils.ValueResult.TRUE, readerSlice.preOptimisticRead());
+                    int first = DirectUtils.getInt(readerSlice.getAddress());
+                    int second = DirectUtils.getInt(readerSlice.getAddress() + Integer.BYTES);
+                    if (readerSlice.postOptimisticRead() && first != second) {
+                        inconsistentReads.incrementAndGet();
+                    }
+                }
+            });
+            readers[t].start();
+        }
+        writer.start();
+        writer.join();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        Assert.assertEquals(0, inconsistentReads.get());
+    }
 }
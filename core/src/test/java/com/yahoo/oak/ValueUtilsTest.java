@@ -55,7 +55,7 @@ public class ValueUtilsTest {
         putInt(4, 20);
         putInt(8, 30);
 
-        Result result = valueOperator.transform(new Result(), s, byteBuffer -> byteBuffer.getInt(0)
+        Result result = valueOperator.transform(new Result(), s, ctx.valueCopy, byteBuffer -> byteBuffer.getInt(0)
                 + byteBuffer.getInt(4) + byteBuffer.getInt(8));
         Assert.assertEquals(ValueUtils.ValueResult.TRUE, result.operationResult);
         Assert.assertEquals(60, ((Integer) result.value).intValue());
@@ -63,12 +63,12 @@ public class ValueUtilsTest {
 
     @Test(expected = IndexOutOfBoundsException.class)
     public void transformUpperBoundTest() {
-        valueOperator.transform(new Result(), s, byteBuffer -> byteBuffer.getInt(12));
+        valueOperator.transform(new Result(), s, ctx.valueCopy, byteBuffer -> byteBuffer.getInt(12));
     }
 
     @Test(expected = IndexOutOfBoundsException.class)
     public void transformLowerBoundTest() {
-        valueOperator.transform(new Result(), s, byteBuffer -> byteBuffer.getInt(-4));
+        valueOperator.transform(new Result(), s, ctx.valueCopy, byteBuffer -> byteBuffer.getInt(-4));
     }
 
     @Test(timeout = 5000)
@@ -82,7 +82,8 @@ public class ValueUtilsTest {
             } catch (InterruptedException | BrokenBarrierException e) {
                 e.printStackTrace();
             }
-            Result result = valueOperator.transform(new Result(), s, byteBuffer -> byteBuffer.getInt(4));
+            Result result = valueOperator.transform(new Result(), s, new ScratchReadBuffer(),
+                    byteBuffer -> byteBuffer.getInt(4));
             Assert.assertEquals(ValueUtils.ValueResult.TRUE, result.operationResult);
             Assert.assertEquals(randomValue, ((Integer) result.value).intValue());
         });
@@ -115,7 +116,8 @@ public class ValueUtilsTest {
                     e.printStackTrace();
                 }
                 int index = new Random().nextInt(3) * 4;
-                Result result = valueOperator.transform(new Result(), s, byteBuffer -> byteBuffer.getInt(index));
+                Result result = valueOperator.transform(new Result(), s, new ScratchReadBuffer(),
+                        byteBuffer -> byteBuffer.getInt(index));
                 Assert.assertEquals(ValueUtils.ValueResult.TRUE, result.operationResult);
                 Assert.assertEquals(10 + index, ((Integer) result.value).intValue());
             });
@@ -133,14 +135,14 @@ public class ValueUtilsTest {
     @Test
     public void cannotTransformDeletedTest() {
         s.getSlice().logicalDelete();
-        Result result = valueOperator.transform(new Result(), s, byteBuffer -> byteBuffer.getInt(0));
+        Result result = valueOperator.transform(new Result(), s, ctx.valueCopy, byteBuffer -> byteBuffer.getInt(0));
         Assert.assertEquals(ValueUtils.ValueResult.FALSE, result.operationResult);
     }
 
     @Test
     public void cannotTransformedDifferentVersionTest() {
         ((BlockAllocationSlice) s.getSlice()).associateMMAllocation(2, -1);
-        Result result = valueOperator.transform(new Result(), s, byteBuffer -> byteBuffer.getInt(0));
+        Result result = valueOperator.transform(new Result(), s, ctx.valueCopy, byteBuffer -> byteBuffer.getInt(0));
         Assert.assertEquals(ValueUtils.ValueResult.RETRY, result.operationResult);
     }
 